@@ -31,7 +31,6 @@ import org.apache.directory.api.ldap.model.schema.registries.ComparatorRegistry;
 import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
 import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
-import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.FileUtils;
 import org.apache.directory.api.util.exception.Exceptions;
@@ -41,6 +40,7 @@ import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.InstanceLayout;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.schema.SchemaPartition;
+import org.apache.directory.server.core.api.schema.SchemaSnapshotLoader;
 import org.apache.directory.server.core.partition.ldif.LdifPartition;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -175,7 +175,8 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
             // The schema has already been extracted, bypass
         }
 
-        SchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        // Use the binary snapshot of the schema, written again if the LDIF files have changed
+        SchemaLoader loader = new SchemaSnapshotLoader( schemaRepository );
         SchemaManager schemaManager = new DefaultSchemaManager( loader );
 
         // We have to load the schema now, otherwise we won't be able
@@ -199,6 +200,9 @@ public class DefaultDirectoryServiceFactory implements DirectoryServiceFactory
         // Init the LdifPartition
         LdifPartition ldifPartition = new LdifPartition( schemaManager, directoryService.getDnFactory() );
         ldifPartition.setPartitionPath( new File( workingDirectory, "schema" ).toURI() );
+
+        // Read the schema entries from a snapshot, instead of parsing all the LDIF files
+        ldifPartition.setSnapshotEnabled( true );
         SchemaPartition schemaPartition = new SchemaPartition( schemaManager );
         schemaPartition.setWrappedPartition( ldifPartition );
         directoryService.setSchemaPartition( schemaPartition );
@@ -41,6 +41,7 @@ import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.entry.ServerEntryFactory;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.journal.Journal;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -349,6 +350,16 @@ public interface DirectoryService extends ServerEntryFactory
     List<String> getInterceptors( OperationEnum operation );
 
 
+    /**
+     * Returns the pipeline of interceptors to call for an operation. The pipeline
+     * is replaced, not modified, when the interceptors are changed.
+     *
+     * @param operation The operation that the interceptors must implement
+     * @return the pipeline of interceptors for this operation
+     */
+    InterceptorPipeline getInterceptorPipeline( OperationEnum operation );
+
+
     /**
      * Sets the interceptors in the server.
      *
@@ -530,6 +541,21 @@ public interface DirectoryService extends ServerEntryFactory
     void setMaxPDUSize( int maxPDUSize );
 
 
+    /**
+     * @return The maximum estimated size, in bytes, of the entries a sorted search keeps
+     * in memory before writing them in temporary files
+     */
+    long getSortMemoryBudget();
+
+
+    /**
+     * Sets the maximum estimated size of the entries a sorted search keeps in memory
+     * @param sortMemoryBudget A positive number of bytes. A negative or null value
+     * will be transformed to the default budget
+     */
+    void setSortMemoryBudget( long sortMemoryBudget );
+
+
     /**
      * Get an Interceptor instance from its name
      * @param interceptorName The interceptor's name for which we want the instance
@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Helper methods used by the components which keep a binary snapshot of a tree of
+ * LDIF files, and must tell if the snapshot is still valid.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class SnapshotUtils
+{
+    private SnapshotUtils()
+    {
+    }
+
+
+    /**
+     * Computes a checksum of the paths, relative to a base directory, sizes and
+     * modification dates of the files having a given extension. The checksum changes
+     * as soon as one of these files is added, removed or written.
+     *
+     * @param baseDirectory The directory containing the files
+     * @param extension The extension of the files to check, like ".ldif"
+     * @return The checksum
+     * @throws IOException If the directory can't be read
+     */
+    public static long computeTreeChecksum( File baseDirectory, String extension ) throws IOException
+    {
+        Path basePath = baseDirectory.toPath();
+        CRC32 crc = new CRC32();
+
+        try ( Stream<Path> stream = Files.walk( basePath ) )
+        {
+            List<Path> paths = stream.filter( path -> path.toString().endsWith( extension ) )
+                .filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+
+            for ( Path path : paths )
+            {
+                crc.update( Strings.getBytesUtf8( basePath.relativize( path ).toString() ) );
+                crc.update( Strings.getBytesUtf8( Long.toString( Files.size( path ) ) ) );
+                crc.update( Strings.getBytesUtf8( Long.toString( Files.getLastModifiedTime( path ).toMillis() ) ) );
+            }
+        }
+        catch ( UncheckedIOException uioe )
+        {
+            throw uioe.getCause();
+        }
+
+        return crc.getValue();
+    }
+}
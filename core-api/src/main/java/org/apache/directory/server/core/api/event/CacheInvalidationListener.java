@@ -0,0 +1,106 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.event;
+
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A DirectoryListener invalidating a cache of values read from the entries below a
+ * base Dn. The listener is synchronous, so that the cache is up to date when the
+ * operation returns. It's notified of all the changes done on any entry below the base.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class CacheInvalidationListener extends DirectoryListenerAdapter
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( CacheInvalidationListener.class );
+
+    /** The event service the listener is registered on, null if it's not registered */
+    private EventService eventService;
+
+
+    /**
+     * Registers the listener on the entries below a base Dn.
+     *
+     * @param eventService The event service notifying the changes
+     * @param schemaManager The SchemaManager
+     * @param baseDn The Dn of the entries' base
+     * @return <code>false</code> if the listener can't be registered : the cache can't be used
+     */
+    public boolean register( EventService eventService, SchemaManager schemaManager, Dn baseDn )
+    {
+        if ( eventService == null )
+        {
+            return false;
+        }
+
+        NotificationCriteria criteria = new NotificationCriteria( schemaManager );
+        criteria.setBase( baseDn );
+        criteria.setScope( SearchScope.SUBTREE );
+        criteria.setFilter( new PresenceNode( SchemaConstants.OBJECT_CLASS_AT ) );
+        criteria.setEventMask( EventType.ALL_EVENT_TYPES_MASK );
+
+        try
+        {
+            eventService.addListener( this, criteria );
+            this.eventService = eventService;
+
+            return true;
+        }
+        catch ( Exception e )
+        {
+            LOG.warn( "Cannot register the cache listener {} on {}, the cache is disabled", this, baseDn, e );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Removes the listener from the event service it has been registered on, if any.
+     */
+    public void unregister()
+    {
+        if ( eventService != null )
+        {
+            eventService.removeListener( this );
+            eventService = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isSynchronous()
+    {
+        return true;
+    }
+}
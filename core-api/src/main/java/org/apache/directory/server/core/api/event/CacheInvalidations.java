@@ -0,0 +1,79 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.api.event;
+
+
+/**
+ * Counts the invalidations of a cache, so that a value read from the directory while
+ * the cache is invalidated, which may be outdated, is not cached.
+ * <br>
+ * A reader gets the current count with {@link #get()} before reading the value, then
+ * stores it with {@link #runIfUnchanged(long, Runnable)}. The invalidations are done
+ * with {@link #invalidate(Runnable)} : both are serialized, so an invalidation can't
+ * happen between the check and the store.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CacheInvalidations
+{
+    /** The number of invalidations so far */
+    private volatile long count;
+
+
+    /**
+     * @return The number of invalidations so far
+     */
+    public long get()
+    {
+        return count;
+    }
+
+
+    /**
+     * Updates the cache, unless it has been invalidated since the count was read.
+     *
+     * @param readCount The number of invalidations read before reading the cached value
+     * @param update The cache update
+     * @return <code>true</code> if the cache has been updated
+     */
+    public synchronized boolean runIfUnchanged( long readCount, Runnable update )
+    {
+        if ( count != readCount )
+        {
+            return false;
+        }
+
+        update.run();
+
+        return true;
+    }
+
+
+    /**
+     * Invalidates the cache.
+     *
+     * @param invalidation The removal of the invalidated values
+     */
+    public synchronized void invalidate( Runnable invalidation )
+    {
+        count++;
+        invalidation.run();
+    }
+}
@@ -305,14 +305,14 @@ public abstract class BaseInterceptor implements Interceptor
      */
     protected Interceptor getNextInterceptor( OperationContext operationContext )
     {
-        String currentInterceptor = operationContext.getNextInterceptor();
+        Interceptor nextInterceptor = operationContext.nextInterceptor();
 
-        if ( currentInterceptor.equals( "FINAL" ) )
+        if ( nextInterceptor == null )
         {
             return finalInterceptor;
         }
 
-        return directoryService.getInterceptor( currentInterceptor );
+        return nextInterceptor;
     }
 
 
@@ -0,0 +1,147 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.interceptor;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.directory.server.core.api.DirectoryService;
+
+
+/**
+ * The ordered interceptors to call for an operation. A pipeline is immutable : when the
+ * interceptor chain is modified, a new pipeline is built for each operation, so that the
+ * operations being processed keep on using the pipeline they started with.
+ * <br>
+ * The operation contexts walk the pipeline by position, so going from an interceptor to
+ * the next one is an array access.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class InterceptorPipeline
+{
+    /** An empty pipeline */
+    public static final InterceptorPipeline EMPTY = new InterceptorPipeline( new Interceptor[0] );
+
+    /** The interceptors, in calling order */
+    private final Interceptor[] interceptors;
+
+    /** The interceptors' names */
+    private final List<String> names;
+
+
+    /**
+     * Creates a new InterceptorPipeline instance
+     *
+     * @param interceptors The interceptors, in calling order
+     */
+    public InterceptorPipeline( List<Interceptor> interceptors )
+    {
+        this( interceptors.toArray( new Interceptor[interceptors.size()] ) );
+    }
+
+
+    private InterceptorPipeline( Interceptor[] interceptors )
+    {
+        this.interceptors = interceptors;
+        String[] interceptorNames = new String[interceptors.length];
+
+        for ( int i = 0; i < interceptors.length; i++ )
+        {
+            interceptorNames[i] = interceptors[i].getName();
+        }
+
+        names = Collections.unmodifiableList( Arrays.asList( interceptorNames ) );
+    }
+
+
+    /**
+     * Creates a pipeline from the interceptors' names. The names of the unknown
+     * interceptors are ignored.
+     *
+     * @param directoryService The DirectoryService the interceptors are registered in
+     * @param interceptorNames The interceptors' names, in calling order
+     * @return The pipeline
+     */
+    public static InterceptorPipeline fromNames( DirectoryService directoryService, List<String> interceptorNames )
+    {
+        List<Interceptor> interceptors = new ArrayList<>( interceptorNames.size() );
+
+        for ( String name : interceptorNames )
+        {
+            Interceptor interceptor = directoryService.getInterceptor( name );
+
+            if ( interceptor != null )
+            {
+                interceptors.add( interceptor );
+            }
+        }
+
+        return new InterceptorPipeline( interceptors );
+    }
+
+
+    /**
+     * @return The number of interceptors in the pipeline
+     */
+    public int size()
+    {
+        return interceptors.length;
+    }
+
+
+    /**
+     * Gets the interceptor at a given position
+     *
+     * @param position The position in the pipeline
+     * @return The interceptor, or null if the position is after the last interceptor
+     */
+    public Interceptor get( int position )
+    {
+        if ( position < interceptors.length )
+        {
+            return interceptors[position];
+        }
+
+        return null;
+    }
+
+
+    /**
+     * @return The interceptors' names, in calling order. The list can't be modified
+     */
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return names.toString();
+    }
+}
@@ -31,6 +31,8 @@ import org.apache.directory.api.ldap.model.message.Control;
 import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -64,7 +66,10 @@ public abstract class AbstractOperationContext implements OperationContext
     protected Collection<String> byPassed;
 
     /** The interceptors to call for this operation */
-    protected List<String> interceptors;
+    protected InterceptorPipeline interceptors;
+
+    /** The interceptors' names, when set by name and not yet resolved */
+    private List<String> interceptorNames;
 
     /** The current interceptor position */
     protected int currentInterceptor;
@@ -314,7 +319,9 @@ public abstract class AbstractOperationContext implements OperationContext
     @Override
     public final void setInterceptors( List<String> interceptors )
     {
-        this.interceptors = interceptors;
+        // The names are resolved when the pipeline is used, the session may not be set yet
+        this.interceptorNames = interceptors;
+        this.interceptors = null;
     }
 
 
@@ -324,15 +331,63 @@ public abstract class AbstractOperationContext implements OperationContext
     @Override
     public final String getNextInterceptor()
     {
-        if ( currentInterceptor == interceptors.size() )
+        Interceptor interceptor = nextInterceptor();
+
+        if ( interceptor == null )
         {
             return "FINAL";
         }
 
-        String interceptor = interceptors.get( currentInterceptor );
-        currentInterceptor++;
+        return interceptor.getName();
+    }
 
-        return interceptor;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final Interceptor nextInterceptor()
+    {
+        InterceptorPipeline pipeline = getInterceptorPipeline();
+
+        if ( currentInterceptor >= pipeline.size() )
+        {
+            return null;
+        }
+
+        return pipeline.get( currentInterceptor++ );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InterceptorPipeline getInterceptorPipeline()
+    {
+        if ( interceptors == null )
+        {
+            if ( interceptorNames == null )
+            {
+                return InterceptorPipeline.EMPTY;
+            }
+
+            interceptors = InterceptorPipeline.fromNames( session.getDirectoryService(), interceptorNames );
+            interceptorNames = null;
+        }
+
+        return interceptors;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void setInterceptorPipeline( InterceptorPipeline pipeline )
+    {
+        this.interceptors = pipeline;
+        this.interceptorNames = null;
     }
 
 
@@ -29,6 +29,8 @@ import org.apache.directory.api.ldap.model.name.Dn;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 
@@ -233,6 +235,30 @@ public interface OperationContext
     void setInterceptors( List<String> interceptors );
 
 
+    /**
+     * Gets the next interceptor in the pipeline of interceptors. The
+     * position in the pipeline will be incremented.
+     * 
+     * @return The next interceptor from the pipeline, or null if all the
+     * interceptors have been called
+     */
+    Interceptor nextInterceptor();
+
+
+    /**
+     * @return The pipeline of interceptors to go through for an operation
+     */
+    InterceptorPipeline getInterceptorPipeline();
+
+
+    /**
+     * Sets the pipeline of interceptors to go through for an operation
+     * 
+     * @param pipeline The pipeline of interceptors
+     */
+    void setInterceptorPipeline( InterceptorPipeline pipeline );
+
+
     /**
      * Gets the session associated with this operation.
      *
@@ -77,7 +77,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -94,7 +94,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
 
         this.filter = searchRequest.getFilter();
@@ -130,7 +130,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -153,7 +153,7 @@ public class SearchOperationContext extends FilteringOperationContext
 
         if ( session != null )
         {
-            setInterceptors( session.getDirectoryService().getInterceptors( OperationEnum.SEARCH ) );
+            setInterceptorPipeline( session.getDirectoryService().getInterceptorPipeline( OperationEnum.SEARCH ) );
         }
     }
 
@@ -37,6 +37,20 @@ public class PartitionWriteTxn implements PartitionTxn
     }
 
 
+    /**
+     * Waits until the changes of a committed transaction are durable. This method is
+     * called once the write lock has been released, so that a partition can flush the
+     * changes of many operations at once. A thread still holding the write lock gets its
+     * changes flushed right away. By default, the changes are durable as soon as the commit
+     * is done.
+     * 
+     * @throws IOException If the changes could not be flushed
+     */
+    public void awaitDurability() throws IOException
+    {
+    }
+
+
     /**
      * {@inheritDoc}
      */
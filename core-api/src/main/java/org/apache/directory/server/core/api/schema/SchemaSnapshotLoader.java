@@ -0,0 +1,585 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.registries.AbstractSchemaLoader;
+import org.apache.directory.api.ldap.model.schema.registries.DefaultSchema;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.model.schema.registries.SchemaLoader;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.server.core.api.SnapshotUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A SchemaLoader reading the schema from a single binary snapshot file, instead of the
+ * thousands of LDIF files the schema partition is made of.
+ * <br>
+ * The snapshot contains all the schemas' entries, as the {@link LdifSchemaLoader} would
+ * read them. It is only used if the checksum it has been created with matches the
+ * current LDIF files' names, sizes and modification dates, and if its own content is
+ * not corrupted. Otherwise, the schema is read from the LDIF files and the snapshot is
+ * written again, so that the next startup is fast.
+ * <br>
+ * The snapshot is read using a memory mapped file.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SchemaSnapshotLoader extends AbstractSchemaLoader
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( SchemaSnapshotLoader.class );
+
+    /** The extension of the snapshot files */
+    public static final String SNAPSHOT_FILE_EXTN = ".snapshot";
+
+    /** The extension of the schema files */
+    private static final String LDIF_FILE_EXTN = ".ldif";
+
+    /** The first bytes of a snapshot */
+    private static final int MAGIC = 0x41445353;
+
+    /** The version of the snapshot format */
+    private static final int VERSION = 1;
+
+    /** The header size : magic, version, sources checksum, content length and content checksum */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+
+    /** The kinds of SchemaObjects, in snapshot order */
+    private static final int COMPARATORS = 0;
+    private static final int SYNTAX_CHECKERS = 1;
+    private static final int NORMALIZERS = 2;
+    private static final int SYNTAXES = 3;
+    private static final int MATCHING_RULES = 4;
+    private static final int ATTRIBUTE_TYPES = 5;
+    private static final int MATCHING_RULE_USES = 6;
+    private static final int NAME_FORMS = 7;
+    private static final int DIT_CONTENT_RULES = 8;
+    private static final int DIT_STRUCTURE_RULES = 9;
+    private static final int OBJECT_CLASSES = 10;
+    private static final int NB_KINDS = 11;
+
+    /** The directory containing the LDIF files */
+    private final File baseDirectory;
+
+    /** The snapshot file */
+    private final File snapshotFile;
+
+    /** The schemas' entries, by kind, for each schema */
+    private final Map<String, List<List<Entry>>> schemaObjects = new HashMap<>();
+
+    /** Tells if the schema has been read from the snapshot */
+    private boolean fromSnapshot;
+
+
+    /**
+     * An InputStream reading a ByteBuffer
+     */
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+
+        private ByteBufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+
+        @Override
+        public int read( byte[] bytes, int offset, int length )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                return -1;
+            }
+
+            int nbRead = Math.min( length, buffer.remaining() );
+            buffer.get( bytes, offset, nbRead );
+
+            return nbRead;
+        }
+
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+    }
+
+
+    /**
+     * Creates a new SchemaSnapshotLoader instance, using a snapshot stored next to the
+     * LDIF files' directory.
+     *
+     * @param baseDirectory The directory containing the schema LDIF files
+     * @throws LdapException If the LDIF files can't be read
+     * @throws IOException If the LDIF files can't be read
+     */
+    public SchemaSnapshotLoader( File baseDirectory ) throws LdapException, IOException
+    {
+        this( baseDirectory, new File( baseDirectory.getParentFile(), baseDirectory.getName() + SNAPSHOT_FILE_EXTN ) );
+    }
+
+
+    /**
+     * Creates a new SchemaSnapshotLoader instance.
+     *
+     * @param baseDirectory The directory containing the schema LDIF files
+     * @param snapshotFile The snapshot file
+     * @throws LdapException If the LDIF files can't be read
+     * @throws IOException If the LDIF files can't be read
+     */
+    public SchemaSnapshotLoader( File baseDirectory, File snapshotFile ) throws LdapException, IOException
+    {
+        this.baseDirectory = baseDirectory;
+        this.snapshotFile = snapshotFile;
+
+        long checksum = SnapshotUtils.computeTreeChecksum( baseDirectory, LDIF_FILE_EXTN );
+
+        if ( readSnapshot( checksum ) )
+        {
+            fromSnapshot = true;
+            LOG.debug( "Schema read from the snapshot {}", snapshotFile );
+
+            return;
+        }
+
+        schemaMap.clear();
+        schemaObjects.clear();
+        readLdifFiles();
+
+        try
+        {
+            writeSnapshot( checksum );
+        }
+        catch ( IOException ioe )
+        {
+            // Not fatal, the LDIF files will be read on the next startup
+            LOG.warn( "Cannot write the schema snapshot {}", snapshotFile, ioe );
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the schema has been read from the snapshot
+     */
+    public boolean isFromSnapshot()
+    {
+        return fromSnapshot;
+    }
+
+
+    /**
+     * Reads the schema from the snapshot, if it is valid
+     *
+     * @return <code>false</code> if the snapshot does not exist or is not valid
+     */
+    private boolean readSnapshot( long checksum )
+    {
+        if ( !snapshotFile.isFile() || ( snapshotFile.length() < HEADER_SIZE ) )
+        {
+            return false;
+        }
+
+        try ( FileChannel channel = FileChannel.open( snapshotFile.toPath(), StandardOpenOption.READ ) )
+        {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+
+            if ( ( buffer.getInt() != MAGIC ) || ( buffer.getInt() != VERSION ) )
+            {
+                LOG.info( "Ignoring the schema snapshot {} written in another format", snapshotFile );
+
+                return false;
+            }
+
+            if ( buffer.getLong() != checksum )
+            {
+                LOG.info( "The schema snapshot {} is stale", snapshotFile );
+
+                return false;
+            }
+
+            int length = buffer.getInt();
+            long contentChecksum = buffer.getLong();
+
+            if ( length != buffer.remaining() )
+            {
+                LOG.warn( "The schema snapshot {} is truncated", snapshotFile );
+
+                return false;
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update( buffer.duplicate() );
+
+            if ( crc.getValue() != contentChecksum )
+            {
+                LOG.warn( "The schema snapshot {} is corrupted", snapshotFile );
+
+                return false;
+            }
+
+            try ( ObjectInputStream in = new ObjectInputStream( new ByteBufferInputStream( buffer ) ) )
+            {
+                int nbSchemas = in.readInt();
+
+                for ( int i = 0; i < nbSchemas; i++ )
+                {
+                    String name = in.readUTF();
+                    String owner = in.readUTF();
+                    String[] dependencies = new String[in.readInt()];
+
+                    for ( int j = 0; j < dependencies.length; j++ )
+                    {
+                        dependencies[j] = in.readUTF();
+                    }
+
+                    boolean disabled = in.readBoolean();
+                    List<List<Entry>> entries = new ArrayList<>( NB_KINDS );
+
+                    for ( int kind = 0; kind < NB_KINDS; kind++ )
+                    {
+                        int nbEntries = in.readInt();
+                        List<Entry> kindEntries = new ArrayList<>( nbEntries );
+
+                        for ( int j = 0; j < nbEntries; j++ )
+                        {
+                            Entry entry = new DefaultEntry();
+                            entry.readExternal( in );
+                            kindEntries.add( entry );
+                        }
+
+                        entries.add( kindEntries );
+                    }
+
+                    schemaMap.put( name, new DefaultSchema( this, name, owner, dependencies, disabled ) );
+                    schemaObjects.put( name, entries );
+                }
+            }
+
+            return true;
+        }
+        catch ( IOException | ClassNotFoundException | RuntimeException e )
+        {
+            LOG.warn( "Cannot read the schema snapshot {}", snapshotFile, e );
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Reads the schema from the LDIF files
+     */
+    private void readLdifFiles() throws LdapException, IOException
+    {
+        SchemaLoader ldifLoader = new LdifSchemaLoader( baseDirectory );
+
+        for ( Schema schema : ldifLoader.getAllSchemas() )
+        {
+            List<List<Entry>> entries = new ArrayList<>( NB_KINDS );
+
+            for ( int kind = 0; kind < NB_KINDS; kind++ )
+            {
+                entries.add( readLdifFiles( ldifLoader, kind, schema ) );
+            }
+
+            String name = schema.getSchemaName();
+            schemaMap.put( name, new DefaultSchema( this, name, schema.getOwner(), schema.getDependencies(),
+                schema.isDisabled() ) );
+            schemaObjects.put( name, entries );
+        }
+    }
+
+
+    /**
+     * Reads the LDIF files of a kind of SchemaObject
+     */
+    private List<Entry> readLdifFiles( SchemaLoader ldifLoader, int kind, Schema schema )
+        throws LdapException, IOException
+    {
+        switch ( kind )
+        {
+            case COMPARATORS:
+                return ldifLoader.loadComparators( schema );
+
+            case SYNTAX_CHECKERS:
+                return ldifLoader.loadSyntaxCheckers( schema );
+
+            case NORMALIZERS:
+                return ldifLoader.loadNormalizers( schema );
+
+            case SYNTAXES:
+                return ldifLoader.loadSyntaxes( schema );
+
+            case MATCHING_RULES:
+                return ldifLoader.loadMatchingRules( schema );
+
+            case ATTRIBUTE_TYPES:
+                return ldifLoader.loadAttributeTypes( schema );
+
+            case MATCHING_RULE_USES:
+                return ldifLoader.loadMatchingRuleUses( schema );
+
+            case NAME_FORMS:
+                return ldifLoader.loadNameForms( schema );
+
+            case DIT_CONTENT_RULES:
+                return ldifLoader.loadDitContentRules( schema );
+
+            case DIT_STRUCTURE_RULES:
+                return ldifLoader.loadDitStructureRules( schema );
+
+            default:
+                return ldifLoader.loadObjectClasses( schema );
+        }
+    }
+
+
+    /**
+     * Writes the snapshot, in a temporary file renamed when complete
+     */
+    private void writeSnapshot( long checksum ) throws IOException
+    {
+        ByteArrayOutputStream content = new ByteArrayOutputStream( 1024 * 1024 );
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( content ) )
+        {
+            out.writeInt( schemaMap.size() );
+
+            for ( Schema schema : schemaMap.values() )
+            {
+                out.writeUTF( schema.getSchemaName() );
+                out.writeUTF( schema.getOwner() );
+                String[] dependencies = schema.getDependencies();
+                out.writeInt( dependencies.length );
+
+                for ( String dependency : dependencies )
+                {
+                    out.writeUTF( dependency );
+                }
+
+                out.writeBoolean( schema.isDisabled() );
+
+                for ( List<Entry> entries : schemaObjects.get( schema.getSchemaName() ) )
+                {
+                    out.writeInt( entries.size() );
+
+                    for ( Entry entry : entries )
+                    {
+                        entry.writeExternal( out );
+                    }
+                }
+            }
+        }
+
+        byte[] bytes = content.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update( bytes );
+
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+
+        try ( DataOutputStream out = new DataOutputStream( new FileOutputStream( tmpFile ) ) )
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( checksum );
+            out.writeInt( bytes.length );
+            out.writeLong( crc.getValue() );
+            out.write( bytes );
+        }
+
+        Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    /**
+     * Gets copies of the entries of a kind of SchemaObject, for some schemas
+     */
+    private List<Entry> load( int kind, Schema... schemas )
+    {
+        List<Entry> entries = new ArrayList<>();
+
+        if ( schemas == null )
+        {
+            return entries;
+        }
+
+        for ( Schema schema : schemas )
+        {
+            List<List<Entry>> schemaEntries = schemaObjects.get( schema.getSchemaName() );
+
+            if ( schemaEntries != null )
+            {
+                for ( Entry entry : schemaEntries.get( kind ) )
+                {
+                    entries.add( entry.clone() );
+                }
+            }
+        }
+
+        return entries;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadComparators( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( COMPARATORS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxCheckers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( SYNTAX_CHECKERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNormalizers( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( NORMALIZERS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadSyntaxes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( SYNTAXES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( MATCHING_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadAttributeTypes( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( ATTRIBUTE_TYPES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadMatchingRuleUses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( MATCHING_RULE_USES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadNameForms( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( NAME_FORMS, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitContentRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( DIT_CONTENT_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadDitStructureRules( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( DIT_STRUCTURE_RULES, schemas );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Entry> loadObjectClasses( Schema... schemas ) throws LdapException, IOException
+    {
+        return load( OBJECT_CLASSES, schemas );
+    }
+}
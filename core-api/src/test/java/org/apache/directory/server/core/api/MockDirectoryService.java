@@ -44,6 +44,7 @@ import org.apache.directory.server.core.api.administrative.TriggerExecutionAdmin
 import org.apache.directory.server.core.api.changelog.ChangeLog;
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.journal.Journal;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionNexus;
@@ -438,6 +439,18 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    public long getSortMemoryBudget()
+    {
+        return Long.MAX_VALUE;
+    }
+
+
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+        // Do nothing
+    }
+
+
     public Interceptor getInterceptor( String interceptorName )
     {
         return null;
@@ -581,6 +594,13 @@ public class MockDirectoryService implements DirectoryService
     }
 
 
+    @Override
+    public InterceptorPipeline getInterceptorPipeline( OperationEnum operation )
+    {
+        return InterceptorPipeline.EMPTY;
+    }
+
+
     @Override
     public void addFirst( Interceptor interceptor ) throws LdapException
     {
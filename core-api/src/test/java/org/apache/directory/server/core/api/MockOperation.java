@@ -33,6 +33,8 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.ReferralHandlingMode;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursorImpl;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.OperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
@@ -231,6 +233,26 @@ public class MockOperation implements OperationContext
     }
 
 
+    @Override
+    public Interceptor nextInterceptor()
+    {
+        return null;
+    }
+
+
+    @Override
+    public InterceptorPipeline getInterceptorPipeline()
+    {
+        return InterceptorPipeline.EMPTY;
+    }
+
+
+    @Override
+    public void setInterceptorPipeline( InterceptorPipeline pipeline )
+    {
+    }
+
+
     @Override
     public int getCurrentInterceptor()
     {
@@ -0,0 +1,167 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.api.schema;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.registries.Schema;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the {@link SchemaSnapshotLoader} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SchemaSnapshotLoaderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File schemaDirectory;
+
+    private File snapshotFile;
+
+
+    @Before
+    public void extractSchema() throws Exception
+    {
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( folder.getRoot() );
+        extractor.extractOrCopy();
+        schemaDirectory = new File( folder.getRoot(), "schema" );
+        snapshotFile = new File( folder.getRoot(), "schema" + SchemaSnapshotLoader.SNAPSHOT_FILE_EXTN );
+    }
+
+
+    private SchemaManager loadAllEnabled( SchemaSnapshotLoader loader ) throws Exception
+    {
+        SchemaManager schemaManager = new DefaultSchemaManager( loader.getAllSchemas() );
+
+        assertTrue( schemaManager.getErrors().toString(), schemaManager.loadAllEnabled() );
+
+        return schemaManager;
+    }
+
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception
+    {
+        SchemaSnapshotLoader loader = new SchemaSnapshotLoader( schemaDirectory );
+
+        assertFalse( loader.isFromSnapshot() );
+        assertTrue( snapshotFile.exists() );
+
+        SchemaSnapshotLoader snapshotLoader = new SchemaSnapshotLoader( schemaDirectory );
+
+        assertTrue( snapshotLoader.isFromSnapshot() );
+
+        // The snapshot loads the same registries as the LDIF files
+        LdifSchemaLoader ldifLoader = new LdifSchemaLoader( schemaDirectory );
+        SchemaManager expected = new DefaultSchemaManager( ldifLoader.getAllSchemas() );
+        expected.loadAllEnabled();
+        SchemaManager schemaManager = loadAllEnabled( snapshotLoader );
+
+        assertEquals( ldifLoader.getAllSchemas().size(), snapshotLoader.getAllSchemas().size() );
+        assertEquals( expected.getAttributeTypeRegistry().size(), schemaManager.getAttributeTypeRegistry().size() );
+        assertEquals( expected.getObjectClassRegistry().size(), schemaManager.getObjectClassRegistry().size() );
+        assertEquals( expected.getMatchingRuleRegistry().size(), schemaManager.getMatchingRuleRegistry().size() );
+        assertEquals( expected.getComparatorRegistry().size(), schemaManager.getComparatorRegistry().size() );
+        assertNotNull( schemaManager.lookupAttributeTypeRegistry( "cn" ) );
+
+        for ( Schema schema : ldifLoader.getAllSchemas() )
+        {
+            Schema snapshotSchema = snapshotLoader.getSchema( schema.getSchemaName() );
+
+            assertEquals( schema.isDisabled(), snapshotSchema.isDisabled() );
+            assertEquals( schema.getDependencies().length, snapshotSchema.getDependencies().length );
+            assertEquals( ldifLoader.loadAttributeTypes( schema ).size(),
+                snapshotLoader.loadAttributeTypes( snapshotSchema ).size() );
+        }
+    }
+
+
+    @Test
+    public void testStaleSnapshot() throws Exception
+    {
+        new SchemaSnapshotLoader( schemaDirectory );
+        long written = snapshotFile.lastModified();
+
+        // Modify an LDIF file
+        File ldif = new File( schemaDirectory, "ou=schema/cn=other.ldif" );
+        assertTrue( ldif.setLastModified( ldif.lastModified() + 10000L ) );
+
+        SchemaSnapshotLoader loader = new SchemaSnapshotLoader( schemaDirectory );
+
+        assertFalse( loader.isFromSnapshot() );
+        assertTrue( snapshotFile.lastModified() >= written );
+        assertTrue( new SchemaSnapshotLoader( schemaDirectory ).isFromSnapshot() );
+    }
+
+
+    @Test
+    public void testOtherFilesIgnored() throws Exception
+    {
+        new SchemaSnapshotLoader( schemaDirectory );
+
+        // The schema partition writes its own snapshot in the schema directory
+        File partitionSnapshot = new File( schemaDirectory, "ou=schema" + SchemaSnapshotLoader.SNAPSHOT_FILE_EXTN );
+        Files.write( partitionSnapshot.toPath(), new byte[]
+            { 1, 2, 3 } );
+
+        assertTrue( new SchemaSnapshotLoader( schemaDirectory ).isFromSnapshot() );
+    }
+
+
+    @Test
+    public void testCorruptedSnapshot() throws Exception
+    {
+        new SchemaSnapshotLoader( schemaDirectory );
+
+        try ( RandomAccessFile file = new RandomAccessFile( snapshotFile, "rw" ) )
+        {
+            file.seek( file.length() / 2 );
+            int value = file.read();
+            file.seek( file.length() / 2 );
+            file.write( value ^ 0xFF );
+        }
+
+        SchemaSnapshotLoader loader = new SchemaSnapshotLoader( schemaDirectory );
+
+        assertFalse( loader.isFromSnapshot() );
+        loadAllEnabled( loader );
+        assertTrue( new SchemaSnapshotLoader( schemaDirectory ).isFromSnapshot() );
+    }
+}
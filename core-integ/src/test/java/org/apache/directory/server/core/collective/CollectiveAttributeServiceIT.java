@@ -565,4 +565,46 @@ public class CollectiveAttributeServiceIT extends AbstractLdapTestUnit
 
         connection.close();
     }
+
+
+    @Test
+    public void testSubentryModification() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        addAdministrativeRole( connection, "collectiveAttributeSpecificArea" );
+        connection.add( getTestSubentry( "cn=testsubentry,ou=system" ) );
+
+        Entry entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertEquals( "configuration", entry.get( "c-ou" ).getString() );
+
+        // The modified collective attributes are injected
+        connection.modify( "cn=testsubentry,ou=system", new DefaultModification(
+            ModificationOperation.REPLACE_ATTRIBUTE, new DefaultAttribute( "c-ou", "modified" ) ) );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        Attribute c_ou = entry.get( "c-ou" );
+        assertEquals( 1, c_ou.size() );
+        assertEquals( "modified", c_ou.getString() );
+
+        Map<String, Entry> entries = getAllEntries( connection, false );
+        assertEquals( "modified", entries.get( "ou=interceptors,ou=configuration,ou=system" ).get( "c-ou" )
+            .getString() );
+
+        // Once the subentry is deleted, nothing is injected
+        connection.delete( "cn=testsubentry,ou=system" );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertNull( entry.get( "c-ou" ) );
+
+        // A new subentry with the same Dn is read again
+        Entry subentry = getTestSubentry( "cn=testsubentry,ou=system" );
+        subentry.put( "c-ou", "recreated" );
+        connection.add( subentry );
+
+        entry = connection.lookup( "ou=services,ou=configuration,ou=system" );
+        assertEquals( "recreated", entry.get( "c-ou" ).getString() );
+
+        connection.close();
+    }
 }
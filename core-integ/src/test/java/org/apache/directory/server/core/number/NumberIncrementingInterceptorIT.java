@@ -0,0 +1,118 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.number;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Test cases for the number incrementing interceptor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "NumberIncrementingInterceptorIT", additionalInterceptors =
+    { NumberIncrementingInterceptor.class })
+public class NumberIncrementingInterceptorIT extends AbstractLdapTestUnit
+{
+    private static final String HOLDER_DN = "ou=autoIncDataHolder,ou=system";
+
+
+    private NumberIncrementingInterceptor getInterceptor()
+    {
+        for ( Interceptor interceptor : getService().getInterceptors() )
+        {
+            if ( interceptor instanceof NumberIncrementingInterceptor )
+            {
+                return ( NumberIncrementingInterceptor ) interceptor;
+            }
+        }
+
+        return null;
+    }
+
+
+    @Test
+    public void testReservation() throws Exception
+    {
+        LdapConnection connection = IntegrationUtils.getAdminConnection( getService() );
+
+        // Count the apacheSamType values, from 1000
+        connection.modify( HOLDER_DN, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "apacheSamType", "1000" ) );
+
+        NumberIncrementingInterceptor interceptor = getInterceptor();
+        assertNotNull( interceptor );
+        interceptor.setReservationSize( 10 );
+        interceptor.init( getService() );
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            connection.add( new DefaultEntry( "cn=user" + i + ",ou=system",
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: extensibleObject",
+                "cn: user" + i,
+                "sn: user" + i,
+                "apacheSamType: 0" ) );
+        }
+
+        for ( int i = 0; i < 25; i++ )
+        {
+            Entry entry = connection.lookup( "cn=user" + i + ",ou=system" );
+            assertEquals( String.valueOf( 1001 + i ), entry.get( "apacheSamType" ).getString() );
+        }
+
+        // Three blocks have been reserved
+        assertEquals( "1030", connection.lookup( HOLDER_DN ).get( "apacheSamType" ).getString() );
+        assertEquals( 3L, interceptor.getReservationCount() );
+        assertEquals( 25L, interceptor.getAllocationCount() );
+
+        // The numbers of the current block are skipped on restart
+        interceptor.init( getService() );
+        connection.add( new DefaultEntry( "cn=user25,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: extensibleObject",
+            "cn: user25",
+            "sn: user25",
+            "apacheSamType: 0" ) );
+
+        assertEquals( "1031", connection.lookup( "cn=user25,ou=system" ).get( "apacheSamType" ).getString() );
+        assertEquals( "1040", connection.lookup( HOLDER_DN ).get( "apacheSamType" ).getString() );
+
+        connection.close();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations;
+
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.PresenceNode;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifs;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.OperationManager;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Measures the cost of the dispatch of the lookup and search operations through the
+ * interceptors' pipelines, going directly to the OperationManager.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@ApplyLdifs(
+    {
+        "dn: cn=test,ou=system",
+        "objectClass: person",
+        "cn: test",
+        "sn: sn_test"
+    })
+public class InterceptorDispatchPerfIT extends AbstractLdapTestUnit
+{
+    /**
+     * A lookup dispatch performance test
+     */
+    @Test
+    public void testPerfLookupDispatch() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        OperationManager operationManager = getService().getOperationManager();
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=test,ou=system" );
+        InterceptorPipeline pipeline = getService().getInterceptorPipeline( OperationEnum.LOOKUP );
+
+        Entry entry = operationManager.lookup( new LookupOperationContext( session, dn, "*" ) );
+
+        assertNotNull( entry );
+
+        int nbIterations = 1500000;
+        int nbWarming = 500000;
+
+        long t0 = System.currentTimeMillis();
+        long t00 = 0L;
+        long tt0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbIterations; i++ )
+        {
+            if ( i % 100000 == 0 )
+            {
+                long tt1 = System.currentTimeMillis();
+
+                System.out.println( i + ", " + ( tt1 - tt0 ) );
+                tt0 = tt1;
+            }
+
+            if ( i == nbWarming )
+            {
+                t00 = System.currentTimeMillis();
+            }
+
+            LookupOperationContext lookupContext = new LookupOperationContext( session, dn, "*" );
+            lookupContext.setInterceptorPipeline( pipeline );
+            operationManager.lookup( lookupContext );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        Long deltaWarmed = ( t1 - t00 );
+        System.out.println( "Delta lookup dispatch: " + deltaWarmed + "( "
+            + ( ( ( nbIterations - nbWarming ) * 1000L ) / deltaWarmed ) + " per s ) /" + ( t1 - t0 ) );
+    }
+
+
+    /**
+     * A base level search dispatch performance test
+     */
+    @Test
+    public void testPerfSearchDispatch() throws Exception
+    {
+        CoreSession session = getService().getAdminSession();
+        OperationManager operationManager = getService().getOperationManager();
+        Dn dn = new Dn( getService().getSchemaManager(), "cn=test,ou=system" );
+        PresenceNode filter = new PresenceNode( getService().getSchemaManager().getAttributeType( "objectClass" ) );
+
+        int nbIterations = 500000;
+        int nbWarming = 100000;
+
+        long t0 = System.currentTimeMillis();
+        long t00 = 0L;
+        long tt0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbIterations; i++ )
+        {
+            if ( i % 100000 == 0 )
+            {
+                long tt1 = System.currentTimeMillis();
+
+                System.out.println( i + ", " + ( tt1 - tt0 ) );
+                tt0 = tt1;
+            }
+
+            if ( i == nbWarming )
+            {
+                t00 = System.currentTimeMillis();
+            }
+
+            SearchOperationContext searchContext = new SearchOperationContext( session, dn, SearchScope.OBJECT,
+                filter, "*" );
+
+            try ( EntryFilteringCursor cursor = operationManager.search( searchContext ) )
+            {
+                assertTrue( cursor.next() );
+            }
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        Long deltaWarmed = ( t1 - t00 );
+        System.out.println( "Delta search dispatch: " + deltaWarmed + "( "
+            + ( ( ( nbIterations - nbWarming ) * 1000L ) / deltaWarmed ) + " per s ) /" + ( t1 - t0 ) );
+    }
+}
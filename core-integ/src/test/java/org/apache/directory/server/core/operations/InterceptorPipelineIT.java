@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.operations;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.api.InterceptorEnum;
+import org.apache.directory.server.core.api.OperationEnum;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the interceptors' pipelines of each operation.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+public class InterceptorPipelineIT extends AbstractLdapTestUnit
+{
+    /**
+     * An interceptor which only handles the lookup operation, and counts the calls
+     */
+    private static class LookupCountingInterceptor extends BaseInterceptor
+    {
+        private int nbLookups;
+
+
+        LookupCountingInterceptor()
+        {
+            super( "lookupCountingInterceptor" );
+        }
+
+
+        @Override
+        public Entry lookup( LookupOperationContext lookupContext ) throws LdapException
+        {
+            nbLookups++;
+
+            return next( lookupContext );
+        }
+    }
+
+
+    /**
+     * Check that the interceptors which don't handle an operation are not in its pipeline
+     */
+    @Test
+    public void testPipelines() throws Exception
+    {
+        String changeLog = InterceptorEnum.CHANGE_LOG_INTERCEPTOR.getName();
+
+        assertFalse( getService().getInterceptorPipeline( OperationEnum.LOOKUP ).getNames().contains( changeLog ) );
+        assertFalse( getService().getInterceptorPipeline( OperationEnum.SEARCH ).getNames().contains( changeLog ) );
+        assertTrue( getService().getInterceptorPipeline( OperationEnum.ADD ).getNames().contains( changeLog ) );
+
+        // The pipelines are only rebuilt when the interceptors change
+        assertSame( getService().getInterceptorPipeline( OperationEnum.LOOKUP ),
+            getService().getInterceptorPipeline( OperationEnum.LOOKUP ) );
+    }
+
+
+    /**
+     * Check that the pipelines are rebuilt when an interceptor is added or removed
+     */
+    @Test
+    public void testPipelinesRebuild() throws Exception
+    {
+        LookupCountingInterceptor interceptor = new LookupCountingInterceptor();
+        InterceptorPipeline lookupPipeline = getService().getInterceptorPipeline( OperationEnum.LOOKUP );
+        int addSize = getService().getInterceptorPipeline( OperationEnum.ADD ).size();
+
+        getService().addLast( interceptor );
+
+        try
+        {
+            InterceptorPipeline newLookupPipeline = getService().getInterceptorPipeline( OperationEnum.LOOKUP );
+
+            assertNotSame( lookupPipeline, newLookupPipeline );
+            assertEquals( lookupPipeline.size() + 1, newLookupPipeline.size() );
+            assertTrue( newLookupPipeline.getNames().contains( interceptor.getName() ) );
+
+            // The interceptor doesn't handle the add operation
+            assertFalse( getService().getInterceptorPipeline( OperationEnum.ADD ).getNames()
+                .contains( interceptor.getName() ) );
+            assertEquals( addSize, getService().getInterceptorPipeline( OperationEnum.ADD ).size() );
+
+            // The new pipeline is used by the next operations
+            Entry entry = getService().getAdminSession().lookup( new Dn( "ou=system" ) );
+
+            assertNotNull( entry );
+            assertEquals( 1, interceptor.nbLookups );
+        }
+        finally
+        {
+            getService().remove( interceptor.getName() );
+        }
+
+        assertFalse( getService().getInterceptorPipeline( OperationEnum.LOOKUP ).getNames()
+            .contains( interceptor.getName() ) );
+        assertEquals( lookupPipeline.getNames(), getService().getInterceptorPipeline( OperationEnum.LOOKUP ).getNames() );
+    }
+}
@@ -36,10 +36,12 @@ import org.apache.directory.server.core.factory.DirectoryServiceFactory;
 import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
 import org.apache.directory.server.core.integ.FrameworkRunner;
 import org.apache.directory.server.core.integ.IntegrationUtils;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -58,6 +60,13 @@ public class SearchWithIndicesPersonIT extends AbstractLdapTestUnit
     public void createData() throws Exception
     {
         connection = IntegrationUtils.getAdminConnection( getService() );
+
+        if ( connection.exists( "cn=name0,ou=system" ) )
+        {
+            // Already created by a previous test
+            return;
+        }
+
         Partition systemPartition = getService().getSystemPartition();
         DirectoryServiceFactory dsFactory = DefaultDirectoryServiceFactory.class.newInstance();
         dsFactory.getPartitionFactory().addIndex( systemPartition, "cn", 100 );
@@ -150,4 +159,35 @@ public class SearchWithIndicesPersonIT extends AbstractLdapTestUnit
         
         assertTrue( expected.size() == 0 );
     }
+
+
+    /**
+     * Check that a large search returns the same entries whether they are fetched
+     * ahead or not
+     */
+    @Test
+    public void testSearchPrefetch() throws Exception
+    {
+        AbstractBTreePartition systemPartition = ( AbstractBTreePartition ) getService().getSystemPartition();
+        int prefetchSize = systemPartition.getPrefetchSize();
+
+        try
+        {
+            systemPartition.setPrefetchSize( 0 );
+            Set<String> expected = searchPersons( "(objectClass=person)" );
+
+            assertTrue( expected.size() > 1000 );
+
+            systemPartition.setPrefetchSize( 16 );
+            assertEquals( expected, searchPersons( "(objectClass=person)" ) );
+
+            systemPartition.setPrefetchOrdered( false );
+            assertEquals( expected, searchPersons( "(objectClass=person)" ) );
+        }
+        finally
+        {
+            systemPartition.setPrefetchSize( prefetchSize );
+            systemPartition.setPrefetchOrdered( true );
+        }
+    }
 }
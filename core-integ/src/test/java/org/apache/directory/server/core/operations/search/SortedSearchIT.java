@@ -417,4 +417,79 @@ public class SortedSearchIT extends AbstractLdapTestUnit
         }
     }
 
+
+    private List<String> searchDns() throws Exception
+    {
+        SearchCursor cursor = connection.search( req );
+        List<String> actualOrder = new ArrayList<String>();
+
+        while ( cursor.next() )
+        {
+            SearchResultEntry se = ( SearchResultEntry ) cursor.get();
+            actualOrder.add( se.getEntry().getDn().getName() );
+        }
+
+        cursor.close();
+
+        return actualOrder;
+    }
+
+
+    /**
+     * Check that the entries are correctly sorted when they don't fit in memory and
+     * have to be written in temporary files
+     */
+    @Test
+    public void testSortSpilledToDisk() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        List<String> expectedOrder = searchDns();
+
+        long sortMemoryBudget = getService().getSortMemoryBudget();
+
+        try
+        {
+            // Every entry is written in its own sorted run
+            getService().setSortMemoryBudget( 1L );
+            List<String> actualOrder = searchDns();
+
+            // The last 3 entries don't have a "sn" attribute : their order is not guaranteed
+            assertEquals( expectedOrder.size(), actualOrder.size() );
+            assertEquals( expectedOrder.subList( 0, expectedOrder.size() - 3 ),
+                actualOrder.subList( 0, actualOrder.size() - 3 ) );
+        }
+        finally
+        {
+            getService().setSortMemoryBudget( sortMemoryBudget );
+        }
+    }
+
+
+    /**
+     * Check that only the first entries are kept when the search has a size limit.
+     * One more entry than the limit is returned, so that the limit is known to be exceeded.
+     */
+    @Test
+    public void testSortWithSizeLimit() throws Exception
+    {
+        sk.setAttributeTypeDesc( "sn" );
+        List<String> expectedOrder = searchDns();
+
+        req.setSizeLimit( 3 );
+        List<String> actualOrder = searchDns();
+
+        assertEquals( expectedOrder.subList( 0, 4 ), actualOrder );
+
+        long sortMemoryBudget = getService().getSortMemoryBudget();
+
+        try
+        {
+            getService().setSortMemoryBudget( 1L );
+            assertEquals( expectedOrder.subList( 0, 4 ), searchDns() );
+        }
+        finally
+        {
+            getService().setSortMemoryBudget( sortMemoryBudget );
+        }
+    }
 }
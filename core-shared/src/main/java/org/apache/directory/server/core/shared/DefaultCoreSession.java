@@ -20,10 +20,8 @@
 package org.apache.directory.server.core.shared;
 
 
-import java.io.File;
 import java.io.IOException;
 import java.net.SocketAddress;
-import java.nio.file.Files;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,7 +31,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
-import jdbm.recman.BaseRecordManager;
 
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -1220,7 +1217,8 @@ public class DefaultCoreSession implements CoreSession
 
             if ( ( sortRespCtrl != null ) && ( sortRespCtrl.getSortResult() == SortResultCode.SUCCESS ) )
             {
-                cursor = sortResults( cursor, sortControl, getDirectoryService().getSchemaManager() );
+                cursor = sortResults( cursor, sortControl, searchRequest.getSizeLimit(),
+                    getDirectoryService().getSchemaManager() );
             }
 
             // the below condition is to satisfy the scenario 6 in section 2 of rfc2891
@@ -1394,6 +1392,7 @@ public class DefaultCoreSession implements CoreSession
      * 
      * @param unsortedEntries the cursor containing un-sorted entries
      * @param control the sort control
+     * @param sizeLimit the search size limit, 0 if unlimited
      * @param schemaManager schema manager
      * @return a cursor containing sorted entries
      * @throws CursorException
@@ -1401,7 +1400,8 @@ public class DefaultCoreSession implements CoreSession
      * @throws IOException
      * @throws KeyNotFoundException 
      */
-    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, SchemaManager schemaManager )
+    private Cursor<Entry> sortResults( Cursor<Entry> unsortedEntries, SortRequest control, long sizeLimit,
+        SchemaManager schemaManager )
         throws CursorException, LdapException, IOException
     {
         unsortedEntries.beforeFirst();
@@ -1427,42 +1427,38 @@ public class DefaultCoreSession implements CoreSession
         SortedEntryComparator comparator = new SortedEntryComparator( at, sk.getMatchingRuleId(), sk.isReverseOrder(),
             schemaManager );
 
-        SortedEntrySerializer keySerializer = new SortedEntrySerializer();
         SortedEntrySerializer.setSchemaManager( schemaManager );
-        
-        File file = null;
-        
-        try 
-        {
-            file = Files.createTempFile( "replica", ".sorted-data" ).toFile();    // see DIRSERVER-2007
-        } 
-        catch ( IOException e ) 
-        {
-            // see DIRSERVER-2091
-            LOG.error( "Error creating temp file in directory {} for sorting: {}",  
-                System.getProperty( "java.io.tmpdir" ),  e.getMessage(), e );
-            throw e;
-        }
 
-        BaseRecordManager recMan = new BaseRecordManager( file.getAbsolutePath() );
+        // Keep one more entry than the size limit, so that the limit is known to be exceeded
+        long maxEntries = sizeLimit > 0L ? sizeLimit + 1L : 0L;
+        EntrySorter sorter = new EntrySorter( comparator, directoryService.getSortMemoryBudget(), maxEntries );
 
-        jdbm.btree.BTree<Entry, String> btree = new jdbm.btree.BTree<>( recMan, comparator, keySerializer, NullStringSerializer.INSTANCE );
-        
+        try
+        {
+            sorter.add( first );
 
-        btree.insert( first, "", false );
+            // at this stage the cursor will be _on_ the next element, so read it
+            sorter.add( unsortedEntries.get() );
 
-        // at this stage the cursor will be _on_ the next element, so read it
-        btree.insert( unsortedEntries.get(), "", false );
+            while ( unsortedEntries.next() )
+            {
+                sorter.add( unsortedEntries.get() );
+            }
 
-        while ( unsortedEntries.next() )
+            return sorter.sort();
+        }
+        catch ( IOException e )
+        {
+            // see DIRSERVER-2091
+            LOG.error( "Error writing a temp file in directory {} for sorting: {}",
+                System.getProperty( "java.io.tmpdir" ), e.getMessage(), e );
+            sorter.discard();
+            throw e;
+        }
+        finally
         {
-            Entry entry = unsortedEntries.get();
-            btree.insert( entry, "", false );
+            unsortedEntries.close();
         }
-
-        unsortedEntries.close();
-
-        return new SortedEntryCursor( btree, recMan, file );
     }
 
 
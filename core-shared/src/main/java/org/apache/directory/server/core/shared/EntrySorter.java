@@ -0,0 +1,390 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+
+
+/**
+ * Sorts the entries returned by a search using the server side sort control.
+ * <br>
+ * The entries are sorted in memory as long as their estimated size does not exceed a
+ * memory budget. Beyond this budget, the entries kept in memory are sorted and written
+ * in a temporary file - a run - and the final result is a k-way merge of all the runs.
+ * The sort key of each entry is computed once, and stored in front of the serialized
+ * entry in the runs, so that the merge does not deserialize the entries it does not return.
+ * <br>
+ * When the number of returned entries is bounded, only the first entries are kept, in a
+ * heap, and the runs are truncated accordingly.
+ * <br>
+ * Two entries having the same sort key are returned in the order they were added.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntrySorter
+{
+    /** The default memory budget, in bytes */
+    public static final long DEFAULT_MEMORY_BUDGET = 8L * 1024L * 1024L;
+
+    /** The sort key types stored in the runs */
+    static final byte NULL_KEY = 0;
+    static final byte STRING_KEY = 1;
+    static final byte BINARY_KEY = 2;
+
+    /** The entry comparator */
+    private final SortedEntryComparator comparator;
+
+    /** The order of the records : by sort key, then by insertion order */
+    private final Comparator<SortRecord> recordOrder;
+
+    /** The memory budget, in bytes */
+    private final long memoryBudget;
+
+    /** The maximum number of entries to return, 0 if unbounded */
+    private final long maxEntries;
+
+    /** The records kept in memory, when the number of entries is not bounded */
+    private List<SortRecord> records;
+
+    /** The first records, the last one on top, when the number of entries is bounded */
+    private PriorityQueue<SortRecord> heap;
+
+    /** The estimated size of the records kept in memory */
+    private long memorySize;
+
+    /** The number of added entries, used to keep the insertion order */
+    private long sequence;
+
+    /** The sorted runs written so far */
+    private final List<File> runs = new ArrayList<>();
+
+    /** The entry serializer */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+
+    /**
+     * An entry and its sort key
+     */
+    static final class SortRecord
+    {
+        /** The sort key */
+        final Object key;
+
+        /** The insertion order */
+        final long sequence;
+
+        /** The entry, when in memory */
+        final Entry entry;
+
+        /** The serialized entry, when read from a run */
+        final byte[] serialized;
+
+        /** The estimated size of the record */
+        final long size;
+
+
+        SortRecord( Object key, long sequence, Entry entry, byte[] serialized, long size )
+        {
+            this.key = key;
+            this.sequence = sequence;
+            this.entry = entry;
+            this.serialized = serialized;
+            this.size = size;
+        }
+    }
+
+
+    /**
+     * Creates a new EntrySorter instance
+     *
+     * @param comparator The entry comparator
+     * @param memoryBudget The maximum estimated size of the entries kept in memory, in bytes
+     * @param maxEntries The maximum number of entries to return, 0 if unbounded
+     */
+    EntrySorter( SortedEntryComparator comparator, long memoryBudget, long maxEntries )
+    {
+        this.comparator = comparator;
+        this.memoryBudget = memoryBudget <= 0L ? DEFAULT_MEMORY_BUDGET : memoryBudget;
+        this.maxEntries = Math.max( 0L, maxEntries );
+        recordOrder = ( record1, record2 ) ->
+        {
+            int c = comparator.compareKeys( record1.key, record2.key );
+
+            return c != 0 ? c : Long.compare( record1.sequence, record2.sequence );
+        };
+
+        if ( this.maxEntries > 0L )
+        {
+            heap = new PriorityQueue<>( 16, Collections.reverseOrder( recordOrder ) );
+        }
+        else
+        {
+            records = new ArrayList<>();
+        }
+    }
+
+
+    /**
+     * Adds an entry to sort
+     *
+     * @param entry The entry
+     * @throws IOException If the entries kept in memory can't be written in a run
+     */
+    public void add( Entry entry ) throws IOException
+    {
+        SortRecord record = new SortRecord( comparator.getSortKey( entry ), sequence++, entry, null,
+            estimateSize( entry ) );
+
+        if ( heap != null )
+        {
+            if ( heap.size() < maxEntries )
+            {
+                heap.add( record );
+                memorySize += record.size;
+            }
+            else if ( recordOrder.compare( record, heap.peek() ) < 0 )
+            {
+                memorySize -= heap.poll().size;
+                heap.add( record );
+                memorySize += record.size;
+            }
+            else
+            {
+                // Not one of the first entries
+                return;
+            }
+        }
+        else
+        {
+            records.add( record );
+            memorySize += record.size;
+        }
+
+        if ( memorySize > memoryBudget )
+        {
+            spill();
+        }
+    }
+
+
+    /**
+     * Sorts the added entries
+     *
+     * @return A cursor on the sorted entries
+     * @throws IOException If the entries can't be written in a run
+     */
+    public EntryFilteringCursor sort() throws IOException
+    {
+        if ( runs.isEmpty() )
+        {
+            List<SortRecord> sorted = sortedRecords();
+            List<Entry> entries = new ArrayList<>( sorted.size() );
+
+            for ( SortRecord record : sorted )
+            {
+                entries.add( record.entry );
+            }
+
+            return new SortedEntryCursor( entries );
+        }
+
+        spill();
+
+        return new SpilledEntryCursor( runs, recordOrder, maxEntries );
+    }
+
+
+    /**
+     * Deletes the runs written so far, when the sort is aborted
+     */
+    public void discard()
+    {
+        for ( File run : runs )
+        {
+            run.delete();
+        }
+
+        runs.clear();
+    }
+
+
+    /**
+     * @return The records kept in memory, sorted, and empties the memory
+     */
+    private List<SortRecord> sortedRecords()
+    {
+        List<SortRecord> sorted;
+
+        if ( heap != null )
+        {
+            sorted = new ArrayList<>( heap );
+            heap.clear();
+        }
+        else
+        {
+            sorted = records;
+            records = new ArrayList<>();
+        }
+
+        sorted.sort( recordOrder );
+        memorySize = 0L;
+
+        return sorted;
+    }
+
+
+    /**
+     * Writes the records kept in memory in a new run
+     */
+    private void spill() throws IOException
+    {
+        List<SortRecord> sorted = sortedRecords();
+
+        if ( sorted.isEmpty() )
+        {
+            return;
+        }
+
+        File run = Files.createTempFile( "sort", ".run" ).toFile();
+        runs.add( run );
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( run ) ) ) )
+        {
+            out.writeInt( sorted.size() );
+
+            for ( SortRecord record : sorted )
+            {
+                writeKey( out, record.key );
+                out.writeLong( record.sequence );
+                byte[] serialized = serializer.serialize( record.entry );
+                out.writeInt( serialized.length );
+                out.write( serialized );
+            }
+        }
+    }
+
+
+    /**
+     * Writes a sort key in a run
+     */
+    private static void writeKey( DataOutput out, Object key ) throws IOException
+    {
+        byte[] bytes;
+
+        if ( key == null )
+        {
+            out.writeByte( NULL_KEY );
+
+            return;
+        }
+        else if ( key instanceof String )
+        {
+            out.writeByte( STRING_KEY );
+            bytes = Strings.getBytesUtf8( ( String ) key );
+        }
+        else
+        {
+            out.writeByte( BINARY_KEY );
+            bytes = ( byte[] ) key;
+        }
+
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * Reads the next record of a run
+     *
+     * @param in The run
+     * @return The record, with its serialized entry
+     * @throws IOException If the record can't be read
+     */
+    static SortRecord readRecord( DataInput in ) throws IOException
+    {
+        byte keyType = in.readByte();
+        Object key = null;
+
+        if ( keyType != NULL_KEY )
+        {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully( bytes );
+            key = keyType == STRING_KEY ? Strings.utf8ToString( bytes ) : bytes;
+        }
+
+        long sequence = in.readLong();
+        byte[] serialized = new byte[in.readInt()];
+        in.readFully( serialized );
+
+        return new SortRecord( key, sequence, null, serialized, serialized.length );
+    }
+
+
+    /**
+     * Estimates the memory used by an entry. We don't need an exact value, only
+     * something proportional to the entry's size.
+     */
+    private static long estimateSize( Entry entry )
+    {
+        long size = 64L + 2L * entry.getDn().getName().length();
+        Collection<Attribute> attributes = entry.getAttributes();
+
+        for ( Attribute attribute : attributes )
+        {
+            size += 48L;
+
+            for ( Value value : attribute )
+            {
+                if ( value.isHumanReadable() )
+                {
+                    String string = value.getString();
+                    size += 32L + ( string == null ? 0L : 4L * string.length() );
+                }
+                else
+                {
+                    byte[] bytes = value.getBytes();
+                    size += 32L + ( bytes == null ? 0L : bytes.length );
+                }
+            }
+        }
+
+        return size;
+    }
+}
@@ -183,6 +183,95 @@ class SortedEntryComparator implements Comparator<Entry>, Serializable
     }
 
 
+    /**
+     * Computes the key used to sort an entry : the normalized value of the sorted attribute
+     * for human readable attributes, the binary value otherwise. When the attribute is multi
+     * valued, the least value is used.
+     *
+     * @param entry the entry
+     * @return the sort key, or null if the entry does not have the sorted attribute
+     */
+    Object getSortKey( Entry entry )
+    {
+        Attribute at = entry.get( type );
+
+        if ( at == null )
+        {
+            return null;
+        }
+
+        if ( multivalued )
+        {
+            // Each value is normalized once, and the least one is kept
+            Object key = null;
+
+            for ( Value value : at )
+            {
+                Object candidate = hr ? normalize( value.getString() ) : value.getBytes();
+
+                if ( ( key == null ) || ( comparator.compare( candidate, key ) < 0 ) )
+                {
+                    key = candidate;
+                }
+            }
+
+            return key;
+        }
+
+        Value value = at.get();
+
+        return hr ? normalize( value.getString() ) : value.getBytes();
+    }
+
+
+    /**
+     * Compares two keys computed by {@link #getSortKey(Entry)}. The absent keys are
+     * considered larger, as per section 2.2 of the RFC.
+     *
+     * @param key1 the first key
+     * @param key2 the second key
+     * @return a negative value, 0, or a positive value if the first key is sorted before,
+     * with, or after the second key
+     */
+    int compareKeys( Object key1, Object key2 )
+    {
+        if ( key1 == null )
+        {
+            if ( key2 == null )
+            {
+                return 0;
+            }
+
+            return reverse ? -1 : 1;
+        }
+        else if ( key2 == null )
+        {
+            return reverse ? 1 : -1;
+        }
+
+        int c = comparator.compare( key1, key2 );
+
+        return reverse ? -c : c;
+    }
+
+
+    /**
+     * Normalizes a value with the comparator's normalizer, keeping it as is if it can't
+     * be normalized
+     */
+    private String normalize( String value )
+    {
+        try
+        {
+            return comparator.getNormalizer().normalize( value );
+        }
+        catch ( LdapException le )
+        {
+            return value;
+        }
+    }
+
+
     /**
      * sorts the values of an attribute and picks the least value
      * 
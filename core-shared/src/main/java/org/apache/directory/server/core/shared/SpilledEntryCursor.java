@@ -0,0 +1,384 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+package org.apache.directory.server.core.shared;
+
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.filtering.EntryFilter;
+import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.shared.EntrySorter.SortRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor for sorted entries, when they have been written in sorted runs by the
+ * {@link EntrySorter}. The runs are merged while the cursor moves forward, and deleted
+ * when the cursor is closed.
+ * <br>
+ * Moving backward is done by merging the runs again from the beginning, which is only
+ * acceptable for a few steps.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SpilledEntryCursor extends AbstractCursor<Entry> implements EntryFilteringCursor
+{
+    private static final Logger LOG = LoggerFactory.getLogger( SpilledEntryCursor.class );
+
+    /** The sorted runs */
+    private final List<File> runs;
+
+    /** The order of the records */
+    private final Comparator<SortRecord> recordOrder;
+
+    /** The maximum number of entries to return, 0 if unbounded */
+    private final long maxEntries;
+
+    /** The entry serializer */
+    private final SortedEntrySerializer serializer = new SortedEntrySerializer();
+
+    /** The readers having records left, the one with the smallest record on top */
+    private PriorityQueue<RunReader> readers;
+
+    /** The opened readers */
+    private final List<RunReader> openedReaders = new ArrayList<>();
+
+    /** The number of entries read so far, the current entry being the last one */
+    private long position;
+
+    /** The current entry */
+    private Entry current;
+
+
+    /**
+     * Reads the records of a run
+     */
+    private static final class RunReader implements Closeable
+    {
+        /** The run content */
+        private final DataInputStream in;
+
+        /** The number of records left */
+        private int remaining;
+
+        /** The current record */
+        private SortRecord record;
+
+
+        private RunReader( File run ) throws IOException
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( run ) ) );
+            remaining = in.readInt();
+        }
+
+
+        /**
+         * Reads the next record
+         *
+         * @return <code>false</code> if the run is exhausted
+         */
+        private boolean advance() throws IOException
+        {
+            if ( remaining == 0 )
+            {
+                record = null;
+
+                return false;
+            }
+
+            record = EntrySorter.readRecord( in );
+            remaining--;
+
+            return true;
+        }
+
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Creates a new SpilledEntryCursor instance
+     *
+     * @param runs The sorted runs
+     * @param recordOrder The order of the records
+     * @param maxEntries The maximum number of entries to return, 0 if unbounded
+     */
+    SpilledEntryCursor( List<File> runs, Comparator<SortRecord> recordOrder, long maxEntries )
+    {
+        this.runs = new ArrayList<>( runs );
+        this.recordOrder = recordOrder;
+        this.maxEntries = maxEntries;
+    }
+
+
+    @Override
+    public boolean available()
+    {
+        return current != null;
+    }
+
+
+    @Override
+    public void before( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void after( Entry element ) throws LdapException, CursorException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        closeReaders();
+        current = null;
+        position = 0L;
+    }
+
+
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        while ( next() )
+        {
+            // Move to the end
+        }
+    }
+
+
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+        return next();
+    }
+
+
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+        return previous();
+    }
+
+
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        long target;
+
+        if ( current != null )
+        {
+            target = position - 1L;
+        }
+        else if ( readers != null )
+        {
+            // After the last entry : go back to the last one
+            target = position;
+        }
+        else
+        {
+            // Before the first entry
+            return false;
+        }
+
+        beforeFirst();
+
+        while ( ( position < target ) && next() )
+        {
+            // Move to the previous position
+        }
+
+        return available();
+    }
+
+
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        try
+        {
+            if ( readers == null )
+            {
+                openReaders();
+            }
+
+            if ( readers.isEmpty() || ( ( maxEntries > 0L ) && ( position >= maxEntries ) ) )
+            {
+                current = null;
+                readers.clear();
+
+                return false;
+            }
+
+            RunReader reader = readers.poll();
+            current = ( Entry ) serializer.deserialize( reader.record.serialized );
+            position++;
+
+            if ( reader.advance() )
+            {
+                readers.add( reader );
+            }
+
+            return true;
+        }
+        catch ( IOException ioe )
+        {
+            throw new CursorException( ioe );
+        }
+    }
+
+
+    @Override
+    public Entry get() throws CursorException
+    {
+        if ( current == null )
+        {
+            throw new InvalidCursorPositionException();
+        }
+
+        return current;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        deleteRuns();
+        super.close();
+    }
+
+
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        deleteRuns();
+        super.close( cause );
+    }
+
+
+    @Override
+    public boolean addEntryFilter( EntryFilter filter )
+    {
+        return false;
+    }
+
+
+    @Override
+    public List<EntryFilter> getEntryFilters()
+    {
+        return null;
+    }
+
+
+    @Override
+    public SearchOperationContext getOperationContext()
+    {
+        return null;
+    }
+
+
+    /**
+     * Opens all the runs and reads their first record
+     */
+    private void openReaders() throws IOException
+    {
+        readers = new PriorityQueue<>( Math.max( 1, runs.size() ),
+            ( reader1, reader2 ) -> recordOrder.compare( reader1.record, reader2.record ) );
+
+        for ( File run : runs )
+        {
+            RunReader reader = new RunReader( run );
+            openedReaders.add( reader );
+
+            if ( reader.advance() )
+            {
+                readers.add( reader );
+            }
+        }
+    }
+
+
+    /**
+     * Closes the opened runs
+     */
+    private void closeReaders()
+    {
+        for ( RunReader reader : openedReaders )
+        {
+            try
+            {
+                reader.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Failed to close a sorted run", ioe );
+            }
+        }
+
+        openedReaders.clear();
+        readers = null;
+    }
+
+
+    /**
+     * Closes and deletes the runs
+     */
+    private void deleteRuns()
+    {
+        closeReaders();
+
+        for ( File run : runs )
+        {
+            if ( !run.delete() )
+            {
+                LOG.warn( "Failed to delete the sorted run {}", run );
+            }
+        }
+
+        runs.clear();
+    }
+}
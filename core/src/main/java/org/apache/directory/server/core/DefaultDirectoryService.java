@@ -31,6 +31,7 @@ import java.nio.channels.FileLock;
 import java.nio.channels.OverlappingFileLockException;
 import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -94,6 +95,7 @@ import org.apache.directory.server.core.api.changelog.TaggableSearchableChangeLo
 import org.apache.directory.server.core.api.event.EventService;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.Interceptor;
+import org.apache.directory.server.core.api.interceptor.InterceptorPipeline;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.HasEntryOperationContext;
@@ -123,6 +125,7 @@ import org.apache.directory.server.core.referral.ReferralInterceptor;
 import org.apache.directory.server.core.schema.SchemaInterceptor;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.core.shared.EntrySorter;
 import org.apache.directory.server.core.shared.partition.DefaultPartitionNexus;
 import org.apache.directory.server.core.subtree.SubentryInterceptor;
 import org.apache.directory.server.core.trigger.TriggerInterceptor;
@@ -243,8 +246,8 @@ public class DefaultDirectoryService implements DirectoryService
     private Lock readLock = interceptorsLock.readLock();
     private Lock writeLock = interceptorsLock.writeLock();
 
-    /** A map associating a list of interceptor to each operation */
-    private Map<OperationEnum, List<String>> operationInterceptors;
+    /** The pipeline of interceptors to call for each operation, rebuilt when the interceptors change */
+    private volatile Map<OperationEnum, InterceptorPipeline> operationPipelines = new EnumMap<>( OperationEnum.class );
 
     /** The System partition */
     private Partition systemPartition;
@@ -261,6 +264,9 @@ public class DefaultDirectoryService implements DirectoryService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The maximum size of the entries a sorted search keeps in memory */
+    private long sortMemoryBudget = EntrySorter.DEFAULT_MEMORY_BUDGET;
+
     /** lock file for directory service's working directory */
     private RandomAccessFile lockFile = null;
 
@@ -453,26 +459,32 @@ public class DefaultDirectoryService implements DirectoryService
      */
     public List<String> getInterceptors( OperationEnum operation )
     {
-        List<String> cloned = new ArrayList<>();
+        return new ArrayList<>( getInterceptorPipeline( operation ).getNames() );
+    }
 
-        readLock.lock();
 
-        try
-        {
-            cloned.addAll( operationInterceptors.get( operation ) );
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public InterceptorPipeline getInterceptorPipeline( OperationEnum operation )
+    {
+        InterceptorPipeline pipeline = operationPipelines.get( operation );
 
-            return cloned;
-        }
-        finally
+        if ( pipeline == null )
         {
-            readLock.unlock();
+            return InterceptorPipeline.EMPTY;
         }
 
+        return pipeline;
     }
 
 
     /**
-     * Compute the list of  to call for each operation
+     * Compute the pipeline of interceptors to call for each operation. The interceptors
+     * which don't implement an operation are not part of its pipeline. The new pipelines
+     * replace the old ones at once : the operations in progress keep on using the
+     * pipeline they started with.
      */
     private void initOperationsList()
     {
@@ -480,19 +492,21 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            operationInterceptors = new ConcurrentHashMap<>();
+            Map<OperationEnum, InterceptorPipeline> pipelines = new EnumMap<>( OperationEnum.class );
 
             for ( OperationEnum operation : OperationEnum.getOperations() )
             {
-                List<String> operationList = new ArrayList<>();
+                List<Interceptor> operationList = new ArrayList<>();
 
                 for ( Interceptor interceptor : interceptors )
                 {
                     gatherInterceptors( interceptor, interceptor.getClass(), operation, operationList );
                 }
 
-                operationInterceptors.put( operation, operationList );
+                pipelines.put( operation, new InterceptorPipeline( operationList ) );
             }
+
+            operationPipelines = pipelines;
         }
         finally
         {
@@ -511,7 +525,7 @@ public class DefaultDirectoryService implements DirectoryService
      * @param selectedInterceptorList the list of selected interceptors
      */
     private void gatherInterceptors( Interceptor interceptor, Class<?> interceptorClz, OperationEnum operation,
-        List<String> selectedInterceptorList )
+        List<Interceptor> selectedInterceptorList )
     {
         // We stop recursing when we reach the Base class
         if ( ( interceptorClz == null ) || ( interceptorClz == BaseInterceptor.class ) )
@@ -531,12 +545,12 @@ public class DefaultDirectoryService implements DirectoryService
             if ( ( param != null ) && ( param.length == 1 ) 
                     && OperationContext.class.isAssignableFrom( param[0] ) && method.getName().equals( operation.getMethodName() ) )
             {
-                if ( !selectedInterceptorList.contains( interceptor.getName() ) )
+                if ( !selectedInterceptorList.contains( interceptor ) )
                 {
-                    selectedInterceptorList.add( interceptor.getName() );
+                    selectedInterceptorList.add( interceptor );
                 }
 
-                break;
+                return;
             }
         }
 
@@ -558,30 +572,6 @@ public class DefaultDirectoryService implements DirectoryService
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
-
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        if ( position == -1 )
-                        {
-                            operationList.add( interceptor.getName() );
-                        }
-                        else
-                        {
-                            operationList.add( position, interceptor.getName() );
-                        }
-
-                        break;
-                    }
-                }
-            }
-
             interceptorNames.put( interceptor.getName(), interceptor );
 
             if ( position == -1 )
@@ -592,6 +582,8 @@ public class DefaultDirectoryService implements DirectoryService
             {
                 interceptors.add( position, interceptor );
             }
+
+            initOperationsList();
         }
         finally
         {
@@ -605,31 +597,17 @@ public class DefaultDirectoryService implements DirectoryService
      */
     private void removeOperationsList( String interceptorName )
     {
-        Interceptor interceptor = interceptorNames.get( interceptorName );
-
         writeLock.lock();
 
         try
         {
-            for ( OperationEnum operation : OperationEnum.getOperations() )
-            {
-                List<String> operationList = operationInterceptors.get( operation );
-
-                Method[] methods = interceptor.getClass().getDeclaredMethods();
+            Interceptor interceptor = interceptorNames.remove( interceptorName );
 
-                for ( Method method : methods )
-                {
-                    if ( method.getName().equals( operation.getMethodName() ) )
-                    {
-                        operationList.remove( interceptor.getName() );
-
-                        break;
-                    }
-                }
+            if ( interceptor != null )
+            {
+                interceptors.remove( interceptor );
+                initOperationsList();
             }
-
-            interceptorNames.remove( interceptorName );
-            interceptors.remove( interceptor );
         }
         finally
         {
@@ -964,7 +942,7 @@ public class DefaultDirectoryService implements DirectoryService
             bindContext.setDn( new Dn( schemaManager, principalDn ) );
         }
         
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -1001,7 +979,7 @@ public class DefaultDirectoryService implements DirectoryService
         }
 
         bindContext.setSaslMechanism( saslMechanism );
-        bindContext.setInterceptors( getInterceptors( OperationEnum.BIND ) );
+        bindContext.setInterceptorPipeline( getInterceptorPipeline( OperationEnum.BIND ) );
 
         operationManager.bind( bindContext );
 
@@ -2193,6 +2171,31 @@ public class DefaultDirectoryService implements DirectoryService
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getSortMemoryBudget()
+    {
+        return sortMemoryBudget;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setSortMemoryBudget( long sortMemoryBudget )
+    {
+        if ( sortMemoryBudget <= 0L )
+        {
+            sortMemoryBudget = EntrySorter.DEFAULT_MEMORY_BUDGET;
+        }
+
+        this.sortMemoryBudget = sortMemoryBudget;
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2242,14 +2245,17 @@ public class DefaultDirectoryService implements DirectoryService
                 position++;
             }
 
-            if ( position == interceptors.size() )
+            if ( position >= interceptors.size() - 1 )
             {
                 interceptors.add( interceptor );
             }
             else
             {
-                interceptors.add( position, interceptor );
+                interceptors.add( position + 1, interceptor );
             }
+
+            interceptorNames.put( interceptor.getName(), interceptor );
+            initOperationsList();
         }
         finally
         {
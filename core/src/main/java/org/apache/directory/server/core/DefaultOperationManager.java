@@ -67,6 +67,7 @@ import org.apache.directory.server.core.api.interceptor.context.SearchOperationC
 import org.apache.directory.server.core.api.interceptor.context.UnbindOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -324,6 +325,28 @@ public class DefaultOperationManager implements OperationManager
     }
 
 
+    /**
+     * Waits until the changes of a committed write transaction are durable. This is done
+     * once the write lock has been released, so that the partitions which group their
+     * commits can flush many operations at once. Session transactions are committed
+     * later, and are not waited for.
+     */
+    private void awaitDurability( OperationContext opContext, PartitionTxn transaction ) throws LdapException
+    {
+        if ( ( transaction instanceof PartitionWriteTxn ) && !opContext.getSession().hasSessionTransaction() )
+        {
+            try
+            {
+                ( ( PartitionWriteTxn ) transaction ).awaitDurability();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+    }
+
+
     private LdapPartialResultException buildLdapPartialResultException( Dn childDn )
     {
         LdapPartialResultException lpre = new LdapPartialResultException( I18n.err( I18n.ERR_315 ) );
@@ -396,7 +419,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Add method
-        Interceptor head = directoryService.getInterceptor( addContext.getNextInterceptor() );
+        Interceptor head = addContext.nextInterceptor();
 
         lockWrite();
 
@@ -458,6 +481,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( addContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< AddOperation successful" );
@@ -490,7 +515,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Delete method
-        Interceptor head = directoryService.getInterceptor( bindContext.getNextInterceptor() );
+        Interceptor head = bindContext.nextInterceptor();
 
         // Normalize the addContext Dn
         Dn dn = bindContext.getDn();
@@ -612,7 +637,7 @@ public class DefaultOperationManager implements OperationManager
         compareContext.setOriginalEntry( getOriginalEntry( compareContext ) );
 
         // Call the Compare method
-        Interceptor head = directoryService.getInterceptor( compareContext.getNextInterceptor() );
+        Interceptor head = compareContext.nextInterceptor();
 
         boolean result = false;
 
@@ -751,7 +776,7 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( deleteContext );
 
             // Call the Delete method
-            Interceptor head = directoryService.getInterceptor( deleteContext.getNextInterceptor() );
+            Interceptor head = deleteContext.nextInterceptor();
 
             head.delete( deleteContext );
 
@@ -794,6 +819,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( deleteContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< DeleteOperation successful" );
@@ -825,7 +852,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( getRootDseContext.getNextInterceptor() );
+        Interceptor head = getRootDseContext.nextInterceptor();
         Entry root;
 
         try
@@ -884,7 +911,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( hasEntryContext.getNextInterceptor() );
+        Interceptor head = hasEntryContext.nextInterceptor();
 
         boolean result = false;
 
@@ -953,7 +980,7 @@ public class DefaultOperationManager implements OperationManager
 
         ensureStarted();
 
-        Interceptor head = directoryService.getInterceptor( lookupContext.getNextInterceptor() );
+        Interceptor head = lookupContext.nextInterceptor();
 
         Entry entry = null;
 
@@ -1112,7 +1139,7 @@ public class DefaultOperationManager implements OperationManager
             eagerlyPopulateFields( modifyContext );
 
             // Call the Modify method
-            Interceptor head = directoryService.getInterceptor( modifyContext.getNextInterceptor() );
+            Interceptor head = modifyContext.nextInterceptor();
 
             head.modify( modifyContext );
             
@@ -1155,6 +1182,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( modifyContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< ModifyOperation successful" );
@@ -1287,7 +1316,7 @@ public class DefaultOperationManager implements OperationManager
             moveContext.setOriginalEntry( originalEntry );
 
             // Call the Move method
-            Interceptor head = directoryService.getInterceptor( moveContext.getNextInterceptor() );
+            Interceptor head = moveContext.nextInterceptor();
 
             head.move( moveContext );
             
@@ -1333,6 +1362,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( moveContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveOperation successful" );
@@ -1465,7 +1496,7 @@ public class DefaultOperationManager implements OperationManager
             moveAndRenameContext.setTransaction( transaction );
 
             // Call the MoveAndRename method
-            Interceptor head = directoryService.getInterceptor( moveAndRenameContext.getNextInterceptor() );
+            Interceptor head = moveAndRenameContext.nextInterceptor();
 
             head.moveAndRename( moveAndRenameContext );
 
@@ -1508,6 +1539,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( moveAndRenameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< MoveAndRenameOperation successful" );
@@ -1663,7 +1696,7 @@ public class DefaultOperationManager implements OperationManager
             Entry originalEntry = getOriginalEntry( renameContext );
             renameContext.setOriginalEntry( originalEntry );
             renameContext.setModifiedEntry( originalEntry.clone() );
-            Interceptor head = directoryService.getInterceptor( renameContext.getNextInterceptor() );
+            Interceptor head = renameContext.nextInterceptor();
 
             // Start a Write transaction right away
             transaction = renameContext.getSession().getTransaction( partition ); 
@@ -1728,6 +1761,8 @@ public class DefaultOperationManager implements OperationManager
             unlockWrite();
         }
 
+        awaitDurability( renameContext, transaction );
+
         if ( IS_DEBUG )
         {
             OPERATION_LOG.debug( "<< RenameOperation successful" );
@@ -1815,7 +1850,7 @@ public class DefaultOperationManager implements OperationManager
         }
 
         // Call the Search method
-        Interceptor head = directoryService.getInterceptor( searchContext.getNextInterceptor() );
+        Interceptor head = searchContext.nextInterceptor();
 
         EntryFilteringCursor cursor = null;
         Partition partition = directoryService.getPartitionNexus().getPartition( dn );
@@ -1874,7 +1909,7 @@ public class DefaultOperationManager implements OperationManager
         ensureStarted();
 
         // Call the Unbind method
-        Interceptor head = directoryService.getInterceptor( unbindContext.getNextInterceptor() );
+        Interceptor head = unbindContext.nextInterceptor();
 
         head.unbind( unbindContext );
 
@@ -152,6 +152,9 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     /** a groupCache that responds to add, delete, and modify attempts */
     private GroupCache groupCache;
 
+    /** Tells if the groups of a user include the groups containing its groups */
+    private boolean nestedGroups;
+
     /** a normalizing ACIItem parser */
     private ACIItemParser aciParser;
 
@@ -179,6 +182,27 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * @return <code>true</code> if the groups of a user include the groups containing its groups
+     */
+    public boolean isNestedGroups()
+    {
+        return nestedGroups;
+    }
+
+
+    /**
+     * Tells if the groups of a user include the groups containing its groups, transitively.
+     * Must be set before the interceptor is initialized.
+     *
+     * @param nestedGroups <code>true</code> to expand the nested groups
+     */
+    public void setNestedGroups( boolean nestedGroups )
+    {
+        this.nestedGroups = nestedGroups;
+    }
+
+
     /**
      * Load the Tuples into the cache
      */
@@ -295,7 +319,7 @@ public class AciAuthorizationInterceptor extends BaseInterceptor
 
         // Create the caches
         tupleCache = new TupleCache( adminSession );
-        groupCache = new GroupCache( directoryService );
+        groupCache = new GroupCache( directoryService, nestedGroups );
 
         // Iitialize the ACI PARSER and ACDF engine
         aciParser = new ACIItemParser( new ConcreteNameComponentNormalizer( schemaManager ), schemaManager );
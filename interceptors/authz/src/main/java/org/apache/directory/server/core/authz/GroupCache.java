@@ -22,9 +22,7 @@ package org.apache.directory.server.core.authz;
 
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.naming.directory.SearchControls;
 
@@ -57,7 +55,9 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * A cache for tracking static group membership.
+ * A cache for tracking static group membership. The memberships are stored in a
+ * {@link GroupMembershipIndex}, which also knows the groups each member belongs to,
+ * and can expand the nested groups.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -89,21 +89,34 @@ public class GroupCache
     /** The Admin user DN */
     private Dn adminSystemDn;
 
-    private static final Set<String> EMPTY_GROUPS = new HashSet<>();
+    /** The members of each group, and the groups of each member */
+    private final GroupMembershipIndex groups;
 
-    /** String key for the Dn of a group to a Set (HashSet) for the Strings of member DNs */
-    private final Map<String, Set<String>> groups = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a static group cache, without nested groups expansion.
+     *
+     * @param dirService the directory service core
+     * @throws LdapException if there are failures on initialization
+     */
+    public GroupCache( DirectoryService dirService ) throws LdapException
+    {
+        this( dirService, false );
+    }
 
 
     /**
      * Creates a static group cache.
      *
      * @param dirService the directory service core
+     * @param nestedGroups tells if the groups a member belongs to include the groups containing
+     * them, transitively
      * @throws LdapException if there are failures on initialization
      */
-    public GroupCache( DirectoryService dirService ) throws LdapException
+    public GroupCache( DirectoryService dirService, boolean nestedGroups ) throws LdapException
     {
         this.directoryService = dirService;
+        groups = new GroupMembershipIndex( nestedGroups );
         schemaManager = dirService.getSchemaManager();
         dnFactory = dirService.getDnFactory();
         nexus = dirService.getPartitionNexus();
@@ -174,7 +187,7 @@ public class GroupCache
                         Set<String> memberSet = new HashSet<>( members.size() );
                         addMembers( memberSet, members );
 
-                        groups.put( groupDn.getNormName(), memberSet );
+                        groups.setMembers( groupDn.getNormName(), memberSet );
                     }
                     else
                     {
@@ -258,36 +271,6 @@ public class GroupCache
     }
 
 
-    /**
-     * Removes a set of member names from an existing set.
-     *
-     * @param memberSet the set of normalized member DNs
-     * @param members the set of member values
-     * @throws LdapException if there are problems accessing the attr values
-     */
-    private void removeMembers( Set<String> memberSet, Attribute members ) throws LdapException
-    {
-        for ( Value value : members )
-        {
-            // get and normalize the Dn of the member
-            String member = value.getString();
-            Dn memberDn = null;
-
-            try
-            {
-                memberDn = parseNormalized( member );
-            }
-            catch ( LdapException e )
-            {
-                LOG.warn( "Malformed member Dn in groupOf[Unique]Names entry.  Member not removed from GroupCache.", e );
-                continue;
-            }
-
-            memberSet.remove( memberDn.getNormName() );
-        }
-    }
-
-
     /**
      * Adds a groups members to the cache.  Called by interceptor to account for new
      * group additions.
@@ -308,7 +291,7 @@ public class GroupCache
         Set<String> memberSet = new HashSet<>( members.size() );
         addMembers( memberSet, members );
 
-        groups.put( name, memberSet );
+        groups.setMembers( name, memberSet );
 
         if ( IS_DEBUG )
         {
@@ -334,7 +317,7 @@ public class GroupCache
             return;
         }
 
-        groups.remove( name.getNormName() );
+        groups.removeGroup( name.getNormName() );
 
         if ( IS_DEBUG )
         {
@@ -344,35 +327,38 @@ public class GroupCache
 
 
     /**
-     * Utility method to modify a set of member names based on a modify operation
+     * Utility method to modify the members of a group based on a modify operation
      * that changes the members of a group.
      *
-     * @param memberSet the set of members to be altered
+     * @param group the normalized Dn of the group to be altered
      * @param modOp the type of modify operation being performed
      * @param members the members being added, removed or replaced
      * @throws LdapException if there are problems accessing attribute values
      */
-    private void modify( Set<String> memberSet, ModificationOperation modOp, Attribute members )
+    private void modify( String group, ModificationOperation modOp, Attribute members )
         throws LdapException
     {
+        Set<String> memberSet = new HashSet<>( members.size() );
 
         switch ( modOp )
         {
             case ADD_ATTRIBUTE:
                 addMembers( memberSet, members );
+                groups.addMembers( group, memberSet );
                 break;
 
             case REPLACE_ATTRIBUTE:
                 if ( members.size() > 0 )
                 {
-                    memberSet.clear();
                     addMembers( memberSet, members );
+                    groups.replaceMembers( group, memberSet );
                 }
 
                 break;
 
             case REMOVE_ATTRIBUTE:
-                removeMembers( memberSet, members );
+                addMembers( memberSet, members );
+                groups.removeMembers( group, memberSet );
                 break;
 
             default:
@@ -419,12 +405,7 @@ public class GroupCache
         {
             if ( memberAttr.getOid() == modification.getAttribute().getId() )
             {
-                Set<String> memberSet = groups.get( name.getNormName() );
-                
-                if ( memberSet != null )
-                {
-                    modify( memberSet, modification.getOperation(), modification.getAttribute() );
-                }
+                modify( name.getNormName(), modification.getOperation(), modification.getAttribute() );
 
                 break;
             }
@@ -455,12 +436,7 @@ public class GroupCache
             return;
         }
 
-        Set<String> memberSet = groups.get( name.getNormName() );
-
-        if ( memberSet != null )
-        {
-            modify( memberSet, modOp, members );
-        }
+        modify( name.getNormName(), modOp, members );
 
         if ( IS_DEBUG )
         {
@@ -483,23 +459,22 @@ public class GroupCache
             return true;
         }
 
-        Set<String> members = groups.get( administratorsGroupDn.getNormName() );
-        
-        if ( members == null )
+        if ( !groups.hasGroup( administratorsGroupDn.getNormName() ) )
         {
             LOG.warn( "What do you mean there is no administrators group? This is bad news." );
             return false;
         }
         else
         {
-            return members.contains( principalDn );
+            return groups.isMember( administratorsGroupDn.getNormName(), principalDn );
         }
     }
 
 
     /**
      * Gets the set of groups a user is a member of.  The groups are returned
-     * as normalized Name objects within the set.
+     * as normalized Name objects within the set. When the nested groups are expanded,
+     * the groups containing these groups are also returned.
      *
      * @param memberDn the member (user) to get the groups for
      * @return a Set of Name objects representing the groups
@@ -507,48 +482,14 @@ public class GroupCache
      */
     public Set<String> getGroups( String memberDn ) throws LdapException
     {
-        Set<String> memberGroups = null;
-
-        for ( Map.Entry<String, Set<String>> entry : groups.entrySet() )
-        {
-            String group = entry.getKey();
-            Set<String> members = entry.getValue();
-
-            if ( members == null )
-            {
-                continue;
-            }
-
-            if ( members.contains( memberDn ) )
-            {
-                if ( memberGroups == null )
-                {
-                    memberGroups = new HashSet<>();
-                }
-
-                memberGroups.add( group );
-            }
-        }
-
-        if ( memberGroups == null )
-        {
-            return EMPTY_GROUPS;
-        }
-
-        return memberGroups;
+        return groups.getGroups( memberDn );
     }
 
 
     public boolean groupRenamed( Dn oldName, Dn newName )
     {
-        Set<String> members = groups.get( oldName.getNormName() );
-
-        if ( members != null )
+        if ( groups.renameGroup( oldName.getNormName(), newName.getNormName() ) )
         {
-            groups.remove( oldName.getNormName() );
-
-            groups.put( newName.getNormName(), members );
-
             if ( IS_DEBUG )
             {
                 LOG.debug( "group cache contents after renaming '{}' :\n{}", oldName.getName(), groups );
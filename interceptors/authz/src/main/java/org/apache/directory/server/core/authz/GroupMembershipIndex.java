@@ -0,0 +1,496 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * The group memberships tracked by the {@link GroupCache}. All the DNs are normalized
+ * names.
+ * <br>
+ * The members of each group are stored, along with a reverse index giving the groups
+ * a DN is a direct member of, so that the groups of a user are found without iterating
+ * over all the groups.
+ * <br>
+ * When nested groups are enabled, a group being a member of another group, the groups of
+ * a user also include the groups its groups are members of, transitively. The transitive
+ * closure of the groups containing a group is computed when needed and memoized. When the
+ * members of a group change, only the closures of the added or removed member groups,
+ * and of the groups nested in them, are discarded.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupMembershipIndex
+{
+    /** The members of each group */
+    private final Map<String, Set<String>> groups = new HashMap<>();
+
+    /** The groups each DN is a direct member of */
+    private final Map<String, Set<String>> memberships = new HashMap<>();
+
+    /** The memoized transitive closures of the groups containing a group */
+    private final Map<String, Set<String>> closures = new ConcurrentHashMap<>();
+
+    /** Tells if the nested groups are expanded */
+    private final boolean nestedGroups;
+
+    /** The lock protecting the groups and memberships */
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+
+    /**
+     * Creates a new GroupMembershipIndex instance
+     *
+     * @param nestedGroups <code>true</code> if the nested groups are expanded
+     */
+    public GroupMembershipIndex( boolean nestedGroups )
+    {
+        this.nestedGroups = nestedGroups;
+    }
+
+
+    /**
+     * @return <code>true</code> if the nested groups are expanded
+     */
+    public boolean isNestedGroups()
+    {
+        return nestedGroups;
+    }
+
+
+    /**
+     * Sets the members of a group, replacing the existing ones if the group is already known
+     *
+     * @param group The group DN
+     * @param members The member DNs
+     */
+    public void setMembers( String group, Collection<String> members )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( group );
+
+            if ( memberSet == null )
+            {
+                memberSet = new HashSet<>( members.size() );
+                groups.put( group, memberSet );
+            }
+            else
+            {
+                for ( String member : memberSet.toArray( new String[memberSet.size()] ) )
+                {
+                    if ( !members.contains( member ) )
+                    {
+                        unlink( group, memberSet, member );
+                    }
+                }
+            }
+
+            for ( String member : members )
+            {
+                link( group, memberSet, member );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Adds some members to a known group
+     *
+     * @param group The group DN
+     * @param members The added member DNs
+     */
+    public void addMembers( String group, Collection<String> members )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( group );
+
+            if ( memberSet != null )
+            {
+                for ( String member : members )
+                {
+                    link( group, memberSet, member );
+                }
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes some members from a known group
+     *
+     * @param group The group DN
+     * @param members The removed member DNs
+     */
+    public void removeMembers( String group, Collection<String> members )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( group );
+
+            if ( memberSet != null )
+            {
+                for ( String member : members )
+                {
+                    unlink( group, memberSet, member );
+                }
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Replaces the members of a known group
+     *
+     * @param group The group DN
+     * @param members The new member DNs
+     */
+    public void replaceMembers( String group, Collection<String> members )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            if ( groups.containsKey( group ) )
+            {
+                setMembers( group, members );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Removes a group
+     *
+     * @param group The group DN
+     */
+    public void removeGroup( String group )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( group );
+
+            if ( memberSet != null )
+            {
+                for ( String member : memberSet.toArray( new String[memberSet.size()] ) )
+                {
+                    unlink( group, memberSet, member );
+                }
+
+                groups.remove( group );
+            }
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Renames a group. The groups the renamed group is a member of are not modified.
+     *
+     * @param oldGroup The former group DN
+     * @param newGroup The new group DN
+     * @return <code>true</code> if the group was known
+     */
+    public boolean renameGroup( String oldGroup, String newGroup )
+    {
+        rwLock.writeLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( oldGroup );
+
+            if ( memberSet == null )
+            {
+                return false;
+            }
+
+            Set<String> members = new HashSet<>( memberSet );
+            removeGroup( oldGroup );
+            setMembers( newGroup, members );
+
+            return true;
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if a DN is a direct member of a group
+     *
+     * @param group The group DN
+     * @param member The member DN
+     * @return <code>true</code> if the group is known and contains the member
+     */
+    public boolean isMember( String group, String member )
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            Set<String> memberSet = groups.get( group );
+
+            return ( memberSet != null ) && memberSet.contains( member );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Tells if a group is known
+     *
+     * @param group The group DN
+     * @return <code>true</code> if the group is known
+     */
+    public boolean hasGroup( String group )
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            return groups.containsKey( group );
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the groups a DN is a member of, including the groups containing these groups
+     * when the nested groups are expanded.
+     *
+     * @param member The member DN
+     * @return The group DNs, never null
+     */
+    public Set<String> getGroups( String member )
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            Set<String> directGroups = memberships.get( member );
+
+            if ( directGroups == null )
+            {
+                return Collections.emptySet();
+            }
+
+            Set<String> memberGroups = new HashSet<>( directGroups );
+
+            if ( nestedGroups )
+            {
+                for ( String group : directGroups )
+                {
+                    memberGroups.addAll( getClosure( group ) );
+                }
+            }
+
+            return memberGroups;
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Gets the memoized closure of the groups containing a group, computing it if needed.
+     * Must be called while holding the lock.
+     */
+    private Set<String> getClosure( String group )
+    {
+        Set<String> closure = closures.get( group );
+
+        if ( closure != null )
+        {
+            return closure;
+        }
+
+        closure = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push( group );
+
+        while ( !pending.isEmpty() )
+        {
+            Set<String> parents = memberships.get( pending.pop() );
+
+            if ( parents != null )
+            {
+                for ( String parent : parents )
+                {
+                    if ( closure.add( parent ) )
+                    {
+                        pending.push( parent );
+                    }
+                }
+            }
+        }
+
+        closure = Collections.unmodifiableSet( closure );
+        closures.put( group, closure );
+
+        return closure;
+    }
+
+
+    /**
+     * Discards the memoized closures of a group and of all the groups nested in it.
+     * Must be called while holding the write lock.
+     */
+    private void invalidate( String group )
+    {
+        if ( closures.isEmpty() )
+        {
+            return;
+        }
+
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push( group );
+
+        while ( !pending.isEmpty() )
+        {
+            String current = pending.pop();
+
+            if ( !visited.add( current ) )
+            {
+                continue;
+            }
+
+            closures.remove( current );
+            Set<String> members = groups.get( current );
+
+            if ( members != null )
+            {
+                for ( String member : members )
+                {
+                    if ( groups.containsKey( member ) )
+                    {
+                        pending.push( member );
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Adds a member to a group, updating the reverse index
+     */
+    private void link( String group, Set<String> memberSet, String member )
+    {
+        if ( memberSet.add( member ) )
+        {
+            memberships.computeIfAbsent( member, k -> new HashSet<>() ).add( group );
+            invalidate( member );
+        }
+    }
+
+
+    /**
+     * Removes a member from a group, updating the reverse index
+     */
+    private void unlink( String group, Set<String> memberSet, String member )
+    {
+        if ( memberSet.remove( member ) )
+        {
+            Set<String> memberGroups = memberships.get( member );
+
+            if ( memberGroups != null )
+            {
+                memberGroups.remove( group );
+
+                if ( memberGroups.isEmpty() )
+                {
+                    memberships.remove( member );
+                }
+            }
+
+            invalidate( member );
+        }
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        rwLock.readLock().lock();
+
+        try
+        {
+            return groups.toString();
+        }
+        finally
+        {
+            rwLock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.authz;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link GroupMembershipIndex} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class GroupMembershipIndexTest
+{
+    private static Set<String> set( String... values )
+    {
+        return new HashSet<>( Arrays.asList( values ) );
+    }
+
+
+    @Test
+    public void testDirectGroups()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex( false );
+        index.setMembers( "cn=g1", set( "uid=a", "uid=b" ) );
+        index.setMembers( "cn=g2", set( "uid=b", "cn=g1" ) );
+
+        assertEquals( set( "cn=g1" ), index.getGroups( "uid=a" ) );
+        assertEquals( set( "cn=g1", "cn=g2" ), index.getGroups( "uid=b" ) );
+        assertEquals( Collections.emptySet(), index.getGroups( "uid=c" ) );
+
+        index.addMembers( "cn=g2", set( "uid=a" ) );
+        index.removeMembers( "cn=g1", set( "uid=b" ) );
+        assertEquals( set( "cn=g1", "cn=g2" ), index.getGroups( "uid=a" ) );
+        assertEquals( set( "cn=g2" ), index.getGroups( "uid=b" ) );
+
+        index.replaceMembers( "cn=g2", set( "uid=c" ) );
+        assertEquals( set( "cn=g1" ), index.getGroups( "uid=a" ) );
+        assertEquals( Collections.emptySet(), index.getGroups( "uid=b" ) );
+        assertEquals( set( "cn=g2" ), index.getGroups( "uid=c" ) );
+
+        // Unknown groups are not modified
+        index.addMembers( "cn=g3", set( "uid=a" ) );
+        assertFalse( index.hasGroup( "cn=g3" ) );
+
+        assertTrue( index.renameGroup( "cn=g1", "cn=g4" ) );
+        assertFalse( index.renameGroup( "cn=g1", "cn=g5" ) );
+        assertEquals( set( "cn=g4" ), index.getGroups( "uid=a" ) );
+        assertTrue( index.isMember( "cn=g4", "uid=a" ) );
+        assertFalse( index.isMember( "cn=g1", "uid=a" ) );
+
+        index.removeGroup( "cn=g4" );
+        assertEquals( Collections.emptySet(), index.getGroups( "uid=a" ) );
+        assertFalse( index.hasGroup( "cn=g4" ) );
+    }
+
+
+    @Test
+    public void testNestedGroups()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex( true );
+        index.setMembers( "cn=g1", set( "uid=a" ) );
+        index.setMembers( "cn=g2", set( "cn=g1" ) );
+        index.setMembers( "cn=g3", set( "cn=g2", "uid=b" ) );
+
+        assertEquals( set( "cn=g1", "cn=g2", "cn=g3" ), index.getGroups( "uid=a" ) );
+        assertEquals( set( "cn=g3" ), index.getGroups( "uid=b" ) );
+
+        // A new group containing g2 is seen by the members of g1
+        index.setMembers( "cn=g4", set( "cn=g2" ) );
+        assertEquals( set( "cn=g1", "cn=g2", "cn=g3", "cn=g4" ), index.getGroups( "uid=a" ) );
+
+        // Cutting g2 from g3
+        index.removeMembers( "cn=g3", set( "cn=g2" ) );
+        assertEquals( set( "cn=g1", "cn=g2", "cn=g4" ), index.getGroups( "uid=a" ) );
+
+        // Renaming g2 removes it from g4, which is not updated
+        index.renameGroup( "cn=g2", "cn=g5" );
+        assertEquals( set( "cn=g1", "cn=g5" ), index.getGroups( "uid=a" ) );
+
+        index.removeGroup( "cn=g5" );
+        assertEquals( set( "cn=g1" ), index.getGroups( "uid=a" ) );
+    }
+
+
+    @Test
+    public void testNestedGroupsCycle()
+    {
+        GroupMembershipIndex index = new GroupMembershipIndex( true );
+        index.setMembers( "cn=g1", set( "uid=a", "cn=g2" ) );
+        index.setMembers( "cn=g2", set( "cn=g1" ) );
+
+        assertEquals( set( "cn=g1", "cn=g2" ), index.getGroups( "uid=a" ) );
+
+        index.removeMembers( "cn=g2", set( "cn=g1" ) );
+        assertEquals( set( "cn=g1" ), index.getGroups( "uid=a" ) );
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ * 
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ * 
+ */
+package org.apache.directory.server.core.collective;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.event.CacheInvalidations;
+
+
+/**
+ * A cache for the collective attributes injected in the entries. It holds the collective
+ * attributes of each collectiveAttributeSubentry, and the merged collective attributes of
+ * each set of subentries an entry can reference, for each set of exclusions. The cached
+ * attributes must not be modified.
+ * <br>
+ * The subentries are read when first needed. The cache must be invalidated when a
+ * subentry is modified.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class CollectiveAttributeCache
+{
+    /** The maximum number of merged bundles. The cache is cleared when it's reached */
+    private static final int MAX_MERGED_BUNDLES = 1000;
+
+    /** The factory used to parse the subentries' DNs */
+    private final DnFactory dnFactory;
+
+    /** The collective attributes of each subentry, by normalized Dn */
+    private final Map<String, List<Attribute>> subentryBundles = new ConcurrentHashMap<>();
+
+    /** The merged collective attributes, by subentries and exclusions */
+    private final Map<BundleKey, List<Attribute>> mergedBundles = new ConcurrentHashMap<>();
+
+    /** Counts the invalidations, so that a bundle read meanwhile is not cached */
+    private final CacheInvalidations invalidations = new CacheInvalidations();
+
+
+    /**
+     * Reads the collective attributes of a subentry
+     */
+    @FunctionalInterface
+    interface SubentryReader
+    {
+        /**
+         * Reads a subentry.
+         *
+         * @param subentryDn The subentry's Dn
+         * @return The subentry
+         * @throws LdapException If the subentry can't be read
+         */
+        Entry read( Dn subentryDn ) throws LdapException;
+    }
+
+
+    /**
+     * The key of a merged bundle : the normalized DNs of the subentries, and the OIDs
+     * of the excluded collective attributes, both sorted
+     */
+    private static final class BundleKey
+    {
+        private final String[] subentries;
+        private final String[] exclusions;
+        private final int hashCode;
+
+
+        private BundleKey( String[] subentries, String[] exclusions )
+        {
+            this.subentries = subentries;
+            this.exclusions = exclusions;
+            hashCode = 31 * Arrays.hashCode( subentries ) + Arrays.hashCode( exclusions );
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof BundleKey ) )
+            {
+                return false;
+            }
+
+            BundleKey that = ( BundleKey ) obj;
+
+            return ( hashCode == that.hashCode ) && Arrays.equals( subentries, that.subentries )
+                && Arrays.equals( exclusions, that.exclusions );
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CollectiveAttributeCache.
+     *
+     * @param dnFactory The factory used to parse the subentries' DNs
+     */
+    CollectiveAttributeCache( DnFactory dnFactory )
+    {
+        this.dnFactory = dnFactory;
+    }
+
+
+    /**
+     * Gets the collective attributes an entry inherits from its subentries.
+     *
+     * @param collectiveAttributeSubentries The entry's collectiveAttributeSubentries attribute
+     * @param exclusions The collective attributes excluded by the entry
+     * @param reader The reader used to read the subentries which are not in the cache
+     * @return The merged collective attributes, which must not be modified
+     * @throws LdapException If a subentry can't be read
+     */
+    List<Attribute> getCollectiveAttributes( Attribute collectiveAttributeSubentries, Set<AttributeType> exclusions,
+        SubentryReader reader ) throws LdapException
+    {
+        String[] subentryNames = new String[collectiveAttributeSubentries.size()];
+        int pos = 0;
+
+        for ( Value value : collectiveAttributeSubentries )
+        {
+            subentryNames[pos++] = value.getNormalized();
+        }
+
+        Arrays.sort( subentryNames );
+
+        String[] excludedOids = new String[exclusions.size()];
+        pos = 0;
+
+        for ( AttributeType attributeType : exclusions )
+        {
+            excludedOids[pos++] = attributeType.getOid();
+        }
+
+        Arrays.sort( excludedOids );
+
+        BundleKey key = new BundleKey( subentryNames, excludedOids );
+        List<Attribute> merged = mergedBundles.get( key );
+
+        if ( merged != null )
+        {
+            return merged;
+        }
+
+        long invalidationCount = invalidations.get();
+
+        // Merge the values of each collective attribute, in the subentries order
+        Map<AttributeType, Attribute> attributes = new LinkedHashMap<>();
+
+        for ( Value value : collectiveAttributeSubentries )
+        {
+            for ( Attribute subentryAttribute : getSubentryBundle( value, reader, invalidationCount ) )
+            {
+                AttributeType attributeType = subentryAttribute.getAttributeType();
+
+                if ( exclusions.contains( attributeType ) )
+                {
+                    continue;
+                }
+
+                Attribute attribute = attributes.get( attributeType );
+
+                if ( attribute == null )
+                {
+                    attributes.put( attributeType, subentryAttribute.clone() );
+                }
+                else
+                {
+                    for ( Value subentryValue : subentryAttribute )
+                    {
+                        attribute.add( subentryValue );
+                    }
+                }
+            }
+        }
+
+        List<Attribute> bundle = Collections.unmodifiableList( new ArrayList<>( attributes.values() ) );
+
+        invalidations.runIfUnchanged( invalidationCount, () ->
+        {
+            if ( mergedBundles.size() >= MAX_MERGED_BUNDLES )
+            {
+                mergedBundles.clear();
+            }
+
+            mergedBundles.put( key, bundle );
+        } );
+
+        return bundle;
+    }
+
+
+    /**
+     * Gets the collective attributes of a subentry, reading the subentry if needed
+     */
+    private List<Attribute> getSubentryBundle( Value value, SubentryReader reader, long invalidationCount )
+        throws LdapException
+    {
+        Dn subentryDn = dnFactory.create( value.getString() );
+        List<Attribute> bundle = subentryBundles.get( subentryDn.getNormName() );
+
+        if ( bundle != null )
+        {
+            return bundle;
+        }
+
+        Entry subentry = reader.read( subentryDn );
+        List<Attribute> collectiveAttributes = new ArrayList<>();
+
+        for ( Attribute attribute : subentry )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( attributeType.isCollective() )
+            {
+                Attribute collectiveAttribute = new DefaultAttribute( attributeType );
+
+                for ( Value attributeValue : attribute )
+                {
+                    collectiveAttribute.add( attributeValue );
+                }
+
+                collectiveAttributes.add( collectiveAttribute );
+            }
+        }
+
+        List<Attribute> readBundle = Collections.unmodifiableList( collectiveAttributes );
+
+        invalidations.runIfUnchanged( invalidationCount,
+            () -> subentryBundles.put( subentryDn.getNormName(), readBundle ) );
+
+        return readBundle;
+    }
+
+
+    /**
+     * Removes a subentry from the cache, and all the merged bundles.
+     *
+     * @param subentryDn The Dn of the subentry
+     */
+    void invalidate( Dn subentryDn )
+    {
+        invalidations.invalidate( () ->
+        {
+            subentryBundles.remove( subentryDn.getNormName() );
+            mergedBundles.clear();
+        } );
+    }
+
+
+    /**
+     * Removes all the subentries from the cache.
+     */
+    void invalidateAll()
+    {
+        invalidations.invalidate( () ->
+        {
+            subentryBundles.clear();
+            mergedBundles.clear();
+        } );
+    }
+}
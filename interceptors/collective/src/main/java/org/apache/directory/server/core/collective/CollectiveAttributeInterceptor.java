@@ -26,7 +26,6 @@ import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
-import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
@@ -46,9 +45,13 @@ import org.apache.directory.server.core.api.filtering.EntryFilter;
 import org.apache.directory.server.core.api.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.FilteringOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
 import org.apache.directory.server.i18n.I18n;
 import org.slf4j.Logger;
@@ -108,6 +111,9 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     /** The CollectiveAttribute search filter */
     private final EntryFilter searchFilter = new CollectiveAttributeFilter();
 
+    /** The collective attributes of the subentries */
+    private CollectiveAttributeCache collectiveAttributeCache;
+
 
     //-------------------------------------------------------------------------------------
     // Initialization
@@ -120,6 +126,8 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     {
         super.init( directoryService );
 
+        collectiveAttributeCache = new CollectiveAttributeCache( dnFactory );
+
         LOG.debug( "CollectiveAttribute interceptor initialized" );
     }
 
@@ -136,6 +144,27 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         checkAdd( addContext.getDn(), addContext.getEntry() );
 
         next( addContext );
+
+        // A subentry may have existed with the same Dn
+        if ( isCollectiveAttributeSubentry( addContext.getEntry() ) )
+        {
+            collectiveAttributeCache.invalidate( addContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void delete( DeleteOperationContext deleteContext ) throws LdapException
+    {
+        next( deleteContext );
+
+        if ( ( deleteContext.getEntry() == null ) || isCollectiveAttributeSubentry( deleteContext.getEntry() ) )
+        {
+            collectiveAttributeCache.invalidate( deleteContext.getDn() );
+        }
     }
 
 
@@ -169,6 +198,49 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         checkModify( modifyContext );
 
         next( modifyContext );
+
+        if ( isCollectiveAttributeSubentry( modifyContext.getEntry() )
+            || isCollectiveAttributeSubentry( modifyContext.getAlteredEntry() ) )
+        {
+            collectiveAttributeCache.invalidate( modifyContext.getDn() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void move( MoveOperationContext moveContext ) throws LdapException
+    {
+        next( moveContext );
+
+        // The moved entry may be a subentry, or the ancestor of some subentries
+        collectiveAttributeCache.invalidateAll();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void moveAndRename( MoveAndRenameOperationContext moveAndRenameContext ) throws LdapException
+    {
+        next( moveAndRenameContext );
+
+        collectiveAttributeCache.invalidateAll();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rename( RenameOperationContext renameContext ) throws LdapException
+    {
+        next( renameContext );
+
+        collectiveAttributeCache.invalidateAll();
     }
 
 
@@ -303,6 +375,16 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
     }
 
 
+    /**
+     * Tells if an entry is a collectiveAttributeSubentry
+     */
+    private boolean isCollectiveAttributeSubentry( Entry entry )
+    {
+        return ( entry != null ) && entry.contains( directoryService.getAtProvider().getObjectClass(),
+            SchemaConstants.COLLECTIVE_ATTRIBUTE_SUBENTRY_OC );
+    }
+
+
     /**
      * Check if the entry contains any collective AttributeType (those starting with 'c-')
      */
@@ -390,86 +472,53 @@ public class CollectiveAttributeInterceptor extends BaseInterceptor
         }
 
         /*
-         * For each collective subentry referenced by the entry we lookup the
-         * attributes of the subentry and copy collective attributes from the
-         * subentry into the entry.
+         * The collective attributes of the subentries referenced by the entry are
+         * read once, and merged once for each set of subentries and exclusions.
          */
-        for ( Value value : collectiveAttributeSubentries )
-        {
-            String subentryDnStr = value.getString();
-            Dn subentryDn = dnFactory.create( subentryDnStr );
-
-            LOG.debug( "Applying subentries {}", subentryDn.getName() );
-
-            /*
-             * TODO - Instead of hitting disk here can't we leverage the
-             * SubentryService to get us cached sub-entries so we're not
-             * wasting time with a lookup here? It is ridiculous to waste
-             * time looking up this sub-entry.
-             */
-
-            LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
-                SchemaConstants.ALL_ATTRIBUTES_ARRAY );
-            lookupContext.setPartition( opContext.getPartition() );
-            lookupContext.setTransaction( opContext.getTransaction() );
-
-            Entry subentry = directoryService.getPartitionNexus().lookup( lookupContext );
-
-            //LOG.debug( "Fetched the subentry : {}", subentry.getDn().getName() );
-
-            for ( Attribute attribute : subentry.getAttributes() )
+        List<Attribute> collectiveAttributes = collectiveAttributeCache.getCollectiveAttributes(
+            collectiveAttributeSubentries, exclusions, subentryDn ->
             {
-                AttributeType attributeType = attribute.getAttributeType();
+                LOG.debug( "Reading the subentry {}", subentryDn.getName() );
 
-                // Skip the attributes which are not collective
-                if ( !attributeType.isCollective() )
-                {
-                    //LOG.debug( "The {} subentry attribute is not collective", attributeType.getName() );
-                    continue;
-                }
+                LookupOperationContext lookupContext = new LookupOperationContext( session, subentryDn,
+                    SchemaConstants.ALL_ATTRIBUTES_ARRAY );
+                lookupContext.setPartition( opContext.getPartition() );
+                lookupContext.setTransaction( opContext.getTransaction() );
 
-                /*
-                 * Skip the addition of this collective attribute if it is excluded
-                 * in the 'collectiveAttributes' attribute.
-                 */
-                if ( exclusions.contains( attributeType ) )
-                {
-                    LOG.debug( "The {} subentry attribute has been removed, it's in the exclusion list",
-                        attributeType.getName() );
-                    continue;
-                }
+                return directoryService.getPartitionNexus().lookup( lookupContext );
+            } );
 
-                /*
-                 * If not all attributes or this collective attribute requested specifically
-                 * then bypass the inclusion process.
-                 */
-                if ( !opContext.isAllUserAttributes() && !opContext.contains( schemaManager, attributeType ) )
-                {
-                    LOG.debug( "The {} subentry attribute is not in the list of attributes to return",
-                        attributeType.getName() );
-                    continue;
-                }
+        for ( Attribute collectiveAttribute : collectiveAttributes )
+        {
+            AttributeType attributeType = collectiveAttribute.getAttributeType();
 
-                Attribute subentryColAttr = subentry.get( attributeType );
-                Attribute entryColAttr = entry.get( attributeType );
+            /*
+             * If not all attributes or this collective attribute requested specifically
+             * then bypass the inclusion process.
+             */
+            if ( !opContext.isAllUserAttributes() && !opContext.contains( schemaManager, attributeType ) )
+            {
+                LOG.debug( "The {} subentry attribute is not in the list of attributes to return",
+                    attributeType.getName() );
+                continue;
+            }
 
-                /*
-                 * If entry does not have attribute for collective attribute then create it.
-                 */
-                if ( entryColAttr == null )
-                {
-                    entryColAttr = new DefaultAttribute( attributeType );
-                    entry.put( entryColAttr );
-                }
+            Attribute entryColAttr = entry.get( attributeType );
 
-                /*
-                 *  Add all the collective attribute values in the subentry
-                 *  to the currently processed collective attribute in the entry.
-                 */
-                for ( Value subentryColVal : subentryColAttr )
+            /*
+             * If entry does not have attribute for collective attribute then add a copy
+             * of the cached one, otherwise add all the collective attribute values.
+             */
+            if ( entryColAttr == null )
+            {
+                LOG.debug( "Adding the {} collective attribute into the entry", collectiveAttribute );
+                entry.put( collectiveAttribute.clone() );
+            }
+            else
+            {
+                for ( Value value : collectiveAttribute )
                 {
-                    LOG.debug( "Adding the {} collective attribute into the entry", subentryColAttr );
-                    entryColAttr.add( subentryColVal.getString() );
+                    entryColAttr.add( value );
                 }
             }
         }
@@ -26,7 +26,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -38,6 +39,7 @@ import org.apache.directory.api.ldap.model.entry.ModificationOperation;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.MatchingRule;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.entry.ClonedServerEntry;
@@ -47,12 +49,19 @@ import org.apache.directory.server.core.api.interceptor.context.LookupOperationC
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * An interceptor to increment any attribute with integer matching rule
+ * An interceptor to increment any attribute with integer matching rule.
+ * <br>
+ * The numbers are reserved by blocks : the last reserved number of each attribute is
+ * stored in the holder entry, and the numbers of the block are then allocated from memory,
+ * without any lock. A block is durable before any of its numbers is allocated, and the
+ * numbers of the current blocks which have not been allocated are skipped when the server
+ * is restarted.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -61,11 +70,106 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
     /** A {@link Logger} for this class */
     private static final Logger LOG = LoggerFactory.getLogger( NumberIncrementingInterceptor.class );
 
+    /** The default number of numbers reserved at once */
+    public static final int DEFAULT_RESERVATION_SIZE = 100;
+
     /** the DN of the holder entry */
     private Dn numberHolder;
     
-    /** a map of integer attribute and it's present value */
-    private Map<String, AtomicInteger> incMap = new HashMap<>();
+    /** a map of integer attribute and it's counter */
+    private Map<String, Counter> incMap = new HashMap<>();
+
+    /** The number of numbers reserved at once */
+    private int reservationSize = DEFAULT_RESERVATION_SIZE;
+
+    /** The number of allocated numbers */
+    private final LongAdder allocationCount = new LongAdder();
+
+    /** The number of reservations written in the holder entry */
+    private final LongAdder reservationCount = new LongAdder();
+
+    /** The time the interceptor has been initialized at */
+    private long startTime;
+
+
+    /**
+     * The numbers of an attribute : the numbers up to the limit are reserved, and can be
+     * allocated
+     */
+    private static final class Counter
+    {
+        /** The attribute the numbers are allocated for */
+        private final AttributeType attributeType;
+
+        /** The next number to allocate */
+        private final AtomicLong next;
+
+        /** The last reserved number */
+        private volatile long limit;
+
+
+        private Counter( AttributeType attributeType, long stored )
+        {
+            this.attributeType = attributeType;
+            next = new AtomicLong( stored + 1 );
+            limit = stored;
+        }
+    }
+
+
+    /**
+     * @return The number of numbers reserved at once
+     */
+    public int getReservationSize()
+    {
+        return reservationSize;
+    }
+
+
+    /**
+     * Sets the number of numbers reserved at once, with a single write in the holder
+     * entry. At most this number of numbers are skipped when the server is restarted.
+     *
+     * @param reservationSize The number of numbers reserved at once
+     */
+    public void setReservationSize( int reservationSize )
+    {
+        if ( reservationSize < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid reservation size : " + reservationSize );
+        }
+
+        this.reservationSize = reservationSize;
+    }
+
+
+    /**
+     * @return The number of allocated numbers
+     */
+    public long getAllocationCount()
+    {
+        return allocationCount.sum();
+    }
+
+
+    /**
+     * @return The number of reservations written in the holder entry
+     */
+    public long getReservationCount()
+    {
+        return reservationCount.sum();
+    }
+
+
+    /**
+     * @return The number of numbers allocated per second, since the interceptor has been initialized
+     */
+    public double getAllocationRate()
+    {
+        long elapsed = System.currentTimeMillis() - startTime;
+
+        return ( elapsed > 0L ) ? ( allocationCount.sum() * 1000d ) / elapsed : 0d;
+    }
     
     
     @Override
@@ -73,6 +177,7 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
     {
         super.init( directoryService );
         
+        startTime = System.currentTimeMillis();
         numberHolder = new Dn( schemaManager, "ou=autoIncDataHolder,ou=system" );
         
         Partition systemPartition = directoryService.getSystemPartition();
@@ -157,8 +262,8 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
                 
                 if ( ( mr != null ) && SchemaConstants.INTEGER_MATCH_MR_OID.equals( mr.getOid() ) )
                 {
-                    int t = Integer.parseInt( at.getString() );
-                    incMap.put( at.getId(), new AtomicInteger( t ) );
+                    long t = Long.parseLong( at.getString() );
+                    incMap.put( at.getId(), new Counter( at.getAttributeType(), t ) );
                 }
             }
         }
@@ -201,36 +306,128 @@ public class NumberIncrementingInterceptor extends BaseInterceptor
 
         for ( Attribute at : lst )
         {
-            int stored = incMap.get( at.getId() ).get();
+            long number = allocate( incMap.get( at.getId() ) );
             at.clear();
-            at.add( String.valueOf( stored + 1 ) );
+            at.add( String.valueOf( number ) );
         }
         
         // Ok, we are golden.
         next( addContext );
+    }
 
-        ModifyOperationContext bindModCtx = new ModifyOperationContext( directoryService.getAdminSession() );
-        bindModCtx.setDn( numberHolder );
-        bindModCtx.setPushToEvtInterceptor( true );
 
-        List<Modification> mods = new ArrayList<>();
+    /**
+     * Allocates the next number of a counter, reserving a new block if the current one
+     * is exhausted
+     */
+    private long allocate( Counter counter ) throws LdapException
+    {
+        while ( true )
+        {
+            long number = counter.next.get();
 
-        for ( Attribute at : lst )
+            if ( number <= counter.limit )
+            {
+                if ( counter.next.compareAndSet( number, number + 1 ) )
+                {
+                    allocationCount.increment();
+
+                    return number;
+                }
+            }
+            else
+            {
+                reserve( counter, number );
+            }
+        }
+    }
+
+
+    /**
+     * Reserves the block of numbers starting at a given number, if it's not already done.
+     * The block is stored in the holder entry before any of its numbers is allocated.
+     */
+    private void reserve( Counter counter, long first ) throws LdapException
+    {
+        synchronized ( counter )
         {
-            AtomicInteger ai = incMap.get( at.getId() );
-            ai.set( ai.get() + 1 );
-            
-            Modification mod = new DefaultModification();
-            mod.setOperation( ModificationOperation.REPLACE_ATTRIBUTE );
-            mod.setAttribute( at );
-            
-            mods.add( mod );
+            if ( first <= counter.limit )
+            {
+                // Another thread has reserved the block
+                return;
+            }
+
+            long limit = first + reservationSize - 1;
+
+            Partition systemPartition = directoryService.getSystemPartition();
+            ModifyOperationContext bindModCtx = new ModifyOperationContext( directoryService.getAdminSession() );
+            bindModCtx.setDn( numberHolder );
+            bindModCtx.setPushToEvtInterceptor( true );
+            bindModCtx.setPartition( systemPartition );
+
+            List<Modification> mods = new ArrayList<>();
+            mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, counter.attributeType,
+                String.valueOf( limit ) ) );
+            bindModCtx.setModItems( mods );
+
+            PartitionWriteTxn partitionTxn = null;
+
+            try
+            {
+                partitionTxn = systemPartition.beginWriteTransaction();
+                bindModCtx.setTransaction( partitionTxn );
+
+                directoryService.getPartitionNexus().modify( bindModCtx );
+                partitionTxn.commit();
+            }
+            catch ( LdapException le )
+            {
+                abort( partitionTxn );
+
+                throw le;
+            }
+            catch ( IOException ioe )
+            {
+                abort( partitionTxn );
+
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            try
+            {
+                // The numbers of the block can't be allocated before the block is durable,
+                // otherwise they could be allocated again after a crash
+                partitionTxn.awaitDurability();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            counter.limit = limit;
+            reservationCount.increment();
+
+            LOG.debug( "Reserved the numbers {} to {} of {} in {}", first, limit, counter.attributeType.getName(),
+                numberHolder );
+        }
+    }
+
+
+    /**
+     * Aborts a transaction, if any
+     */
+    private void abort( PartitionTxn partitionTxn ) throws LdapException
+    {
+        if ( partitionTxn != null )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
         }
-        
-        bindModCtx.setModItems( mods );
-        
-        directoryService.getPartitionNexus().modify( bindModCtx );
-        
-        LOG.debug( "Successfully updated numeric attribute in {}", numberHolder );
     }
 }
@@ -0,0 +1,396 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.apache.directory.server.core.avltree.Marshaller;
+
+
+/**
+ * A sorted page of duplicate values, stored in the main JDBM BTree of a {@link JdbmTable}
+ * when a key has less values than the duplicate limit.
+ * <br>
+ * The serialized form is :
+ * <pre>
+ * [2][nb values (int)][end offset of each value (int)]*[serialized values]
+ * </pre>
+ * As the position of each serialized value is known, the values can be searched for
+ * using a binary search, deserializing only the compared values, and a value can be
+ * added or removed by copying the bytes of the other values, without deserializing nor
+ * serializing them.
+ * <br>
+ * The previous format, an {@link ArrayTree} serialized by an ArrayMarshaller, starts
+ * with a 0 byte, and the BTreeRedirect serialized form with a 1 byte : the three 
+ * forms can be distinguished by their first byte.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DupsPage<V>
+{
+    /** The first byte of a serialized page */
+    static final byte MAGIC = 2;
+
+    /** The size of the page header, without the offsets */
+    private static final int HEADER_SIZE = 5;
+
+    /** The serialized page */
+    private final byte[] bytes;
+
+    /** The number of values in the page */
+    private final int size;
+
+    /** The comparator used to sort the values */
+    private final Comparator<V> comparator;
+
+    /** The marshaller used to serialize the values */
+    private final Marshaller<V> marshaller;
+
+
+    /**
+     * Creates a DupsPage instance over a serialized page
+     *
+     * @param bytes The serialized page
+     * @param comparator The comparator used to sort the values
+     * @param marshaller The marshaller used to serialize the values
+     */
+    DupsPage( byte[] bytes, Comparator<V> comparator, Marshaller<V> marshaller )
+    {
+        this.bytes = bytes;
+        this.size = readInt( bytes, 1 );
+        this.comparator = comparator;
+        this.marshaller = marshaller;
+    }
+
+
+    /**
+     * Checks to see if a byte[] contains a page of values.
+     *
+     * @param bytes the bytes to check
+     * @return true if the bytes contain a DupsPage
+     */
+    static boolean isPage( byte[] bytes )
+    {
+        return ( bytes != null ) && ( bytes.length >= HEADER_SIZE ) && ( bytes[0] == MAGIC );
+    }
+
+
+    /**
+     * Serializes the values of an ArrayTree in a new page
+     *
+     * @param arrayTree The values to store
+     * @param marshaller The marshaller used to serialize the values
+     * @return The serialized page
+     * @throws IOException If a value can't be serialized
+     */
+    static <V> byte[] serialize( ArrayTree<V> arrayTree, Marshaller<V> marshaller ) throws IOException
+    {
+        int nbValues = arrayTree.size();
+        byte[][] values = new byte[nbValues][];
+        int dataSize = 0;
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            values[i] = marshaller.serialize( arrayTree.get( i ) );
+            dataSize += values[i].length;
+        }
+
+        int dataStart = HEADER_SIZE + nbValues * 4;
+        byte[] page = new byte[dataStart + dataSize];
+        page[0] = MAGIC;
+        writeInt( page, 1, nbValues );
+        int end = 0;
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            System.arraycopy( values[i], 0, page, dataStart + end, values[i].length );
+            end += values[i].length;
+            writeInt( page, HEADER_SIZE + i * 4, end );
+        }
+
+        return page;
+    }
+
+
+    /**
+     * @return The serialized page
+     */
+    byte[] getBytes()
+    {
+        return bytes;
+    }
+
+
+    /**
+     * @return The number of values in this page
+     */
+    int size()
+    {
+        return size;
+    }
+
+
+    /**
+     * Gets the value at a given position
+     *
+     * @param position The value position
+     * @return The deserialized value
+     * @throws IOException If the value can't be deserialized
+     */
+    V get( int position ) throws IOException
+    {
+        int start = getStart( position );
+        int end = getEnd( position );
+        byte[] value = new byte[end - start];
+        System.arraycopy( bytes, getDataStart() + start, value, 0, value.length );
+
+        return marshaller.deserialize( value );
+    }
+
+
+    /**
+     * Searches a value in the page.
+     *
+     * @param value The searched value
+     * @return The position of the value if found, otherwise <code>-(insertion point) - 1</code>
+     * @throws IOException If a value can't be deserialized
+     */
+    int indexOf( V value ) throws IOException
+    {
+        int low = 0;
+        int high = size - 1;
+
+        // A fast path for the values added in order
+        if ( ( size > 0 ) && ( comparator.compare( get( high ), value ) < 0 ) )
+        {
+            return -( size + 1 );
+        }
+
+        while ( low <= high )
+        {
+            int middle = ( low + high ) >>> 1;
+            int comparison = comparator.compare( get( middle ), value );
+
+            if ( comparison < 0 )
+            {
+                low = middle + 1;
+            }
+            else if ( comparison > 0 )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+
+        return -( low + 1 );
+    }
+
+
+    /**
+     * @return true if the value is present in this page
+     * @throws IOException If a value can't be deserialized
+     */
+    boolean contains( V value ) throws IOException
+    {
+        return indexOf( value ) >= 0;
+    }
+
+
+    /**
+     * @return The smallest value greater or equal to the given one, or null
+     * @throws IOException If a value can't be deserialized
+     */
+    V findGreaterOrEqual( V value ) throws IOException
+    {
+        int position = indexOf( value );
+
+        if ( position < 0 )
+        {
+            position = -position - 1;
+        }
+
+        return position < size ? get( position ) : null;
+    }
+
+
+    /**
+     * @return The greatest value less or equal to the given one, or null
+     * @throws IOException If a value can't be deserialized
+     */
+    V findLessOrEqual( V value ) throws IOException
+    {
+        int position = indexOf( value );
+
+        if ( position < 0 )
+        {
+            position = -position - 2;
+        }
+
+        return position >= 0 ? get( position ) : null;
+    }
+
+
+    /**
+     * Creates a new page containing the values of this page plus the given one.
+     *
+     * @param value The value to add
+     * @return The new serialized page, or null if the value is already present
+     * @throws IOException If a value can't be serialized
+     */
+    byte[] insert( V value ) throws IOException
+    {
+        int position = indexOf( value );
+
+        if ( position >= 0 )
+        {
+            return null;
+        }
+
+        position = -position - 1;
+        byte[] serialized = marshaller.serialize( value );
+        int length = serialized.length;
+        int dataStart = getDataStart();
+        int splitOffset = getStart( position );
+        int newDataStart = dataStart + 4;
+        byte[] page = new byte[bytes.length + 4 + length];
+
+        page[0] = MAGIC;
+        writeInt( page, 1, size + 1 );
+
+        // The offsets : the ones after the inserted value are shifted
+        System.arraycopy( bytes, HEADER_SIZE, page, HEADER_SIZE, position * 4 );
+        writeInt( page, HEADER_SIZE + position * 4, splitOffset + length );
+
+        for ( int i = position; i < size; i++ )
+        {
+            writeInt( page, HEADER_SIZE + ( i + 1 ) * 4, getEnd( i ) + length );
+        }
+
+        // The data
+        System.arraycopy( bytes, dataStart, page, newDataStart, splitOffset );
+        System.arraycopy( serialized, 0, page, newDataStart + splitOffset, length );
+        System.arraycopy( bytes, dataStart + splitOffset, page, newDataStart + splitOffset + length,
+            bytes.length - dataStart - splitOffset );
+
+        return page;
+    }
+
+
+    /**
+     * Creates a new page containing the values of this page minus the given one.
+     *
+     * @param value The value to remove
+     * @return The new serialized page, or null if the value is not present
+     * @throws IOException If a value can't be deserialized
+     */
+    byte[] remove( V value ) throws IOException
+    {
+        int position = indexOf( value );
+
+        if ( position < 0 )
+        {
+            return null;
+        }
+
+        int start = getStart( position );
+        int length = getEnd( position ) - start;
+        int dataStart = getDataStart();
+        int newDataStart = dataStart - 4;
+        byte[] page = new byte[bytes.length - 4 - length];
+
+        page[0] = MAGIC;
+        writeInt( page, 1, size - 1 );
+
+        System.arraycopy( bytes, HEADER_SIZE, page, HEADER_SIZE, position * 4 );
+
+        for ( int i = position + 1; i < size; i++ )
+        {
+            writeInt( page, HEADER_SIZE + ( i - 1 ) * 4, getEnd( i ) - length );
+        }
+
+        System.arraycopy( bytes, dataStart, page, newDataStart, start );
+        System.arraycopy( bytes, dataStart + start + length, page, newDataStart + start,
+            bytes.length - dataStart - start - length );
+
+        return page;
+    }
+
+
+    /**
+     * Deserializes all the values of this page
+     *
+     * @return An ArrayTree containing the values
+     * @throws IOException If a value can't be deserialized
+     */
+    @SuppressWarnings("unchecked")
+    ArrayTree<V> toArrayTree() throws IOException
+    {
+        V[] values = ( V[] ) new Object[size];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            values[i] = get( i );
+        }
+
+        return new ArrayTree<>( comparator, values );
+    }
+
+
+    private int getDataStart()
+    {
+        return HEADER_SIZE + size * 4;
+    }
+
+
+    private int getStart( int position )
+    {
+        return position == 0 ? 0 : getEnd( position - 1 );
+    }
+
+
+    private int getEnd( int position )
+    {
+        return readInt( bytes, HEADER_SIZE + position * 4 );
+    }
+
+
+    private static int readInt( byte[] bytes, int pos )
+    {
+        return ( ( bytes[pos] & 0xFF ) << 24 )
+            | ( ( bytes[pos + 1] & 0xFF ) << 16 )
+            | ( ( bytes[pos + 2] & 0xFF ) << 8 )
+            | ( bytes[pos + 3] & 0xFF );
+    }
+
+
+    private static void writeInt( byte[] bytes, int pos, int value )
+    {
+        bytes[pos] = ( byte ) ( value >>> 24 );
+        bytes[pos + 1] = ( byte ) ( value >>> 16 );
+        bytes[pos + 2] = ( byte ) ( value >>> 8 );
+        bytes[pos + 3] = ( byte ) value;
+    }
+}
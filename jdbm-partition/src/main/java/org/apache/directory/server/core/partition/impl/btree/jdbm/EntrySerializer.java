@@ -40,6 +40,8 @@ import org.apache.directory.api.ldap.model.name.Rdn;
 import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +49,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Serialize and deserialize a ServerEntry. There is a big difference with the standard
  * Entry serialization : we don't serialize the entry's Dn, we just serialize it's Rdn.
+ * <br>
+ * When created with an {@link AttributeTypeDictionary}, the entries are written in the
+ * {@link CompactEntryCodec} format. The entries written in the previous format can
+ * always be read.
  * <br><br>
  * <b>This class must *not* be used outside of the server.</b>
  *  
@@ -68,6 +74,9 @@ public class EntrySerializer implements Serializer
     /** The schemaManager reference */
     private transient SchemaManager schemaManager;
 
+    /** The compact format codec, null if the entries are written in the previous format */
+    private transient CompactEntryCodec codec;
+
 
     /**
      * Creates a new instance of ServerEntrySerializer.
@@ -80,6 +89,20 @@ public class EntrySerializer implements Serializer
     }
 
 
+    /**
+     * Creates a new instance of ServerEntrySerializer, writing the entries in the compact
+     * format.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     * @param dictionary The dictionary of the partition's AttributeTypes
+     */
+    public EntrySerializer( SchemaManager schemaManager, AttributeTypeDictionary dictionary )
+    {
+        this.schemaManager = schemaManager;
+        codec = new CompactEntryCodec( schemaManager, dictionary );
+    }
+
+
     /**
      * <p>
      * 
@@ -106,6 +129,11 @@ public class EntrySerializer implements Serializer
     {
         Entry entry = ( Entry ) object;
 
+        if ( codec != null )
+        {
+            return codec.encode( entry );
+        }
+
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         ObjectOutput out = new ObjectOutputStream( baos );
 
@@ -169,6 +197,16 @@ public class EntrySerializer implements Serializer
      */
     public Object deserialize( byte[] bytes ) throws IOException
     {
+        if ( CompactEntryCodec.isCompact( bytes, 0 ) )
+        {
+            if ( codec == null )
+            {
+                throw new IOException( "Cannot read an entry in the compact format without a dictionary" );
+            }
+
+            return codec.decode( bytes, 0, bytes.length );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( bytes ) );
 
         try
@@ -0,0 +1,439 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import jdbm.RecordManager;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Groups the commits of the write transactions of a {@link JdbmPartition}.
+ * <br>
+ * The changes done by the write transactions are accumulated in the current JDBM
+ * transaction of the RecordManager, which is the shared log buffer. Instead of committing
+ * this JDBM transaction - and paying an fsync of the JDBM log - for each write transaction,
+ * the transactions ask for a commit, and wait for it once the partition write lock has been
+ * released. A single flusher thread commits all the waiting transactions at once, when
+ * the batch is full or when the maximum latency is reached, and acknowledges them together.
+ * <br>
+ * As all the waiting transactions share the same JDBM transaction, a write transaction
+ * which has modified the RecordManager can't be rolled back alone. The write operations
+ * check their requests before writing, so that an aborted transaction leaves the JDBM
+ * transaction untouched. A transaction failing once the RecordManager has been modified,
+ * typically on an I/O error, rolls back the whole group : the partition caches are reset,
+ * and all the transactions of the group are told that their changes have been lost.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitter
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( JdbmGroupCommitter.class );
+
+    /** The default maximum number of transactions committed at once */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+
+    /** The default maximum time, in milliseconds, a commit waits for other transactions */
+    public static final long DEFAULT_MAX_LATENCY = 0L;
+
+    /** The partition */
+    private final JdbmPartition partition;
+
+    /** The record manager to commit */
+    private final RecordManager recordManager;
+
+    /** The maximum number of transactions committed at once */
+    private final int maxBatchSize;
+
+    /** The maximum time, in nanoseconds, a commit waits for other transactions */
+    private final long maxLatency;
+
+    /** The ticket of the last requested commit */
+    private long requested;
+
+    /** The ticket of the last committed transaction */
+    private long committed;
+
+    /** The ranges of tickets whose changes have been rolled back, first ticket -> last ticket */
+    private final NavigableMap<Long, Long> rolledBack = new TreeMap<>();
+
+    /** The error which occurred while committing, if any. The next commits will fail */
+    private IOException failure;
+
+    /** Tells if the flusher thread is running */
+    private boolean running;
+
+    /** The flusher thread */
+    private Thread flusher;
+
+
+    /**
+     * Creates a new JdbmGroupCommitter instance
+     *
+     * @param partition The partition whose write lock protects the record manager
+     * @param recordManager The record manager to commit
+     * @param maxBatchSize The maximum number of transactions committed at once
+     * @param maxLatency The maximum time, in milliseconds, a commit waits for other transactions
+     */
+    public JdbmGroupCommitter( JdbmPartition partition, RecordManager recordManager, int maxBatchSize, long maxLatency )
+    {
+        this.partition = partition;
+        this.recordManager = recordManager;
+        this.maxBatchSize = Math.max( 1, maxBatchSize );
+        this.maxLatency = TimeUnit.MILLISECONDS.toNanos( Math.max( 0L, maxLatency ) );
+    }
+
+
+    /**
+     * Starts the flusher thread
+     */
+    public synchronized void start()
+    {
+        if ( running )
+        {
+            return;
+        }
+
+        running = true;
+        flusher = new Thread( this::flushLoop, "JdbmGroupCommitter-" + partition.getId() );
+        flusher.setDaemon( true );
+        flusher.start();
+    }
+
+
+    /**
+     * Stops the flusher thread, once the pending commits have been done
+     */
+    public void stop()
+    {
+        Thread thread;
+
+        synchronized ( this )
+        {
+            if ( !running )
+            {
+                return;
+            }
+
+            running = false;
+            thread = flusher;
+            notifyAll();
+        }
+
+        try
+        {
+            thread.join();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Requests the commit of the changes done so far. This method must be called while
+     * holding the partition write lock, after the transaction is done.
+     *
+     * @return The ticket to wait for, or -1 if the flusher is stopped and the commit must
+     * be done by the caller
+     */
+    public synchronized long request()
+    {
+        if ( !running )
+        {
+            return -1L;
+        }
+
+        requested++;
+
+        long pending = requested - committed;
+
+        // Wake up the flusher for the first transaction of a batch, or when the batch is full
+        if ( ( pending == 1L ) || ( pending >= maxBatchSize ) )
+        {
+            notifyAll();
+        }
+
+        return requested;
+    }
+
+
+    /**
+     * Waits until the changes associated with a ticket have been committed. This method
+     * should be called once the partition write lock has been released : a thread holding
+     * it can't wait for the flusher, and commits the pending changes itself.
+     *
+     * @param ticket The ticket returned by {@link #request()}
+     * @throws IOException If the changes could not be committed
+     */
+    public void await( long ticket ) throws IOException
+    {
+        ReadWriteLock rwLock = partition.getReadWriteLock();
+
+        if ( ( rwLock instanceof ReentrantReadWriteLock )
+            && ( ( ReentrantReadWriteLock ) rwLock ).isWriteLockedByCurrentThread() )
+        {
+            flush( ticket );
+        }
+
+        waitFor( ticket );
+    }
+
+
+    /**
+     * Commits the pending changes right away, if the changes associated with a ticket
+     * have not been committed yet. Must be called while holding the partition write lock.
+     */
+    private void flush( long ticket ) throws IOException
+    {
+        long target;
+
+        synchronized ( this )
+        {
+            if ( committed >= ticket )
+            {
+                return;
+            }
+
+            target = requested;
+        }
+
+        recordManager.commit();
+
+        synchronized ( this )
+        {
+            if ( committed < target )
+            {
+                committed = target;
+            }
+
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * Waits until the changes associated with a ticket have been committed by the flusher
+     */
+    private synchronized void waitFor( long ticket ) throws IOException
+    {
+        boolean interrupted = false;
+
+        while ( ( committed < ticket ) && ( failure == null ) )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException ie )
+            {
+                interrupted = true;
+            }
+        }
+
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        Map.Entry<Long, Long> range = rolledBack.floorEntry( ticket );
+
+        if ( ( range != null ) && ( ticket <= range.getValue() ) )
+        {
+            throw new IOException( "The changes have been rolled back by a concurrent transaction" );
+        }
+
+        if ( ( committed < ticket ) && ( failure != null ) )
+        {
+            throw failure;
+        }
+    }
+
+
+    /**
+     * Rolls back the JDBM transaction, with the changes of all the transactions waiting
+     * for their commit, and resets the partition caches. This method must be called while
+     * holding the partition write lock, when a write transaction which has modified the
+     * RecordManager is aborted.
+     *
+     * @throws IOException If the JDBM transaction can't be rolled back
+     */
+    public void rollback() throws IOException
+    {
+        recordManager.rollback();
+        rolledBack();
+
+        // The caches may hold some rolled back changes
+        partition.resetCaches();
+    }
+
+
+    /**
+     * Tells the waiting transactions that their changes have been rolled back
+     */
+    private synchronized void rolledBack()
+    {
+        if ( requested > committed )
+        {
+            LOG.warn( "{} pending commits have been rolled back", requested - committed );
+            rolledBack.put( committed + 1L, requested );
+            committed = requested;
+            notifyAll();
+        }
+    }
+
+
+    /**
+     * The flusher thread loop : wait for a batch, commit it, and acknowledge it.
+     */
+    private void flushLoop()
+    {
+        while ( true )
+        {
+            long target;
+
+            synchronized ( this )
+            {
+                target = waitForBatch();
+
+                if ( target < 0L )
+                {
+                    return;
+                }
+            }
+
+            IOException error = commit( target );
+
+            synchronized ( this )
+            {
+                if ( error != null )
+                {
+                    LOG.error( "Failed to commit the JDBM transaction", error );
+                    failure = error;
+                }
+                else if ( committed < target )
+                {
+                    committed = target;
+                }
+
+                notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Waits until a batch has to be committed. Must be called while holding the monitor.
+     *
+     * @return The last ticket of the batch, or -1 if the flusher must stop
+     */
+    private long waitForBatch()
+    {
+        try
+        {
+            while ( running && ( requested == committed ) )
+            {
+                wait();
+            }
+
+            long deadline = System.nanoTime() + maxLatency;
+
+            while ( running && ( requested - committed < maxBatchSize ) )
+            {
+                long remaining = deadline - System.nanoTime();
+
+                if ( remaining <= 0L )
+                {
+                    break;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait( this, remaining );
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            running = false;
+        }
+
+        if ( requested == committed )
+        {
+            // Nothing left to commit
+            return running ? requested : -1L;
+        }
+
+        return requested;
+    }
+
+
+    /**
+     * Commits the JDBM transaction, holding the partition write lock so that no write
+     * operation is in progress.
+     */
+    private IOException commit( long target )
+    {
+        ReadWriteLock rwLock = partition.getReadWriteLock();
+        Lock lock = rwLock == null ? null : rwLock.writeLock();
+
+        if ( lock != null )
+        {
+            lock.lock();
+        }
+
+        try
+        {
+            synchronized ( this )
+            {
+                if ( committed >= target )
+                {
+                    // Committed or rolled back in the meantime
+                    return null;
+                }
+            }
+
+            recordManager.commit();
+
+            return null;
+        }
+        catch ( IOException ioe )
+        {
+            return ioe;
+        }
+        finally
+        {
+            if ( lock != null )
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
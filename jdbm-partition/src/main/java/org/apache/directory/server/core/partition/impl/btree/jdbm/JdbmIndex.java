@@ -372,6 +372,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn,  K attrVal, String id ) throws LdapException
     {
+        // Only count the tuples which were not already present
+        long count = forward.count( partitionTxn );
+
         // The pair to be added must exists
         forward.put( partitionTxn, attrVal, id );
 
@@ -379,6 +382,11 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        if ( forward.count( partitionTxn ) > count )
+        {
+            statistics.added( attrVal );
+        }
     }
 
 
@@ -391,6 +399,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( partitionTxn, attrVal, id ) )
         {
             forward.remove( partitionTxn, attrVal, id );
+            statistics.dropped( attrVal );
 
             if ( withReverse )
             {
@@ -418,7 +427,9 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+                        statistics.dropped( key );
                     }
     
                     values.close();
@@ -433,6 +444,7 @@ public class JdbmIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+                statistics.dropped( key );
             }
 
             // Remove the id -> key from the reverse index
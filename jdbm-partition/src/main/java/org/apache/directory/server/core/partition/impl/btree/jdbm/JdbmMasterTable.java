@@ -29,6 +29,7 @@ import jdbm.helper.Serializer;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.ldap.model.schema.comparators.UuidComparator;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -55,6 +56,25 @@ public class JdbmMasterTable extends JdbmTable<String, Entry> implements MasterT
     }
 
 
+    /**
+     * Creates the master table using JDBM B+Trees for the backing store, the entries
+     * being written in the compact format.
+     *
+     * @param recMan the JDBM record manager
+     * @param schemaManager the schema manager
+     * @param dictionary the dictionary of the partition's AttributeTypes
+     * @throws IOException if there is an error opening the Db file.
+     */
+    public JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, AttributeTypeDictionary dictionary )
+        throws IOException
+    {
+        super( schemaManager, DBF, recMan, UuidComparator.INSTANCE, UuidSerializer.INSTANCE,
+            new EntrySerializer( schemaManager, dictionary ) );
+
+        UuidComparator.INSTANCE.setSchemaManager( schemaManager );
+    }
+
+
     protected JdbmMasterTable( RecordManager recMan, SchemaManager schemaManager, String dbName, Serializer serializer )
         throws Exception
     {
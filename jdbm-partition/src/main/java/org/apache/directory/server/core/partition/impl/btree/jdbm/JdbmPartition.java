@@ -63,7 +63,10 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -74,7 +77,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 
 import jdbm.RecordManager;
 import jdbm.helper.MRU;
@@ -112,6 +117,52 @@ public class JdbmPartition extends AbstractBTreePartition
     /** the entry cache */
     private Cache< String, Entry > entryCache;
 
+    /** The maximum size of the off-heap entry cache, in bytes. 0 if there is no off-heap cache */
+    private long offHeapCacheSize;
+
+    /** The off-heap entry cache, storing the entries evicted from the entry cache */
+    private OffHeapEntryCache offHeapCache;
+
+    /** Tells if the commits are grouped when the partition is synced on write */
+    private boolean groupCommit;
+
+    /** The maximum number of transactions committed at once */
+    private int groupCommitMaxBatchSize = JdbmGroupCommitter.DEFAULT_MAX_BATCH_SIZE;
+
+    /** The maximum time, in milliseconds, a commit waits for other transactions */
+    private long groupCommitMaxLatency = JdbmGroupCommitter.DEFAULT_MAX_LATENCY;
+
+    /** The group committer, when the commits are grouped */
+    private JdbmGroupCommitter groupCommitter;
+
+
+    /**
+     * Moves the entries evicted from the entry cache to the off-heap cache, and removes
+     * the off-heap copy of the entries replaced or removed from the entry cache.
+     */
+    private class OffHeapCacheWriter implements CacheWriter<String, Entry>
+    {
+        @Override
+        public void write( String id, Entry entry )
+        {
+            offHeapCache.invalidate( id );
+        }
+
+
+        @Override
+        public void delete( String id, Entry entry, RemovalCause cause )
+        {
+            if ( cause == RemovalCause.SIZE )
+            {
+                offHeapCache.put( id, entry );
+            }
+            else
+            {
+                offHeapCache.invalidate( id );
+            }
+        }
+    }
+
 
     /**
      * Creates a store based on JDBM B+Trees.
@@ -136,6 +187,99 @@ public class JdbmPartition extends AbstractBTreePartition
     }
     
     
+    /**
+     * @return <code>true</code> if the commits are grouped when the partition is synced on write
+     */
+    public boolean isGroupCommit()
+    {
+        return groupCommit;
+    }
+
+
+    /**
+     * Groups the commits of the concurrent write transactions when the partition is synced
+     * on write : a single thread commits the JDBM log for many operations at once.
+     * 
+     * @param groupCommit <code>true</code> to group the commits
+     */
+    public void setGroupCommit( boolean groupCommit )
+    {
+        checkInitialized( "groupCommit" );
+        this.groupCommit = groupCommit;
+    }
+
+
+    /**
+     * @return The maximum number of transactions committed at once
+     */
+    public int getGroupCommitMaxBatchSize()
+    {
+        return groupCommitMaxBatchSize;
+    }
+
+
+    /**
+     * @param groupCommitMaxBatchSize The maximum number of transactions committed at once
+     */
+    public void setGroupCommitMaxBatchSize( int groupCommitMaxBatchSize )
+    {
+        checkInitialized( "groupCommitMaxBatchSize" );
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+
+    /**
+     * @return The maximum time, in milliseconds, a commit waits for other transactions
+     */
+    public long getGroupCommitMaxLatency()
+    {
+        return groupCommitMaxLatency;
+    }
+
+
+    /**
+     * @param groupCommitMaxLatency The maximum time, in milliseconds, a commit waits for
+     * other transactions before the batch is committed
+     */
+    public void setGroupCommitMaxLatency( long groupCommitMaxLatency )
+    {
+        checkInitialized( "groupCommitMaxLatency" );
+        this.groupCommitMaxLatency = groupCommitMaxLatency;
+    }
+
+
+    /**
+     * @return The maximum size of the off-heap entry cache, in bytes. 0 if there is no off-heap cache
+     */
+    public long getOffHeapCacheSize()
+    {
+        return offHeapCacheSize;
+    }
+
+
+    /**
+     * Adds a second level entry cache, storing the serialized entries evicted from the entry
+     * cache out of the heap. The entry cache then only has to keep the most used entries.
+     * 
+     * @param offHeapCacheSize The maximum size of the off-heap entry cache, in bytes. 0 to
+     * disable the off-heap cache
+     */
+    public void setOffHeapCacheSize( long offHeapCacheSize )
+    {
+        checkInitialized( "offHeapCacheSize" );
+        this.offHeapCacheSize = offHeapCacheSize;
+    }
+
+
+    /**
+     * @return The off-heap entry cache, and its statistics, or null if there is no off-heap cache
+     */
+    public OffHeapEntryCache getOffHeapCache()
+    {
+        return offHeapCache;
+    }
+
+
     /**
      * Rebuild the indexes 
      */
@@ -521,9 +665,23 @@ public class JdbmPartition extends AbstractBTreePartition
             }
 
             // Create the master table (the table containing all the entries)
+            File conversionMarker = new File( path + ENTRY_CONVERSION_FILE_EXTN );
+
+            AttributeTypeDictionary dictionary;
+
             try
             {
-                master = new JdbmMasterTable( recMan, schemaManager );
+                File dictionaryFile = new File( path + AttributeTypeDictionary.DICTIONARY_FILE_EXTN );
+                boolean newDictionary = !dictionaryFile.exists();
+                dictionary = new AttributeTypeDictionary( dictionaryFile );
+
+                master = new JdbmMasterTable( recMan, schemaManager, dictionary );
+
+                // The existing entries have been written in the previous format
+                if ( newDictionary && ( master.count( null ) > 0L ) && !conversionMarker.createNewFile() )
+                {
+                    LOG.warn( "Cannot create the entry conversion marker {}", conversionMarker );
+                }
             }
             catch ( IOException ioe )
             {
@@ -535,7 +693,29 @@ public class JdbmPartition extends AbstractBTreePartition
                 buildUserIndex( beginReadTransaction(), indexToBuild );
             }
 
-            entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
+            // Load the statistics used by the optimizer
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                loadIndexStatistics( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            if ( offHeapCacheSize > 0L )
+            {
+                // The entries evicted from the heap are kept serialized in the off-heap cache
+                offHeapCache = new OffHeapEntryCache( new CompactEntryCodec( schemaManager, dictionary ),
+                    offHeapCacheSize );
+                entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).writer( new OffHeapCacheWriter() )
+                    .build();
+                LOG.debug( "Using an off-heap entry cache of {} bytes for {} partition", offHeapCacheSize, id );
+            }
+            else
+            {
+                entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
+            }
 
             // Initialization of the context entry
             if ( ( suffixDn != null ) && ( contextEntry != null ) )
@@ -635,6 +815,16 @@ public class JdbmPartition extends AbstractBTreePartition
                 }
             }
 
+            if ( groupCommit && isSyncOnWrite() )
+            {
+                groupCommitter = new JdbmGroupCommitter( this, recMan, groupCommitMaxBatchSize,
+                    groupCommitMaxLatency );
+                groupCommitter.start();
+            }
+
+            // Convert the entries written in the previous format, if any
+            startEntryConversion( conversionMarker );
+
             // We are done !
             initialized = true;
         }
@@ -699,6 +889,20 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void syncAfterWrite() throws LdapException
+    {
+        // When the commits are grouped, the write transaction makes the changes durable
+        if ( groupCommitter == null )
+        {
+            super.syncAfterWrite();
+        }
+    }
+
+
     /**
      * Builds user defined indexes on a attributes by browsing all the entries present in master db
      * 
@@ -852,6 +1056,16 @@ public class JdbmPartition extends AbstractBTreePartition
             return;
         }
 
+        // Stop the conversion before the group committer
+        stopEntryConversion();
+
+        if ( groupCommitter != null )
+        {
+            // Commit the pending transactions
+            groupCommitter.stop();
+            groupCommitter = null;
+        }
+
         try
         {
             super.doDestroy( partitionTxn );
@@ -878,6 +1092,12 @@ public class JdbmPartition extends AbstractBTreePartition
             {
                 entryCache.invalidateAll();
             }
+
+            if ( offHeapCache != null )
+            {
+                offHeapCache.close();
+                offHeapCache = null;
+            }
         }
 
         if ( errors.size() > 0 )
@@ -951,12 +1171,24 @@ public class JdbmPartition extends AbstractBTreePartition
             {
                 // clear the cache it is not worth updating all the children
                 entryCache.invalidateAll();
+
+                if ( offHeapCache != null )
+                {
+                    offHeapCache.clear();
+                }
             }
             else if ( opCtx instanceof DeleteOperationContext )
             {
                 // delete the entry
                 DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
-                entryCache.invalidate( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+                String id = delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString();
+                entryCache.invalidate( id );
+
+                // The entry may have been evicted to the off-heap cache
+                if ( offHeapCache != null )
+                {
+                    offHeapCache.invalidate( id );
+                }
             }
         }
         catch ( LdapException e )
@@ -969,7 +1201,25 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public Entry lookupCache( String id )
     {
-        return ( entryCache != null ) ? entryCache.getIfPresent( id ) : null;
+        if ( entryCache == null )
+        {
+            return null;
+        }
+
+        Entry entry = entryCache.getIfPresent( id );
+
+        if ( ( entry == null ) && ( offHeapCache != null ) )
+        {
+            entry = offHeapCache.get( id );
+
+            if ( entry != null )
+            {
+                // Back to the hot set
+                entryCache.put( id, entry );
+            }
+        }
+
+        return entry;
     }
 
 
@@ -992,6 +1242,26 @@ public class JdbmPartition extends AbstractBTreePartition
     }
 
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void resetCaches()
+    {
+        super.resetCaches();
+
+        if ( entryCache != null )
+        {
+            entryCache.invalidateAll();
+        }
+
+        if ( offHeapCache != null )
+        {
+            offHeapCache.clear();
+        }
+    }
+
+
     @Override
     public PartitionReadTxn beginReadTransaction()
     {
@@ -1002,6 +1272,11 @@ public class JdbmPartition extends AbstractBTreePartition
     @Override
     public PartitionWriteTxn beginWriteTransaction()
     {
+        if ( groupCommitter != null )
+        {
+            return new JdbmPartitionWriteTxn( recMan, groupCommitter );
+        }
+
         return new JdbmPartitionWriteTxn( recMan, isSyncOnWrite() );
     }
 }
@@ -40,6 +40,15 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     /** A flag used to flush data immediately or not */
     private boolean syncOnWrite = false;
     
+    /** The group committer, if the commits are grouped */
+    private JdbmGroupCommitter groupCommitter;
+    
+    /** The ticket of the requested group commit, -1 if none */
+    private long ticket = -1L;
+    
+    /** Tells if the RecordManager has been modified by this transaction */
+    private boolean modified;
+    
     /**
      * Create an instance of JdbmPartitionWriteTxn
      * 
@@ -53,12 +62,37 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     }
     
     
+    /**
+     * Create an instance of JdbmPartitionWriteTxn whose commits are grouped
+     * 
+     * @param recordManager The RecordManager instance
+     * @param groupCommitter The group committer
+     */
+    public JdbmPartitionWriteTxn( RecordManager recordManager, JdbmGroupCommitter groupCommitter )
+    {
+        this.recordManager = recordManager;
+        this.syncOnWrite = true;
+        this.groupCommitter = groupCommitter;
+    }
+    
+    
     /**
      * {@inheritDoc}
      */
     @Override
     public void commit() throws IOException
     {
+        if ( groupCommitter != null )
+        {
+            // The changes will be committed by the group committer
+            ticket = groupCommitter.request();
+            
+            if ( ticket >= 0L )
+            {
+                return;
+            }
+        }
+
         recordManager.commit();
         
         // And flush the journal
@@ -87,10 +121,45 @@ public class JdbmPartitionWriteTxn extends PartitionWriteTxn
     @Override
     public void abort() throws IOException
     {
+        if ( groupCommitter != null )
+        {
+            // The JDBM transaction also holds the changes of the other transactions of
+            // the group : it's only rolled back if this transaction has modified it
+            if ( modified )
+            {
+                groupCommitter.rollback();
+            }
+
+            return;
+        }
+
         recordManager.rollback();
     }
 
 
+    /**
+     * Tells that the RecordManager has been modified by this transaction. Called by
+     * the tables before they are written.
+     */
+    void setModified()
+    {
+        modified = true;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitDurability() throws IOException
+    {
+        if ( ticket >= 0L )
+        {
+            groupCommitter.await( ticket );
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
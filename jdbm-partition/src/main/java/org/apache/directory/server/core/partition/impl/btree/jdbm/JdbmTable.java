@@ -44,6 +44,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.avltree.ArrayMarshaller;
 import org.apache.directory.server.core.avltree.ArrayTree;
 import org.apache.directory.server.core.avltree.ArrayTreeCursor;
+import org.apache.directory.server.core.avltree.DefaultMarshaller;
 import org.apache.directory.server.core.avltree.Marshaller;
 import org.apache.directory.server.i18n.I18n;
 import org.apache.directory.server.xdbm.AbstractTable;
@@ -77,9 +78,12 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     /** A value serializer */
     private final Serializer valueSerializer;
 
-    /** A marshaller used to serialize/deserialize values stored in the Table */
+    /** A marshaller used to deserialize the values stored in the Table using the former ArrayTree format */
     Marshaller<ArrayTree<V>> marshaller;
 
+    /** A marshaller used to serialize/deserialize the values stored in a DupsPage */
+    private final Marshaller<V> valueMarshaller;
+
 
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R
@@ -119,14 +123,15 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         if ( valueSerializer != null )
         {
-            marshaller = new ArrayMarshaller<>( valueComparator,
-                new MarshallerSerializerBridge<V>( valueSerializer ) );
+            valueMarshaller = new MarshallerSerializerBridge<>( valueSerializer );
         }
         else
         {
-            marshaller = new ArrayMarshaller<>( valueComparator );
+            valueMarshaller = ( Marshaller<V> ) DefaultMarshaller.INSTANCE;
         }
 
+        marshaller = new ArrayMarshaller<>( valueComparator, valueMarshaller );
+
         this.numDupLimit = numDupLimit;
         this.recMan = manager;
         this.valueSerializer = valueSerializer;
@@ -136,7 +141,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
         if ( recId == 0 ) // Create new main BTree
         {
             // we do not use the value serializer in the btree since duplicates will use
-            // either BTreeRedirect objects or AvlTree objects whose marshalling is
+            // either BTreeRedirect objects or DupsPage objects whose marshalling is
             // explicitly managed by this code.  Value serialization is delegated to these
             // marshallers.
 
@@ -176,6 +181,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
         super( schemaManager, name, keyComparator, null );
 
         this.duplicateBtrees = null;
+        this.valueMarshaller = null;
         this.numDupLimit = Integer.MAX_VALUE;
         this.recMan = manager;
 
@@ -230,7 +236,14 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 }
             }
 
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
+
+            if ( DupsPage.isPage( serialized ) )
+            {
+                return getDupsPage( serialized ).size();
+            }
+
+            DupsContainer<V> values = getDupsContainer( serialized );
 
             if ( values.isArrayTree() )
             {
@@ -269,7 +282,16 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return bt.find( key );
             }
 
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
+
+            if ( DupsPage.isPage( serialized ) )
+            {
+                DupsPage<V> page = getDupsPage( serialized );
+
+                return page.size() == 0 ? null : page.get( 0 );
+            }
+
+            DupsContainer<V> values = getDupsContainer( serialized );
 
             if ( values.isArrayTree() )
             {
@@ -318,7 +340,14 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         try
         {
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
+
+            if ( DupsPage.isPage( serialized ) )
+            {
+                return getDupsPage( serialized ).findGreaterOrEqual( val ) != null;
+            }
+
+            DupsContainer<V> values = getDupsContainer( serialized );
 
             if ( values.isArrayTree() )
             {
@@ -357,7 +386,14 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         try
         {
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
+
+            if ( DupsPage.isPage( serialized ) )
+            {
+                return getDupsPage( serialized ).findLessOrEqual( val ) != null;
+            }
+
+            DupsContainer<V> values = getDupsContainer( serialized );
 
             if ( values.isArrayTree() )
             {
@@ -482,7 +518,14 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return null != stored && stored.equals( value );
             }
 
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
+
+            if ( DupsPage.isPage( serialized ) )
+            {
+                return getDupsPage( serialized ).contains( value );
+            }
+
+            DupsContainer<V> values = getDupsContainer( serialized );
 
             if ( values.isArrayTree() )
             {
@@ -534,6 +577,8 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
             }
 
+            markModified( transaction );
+
             V replaced;
 
             if ( !allowsDuplicates )
@@ -553,21 +598,22 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
 
-            if ( values.isArrayTree() )
+            if ( !BTreeRedirectMarshaller.isRedirect( serialized ) )
             {
-                ArrayTree<V> set = values.getArrayTree();
-                replaced = set.insert( value );
+                byte[] page = insertInPage( serialized, value );
 
-                if ( replaced != null )// if the value already present returns the same value
+                if ( page == null ) // the value is already present
                 {
                     return;
                 }
 
-                if ( set.size() > numDupLimit )
+                DupsPage<V> values = getDupsPage( page );
+
+                if ( values.size() > numDupLimit )
                 {
-                    BTree tree = convertToBTree( set );
+                    BTree tree = convertToBTree( values.toArrayTree() );
                     BTreeRedirect redirect = new BTreeRedirect( tree.getRecordId() );
                     bt.insert( key, ( V ) BTreeRedirectMarshaller.INSTANCE.serialize( redirect ), true );
 
@@ -578,11 +624,11 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 }
                 else
                 {
-                    bt.insert( key, ( V ) marshaller.serialize( set ), true );
+                    bt.insert( key, ( V ) page, true );
 
                     if ( LOG.isDebugEnabled() )
                     {
-                        LOG.debug( "<--- Add AVL {} = {}", name, key );
+                        LOG.debug( "<--- Add PAGE {} = {}", name, key );
                     }
                 }
 
@@ -591,7 +637,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
-            BTree tree = getBTree( values.getBTreeRedirect() );
+            BTree tree = getBTree( BTreeRedirectMarshaller.INSTANCE.deserialize( serialized ) );
             replaced = ( V ) tree.insert( value, Strings.EMPTY_BYTES, true );
 
             if ( replaced == null )
@@ -636,6 +682,8 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
+            markModified( transaction );
+
             if ( !allowsDuplicates )
             {
                 V oldValue = bt.find( key );
@@ -655,29 +703,34 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
-            DupsContainer<V> values = getDupsContainer( ( byte[] ) bt.find( key ) );
+            byte[] serialized = ( byte[] ) bt.find( key );
 
-            if ( values.isArrayTree() )
+            if ( serialized == null )
             {
-                ArrayTree<V> set = values.getArrayTree();
+                return;
+            }
 
-                // If removal succeeds then remove if set is empty else replace it
-                if ( set.remove( value ) != null )
+            if ( !BTreeRedirectMarshaller.isRedirect( serialized ) )
+            {
+                byte[] page = removeFromPage( serialized, value );
+
+                // If removal succeeds then remove if the page is empty else replace it
+                if ( page != null )
                 {
-                    if ( set.isEmpty() )
+                    if ( getDupsPage( page ).size() == 0 )
                     {
                         bt.remove( key );
                     }
                     else
                     {
-                        bt.insert( key, ( V ) marshaller.serialize( set ), true );
+                        bt.insert( key, ( V ) page, true );
                     }
 
                     count--;
 
                     if ( LOG.isDebugEnabled() )
                     {
-                        LOG.debug( "<--- Remove AVL {} = {}, {}", name, key, value );
+                        LOG.debug( "<--- Remove PAGE {} = {}, {}", name, key, value );
                     }
                 }
 
@@ -685,18 +738,18 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
             }
 
             // if the number of duplicates falls below the numDupLimit value
-            BTree tree = getBTree( values.getBTreeRedirect() );
+            BTree tree = getBTree( BTreeRedirectMarshaller.INSTANCE.deserialize( serialized ) );
 
             if ( tree.find( value ) != null && tree.remove( value ) != null )
             {
                 /*
                  * If we drop below the duplicate limit then we revert from using
-                 * a Jdbm BTree to using an in memory AvlTree.
+                 * a Jdbm BTree to using a page of values.
                  */
                 if ( tree.size() <= numDupLimit )
                 {
                     ArrayTree<V> avlTree = convertToArrayTree( tree );
-                    bt.insert( key, ( V ) marshaller.serialize( avlTree ), true );
+                    bt.insert( key, ( V ) DupsPage.serialize( avlTree, valueMarshaller ), true );
                     recMan.delete( tree.getRecordId() );
                 }
 
@@ -733,6 +786,8 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return;
             }
 
+            markModified( transaction );
+
             Object returned = bt.remove( key );
 
             if ( null == returned )
@@ -772,6 +827,15 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 recMan.delete( tree.getRecordId() );
                 duplicateBtrees.remove( tree.getRecordId() );
             }
+            else if ( DupsPage.isPage( serialized ) )
+            {
+                this.count -= getDupsPage( serialized ).size();
+
+                if ( LOG.isDebugEnabled() )
+                {
+                    LOG.debug( "<--- Remove PAGE {} = {}", name, key );
+                }
+            }
             else
             {
                 ArrayTree<V> set = marshaller.deserialize( serialized );
@@ -839,7 +903,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return new KeyTupleBTreeCursor<>( tree, key, valueComparator );
             }
     
-            ArrayTree<V> set = marshaller.deserialize( serialized );
+            ArrayTree<V> set = toArrayTree( serialized );
     
             return new KeyTupleArrayCursor<>( set, key );
         }
@@ -884,7 +948,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
                 return new KeyBTreeCursor<>( tree, valueComparator );
             }
     
-            return new ArrayTreeCursor<>( marshaller.deserialize( serialized ) );
+            return new ArrayTreeCursor<>( toArrayTree( serialized ) );
         }
         catch ( IOException ioe )
         {
@@ -960,7 +1024,7 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
 
         try
         {
-            return new DupsContainer<>( marshaller.deserialize( serialized ) );
+            return new DupsContainer<>( toArrayTree( serialized ) );
         }
         catch ( IOException ioe )
         {
@@ -969,6 +1033,95 @@ public class JdbmTable<K, V> extends AbstractTable<K, V>
     }
 
 
+    DupsPage<V> getDupsPage( byte[] serialized )
+    {
+        return new DupsPage<>( serialized, valueComparator, valueMarshaller );
+    }
+
+
+    /**
+     * Tells the write transaction that the RecordManager has been modified on its behalf
+     */
+    private void markModified( PartitionTxn transaction )
+    {
+        if ( transaction instanceof JdbmPartitionWriteTxn )
+        {
+            ( ( JdbmPartitionWriteTxn ) transaction ).setModified();
+        }
+    }
+
+
+    /**
+     * Deserializes the values stored inline, either in a DupsPage or in the former ArrayTree format
+     */
+    private ArrayTree<V> toArrayTree( byte[] serialized ) throws IOException
+    {
+        if ( DupsPage.isPage( serialized ) )
+        {
+            return getDupsPage( serialized ).toArrayTree();
+        }
+
+        return marshaller.deserialize( serialized );
+    }
+
+
+    /**
+     * Adds a value to the values stored inline. Values stored using the former ArrayTree
+     * format are migrated to a DupsPage.
+     *
+     * @return The new serialized DupsPage, or null if the value was already present
+     */
+    private byte[] insertInPage( byte[] serialized, V value ) throws IOException
+    {
+        if ( DupsPage.isPage( serialized ) )
+        {
+            return getDupsPage( serialized ).insert( value );
+        }
+
+        ArrayTree<V> set;
+
+        if ( serialized == null )
+        {
+            set = new ArrayTree<>( valueComparator );
+        }
+        else
+        {
+            set = marshaller.deserialize( serialized );
+        }
+
+        if ( set.insert( value ) != null )
+        {
+            return null;
+        }
+
+        return DupsPage.serialize( set, valueMarshaller );
+    }
+
+
+    /**
+     * Removes a value from the values stored inline. Values stored using the former ArrayTree
+     * format are migrated to a DupsPage.
+     *
+     * @return The new serialized DupsPage, or null if the value was not present
+     */
+    private byte[] removeFromPage( byte[] serialized, V value ) throws IOException
+    {
+        if ( DupsPage.isPage( serialized ) )
+        {
+            return getDupsPage( serialized ).remove( value );
+        }
+
+        ArrayTree<V> set = marshaller.deserialize( serialized );
+
+        if ( set.remove( value ) == null )
+        {
+            return null;
+        }
+
+        return DupsPage.serialize( set, valueMarshaller );
+    }
+
+
     /**
      * Returns the main BTree used by this table.
      *
@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.directory.server.core.avltree.ArrayMarshaller;
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.apache.directory.server.core.avltree.DefaultMarshaller;
+import org.apache.directory.server.core.avltree.Marshaller;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link DupsPage} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class DupsPageTest
+{
+    private static final Comparator<String> COMPARATOR = Comparator.naturalOrder();
+
+    @SuppressWarnings(
+        { "unchecked", "rawtypes" })
+    private static final Marshaller<String> MARSHALLER = ( Marshaller ) DefaultMarshaller.INSTANCE;
+
+
+    private static DupsPage<String> page( byte[] bytes )
+    {
+        return new DupsPage<>( bytes, COMPARATOR, MARSHALLER );
+    }
+
+
+    private static void assertSameValues( TreeSet<String> expected, DupsPage<String> page ) throws Exception
+    {
+        assertEquals( expected.size(), page.size() );
+        int i = 0;
+
+        for ( String value : expected )
+        {
+            assertEquals( value, page.get( i ) );
+            assertEquals( i, page.indexOf( value ) );
+            i++;
+        }
+    }
+
+
+    @Test
+    public void testInsertRemove() throws Exception
+    {
+        Random random = new Random( 1L );
+        TreeSet<String> expected = new TreeSet<>();
+        byte[] bytes = DupsPage.serialize( new ArrayTree<>( COMPARATOR ), MARSHALLER );
+        assertTrue( DupsPage.isPage( bytes ) );
+        assertEquals( 0, page( bytes ).size() );
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            String value = Integer.toString( random.nextInt( 300 ) );
+            byte[] newBytes = page( bytes ).insert( value );
+
+            if ( expected.add( value ) )
+            {
+                bytes = newBytes;
+            }
+            else
+            {
+                assertNull( newBytes );
+            }
+        }
+
+        assertSameValues( expected, page( bytes ) );
+
+        for ( int i = 0; i < 500; i++ )
+        {
+            String value = Integer.toString( random.nextInt( 300 ) );
+            byte[] newBytes = page( bytes ).remove( value );
+
+            if ( expected.remove( value ) )
+            {
+                bytes = newBytes;
+            }
+            else
+            {
+                assertNull( newBytes );
+            }
+        }
+
+        assertSameValues( expected, page( bytes ) );
+    }
+
+
+    @Test
+    public void testFind() throws Exception
+    {
+        ArrayTree<String> tree = new ArrayTree<>( COMPARATOR );
+        tree.insert( "b" );
+        tree.insert( "d" );
+        tree.insert( "f" );
+        DupsPage<String> page = page( DupsPage.serialize( tree, MARSHALLER ) );
+
+        assertTrue( page.contains( "d" ) );
+        assertFalse( page.contains( "c" ) );
+        assertEquals( "b", page.findGreaterOrEqual( "a" ) );
+        assertEquals( "d", page.findGreaterOrEqual( "c" ) );
+        assertEquals( "d", page.findGreaterOrEqual( "d" ) );
+        assertNull( page.findGreaterOrEqual( "g" ) );
+        assertNull( page.findLessOrEqual( "a" ) );
+        assertEquals( "b", page.findLessOrEqual( "c" ) );
+        assertEquals( "f", page.findLessOrEqual( "z" ) );
+
+        ArrayTree<String> copy = page.toArrayTree();
+        assertEquals( 3, copy.size() );
+        assertEquals( "b", copy.getFirst() );
+        assertEquals( "f", copy.getLast() );
+    }
+
+
+    @Test
+    public void testFormats() throws Exception
+    {
+        ArrayTree<String> tree = new ArrayTree<>( COMPARATOR );
+        tree.insert( "a" );
+        byte[] legacy = new ArrayMarshaller<>( COMPARATOR, MARSHALLER ).serialize( tree );
+
+        assertFalse( DupsPage.isPage( legacy ) );
+        assertFalse( DupsPage.isPage( null ) );
+        assertFalse( DupsPage.isPage( BTreeRedirectMarshaller.INSTANCE.serialize( new BTreeRedirect( 1L ) ) ) );
+        assertTrue( DupsPage.isPage( DupsPage.serialize( tree, MARSHALLER ) ) );
+    }
+}
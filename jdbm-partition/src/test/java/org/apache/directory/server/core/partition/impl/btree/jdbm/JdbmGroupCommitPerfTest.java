@@ -0,0 +1,230 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Measures the number of modifications per second done on a JdbmPartition synced on
+ * write, with and without group commit, for 1, 16 and 128 concurrent writers. The
+ * writers mimic the OperationManager : the modification and the commit are done while
+ * holding the write lock, and the durability is waited for once the lock is released.
+ * These tests are ignored, as they are only used to measure the performances.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitPerfTest
+{
+    /** The duration of each measure, in milliseconds */
+    private static final long DURATION = 3000L;
+
+    private static final String[] ENTRIES =
+        {
+            "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co.",
+            "cn=JIM BEAN,ou=Sales,o=Good Times Co.",
+            "cn=Jack Daniels,ou=Engineering,o=Good Times Co.",
+            "ou=Sales,o=Good Times Co.",
+            "ou=Engineering,o=Good Times Co."
+    };
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static Path tempDir;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        tempDir = Files.createTempDirectory( JdbmGroupCommitPerfTest.class.getSimpleName() );
+
+        File schemaRepository = new File( tempDir.toFile(), "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( tempDir.toFile() );
+        extractor.extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( schemaRepository ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+    }
+
+
+    @AfterClass
+    public static void cleanup() throws Exception
+    {
+        FileUtils.deleteDirectory( tempDir.toFile() );
+    }
+
+
+    private JdbmPartition createPartition( String id, boolean groupCommit ) throws Exception
+    {
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.setId( id );
+        partition.setPartitionPath( new File( tempDir.toFile(), id ).toURI() );
+        partition.setSyncOnWrite( true );
+        partition.setGroupCommit( groupCommit );
+        partition.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        partition.initialize();
+
+        StoreUtils.loadExampleData( partition, schemaManager );
+
+        return partition;
+    }
+
+
+    private long measure( JdbmPartition partition, int nbWriters ) throws Exception
+    {
+        ReadWriteLock rwLock = partition.getReadWriteLock();
+        AttributeType descriptionAT = schemaManager.getAttributeType( "description" );
+        AtomicLong nbModifications = new AtomicLong();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        long end = System.currentTimeMillis() + DURATION;
+        Thread[] writers = new Thread[nbWriters];
+
+        for ( int i = 0; i < nbWriters; i++ )
+        {
+            Dn dn = new Dn( schemaManager, ENTRIES[i % ENTRIES.length] );
+            String writer = "writer " + i;
+
+            writers[i] = new Thread( () ->
+            {
+                try
+                {
+                    for ( int n = 0; System.currentTimeMillis() < end; n++ )
+                    {
+                        Modification modification = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                            new DefaultAttribute( descriptionAT, writer + " " + n ) );
+                        PartitionWriteTxn transaction;
+                        rwLock.writeLock().lock();
+
+                        try
+                        {
+                            transaction = partition.beginWriteTransaction();
+                            partition.modify( transaction, dn, modification );
+                            transaction.commit();
+                        }
+                        finally
+                        {
+                            rwLock.writeLock().unlock();
+                        }
+
+                        transaction.awaitDurability();
+                        nbModifications.incrementAndGet();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    failure.compareAndSet( null, e );
+                }
+            } );
+        }
+
+        for ( Thread thread : writers )
+        {
+            thread.start();
+        }
+
+        for ( Thread thread : writers )
+        {
+            thread.join();
+        }
+
+        if ( failure.get() != null )
+        {
+            throw failure.get();
+        }
+
+        return nbModifications.get() * 1000L / DURATION;
+    }
+
+
+    private void compare( int nbWriters ) throws Exception
+    {
+        JdbmPartition partition = createPartition( "sync" + nbWriters, false );
+        long sync = measure( partition, nbWriters );
+        partition.destroy( null );
+
+        partition = createPartition( "group" + nbWriters, true );
+        long group = measure( partition, nbWriters );
+        partition.destroy( null );
+
+        System.out.println( nbWriters + " writers, sync on write : " + sync + " modifies/s, group commit : "
+            + group + " modifies/s" );
+    }
+
+
+    @Test
+    @Ignore
+    public void testOneWriter() throws Exception
+    {
+        compare( 1 );
+    }
+
+
+    @Test
+    @Ignore
+    public void test16Writers() throws Exception
+    {
+        compare( 16 );
+    }
+
+
+    @Test
+    @Ignore
+    public void test128Writers() throws Exception
+    {
+        compare( 128 );
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import jdbm.recman.BaseRecordManager;
+
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link JdbmGroupCommitter} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmGroupCommitterTest
+{
+    private File dbFile;
+    private BaseRecordManager recMan;
+    private JdbmPartition partition;
+    private ReadWriteLock rwLock = new ReentrantReadWriteLock();
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db" );
+        recMan = new BaseRecordManager( dbFile.getAbsolutePath() );
+
+        // The partition is only used to name the flusher thread and to get the write lock
+        SchemaManager schemaManager = new DefaultSchemaManager();
+        partition = new JdbmPartition( schemaManager, new DefaultDnFactory( schemaManager, 10 ) )
+        {
+            @Override
+            public ReadWriteLock getReadWriteLock()
+            {
+                return rwLock;
+            }
+        };
+        partition.setId( "test" );
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        recMan.close();
+        String fileToDelete = dbFile.getAbsolutePath();
+        new File( fileToDelete ).delete();
+        new File( fileToDelete + ".db" ).delete();
+        new File( fileToDelete + ".lg" ).delete();
+    }
+
+
+    @Test
+    public void testCommit() throws Exception
+    {
+        JdbmGroupCommitter committer = new JdbmGroupCommitter( partition, recMan, 16, 0L );
+        assertEquals( -1L, committer.request() );
+
+        committer.start();
+        long recId = recMan.insert( "value" );
+        long ticket = committer.request();
+        assertTrue( ticket > 0L );
+        committer.await( ticket );
+        committer.stop();
+
+        assertEquals( "value", recMan.fetch( recId ) );
+    }
+
+
+    @Test
+    public void testAwaitHoldingWriteLock() throws Exception
+    {
+        // The batch is never full and the latency is high : the flusher doesn't commit
+        JdbmGroupCommitter committer = new JdbmGroupCommitter( partition, recMan, 1000, 60000L );
+        committer.start();
+
+        rwLock.writeLock().lock();
+
+        try
+        {
+            long recId = recMan.insert( "value" );
+            long ticket = committer.request();
+
+            // The changes are committed by the current thread
+            committer.await( ticket );
+            recMan.rollback();
+
+            assertEquals( "value", recMan.fetch( recId ) );
+        }
+        finally
+        {
+            rwLock.writeLock().unlock();
+        }
+
+        committer.stop();
+    }
+
+
+    @Test
+    public void testRollback() throws Exception
+    {
+        // The batch is never full and the latency is high : the commits wait
+        JdbmGroupCommitter committer = new JdbmGroupCommitter( partition, recMan, 1000, 60000L );
+        committer.start();
+
+        recMan.insert( "value1" );
+        long ticket1 = committer.request();
+        committer.rollback();
+
+        try
+        {
+            committer.await( ticket1 );
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        long recId = recMan.insert( "value2" );
+        long ticket2 = committer.request();
+
+        // Stopping the committer commits the pending transactions
+        committer.stop();
+        committer.await( ticket2 );
+
+        assertEquals( "value2", recMan.fetch( recId ) );
+    }
+
+
+    @Test
+    public void testAbortUnmodifiedTransaction() throws Exception
+    {
+        // The batch is never full and the latency is high : the commits wait
+        JdbmGroupCommitter committer = new JdbmGroupCommitter( partition, recMan, 1000, 60000L );
+        committer.start();
+
+        JdbmPartitionWriteTxn txn1 = new JdbmPartitionWriteTxn( recMan, committer );
+        txn1.setModified();
+        long recId = recMan.insert( "value1" );
+        txn1.commit();
+
+        // A transaction which has not modified the RecordManager leaves the group untouched
+        JdbmPartitionWriteTxn txn2 = new JdbmPartitionWriteTxn( recMan, committer );
+        txn2.abort();
+
+        committer.stop();
+        txn1.awaitDurability();
+
+        assertEquals( "value1", recMan.fetch( recId ) );
+    }
+
+
+    @Test
+    public void testAbortModifiedTransaction() throws Exception
+    {
+        // The batch is never full and the latency is high : the commits wait
+        JdbmGroupCommitter committer = new JdbmGroupCommitter( partition, recMan, 1000, 60000L );
+        committer.start();
+
+        JdbmPartitionWriteTxn txn1 = new JdbmPartitionWriteTxn( recMan, committer );
+        txn1.setModified();
+        recMan.insert( "value1" );
+        txn1.commit();
+
+        // The whole group is rolled back
+        JdbmPartitionWriteTxn txn2 = new JdbmPartitionWriteTxn( recMan, committer );
+        txn2.setModified();
+        recMan.insert( "value2" );
+        txn2.abort();
+
+        try
+        {
+            txn1.awaitDurability();
+            fail();
+        }
+        catch ( IOException ioe )
+        {
+            // Expected
+        }
+
+        // The next transactions are committed
+        JdbmPartitionWriteTxn txn3 = new JdbmPartitionWriteTxn( recMan, committer );
+        txn3.setModified();
+        long recId = recMan.insert( "value3" );
+        txn3.commit();
+        committer.stop();
+        txn3.awaitDurability();
+
+        assertEquals( "value3", recMan.fetch( recId ) );
+    }
+}
@@ -446,6 +446,28 @@ public class JdbmIndexTest
     }
 
 
+    @Test
+    public void testStatisticsIgnoreExistingTuples() throws Exception
+    {
+        initIndex();
+
+        idx.add( partitionTxn, " foo ", Strings.getUUID( 0L ) );
+        idx.add( partitionTxn, " foo ", Strings.getUUID( 1L ) );
+
+        // Adding the same tuples again must not change the statistics
+        idx.add( partitionTxn, " foo ", Strings.getUUID( 0L ) );
+        idx.add( partitionTxn, " foo ", Strings.getUUID( 1L ) );
+
+        assertEquals( 2, idx.count( partitionTxn ) );
+        assertEquals( 2L, idx.getStatistics().getCount() );
+        assertEquals( 2L, idx.getStatistics().estimateEquality( " foo " ) );
+
+        idx.drop( partitionTxn, " foo ", Strings.getUUID( 0L ) );
+        idx.drop( partitionTxn, " foo ", Strings.getUUID( 1L ) );
+        assertEquals( 0L, idx.getStatistics().getCount() );
+    }
+
+
     @Test
     public void testAddDropOneByOne() throws Exception
     {
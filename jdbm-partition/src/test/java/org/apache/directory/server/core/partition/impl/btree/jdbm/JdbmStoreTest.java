@@ -47,6 +47,7 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.exception.LdapEntryAlreadyExistsException;
 import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
 import org.apache.directory.api.ldap.model.exception.LdapSchemaViolationException;
 import org.apache.directory.api.ldap.model.name.Dn;
@@ -67,12 +68,16 @@ import org.apache.directory.server.core.api.LdapPrincipal;
 import org.apache.directory.server.core.api.MockCoreSession;
 import org.apache.directory.server.core.api.MockDirectoryService;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModDnAva;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.shared.DefaultDnFactory;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.OffHeapEntryCache;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.StoreUtils;
 import org.junit.After;
@@ -269,6 +274,188 @@ public class JdbmStoreTest
     }
 
 
+    @Test
+    public void testOffHeapCache() throws Exception
+    {
+        Path wkdir2 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_db3" );
+
+        // A small entry cache, the other entries being kept off-heap
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory );
+        store2.setId( "example3" );
+        store2.setCacheSize( 2 );
+        store2.setOffHeapCacheSize( 1024L * 1024L );
+        store2.setPartitionPath( wkdir2.toFile().toURI() );
+        store2.setSyncOnWrite( false );
+        store2.addIndex( new JdbmIndex( SchemaConstants.OU_AT_OID, false ) );
+        store2.addIndex( new JdbmIndex( SchemaConstants.UID_AT_OID, false ) );
+        store2.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store2.initialize();
+
+        StoreUtils.loadExampleData( store2, schemaManager );
+
+        String[] names =
+            {
+                "o=Good Times Co.",
+                "ou=Sales,o=Good Times Co.",
+                "ou=Board of Directors,o=Good Times Co.",
+                "ou=Engineering,o=Good Times Co.",
+                "cn=JOhnny WAlkeR,ou=Sales,o=Good Times Co.",
+                "cn=JIM BEAN,ou=Sales,o=Good Times Co.",
+                "cn=Jack Daniels,ou=Engineering,o=Good Times Co."
+            };
+
+        try
+        {
+            OffHeapEntryCache offHeapCache = store2.getOffHeapCache();
+            assertNotNull( offHeapCache );
+
+            for ( String name : names )
+            {
+                Dn dn = new Dn( schemaManager, name );
+                store2.fetch( partitionTxn, store2.getEntryId( partitionTxn, dn ), dn );
+            }
+
+            // The entries are moved off-heap when evicted, which may be done asynchronously
+            for ( int i = 0; ( i < 100 ) && ( offHeapCache.size() < names.length - 2 ); i++ )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertTrue( offHeapCache.size() > 0 );
+
+            for ( String name : names )
+            {
+                Dn dn = new Dn( schemaManager, name );
+                Entry entry = store2.fetch( partitionTxn, store2.getEntryId( partitionTxn, dn ), dn );
+
+                assertNotNull( entry );
+                assertEquals( dn, entry.getDn() );
+            }
+
+            assertTrue( offHeapCache.getHitCount() > 0L );
+
+            // The modified entry is not read from the off-heap cache
+            Dn dn = new Dn( schemaManager, names[4] );
+            String id = store2.getEntryId( partitionTxn, dn );
+            List<Modification> mods = new ArrayList<>();
+            mods.add( new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, SN_AT, "JWalker" ) );
+            ModifyOperationContext modifyContext = new ModifyOperationContext( session, dn, mods );
+            modifyContext.setPartition( store2 );
+            modifyContext.setTransaction( store2.beginWriteTransaction() );
+            store2.modify( modifyContext );
+
+            for ( String name : names )
+            {
+                Dn otherDn = new Dn( schemaManager, name );
+                store2.fetch( partitionTxn, store2.getEntryId( partitionTxn, otherDn ), otherDn );
+            }
+
+            assertEquals( "JWalker", store2.fetch( partitionTxn, id, dn ).get( SN_AT ).getString() );
+
+            // The deleted entry is removed from the off-heap cache
+            Dn deletedDn = new Dn( schemaManager, names[5] );
+            String deletedId = store2.getEntryId( partitionTxn, deletedDn );
+            Entry deletedEntry = store2.fetch( partitionTxn, deletedId, deletedDn );
+
+            for ( int i = 0; ( i < 100 ) && ( offHeapCache.get( deletedId ) == null ); i++ )
+            {
+                for ( String name : names )
+                {
+                    Dn otherDn = new Dn( schemaManager, name );
+                    store2.fetch( partitionTxn, store2.getEntryId( partitionTxn, otherDn ), otherDn );
+                }
+
+                Thread.sleep( 10 );
+            }
+
+            assertNotNull( offHeapCache.get( deletedId ) );
+
+            DeleteOperationContext deleteContext = new DeleteOperationContext( session );
+            deleteContext.setDn( deletedDn );
+            deleteContext.setEntry( deletedEntry );
+            deleteContext.setPartition( store2 );
+            deleteContext.setTransaction( store2.beginWriteTransaction() );
+            store2.delete( deleteContext );
+
+            assertNull( offHeapCache.get( deletedId ) );
+            assertNull( store2.lookupCache( deletedId ) );
+        }
+        finally
+        {
+            store2.destroy( partitionTxn );
+            FileUtils.deleteDirectory( wkdir2.toFile() );
+        }
+
+        assertNull( store2.getOffHeapCache() );
+    }
+
+
+    @Test
+    public void testGroupCommitFailedAdd() throws Exception
+    {
+        Path wkdir2 = Files.createTempDirectory( JdbmIndexTest.class.getSimpleName() + "_db4" );
+
+        // The commits wait for the partition to be stopped
+        JdbmPartition store2 = new JdbmPartition( schemaManager, dnFactory );
+        store2.setId( "example4" );
+        store2.setCacheSize( 10 );
+        store2.setPartitionPath( wkdir2.toFile().toURI() );
+        store2.setSyncOnWrite( true );
+        store2.setGroupCommit( true );
+        store2.setGroupCommitMaxBatchSize( 1000 );
+        store2.setGroupCommitMaxLatency( 60000L );
+        store2.setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        store2.initialize();
+
+        try
+        {
+            StoreUtils.loadExampleData( store2, schemaManager );
+
+            Dn dn = new Dn( schemaManager, "ou=Marketing,o=Good Times Co." );
+            Entry entry = new DefaultEntry( schemaManager, dn,
+                "objectClass: top",
+                "objectClass: organizationalUnit",
+                "ou: Marketing",
+                SchemaConstants.ENTRY_CSN_AT, new CsnFactory( 0 ).newInstance().toString(),
+                SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+
+            PartitionWriteTxn txn1 = ( PartitionWriteTxn ) store2.beginWriteTransaction();
+            AddOperationContext addContext = new AddOperationContext( null, entry );
+            addContext.setPartition( store2 );
+            addContext.setTransaction( txn1 );
+            store2.add( addContext );
+            txn1.commit();
+
+            // The same entry can't be added twice : the failed add doesn't roll back the first one
+            PartitionWriteTxn txn2 = ( PartitionWriteTxn ) store2.beginWriteTransaction();
+            addContext = new AddOperationContext( null, entry.clone() );
+            addContext.setPartition( store2 );
+            addContext.setTransaction( txn2 );
+
+            try
+            {
+                store2.add( addContext );
+                fail();
+            }
+            catch ( LdapEntryAlreadyExistsException leaee )
+            {
+                txn2.abort();
+            }
+
+            assertNotNull( store2.getEntryId( partitionTxn, dn ) );
+
+            // Stopping the partition commits the pending transactions
+            store2.destroy( partitionTxn );
+            txn1.awaitDurability();
+        }
+        finally
+        {
+            store2.destroy( partitionTxn );
+            FileUtils.deleteDirectory( wkdir2.toFile() );
+        }
+    }
+
+
     @Test
     public void testSimplePropertiesUnlocked() throws Exception
     {
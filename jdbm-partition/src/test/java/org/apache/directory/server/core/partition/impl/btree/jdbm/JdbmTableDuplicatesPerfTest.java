@@ -0,0 +1,164 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.jdbm;
+
+
+import java.io.File;
+import java.util.Comparator;
+
+import jdbm.RecordManager;
+import jdbm.btree.BTree;
+import jdbm.helper.DefaultSerializer;
+import jdbm.helper.StringComparator;
+import jdbm.recman.BaseRecordManager;
+
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.avltree.ArrayMarshaller;
+import org.apache.directory.server.core.avltree.ArrayTree;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+
+/**
+ * Compares the cost of adding duplicate values using the former ArrayTree format, where
+ * all the values of a key are deserialized and serialized again on each modification,
+ * with the incremental DupsPage format. The objectClass index is simulated by a few keys
+ * having many values, and the member index by many keys having a few hundred values.
+ * These tests are ignored, as they are only used to measure the performances.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class JdbmTableDuplicatesPerfTest
+{
+    /** The number of values stored inline, like the JdbmIndex default */
+    private static final int DUP_LIMIT = JdbmIndex.DEFAULT_DUPLICATE_LIMIT;
+
+    private static final Comparator<String> COMPARATOR = new StringComparator();
+
+    private File dbFile;
+    private RecordManager recman;
+    private PartitionTxn partitionTxn;
+
+    /** Used to give a distinct name to each table */
+    private int nbTables;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        dbFile = File.createTempFile( getClass().getSimpleName(), "db" );
+        recman = new BaseRecordManager( dbFile.getAbsolutePath() );
+        partitionTxn = new MockPartitionReadTxn();
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        recman.close();
+        String fileToDelete = dbFile.getAbsolutePath();
+        new File( fileToDelete ).delete();
+        new File( fileToDelete + ".db" ).delete();
+        new File( fileToDelete + ".lg" ).delete();
+    }
+
+
+    private static String uuid( int i )
+    {
+        return "00000000-0000-0000-0000-" + Integer.toString( 1000000000 + i ).substring( 1 ) + "00";
+    }
+
+
+    /**
+     * Adds the values the way it was done before the DupsPage format was introduced
+     */
+    private long legacyPut( int nbKeys, int nbValues ) throws Exception
+    {
+        BTree<String, byte[]> bt = new BTree<>( recman, COMPARATOR );
+        ArrayMarshaller<String> marshaller = new ArrayMarshaller<>( COMPARATOR );
+        long t0 = System.nanoTime();
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            for ( int k = 0; k < nbKeys; k++ )
+            {
+                String key = "key" + k;
+                byte[] serialized = bt.find( key );
+                ArrayTree<String> set = serialized == null ? new ArrayTree<>( COMPARATOR ) : marshaller
+                    .deserialize( serialized );
+                set.insert( uuid( i ) );
+                bt.insert( key, marshaller.serialize( set ), true );
+            }
+        }
+
+        return System.nanoTime() - t0;
+    }
+
+
+    private long pagePut( int nbKeys, int nbValues ) throws Exception
+    {
+        JdbmTable<String, String> table = new JdbmTable<>( null, "perf" + nbTables++, DUP_LIMIT, recman, COMPARATOR,
+            COMPARATOR, null, new DefaultSerializer() );
+        long t0 = System.nanoTime();
+
+        for ( int i = 0; i < nbValues; i++ )
+        {
+            for ( int k = 0; k < nbKeys; k++ )
+            {
+                table.put( partitionTxn, "key" + k, uuid( i ) );
+            }
+        }
+
+        return System.nanoTime() - t0;
+    }
+
+
+    private void compare( String index, int nbKeys, int nbValues ) throws Exception
+    {
+        // Warm up
+        legacyPut( nbKeys, nbValues );
+        pagePut( nbKeys, nbValues );
+
+        long legacy = legacyPut( nbKeys, nbValues );
+        long page = pagePut( nbKeys, nbValues );
+
+        System.out.println( index + " : " + nbKeys + " keys x " + nbValues + " values, ArrayTree : "
+            + ( legacy / 1000000L ) + "ms, DupsPage : " + ( page / 1000000L ) + "ms" );
+    }
+
+
+    @Test
+    @Ignore
+    public void testObjectClassIndex() throws Exception
+    {
+        compare( "objectClass", 4, DUP_LIMIT );
+    }
+
+
+    @Test
+    @Ignore
+    public void testMemberIndex() throws Exception
+    {
+        compare( "member", 50, 400 );
+    }
+}
@@ -44,6 +44,7 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.avltree.ArrayTree;
 import org.apache.directory.server.xdbm.MockPartitionReadTxn;
 import org.junit.After;
 import org.junit.Before;
@@ -645,4 +646,47 @@ public class JdbmTableWithDuplicatesTest
         assertEquals( 0, table.count( partitionTxn, "1" ) );
         assertFalse( table.has( partitionTxn, "1" ) );
     }
+
+
+    /**
+     * Values stored using the former ArrayTree format must still be readable, and
+     * are migrated to a DupsPage when they are modified.
+     * @throws Exception on error
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLegacyArrayTreeFormat() throws Exception
+    {
+        ArrayTree<String> set = new ArrayTree<String>( table.getValueComparator() );
+        set.insert( "1" );
+        set.insert( "2" );
+        set.insert( "3" );
+        byte[] legacy = table.marshaller.serialize( set );
+        table.getBTree().insert( "5", legacy, true );
+
+        assertEquals( 3, table.count( partitionTxn, "5" ) );
+        assertEquals( "1", table.get( partitionTxn, "5" ) );
+        assertTrue( table.has( partitionTxn, "5", "2" ) );
+        assertTrue( table.hasGreaterOrEqual( partitionTxn, "5", "3" ) );
+        assertFalse( table.hasGreaterOrEqual( partitionTxn, "5", "4" ) );
+
+        table.put( partitionTxn, "5", "4" );
+        assertTrue( DupsPage.isPage( ( byte[] ) table.getBTree().find( "5" ) ) );
+        assertEquals( 4, table.count( partitionTxn, "5" ) );
+        assertTrue( table.has( partitionTxn, "5", "4" ) );
+
+        table.getBTree().insert( "6", legacy, true );
+        table.remove( partitionTxn, "6", "2" );
+        assertTrue( DupsPage.isPage( ( byte[] ) table.getBTree().find( "6" ) ) );
+        assertEquals( 2, table.count( partitionTxn, "6" ) );
+        assertFalse( table.has( partitionTxn, "6", "2" ) );
+
+        Cursor<Tuple<String, String>> cursor = table.cursor( partitionTxn, "6" );
+        assertTrue( cursor.next() );
+        assertEquals( "1", cursor.get().getValue() );
+        assertTrue( cursor.next() );
+        assertEquals( "3", cursor.get().getValue() );
+        assertFalse( cursor.next() );
+        cursor.close();
+    }
 }
@@ -21,6 +21,8 @@ package org.apache.directory.server.core.partition.impl.btree.jdbm;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
@@ -42,6 +44,8 @@ import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -287,4 +291,47 @@ public class ServerEntrySerializerTest
 
         assertEquals( entry, result );
     }
+
+
+    @Test
+    public void testSerializeCompactServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "cn=text",
+            "ObjectClass: top",
+            "ObjectClass: person",
+            "cn: text",
+            "sn: test",
+            "userPassword", Strings.getBytesUtf8( "secret" ) );
+
+        EntrySerializer ses = new EntrySerializer( schemaManager, new AttributeTypeDictionary() );
+
+        byte[] data = ses.serialize( entry );
+
+        assertTrue( CompactEntryCodec.isCompact( data, 0 ) );
+
+        Entry result = ( Entry ) ses.deserialize( data );
+
+        assertEquals( entry, result );
+    }
+
+
+    @Test
+    public void testDeserializeLegacyServerEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "cn=text",
+            "ObjectClass: top",
+            "ObjectClass: person",
+            "cn: text",
+            "sn: test" );
+
+        byte[] data = new EntrySerializer( schemaManager ).serialize( entry );
+
+        assertFalse( CompactEntryCodec.isCompact( data, 0 ) );
+
+        // An entry written before the compact format is still readable
+        Entry result = ( Entry ) new EntrySerializer( schemaManager, new AttributeTypeDictionary() ).deserialize( data );
+
+        assertEquals( entry, result );
+        assertFalse( CompactEntryCodec.isCompact( result ) );
+    }
 }
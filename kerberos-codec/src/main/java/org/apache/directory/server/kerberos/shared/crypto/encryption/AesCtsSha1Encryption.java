@@ -65,7 +65,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     public byte[] calculateChecksum( byte[] data, byte[] key, KeyUsage usage )
     {
-        byte[] kc = deriveKey( key, getUsageKc( usage ), 128, getKeyLength() );
+        byte[] kc = getDerivedKey( key, getUsageKc( usage ), 128, getKeyLength() );
         byte[] checksum = processChecksum( data, kc );
 
         return removeTrailingBytes( checksum, 0, checksum.length - getChecksumLength() );
@@ -74,7 +74,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     public byte[] calculateIntegrity( byte[] data, byte[] key, KeyUsage usage )
     {
-        byte[] ki = deriveKey( key, getUsageKi( usage ), 128, getKeyLength() );
+        byte[] ki = getDerivedKey( key, getUsageKi( usage ), 128, getKeyLength() );
         byte[] checksum = processChecksum( data, ki );
 
         return removeTrailingBytes( checksum, 0, checksum.length - getChecksumLength() );
@@ -83,7 +83,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     public byte[] getDecryptedData( EncryptionKey key, EncryptedData data, KeyUsage usage ) throws KerberosException
     {
-        byte[] ke = deriveKey( key.getKeyValue(), getUsageKe( usage ), 128, getKeyLength() );
+        byte[] ke = getDerivedKey( key.getKeyValue(), getUsageKe( usage ), 128, getKeyLength() );
 
         byte[] encryptedData = data.getCipher();
 
@@ -116,7 +116,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
 
     public EncryptedData getEncryptedData( EncryptionKey key, byte[] plainText, KeyUsage usage )
     {
-        byte[] ke = deriveKey( key.getKeyValue(), getUsageKe( usage ), 128, getKeyLength() );
+        byte[] ke = getDerivedKey( key.getKeyValue(), getUsageKe( usage ), 128, getKeyLength() );
 
         // build the ciphertext structure
         byte[] conFounder = getRandomBytes( getConfounderLength() );
@@ -143,19 +143,13 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     }
 
 
-    protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
-    {
-        return deriveRandom( baseKey, usage, n, k );
-    }
-
-
     private byte[] processChecksum( byte[] data, byte[] key )
     {
         try
         {
             SecretKey sk = new SecretKeySpec( key, "AES" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -172,7 +166,7 @@ abstract class AesCtsSha1Encryption extends EncryptionEngine implements Checksum
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "AES/CTS/NoPadding" );
+            Cipher cipher = getCipher( "AES/CTS/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "AES" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
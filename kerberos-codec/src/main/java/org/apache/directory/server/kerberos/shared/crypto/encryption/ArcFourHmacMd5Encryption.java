@@ -85,7 +85,7 @@ class ArcFourHmacMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Mac digester = Mac.getInstance( "HmacMD5" );
+            Mac digester = getMac( "HmacMD5" );
             return digester.doFinal( data );
         }
         catch ( NoSuchAlgorithmException nsae )
@@ -99,7 +99,7 @@ class ArcFourHmacMd5Encryption extends EncryptionEngine
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "ARCFOUR" );
+            Cipher cipher = getCipher( "ARCFOUR" );
             SecretKey key = new SecretKeySpec( keyBytes, "ARCFOUR" );
 
             if ( isEncrypt )
@@ -76,7 +76,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
 
     public byte[] calculateChecksum( byte[] data, byte[] key, KeyUsage usage )
     {
-        byte[] kc = deriveKey( key, getUsageKc( usage ), 64, 168 );
+        byte[] kc = getDerivedKey( key, getUsageKc( usage ), 64, 168 );
 
         return processChecksum( data, kc );
     }
@@ -84,7 +84,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
 
     public byte[] calculateIntegrity( byte[] data, byte[] key, KeyUsage usage )
     {
-        byte[] ki = deriveKey( key, getUsageKi( usage ), 64, 168 );
+        byte[] ki = getDerivedKey( key, getUsageKi( usage ), 64, 168 );
 
         return processChecksum( data, ki );
     }
@@ -92,7 +92,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
 
     public byte[] getDecryptedData( EncryptionKey key, EncryptedData data, KeyUsage usage ) throws KerberosException
     {
-        byte[] ke = deriveKey( key.getKeyValue(), getUsageKe( usage ), 64, 168 );
+        byte[] ke = getDerivedKey( key.getKeyValue(), getUsageKe( usage ), 64, 168 );
 
         byte[] encryptedData = data.getCipher();
 
@@ -125,7 +125,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
 
     public EncryptedData getEncryptedData( EncryptionKey key, byte[] plainText, KeyUsage usage )
     {
-        byte[] ke = deriveKey( key.getKeyValue(), getUsageKe( usage ), 64, 168 );
+        byte[] ke = getDerivedKey( key.getKeyValue(), getUsageKe( usage ), 64, 168 );
 
         // build the ciphertext structure
         byte[] conFounder = getRandomBytes( getConfounderLength() );
@@ -267,7 +267,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
     {
         try
         {
-            Cipher cipher = Cipher.getInstance( "DESede/CBC/NoPadding" );
+            Cipher cipher = getCipher( "DESede/CBC/NoPadding" );
             SecretKey key = new SecretKeySpec( keyBytes, "DESede" );
 
             AlgorithmParameterSpec paramSpec = new IvParameterSpec( iv );
@@ -297,7 +297,7 @@ public class Des3CbcSha1KdEncryption extends EncryptionEngine implements Checksu
         {
             SecretKey sk = new SecretKeySpec( key, "DESede" );
 
-            Mac mac = Mac.getInstance( "HmacSHA1" );
+            Mac mac = getMac( "HmacSHA1" );
             mac.init( sk );
 
             return mac.doFinal( data );
@@ -20,7 +20,17 @@
 package org.apache.directory.server.kerberos.shared.crypto.encryption;
 
 
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
 
 import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
 import org.apache.directory.shared.kerberos.components.EncryptedData;
@@ -35,6 +45,87 @@ public abstract class EncryptionEngine
 {
     private static final SecureRandom random = new SecureRandom();
 
+    /** The maximum number of derived keys kept in the cache */
+    private static final int DERIVED_KEY_CACHE_SIZE = 1024;
+
+    /** The derived keys, the least recently used one being evicted first */
+    private static final Map<DerivedKeyId, byte[]> DERIVED_KEYS = Collections.synchronizedMap(
+        new LinkedHashMap<DerivedKeyId, byte[]>( 64, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<DerivedKeyId, byte[]> eldest )
+            {
+                return size() > DERIVED_KEY_CACHE_SIZE;
+            }
+        } );
+
+    /** The Cipher instances of each thread, by transformation */
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = ThreadLocal.withInitial( HashMap::new );
+
+    /** The Mac instances of each thread, by algorithm */
+    private static final ThreadLocal<Map<String, Mac>> MACS = ThreadLocal.withInitial( HashMap::new );
+
+
+    /**
+     * The identifier of a derived key : the encryption type, the base key, the well-known
+     * constant and the sizes it has been derived with.
+     */
+    private static final class DerivedKeyId
+    {
+        private final EncryptionType encryptionType;
+        private final byte[] baseKey;
+        private final byte[] usage;
+        private final int n;
+        private final int k;
+        private final int hashCode;
+
+
+        private DerivedKeyId( EncryptionType encryptionType, byte[] baseKey, byte[] usage, int n, int k )
+        {
+            this.encryptionType = encryptionType;
+            this.baseKey = baseKey.clone();
+            this.usage = usage.clone();
+            this.n = n;
+            this.k = k;
+
+            int h = encryptionType.hashCode();
+            h = h * 31 + Arrays.hashCode( baseKey );
+            h = h * 31 + Arrays.hashCode( usage );
+            h = h * 31 + n;
+            hashCode = h * 31 + k;
+        }
+
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+
+            if ( !( obj instanceof DerivedKeyId ) )
+            {
+                return false;
+            }
+
+            DerivedKeyId that = ( DerivedKeyId ) obj;
+
+            return ( hashCode == that.hashCode ) && ( encryptionType == that.encryptionType ) && ( n == that.n )
+                && ( k == that.k ) && Arrays.equals( baseKey, that.baseKey ) && Arrays.equals( usage, that.usage );
+        }
+    }
+
 
     protected abstract byte[] getDecryptedData( EncryptionKey key, EncryptedData data, KeyUsage usage )
         throws KerberosException;
@@ -61,6 +152,93 @@ public abstract class EncryptionEngine
     protected abstract byte[] calculateIntegrity( byte[] plainText, byte[] key, KeyUsage usage );
 
 
+    /**
+     * Derives a key from a base key and a well-known constant. The default derivation
+     * is DR(Key, Constant), the engines needing random-to-key must override it.
+     *
+     * @param baseKey The base key to derive
+     * @param usage The well-known constant
+     * @param n The number of bits the constant is n-folded to
+     * @param k The number of bits of the derived key
+     * @return The derived key
+     */
+    protected byte[] deriveKey( byte[] baseKey, byte[] usage, int n, int k )
+    {
+        return deriveRandom( baseKey, usage, n, k );
+    }
+
+
+    /**
+     * Gets a derived key from the cache, deriving it with {@link #deriveKey(byte[], byte[], int, int)}
+     * if it's not present.
+     *
+     * @param baseKey The base key to derive
+     * @param usage The well-known constant
+     * @param n The number of bits the constant is n-folded to
+     * @param k The number of bits of the derived key
+     * @return A copy of the derived key
+     */
+    protected byte[] getDerivedKey( byte[] baseKey, byte[] usage, int n, int k )
+    {
+        DerivedKeyId id = new DerivedKeyId( getEncryptionType(), baseKey, usage, n, k );
+        byte[] derivedKey = DERIVED_KEYS.get( id );
+
+        if ( derivedKey == null )
+        {
+            derivedKey = deriveKey( baseKey, usage, n, k );
+            DERIVED_KEYS.put( id, derivedKey );
+        }
+
+        return derivedKey.clone();
+    }
+
+
+    /**
+     * Gets the Cipher instance of the current thread for a transformation. The
+     * Cipher must be initialized before being used.
+     *
+     * @param transformation The transformation
+     * @return The Cipher instance
+     * @throws GeneralSecurityException If the transformation is not supported
+     */
+    protected static Cipher getCipher( String transformation ) throws GeneralSecurityException
+    {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+        Cipher cipher = ciphers.get( transformation );
+
+        if ( cipher == null )
+        {
+            cipher = Cipher.getInstance( transformation );
+            ciphers.put( transformation, cipher );
+        }
+
+        return cipher;
+    }
+
+
+    /**
+     * Gets the Mac instance of the current thread for an algorithm. The Mac must be
+     * initialized before being used.
+     *
+     * @param algorithm The algorithm
+     * @return The Mac instance
+     * @throws NoSuchAlgorithmException If the algorithm is not supported
+     */
+    protected static Mac getMac( String algorithm ) throws NoSuchAlgorithmException
+    {
+        Map<String, Mac> macs = MACS.get();
+        Mac mac = macs.get( algorithm );
+
+        if ( mac == null )
+        {
+            mac = Mac.getInstance( algorithm );
+            macs.put( algorithm, mac );
+        }
+
+        return mac;
+    }
+
+
     protected byte[] deriveRandom( byte[] key, byte[] usage, int n, int k )
     {
         byte[] nFoldedUsage = NFold.nFold( n, usage );
@@ -20,8 +20,8 @@
 package org.apache.directory.server.kerberos.shared.replay;
 
 
-import java.io.Serializable;
-import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
 
 import javax.security.auth.kerberos.KerberosPrincipal;
 
@@ -29,164 +29,295 @@ import org.apache.directory.shared.kerberos.KerberosTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.github.benmanes.caffeine.cache.Cache;
-import com.github.benmanes.caffeine.cache.Caffeine;
-
 
 /**
  * "The replay cache will store at least the server name, along with the client name,
  * time, and microsecond fields from the recently-seen authenticators, and if a
  * matching tuple is found, the KRB_AP_ERR_REPEAT error is returned."
- * 
- * We will store the entries in Ehacache instance
+ * <br>
+ * The tuples are stored as 128 bits fingerprints, in primitive open addressing tables.
+ * The tables are split in shards, selected by the fingerprint, each shard having its own
+ * lock. Each shard is a ring of time buckets : a tuple is saved in the bucket of the
+ * current time slice, a slice being a quarter of the clock skew. A tuple is kept
+ * between the clock skew and the clock skew plus a slice, as whole buckets expire at once
+ * when the ring wraps around.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class ReplayCacheImpl implements ReplayCache
 {
-
     private static final Logger LOG = LoggerFactory.getLogger( ReplayCacheImpl.class );
 
-    /** Caffeine based storage to store the entries */
-    Cache<String, Object> cache;
-
     /** default clock skew */
     private static final long DEFAULT_CLOCK_SKEW = 5L * KerberosTime.MINUTE;
 
+    /** The number of time slices in a clock skew */
+    private static final int SLICES_PER_CLOCK_SKEW = 4;
+
+    /** The number of buckets in a shard's ring : the live slices, plus the current one */
+    private static final int NB_BUCKETS = SLICES_PER_CLOCK_SKEW + 1;
+
+    /** The number of shards, a power of 2 */
+    private static final int NB_SHARDS = Integer.highestOneBit( Math.max( 4,
+        Runtime.getRuntime().availableProcessors() * 2 - 1 ) ) * 2;
+
+    /** The initial number of fingerprints a bucket can hold */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The seeds and multipliers used to hash the tuples */
+    private static final long SEED1 = 0x9E3779B97F4A7C15L;
+    private static final long SEED2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long MULTIPLIER1 = 0x100000001B3L;
+    private static final long MULTIPLIER2 = 0x87C37B91114253D5L;
+
     /** The clock skew */
-    private long clockSkew = DEFAULT_CLOCK_SKEW;
+    private final long clockSkew;
+
+    /** The duration of a time slice, in milliseconds */
+    private final long sliceDuration;
+
+    /** The source of the current time, in milliseconds */
+    private final LongSupplier clock;
+
+    /** The shards */
+    private final Shard[] shards;
+
 
     /**
-     * A structure to hold an entry
+     * A ring of time buckets, each bucket being an open addressing table of
+     * fingerprints. A fingerprint uses two consecutive longs, (0, 0) marking an
+     * empty slot.
      */
-    public static class ReplayCacheEntry implements Serializable
+    private static final class Shard
     {
-        private static final long serialVersionUID = 1L;
+        /** The fingerprints of each bucket */
+        private final long[][] tables = new long[NB_BUCKETS][];
+
+        /** The number of fingerprints in each bucket */
+        private final int[] sizes = new int[NB_BUCKETS];
+
+        /** The time slice each bucket holds the fingerprints of */
+        private final long[] slices = new long[NB_BUCKETS];
+
+
+        private Shard()
+        {
+            for ( int i = 0; i < NB_BUCKETS; i++ )
+            {
+                tables[i] = new long[INITIAL_CAPACITY * 2];
+                slices[i] = Long.MIN_VALUE;
+            }
+        }
+
+
+        private synchronized boolean contains( long high, long low, long slice )
+        {
+            for ( int i = 0; i < NB_BUCKETS; i++ )
+            {
+                // The buckets of the expired slices are ignored until they are reused
+                if ( ( slices[i] > slice - NB_BUCKETS ) && ( sizes[i] > 0 ) && ( indexOf( tables[i], high, low ) >= 0 ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+
+        private synchronized void add( long high, long low, long slice )
+        {
+            int bucket = ( int ) Math.floorMod( slice, ( long ) NB_BUCKETS );
+
+            if ( slices[bucket] != slice )
+            {
+                // The bucket held an expired slice : all its fingerprints are dropped
+                clear( bucket );
+                slices[bucket] = slice;
+            }
+
+            long[] table = tables[bucket];
+
+            if ( indexOf( table, high, low ) >= 0 )
+            {
+                return;
+            }
+
+            if ( ( sizes[bucket] + 1 ) * 4 > table.length )
+            {
+                // Keep the load factor under 1/2
+                table = grow( table );
+                tables[bucket] = table;
+            }
+
+            insert( table, high, low );
+            sizes[bucket]++;
+        }
 
-        /** The server principal */
-        private KerberosPrincipal serverPrincipal;
 
-        /** The client principal */
-        private KerberosPrincipal clientPrincipal;
+        private synchronized void clear()
+        {
+            for ( int i = 0; i < NB_BUCKETS; i++ )
+            {
+                clear( i );
+                slices[i] = Long.MIN_VALUE;
+            }
+        }
+
+
+        private synchronized int size( long slice )
+        {
+            int size = 0;
 
-        /** The client time */
-        private KerberosTime clientTime;
+            for ( int i = 0; i < NB_BUCKETS; i++ )
+            {
+                if ( slices[i] > slice - NB_BUCKETS )
+                {
+                    size += sizes[i];
+                }
+            }
 
-        /** The client micro seconds */
-        private int clientMicroSeconds;
+            return size;
+        }
 
 
-        /**
-         * Creates a new instance of ReplayCacheEntry.
-         * 
-         * @param serverPrincipal
-         * @param clientPrincipal
-         * @param clientTime
-         * @param clientMicroSeconds
-         */
-        public ReplayCacheEntry( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
-            KerberosTime clientTime, int clientMicroSeconds )
+        private void clear( int bucket )
         {
-            this.serverPrincipal = serverPrincipal;
-            this.clientPrincipal = clientPrincipal;
-            this.clientTime = clientTime;
-            this.clientMicroSeconds = clientMicroSeconds;
+            if ( tables[bucket].length > INITIAL_CAPACITY * 8 )
+            {
+                // Don't keep a table sized for a peak of requests
+                tables[bucket] = new long[INITIAL_CAPACITY * 2];
+            }
+            else if ( sizes[bucket] > 0 )
+            {
+                Arrays.fill( tables[bucket], 0L );
+            }
+
+            sizes[bucket] = 0;
         }
 
 
-        /**
-         * Returns whether this {@link ReplayCacheEntry} is equal to another {@link ReplayCacheEntry}.
-         * {@link ReplayCacheEntry}'s are equal when the server name, client name, client time, and
-         * the client microseconds are equal.
-         *
-         * @param that
-         * @return true if the ReplayCacheEntry's are equal.
-         */
-        public boolean equals( ReplayCacheEntry that )
+        private static int indexOf( long[] table, long high, long low )
         {
-            return serverPrincipal.equals( that.serverPrincipal ) && clientPrincipal.equals( that.clientPrincipal )
-                && clientTime.equals( that.clientTime ) && clientMicroSeconds == that.clientMicroSeconds;
+            int mask = ( table.length >> 1 ) - 1;
+            int slot = ( int ) ( high ^ ( high >>> 32 ) ) & mask;
+
+            while ( true )
+            {
+                long slotHigh = table[slot << 1];
+                long slotLow = table[( slot << 1 ) + 1];
+
+                if ( ( slotHigh == high ) && ( slotLow == low ) )
+                {
+                    return slot;
+                }
+
+                if ( ( slotHigh == 0L ) && ( slotLow == 0L ) )
+                {
+                    return -1;
+                }
+
+                slot = ( slot + 1 ) & mask;
+            }
         }
 
 
-        /**
-         * Returns whether this {@link ReplayCacheEntry} is older than a given time.
-         *
-         * @param clockSkew
-         * @return true if the {@link ReplayCacheEntry}'s client time is outside the clock skew time.
-         */
-        public boolean isOutsideClockSkew( long clockSkew )
+        private static void insert( long[] table, long high, long low )
         {
-            return !clientTime.isInClockSkew( clockSkew );
+            int mask = ( table.length >> 1 ) - 1;
+            int slot = ( int ) ( high ^ ( high >>> 32 ) ) & mask;
+
+            while ( ( table[slot << 1] != 0L ) || ( table[( slot << 1 ) + 1] != 0L ) )
+            {
+                slot = ( slot + 1 ) & mask;
+            }
+
+            table[slot << 1] = high;
+            table[( slot << 1 ) + 1] = low;
         }
 
 
-        /**
-         * @return create a key to be used while storing in the cache
-         */
-        private String createKey()
+        private static long[] grow( long[] table )
         {
-            StringBuilder sb = new StringBuilder();
-            sb.append( ( clientPrincipal == null ) ? "null" : clientPrincipal.getName() );
-            sb.append( '#' );
-            sb.append( ( serverPrincipal == null ) ? "null" : serverPrincipal.getName() );
-            sb.append( '#' );
-            sb.append( ( clientTime == null ) ? "null" : clientTime.getDate() );
-            sb.append( '#' );
-            sb.append( clientMicroSeconds );
-
-            return sb.toString();
+            long[] newTable = new long[table.length * 2];
+
+            for ( int i = 0; i < table.length; i += 2 )
+            {
+                if ( ( table[i] != 0L ) || ( table[i + 1] != 0L ) )
+                {
+                    insert( newTable, table[i], table[i + 1] );
+                }
+            }
+
+            return newTable;
         }
     }
 
 
     /**
-     * Creates a new instance of InMemoryReplayCache. Sets the
-     * delay between each cleaning run to 5 seconds. Sets the
-     * clockSkew to the given value
-     * 
-     * @param clockSkew the allowed skew (milliseconds)
+     * Creates a new instance of ReplayCacheImpl with the default clock skew.
+     */
+    public ReplayCacheImpl()
+    {
+        this( DEFAULT_CLOCK_SKEW );
+    }
+
+
+    /**
+     * Creates a new instance of ReplayCacheImpl.
+     *
+     * @param clockSkew The clock skew, in milliseconds
      */
     public ReplayCacheImpl( long clockSkew )
     {
-        this.clockSkew = clockSkew;
-        this.cache = Caffeine.newBuilder().expireAfterWrite( Duration.ofMillis( clockSkew )).build();
+        this( clockSkew, System::currentTimeMillis );
     }
 
 
     /**
-     * Check if an entry is a replay or not.
+     * Creates a new instance of ReplayCacheImpl using a given clock.
+     *
+     * @param clockSkew The clock skew, in milliseconds
+     * @param clock The source of the current time, in milliseconds
      */
-    public synchronized boolean isReplay( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
-        KerberosTime clientTime, int clientMicroSeconds )
+    ReplayCacheImpl( long clockSkew, LongSupplier clock )
     {
-        ReplayCacheEntry entry = new ReplayCacheEntry( serverPrincipal, 
-            clientPrincipal, clientTime, clientMicroSeconds );
-        ReplayCacheEntry found = ( ReplayCacheEntry ) cache.getIfPresent( entry.createKey() );
+        this.clockSkew = clockSkew;
+        this.sliceDuration = Math.max( 1L, ( clockSkew + SLICES_PER_CLOCK_SKEW - 1 ) / SLICES_PER_CLOCK_SKEW );
+        this.clock = clock;
+        this.shards = new Shard[NB_SHARDS];
 
-        if ( found == null )
+        for ( int i = 0; i < NB_SHARDS; i++ )
         {
-            return false;
+            shards[i] = new Shard();
         }
+    }
 
-        entry = found;
 
-        return serverPrincipal.equals( entry.serverPrincipal ) &&
-            clientTime.equals( entry.clientTime ) &&
-            ( clientMicroSeconds == entry.clientMicroSeconds );
+    /**
+     * Check if an entry is a replay or not.
+     */
+    public boolean isReplay( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+        KerberosTime clientTime, int clientMicroSeconds )
+    {
+        long high = hash( SEED1, MULTIPLIER1, serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+        long low = hash( SEED2, MULTIPLIER2, serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+
+        return getShard( low ).contains( high, nonEmpty( high, low ), currentSlice() );
     }
 
 
     /**
-     * Add a new entry into the cache. A thread will clean all the timed out
-     * entries.
+     * Add a new entry into the cache. The entry expires with the time bucket it
+     * has been added to.
      */
-    public synchronized void save( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
+    public void save( KerberosPrincipal serverPrincipal, KerberosPrincipal clientPrincipal,
         KerberosTime clientTime, int clientMicroSeconds )
     {
-        ReplayCacheEntry entry = new ReplayCacheEntry( serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+        long high = hash( SEED1, MULTIPLIER1, serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+        long low = hash( SEED2, MULTIPLIER2, serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
 
-        cache.put( entry.createKey(), entry );
+        getShard( low ).add( high, nonEmpty( high, low ), currentSlice() );
     }
 
 
@@ -196,6 +327,106 @@ public class ReplayCacheImpl implements ReplayCache
     public void clear()
     {
         LOG.debug( "removing all the elements from cache" );
-        cache.invalidateAll();
+
+        for ( Shard shard : shards )
+        {
+            shard.clear();
+        }
+    }
+
+
+    /**
+     * @return The number of entries which have not expired
+     */
+    int size()
+    {
+        long slice = currentSlice();
+        int size = 0;
+
+        for ( Shard shard : shards )
+        {
+            size += shard.size( slice );
+        }
+
+        return size;
+    }
+
+
+    /**
+     * @return The clock skew
+     */
+    public long getClockSkew()
+    {
+        return clockSkew;
+    }
+
+
+    private long currentSlice()
+    {
+        return Math.floorDiv( clock.getAsLong(), sliceDuration );
+    }
+
+
+    private Shard getShard( long low )
+    {
+        return shards[( int ) ( low >>> 40 ) & ( NB_SHARDS - 1 )];
+    }
+
+
+    /**
+     * The (0, 0) fingerprint marks the empty slots, the low part is changed to avoid it
+     */
+    private static long nonEmpty( long high, long low )
+    {
+        return ( ( high == 0L ) && ( low == 0L ) ) ? 1L : low;
+    }
+
+
+    /**
+     * Computes one half of a tuple's fingerprint, without allocating anything
+     */
+    private static long hash( long seed, long multiplier, KerberosPrincipal serverPrincipal,
+        KerberosPrincipal clientPrincipal, KerberosTime clientTime, int clientMicroSeconds )
+    {
+        long hash = seed;
+
+        hash = hash( hash, multiplier, ( serverPrincipal == null ) ? null : serverPrincipal.getName() );
+        hash = hash( hash, multiplier, ( clientPrincipal == null ) ? null : clientPrincipal.getName() );
+        hash = ( hash ^ ( ( clientTime == null ) ? Long.MIN_VALUE : clientTime.getTime() ) ) * multiplier;
+        hash = ( hash ^ clientMicroSeconds ) * multiplier;
+
+        return mix( hash );
+    }
+
+
+    private static long hash( long hash, long multiplier, String value )
+    {
+        if ( value == null )
+        {
+            return ( hash ^ -1L ) * multiplier;
+        }
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            hash = ( hash ^ value.charAt( i ) ) * multiplier;
+        }
+
+        // The length separates the values
+        return ( hash ^ value.length() ) * multiplier;
+    }
+
+
+    /**
+     * The MurmurHash3 64 bits finalizer
+     */
+    private static long mix( long hash )
+    {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+
+        return hash;
     }
 }
@@ -0,0 +1,174 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.crypto.Cipher;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.shared.kerberos.codec.types.EncryptionType;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.Test;
+
+
+/**
+ * Tests the derived keys cache and the per thread Cipher instances of the encryption engines.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncryptionEngineCacheTest
+{
+    private static final byte[] PLAIN_TEXT = Strings.getBytesUtf8( "The quick brown fox jumps over the lazy dog" );
+
+
+    /**
+     * The engines which can be used in the current JRE
+     */
+    private static List<EncryptionEngine> getEngines()
+    {
+        List<EncryptionEngine> engines = new ArrayList<>();
+
+        engines.add( new DesCbcMd5Encryption() );
+        engines.add( new Des3CbcSha1KdEncryption() );
+
+        if ( VendorHelper.isCtsSupported() )
+        {
+            engines.add( new Aes128CtsSha1Encryption() );
+        }
+
+        return engines;
+    }
+
+
+    /**
+     * Tests that the cached derived keys are the ones computed without cache
+     */
+    @Test
+    public void testDerivedKeyCache() throws Exception
+    {
+        Des3CbcSha1KdEncryption engine = new Des3CbcSha1KdEncryption();
+        EncryptionKey key = RandomKeyFactory.getRandomKey( EncryptionType.DES3_CBC_SHA1_KD );
+        byte[] usage = engine.getUsageKe( KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+
+        byte[] expected = engine.deriveKey( key.getKeyValue(), usage, 64, 168 );
+        byte[] derivedKey = engine.getDerivedKey( key.getKeyValue(), usage, 64, 168 );
+
+        assertArrayEquals( expected, derivedKey );
+
+        // Modifying the returned key does not modify the cached one
+        derivedKey[0]++;
+        assertArrayEquals( expected, engine.getDerivedKey( key.getKeyValue(), usage, 64, 168 ) );
+
+        // Another usage gives another key
+        byte[] kiUsage = engine.getUsageKi( KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+        assertArrayEquals( engine.deriveKey( key.getKeyValue(), kiUsage, 64, 168 ),
+            engine.getDerivedKey( key.getKeyValue(), kiUsage, 64, 168 ) );
+    }
+
+
+    /**
+     * Tests that a thread always gets the same Cipher instance for a transformation
+     */
+    @Test
+    public void testCipherPerThread() throws Exception
+    {
+        Cipher cipher = EncryptionEngine.getCipher( "DES/CBC/NoPadding" );
+
+        assertSame( cipher, EncryptionEngine.getCipher( "DES/CBC/NoPadding" ) );
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            Cipher otherCipher = executor.submit( () -> EncryptionEngine.getCipher( "DES/CBC/NoPadding" ) ).get();
+
+            assertSame( otherCipher, executor.submit( () -> EncryptionEngine.getCipher( "DES/CBC/NoPadding" ) )
+                .get() );
+            assertNotSame( cipher, otherCipher );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+
+    /**
+     * Tests encrypt/decrypt round trips done concurrently with the same keys
+     */
+    @Test
+    public void testConcurrentRoundTrips() throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            for ( EncryptionEngine engine : getEngines() )
+            {
+                EncryptionKey key = RandomKeyFactory.getRandomKey( engine.getEncryptionType() );
+                List<Future<Void>> results = new ArrayList<>();
+
+                for ( int i = 0; i < 16; i++ )
+                {
+                    Callable<Void> roundTrips = () ->
+                    {
+                        for ( int j = 0; j < 100; j++ )
+                        {
+                            EncryptedData encrypted = engine.getEncryptedData( key, PLAIN_TEXT,
+                                KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+                            byte[] decrypted = engine.getDecryptedData( key, encrypted,
+                                KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+
+                            // The decrypted data may be padded
+                            byte[] text = new byte[PLAIN_TEXT.length];
+                            System.arraycopy( decrypted, 0, text, 0, text.length );
+                            assertArrayEquals( PLAIN_TEXT, text );
+                        }
+
+                        return null;
+                    };
+
+                    results.add( executor.submit( roundTrips ) );
+                }
+
+                for ( Future<Void> result : results )
+                {
+                    result.get();
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+package org.apache.directory.server.kerberos.shared.crypto.encryption;
+
+
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.shared.kerberos.components.EncryptedData;
+import org.apache.directory.shared.kerberos.components.EncryptionKey;
+import org.junit.Test;
+
+
+/**
+ * Measures the encrypt/decrypt round trip of each encryption type.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncryptionEnginePerfIT
+{
+    private static final byte[] PLAIN_TEXT = Strings.getBytesUtf8(
+        "A Kerberos ticket encrypted part is a few hundred bytes long, this text is a tenth of it" );
+
+
+    private void roundTrips( EncryptionEngine engine ) throws Exception
+    {
+        EncryptionKey key = RandomKeyFactory.getRandomKey( engine.getEncryptionType() );
+
+        int nbIterations = 300000;
+        int nbWarming = 100000;
+
+        long t0 = System.currentTimeMillis();
+        long t00 = 0L;
+        long tt0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbIterations; i++ )
+        {
+            if ( i % 100000 == 0 )
+            {
+                long tt1 = System.currentTimeMillis();
+
+                System.out.println( i + ", " + ( tt1 - tt0 ) );
+                tt0 = tt1;
+            }
+
+            if ( i == nbWarming )
+            {
+                t00 = System.currentTimeMillis();
+            }
+
+            EncryptedData encrypted = engine.getEncryptedData( key, PLAIN_TEXT, KeyUsage.AS_REP_ENC_PART_WITH_CKEY );
+            assertNotNull( engine.getDecryptedData( key, encrypted, KeyUsage.AS_REP_ENC_PART_WITH_CKEY ) );
+        }
+
+        long t1 = System.currentTimeMillis();
+
+        Long deltaWarmed = ( t1 - t00 );
+        System.out.println( "Delta " + engine.getEncryptionType() + " round trip: " + deltaWarmed + "( "
+            + ( ( ( nbIterations - nbWarming ) * 1000L ) / Math.max( 1L, deltaWarmed ) ) + " per s ) /"
+            + ( t1 - t0 ) );
+    }
+
+
+    @Test
+    public void testPerfDesCbcMd5() throws Exception
+    {
+        roundTrips( new DesCbcMd5Encryption() );
+    }
+
+
+    @Test
+    public void testPerfDes3CbcSha1Kd() throws Exception
+    {
+        roundTrips( new Des3CbcSha1KdEncryption() );
+    }
+
+
+    @Test
+    public void testPerfAes128CtsSha1() throws Exception
+    {
+        if ( VendorHelper.isCtsSupported() )
+        {
+            roundTrips( new Aes128CtsSha1Encryption() );
+        }
+    }
+
+
+    @Test
+    public void testPerfAes256CtsSha1() throws Exception
+    {
+        if ( VendorHelper.isCtsSupported() )
+        {
+            roundTrips( new Aes256CtsSha1Encryption() );
+        }
+    }
+
+
+    @Test
+    public void testPerfArcFourHmacMd5() throws Exception
+    {
+        if ( VendorHelper.isArcFourHmacSupported() )
+        {
+            roundTrips( new ArcFourHmacMd5Encryption() );
+        }
+    }
+}
@@ -22,13 +22,11 @@ package org.apache.directory.server.kerberos.shared.replay;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertNotNull;
-import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.auth.kerberos.KerberosPrincipal;
 
@@ -87,27 +85,20 @@ public class ReplayCacheImplTest
                 triples.add( Triple.of( serverPrincipal, clientPrincipal, clientTime ) );
             }
 
-            // Get the 4 cache keys
-            Set<String> keys = cache.cache.asMap().keySet();
-            assertEquals( 4, keys.size() );
-            assertEquals( 4L, cache.cache.estimatedSize() );
+            assertEquals( 4, cache.size() );
 
             // Wait a bit without exceeding timetolive time
             Thread.sleep( 200L );
 
             // Verify that cache entries are valid and replay is detected
-            for ( String key : keys )
-            {
-                assertNotNull( cache.cache.getIfPresent( key ) );
-            }
             for ( Triple<KerberosPrincipal, KerberosPrincipal, KerberosTime> triple : triples )
             {
                 boolean isReplay = cache.isReplay( triple.getLeft(), triple.getMiddle(), triple.getRight(), 0 );
                 assertTrue( isReplay );
             }
 
-            // Wait till the timetolive time exceeds
-            Thread.sleep( 1000L );
+            // Wait till the timetolive time, plus the time bucket duration, exceeds
+            Thread.sleep( 1300L );
 
             // Verify that cache entries are expired and no replay is detected
             for ( Triple<KerberosPrincipal, KerberosPrincipal, KerberosTime> triple : triples )
@@ -116,18 +107,77 @@ public class ReplayCacheImplTest
                 assertFalse( isReplay );
             }
 
-            // then access the cache so that the objects present in the cache will be expired
-            for ( String key : keys )
-            {
-                assertNull( cache.cache.getIfPresent( key ) );
-            }
-
-            // After forced cache cleanup the size is recalculated
-            cache.cache.cleanUp();
-            assertEquals( 0L, cache.cache.estimatedSize() );
+            assertEquals( 0, cache.size() );
         }
         finally
         {
         }
     }
+
+
+    /**
+     * Test that the entries expire with their time bucket, between the clock skew
+     * and the clock skew plus a quarter of it.
+     */
+    @Test
+    public void testBucketExpiration()
+    {
+        AtomicLong now = new AtomicLong( 1000000L );
+        ReplayCacheImpl cache = new ReplayCacheImpl( 1000L, now::get );
+
+        KerberosPrincipal serverPrincipal = new KerberosPrincipal( "server@APACHE.ORG" );
+        KerberosPrincipal clientPrincipal = new KerberosPrincipal( "client@APACHE.ORG" );
+        KerberosTime clientTime = new KerberosTime( now.get() );
+
+        cache.save( serverPrincipal, clientPrincipal, clientTime, 10 );
+        assertTrue( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 10 ) );
+
+        // Any other field makes a different tuple
+        assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 11 ) );
+        assertFalse( cache.isReplay( clientPrincipal, serverPrincipal, clientTime, 10 ) );
+        assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, new KerberosTime( now.get() + 1000L ), 10 ) );
+
+        // Still there at the end of the clock skew
+        now.addAndGet( 1000L );
+        cache.save( serverPrincipal, clientPrincipal, clientTime, 20 );
+        assertTrue( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 10 ) );
+
+        // Expired a bucket later, the latest entry remaining
+        now.addAndGet( 250L );
+        assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 10 ) );
+        assertTrue( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 20 ) );
+        assertEquals( 1, cache.size() );
+
+        cache.clear();
+        assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, 20 ) );
+    }
+
+
+    /**
+     * Test that a bucket holds many entries
+     */
+    @Test
+    public void testManyEntries()
+    {
+        AtomicLong now = new AtomicLong( 1000000L );
+        ReplayCacheImpl cache = new ReplayCacheImpl( 1000L, now::get );
+        KerberosPrincipal serverPrincipal = new KerberosPrincipal( "server@APACHE.ORG" );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            cache.save( serverPrincipal, new KerberosPrincipal( "client" + ( i % 100 ) + "@APACHE.ORG" ),
+                new KerberosTime( now.get() + i / 100 ), i );
+        }
+
+        assertEquals( 10000, cache.size() );
+
+        for ( int i = 0; i < 10000; i++ )
+        {
+            KerberosPrincipal clientPrincipal = new KerberosPrincipal( "client" + ( i % 100 ) + "@APACHE.ORG" );
+
+            assertTrue( cache.isReplay( serverPrincipal, clientPrincipal, new KerberosTime( now.get() + i / 100 ), i ) );
+            assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, new KerberosTime( now.get() + i / 100 ),
+                i + 10000 ) );
+        }
+    }
 }
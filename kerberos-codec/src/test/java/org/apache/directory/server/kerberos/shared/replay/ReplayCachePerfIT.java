@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.shared.replay;
+
+
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.shared.kerberos.KerberosTime;
+import org.junit.Test;
+
+
+/**
+ * Measures the throughput of the replay cache, checking and saving distinct authenticators
+ * from several threads.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplayCachePerfIT
+{
+    /** The number of distinct clients */
+    private static final int NB_CLIENTS = 1000;
+
+
+    private void checkAndSave( ReplayCacheImpl cache, KerberosPrincipal serverPrincipal,
+        KerberosPrincipal[] clientPrincipals, int thread, int nbIterations )
+    {
+        for ( int i = 0; i < nbIterations; i++ )
+        {
+            KerberosPrincipal clientPrincipal = clientPrincipals[i % NB_CLIENTS];
+            KerberosTime clientTime = new KerberosTime( System.currentTimeMillis() );
+            int clientMicroSeconds = thread * nbIterations + i;
+
+            assertFalse( cache.isReplay( serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds ) );
+            cache.save( serverPrincipal, clientPrincipal, clientTime, clientMicroSeconds );
+        }
+    }
+
+
+    @Test
+    public void testPerfReplayCache() throws Exception
+    {
+        ReplayCacheImpl cache = new ReplayCacheImpl( 5L * KerberosTime.MINUTE );
+        KerberosPrincipal serverPrincipal = new KerberosPrincipal( "krbtgt/EXAMPLE.COM@EXAMPLE.COM" );
+        KerberosPrincipal[] clientPrincipals = new KerberosPrincipal[NB_CLIENTS];
+
+        for ( int i = 0; i < NB_CLIENTS; i++ )
+        {
+            clientPrincipals[i] = new KerberosPrincipal( "user" + i + "@EXAMPLE.COM" );
+        }
+
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        int nbIterations = 1000000;
+
+        // Warm up
+        checkAndSave( cache, serverPrincipal, clientPrincipals, nbThreads, nbIterations );
+        cache.clear();
+
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+
+        try
+        {
+            long t0 = System.currentTimeMillis();
+            List<Future<?>> results = new ArrayList<>();
+
+            for ( int thread = 0; thread < nbThreads; thread++ )
+            {
+                int threadNumber = thread;
+                results.add( executor.submit( () -> checkAndSave( cache, serverPrincipal, clientPrincipals,
+                    threadNumber, nbIterations ) ) );
+            }
+
+            for ( Future<?> result : results )
+            {
+                result.get();
+            }
+
+            long t1 = System.currentTimeMillis();
+
+            Long delta = Math.max( 1L, t1 - t0 );
+            System.out.println( "Delta replay cache, " + nbThreads + " threads: " + delta + "( "
+                + ( ( nbThreads * nbIterations * 1000L ) / delta ) + " per s )" );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
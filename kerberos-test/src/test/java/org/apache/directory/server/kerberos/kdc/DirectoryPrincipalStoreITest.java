@@ -0,0 +1,183 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.kerberos.kdc;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.security.auth.kerberos.KerberosPrincipal;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.api.LdapCoreSessionConnection;
+import org.apache.directory.server.core.integ.AbstractLdapTestUnit;
+import org.apache.directory.server.core.integ.FrameworkRunner;
+import org.apache.directory.server.core.kerberos.KeyDerivationInterceptor;
+import org.apache.directory.server.kerberos.shared.store.PrincipalStoreEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+
+/**
+ * Tests the principal cache of the {@link DirectoryPrincipalStore}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@RunWith(FrameworkRunner.class)
+@CreateDS(name = "DirectoryPrincipalStoreITest-class",
+    partitions =
+        {
+            @CreatePartition(
+                name = "example",
+                suffix = "dc=example,dc=com")
+    },
+    additionalInterceptors =
+        {
+            KeyDerivationInterceptor.class
+    })
+@ApplyLdifFiles("org/apache/directory/server/kerberos/kdc/KerberosIT.ldif")
+public class DirectoryPrincipalStoreITest extends AbstractLdapTestUnit
+{
+    private static final String USER_DN = "uid=hnelson," + AbstractKerberosITest.USERS_DN;
+
+    private static final KerberosPrincipal PRINCIPAL = new KerberosPrincipal( "hnelson@EXAMPLE.COM" );
+
+    private LdapCoreSessionConnection conn;
+
+    private DirectoryPrincipalStore store;
+
+
+    @Before
+    public void setUp() throws Exception
+    {
+        conn = new LdapCoreSessionConnection( service );
+        conn.modify( "cn=Krb5kdc,ou=schema",
+            new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "m-disabled", "FALSE" ) );
+
+        conn.add( new DefaultEntry( USER_DN,
+            "objectClass: top",
+            "objectClass: person",
+            "objectClass: inetOrgPerson",
+            "objectClass: krb5principal",
+            "objectClass: krb5kdcentry",
+            "cn: Horatio Nelson",
+            "sn: Nelson",
+            "uid: hnelson",
+            "userPassword: secret",
+            "krb5PrincipalName: hnelson@EXAMPLE.COM",
+            "krb5KeyVersionNumber: 0" ) );
+
+        store = new DirectoryPrincipalStore( service, new Dn( AbstractKerberosITest.USERS_DN ), 100, 60000L );
+    }
+
+
+    @After
+    public void tearDown() throws Exception
+    {
+        store.close();
+        conn.close();
+    }
+
+
+    @Test
+    public void testCachedPrincipal() throws Exception
+    {
+        PrincipalStoreEntry entry = store.getPrincipal( PRINCIPAL );
+
+        assertNotNull( entry );
+        assertFalse( entry.isDisabled() );
+        assertSame( entry, store.getPrincipal( PRINCIPAL ) );
+
+        // A modification of an attribute the principal doesn't use keeps it in the cache
+        conn.modify( USER_DN, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE, "description",
+            "Admiral" ) );
+        assertSame( entry, store.getPrincipal( PRINCIPAL ) );
+
+        // Its flags or keys are read again as soon as they are modified
+        conn.modify( USER_DN, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "krb5AccountDisabled", "TRUE" ) );
+        PrincipalStoreEntry disabled = store.getPrincipal( PRINCIPAL );
+
+        assertNotSame( entry, disabled );
+        assertTrue( disabled.isDisabled() );
+
+        conn.modify( USER_DN, new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+            "userPassword", "newsecret" ) );
+        PrincipalStoreEntry rekeyed = store.getPrincipal( PRINCIPAL );
+
+        assertNotSame( disabled, rekeyed );
+        assertEquals( disabled.getKeyVersionNumber() + 1, rekeyed.getKeyVersionNumber() );
+        assertSame( rekeyed, store.getPrincipal( PRINCIPAL ) );
+    }
+
+
+    @Test
+    public void testRenamedAndDeletedPrincipal() throws Exception
+    {
+        PrincipalStoreEntry entry = store.getPrincipal( PRINCIPAL );
+
+        assertEquals( USER_DN, entry.getDistinguishedName() );
+
+        conn.rename( USER_DN, "uid=nelson" );
+        entry = store.getPrincipal( PRINCIPAL );
+
+        assertEquals( "uid=nelson," + AbstractKerberosITest.USERS_DN, entry.getDistinguishedName() );
+
+        conn.delete( entry.getDistinguishedName() );
+
+        assertNull( store.getPrincipal( PRINCIPAL ) );
+    }
+
+
+    @Test
+    public void testPrincipalTtl() throws Exception
+    {
+        DirectoryPrincipalStore shortLived = new DirectoryPrincipalStore( service,
+            new Dn( AbstractKerberosITest.USERS_DN ), 100, 50L );
+
+        try
+        {
+            PrincipalStoreEntry entry = shortLived.getPrincipal( PRINCIPAL );
+
+            assertSame( entry, shortLived.getPrincipal( PRINCIPAL ) );
+
+            Thread.sleep( 200L );
+
+            assertNotSame( entry, shortLived.getPrincipal( PRINCIPAL ) );
+        }
+        finally
+        {
+            shortLived.close();
+        }
+    }
+}
@@ -20,15 +20,27 @@
 package org.apache.directory.server.core.partition.ldif;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.CsnFactory;
@@ -51,6 +63,7 @@ import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.SnapshotUtils;
 import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
 import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
@@ -100,6 +113,15 @@ public class LdifPartition extends AbstractLdifPartition
     /** The directory into which the entries are stored */
     private File suffixDirectory;
 
+    /** The extension of the snapshot file */
+    public static final String SNAPSHOT_FILE_EXTN = ".snapshot";
+
+    /** The version of the snapshot format */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /** Tells if the loaded entries are cached in a snapshot, default is set to false */
+    private boolean snapshotEnabled = false;
+
     /** Flags used for the getFile() method */
     private static final boolean CREATE = Boolean.TRUE;
     private static final boolean DELETE = Boolean.FALSE;
@@ -130,6 +152,101 @@ public class LdifPartition extends AbstractLdifPartition
     };
 
 
+    /**
+     * Wraps the LdapExceptions thrown while loading the entries in the pool
+     */
+    private static final class LoadingException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient LdapException ldapException;
+
+
+        private LoadingException( LdapException ldapException )
+        {
+            super( ldapException );
+            this.ldapException = ldapException;
+        }
+    }
+
+
+    /**
+     * The entries parsed from a directory, and the loaders of its sub-directories
+     */
+    private static final class LoadedDirectory
+    {
+        private final List<Entry> entries;
+        private final List<DirectoryLoader> subLoaders;
+
+
+        private LoadedDirectory( List<Entry> entries, List<DirectoryLoader> subLoaders )
+        {
+            this.entries = entries;
+            this.subLoaders = subLoaders;
+        }
+    }
+
+
+    /**
+     * Parses the entry files of a directory, in parallel, after having started the
+     * loaders of its sub-directories.
+     */
+    private final class DirectoryLoader extends RecursiveTask<LoadedDirectory>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final File entryDir;
+
+
+        private DirectoryLoader( File entryDir )
+        {
+            this.entryDir = entryDir;
+        }
+
+
+        @Override
+        protected LoadedDirectory compute()
+        {
+            LOG.debug( "Processing dir {}", entryDir.getName() );
+
+            File[] entryFiles = entryDir.listFiles( entryFilter );
+
+            // If we don't have ldif files, we won't have sub-directories
+            if ( ( entryFiles == null ) || ( entryFiles.length == 0 ) )
+            {
+                return new LoadedDirectory( Collections.<Entry>emptyList(), Collections.<DirectoryLoader>emptyList() );
+            }
+
+            List<DirectoryLoader> subLoaders = new ArrayList<>();
+            File[] dirs = entryDir.listFiles( dirFilter );
+
+            if ( dirs != null )
+            {
+                for ( File dir : dirs )
+                {
+                    DirectoryLoader subLoader = new DirectoryLoader( dir );
+                    subLoader.fork();
+                    subLoaders.add( subLoader );
+                }
+            }
+
+            List<Entry> entries = Arrays.stream( entryFiles ).parallel().map( entryFile ->
+            {
+                try
+                {
+                    return parseEntry( entryFile );
+                }
+                catch ( LdapException le )
+                {
+                    throw new LoadingException( le );
+                }
+            } ).filter( Objects::nonNull ).collect( Collectors.toList() );
+
+            return new LoadedDirectory( entries, subLoaders );
+        }
+    }
+
+
     /**
      * Creates a new instance of LdifPartition.
      * 
@@ -553,110 +670,261 @@ public class LdifPartition extends AbstractLdifPartition
      * NOTE: this dir setup is just to ease the testing of this partition, this needs to be
      * replaced with some kind of bootstrapping the default config from a jar file and
      * write to the FS in LDIF format
+     * <br>
+     * The directories are read and the LDIF files parsed in parallel. When the snapshot
+     * is enabled and the entry files have not changed since it has been written, the
+     * entries are read from the snapshot instead.
      *
      * @throws Exception
      */
-    private void loadEntries( File entryDir ) throws LdapException
+    private void loadEntries( File partitionDir ) throws LdapException
     {
-        LOG.debug( "Processing dir {}", entryDir.getName() );
-
-        // First, load the entries
-        File[] entries = entryDir.listFiles( entryFilter );
+        File snapshotFile = null;
+        long checksum = 0L;
 
-        if ( ( entries != null ) && ( entries.length != 0 ) )
+        if ( snapshotEnabled )
         {
-            LdifReader ldifReader = new LdifReader( schemaManager );
+            snapshotFile = new File( partitionDir, suffixDirectory.getName() + SNAPSHOT_FILE_EXTN );
 
-            for ( File entry : entries )
+            try
             {
-                LOG.debug( "parsing ldif file {}", entry.getName() );
-                List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entry.getAbsolutePath() );
-                
-                try
-                {
-                    ldifReader.close();
-                }
-                catch ( IOException ioe )
+                checksum = SnapshotUtils.computeTreeChecksum( partitionDir, CONF_FILE_EXTN );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            List<Entry> snapshotEntries = readSnapshot( snapshotFile, checksum );
+
+            if ( snapshotEntries != null )
+            {
+                LOG.debug( "Loading {} entries from the snapshot {}", snapshotEntries.size(), snapshotFile );
+
+                for ( Entry entry : snapshotEntries )
                 {
-                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                    loadEntry( entry );
                 }
 
-                if ( ( ldifEntries != null ) && !ldifEntries.isEmpty() )
-                {
-                    // this ldif will have only one entry
-                    LdifEntry ldifEntry = ldifEntries.get( 0 );
-                    LOG.debug( "Adding entry {}", ldifEntry );
+                return;
+            }
+        }
 
-                    Entry serverEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
+        // The loaded entries are only kept when they have to be written in a snapshot
+        List<Entry> loadedEntries = ( snapshotFile != null ) ? new ArrayList<>() : null;
+        ForkJoinPool pool = new ForkJoinPool( Runtime.getRuntime().availableProcessors() );
 
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
-                    }
+        try
+        {
+            // The directories are read and parsed by the pool, while the entries are
+            // added by this thread, each directory's entries before its sub-directories'
+            DirectoryLoader rootLoader = new DirectoryLoader( partitionDir );
+            pool.execute( rootLoader );
+            loadDirectory( rootLoader, loadedEntries );
+        }
+        finally
+        {
+            pool.shutdown();
+        }
 
-                    if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
-                    {
-                        serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
-                    }
+        if ( snapshotFile != null )
+        {
+            writeSnapshot( snapshotFile, checksum, loadedEntries );
+        }
+    }
 
-                    // call add on the wrapped partition not on the self
-                    AddOperationContext addContext = new AddOperationContext( null, serverEntry );
-                    PartitionTxn partitionTxn = beginWriteTransaction();
-                    
-                    try
-                    {
-                        addContext.setTransaction( partitionTxn );
-                        addContext.setPartition( this );
-                    
-                        super.add( addContext );
-                        
-                        partitionTxn.commit();
-                    }
-                    catch ( LdapException le )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe )
-                        {
-                            throw new LdapOtherException( ioe.getMessage(), ioe );
-                        }
-                        
-                        throw le;
-                    }
-                    catch ( IOException ioe )
-                    {
-                        try
-                        {
-                            partitionTxn.abort();
-                        }
-                        catch ( IOException ioe2 )
-                        {
-                            throw new LdapOtherException( ioe2.getMessage(), ioe2 );
-                        }
-                        
-                        throw new LdapOtherException( ioe.getMessage(), ioe );
-                    }
-                }
+
+    /**
+     * Adds the entries of a directory, then the entries of its sub-directories. The added
+     * entries are collected in the given list, unless it's null.
+     */
+    private void loadDirectory( DirectoryLoader loader, List<Entry> loadedEntries ) throws LdapException
+    {
+        LoadedDirectory directory;
+
+        try
+        {
+            directory = loader.join();
+        }
+        catch ( LoadingException le )
+        {
+            throw le.ldapException;
+        }
+
+        for ( Entry entry : directory.entries )
+        {
+            loadEntry( entry );
+
+            if ( loadedEntries != null )
+            {
+                loadedEntries.add( entry );
             }
+        }
 
+        for ( DirectoryLoader subLoader : directory.subLoaders )
+        {
+            loadDirectory( subLoader, loadedEntries );
         }
-        else
+    }
+
+
+    /**
+     * Parses an entry file
+     */
+    private Entry parseEntry( File entryFile ) throws LdapException
+    {
+        LOG.debug( "parsing ldif file {}", entryFile.getName() );
+
+        try ( LdifReader ldifReader = new LdifReader( schemaManager ) )
         {
-            // If we don't have ldif files, we won't have sub-directories
-            return;
+            List<LdifEntry> ldifEntries = ldifReader.parseLdifFile( entryFile.getAbsolutePath() );
+
+            if ( ( ldifEntries == null ) || ldifEntries.isEmpty() )
+            {
+                return null;
+            }
+
+            // this ldif will have only one entry
+            return new DefaultEntry( schemaManager, ldifEntries.get( 0 ).getEntry() );
         }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
 
-        // Second, recurse on the sub directories
-        File[] dirs = entryDir.listFiles( dirFilter );
 
-        if ( ( dirs != null ) && ( dirs.length != 0 ) )
+    /**
+     * Adds an entry read from the disk in the wrapped partition
+     */
+    private void loadEntry( Entry serverEntry ) throws LdapException
+    {
+        LOG.debug( "Adding entry {}", serverEntry );
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_CSN_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_CSN_AT, defaultCSNFactory.newInstance().toString() );
+        }
+
+        if ( !serverEntry.containsAttribute( SchemaConstants.ENTRY_UUID_AT ) )
+        {
+            serverEntry.put( SchemaConstants.ENTRY_UUID_AT, UUID.randomUUID().toString() );
+        }
+
+        // call add on the wrapped partition not on the self
+        AddOperationContext addContext = new AddOperationContext( null, serverEntry );
+        PartitionTxn partitionTxn = beginWriteTransaction();
+        
+        try
         {
-            for ( File f : dirs )
+            addContext.setTransaction( partitionTxn );
+            addContext.setPartition( this );
+        
+            super.add( addContext );
+            
+            partitionTxn.commit();
+        }
+        catch ( LdapException le )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe )
             {
-                loadEntries( f );
+                throw new LdapOtherException( ioe.getMessage(), ioe );
             }
+            
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            try
+            {
+                partitionTxn.abort();
+            }
+            catch ( IOException ioe2 )
+            {
+                throw new LdapOtherException( ioe2.getMessage(), ioe2 );
+            }
+            
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Reads the entries stored in the snapshot, if it has been written from the current entry files.
+     *
+     * @return The entries, parents first, or null if the snapshot can't be used
+     */
+    private List<Entry> readSnapshot( File snapshotFile, long checksum )
+    {
+        if ( !snapshotFile.isFile() )
+        {
+            return null;
+        }
+
+        try ( ObjectInputStream in = new ObjectInputStream( new BufferedInputStream(
+            Files.newInputStream( snapshotFile.toPath() ) ) ) )
+        {
+            if ( ( in.readInt() != SNAPSHOT_VERSION ) || ( in.readLong() != checksum ) )
+            {
+                LOG.info( "The snapshot {} is stale, parsing the LDIF files", snapshotFile );
+
+                return null;
+            }
+
+            int nbEntries = in.readInt();
+            List<Entry> entries = new ArrayList<>( nbEntries );
+
+            for ( int i = 0; i < nbEntries; i++ )
+            {
+                Entry entry = new DefaultEntry();
+                entry.readExternal( in );
+                entries.add( new DefaultEntry( schemaManager, entry ) );
+            }
+
+            return entries;
+        }
+        catch ( IOException | ClassNotFoundException | LdapException | RuntimeException e )
+        {
+            LOG.warn( "Cannot read the snapshot {}, parsing the LDIF files", snapshotFile, e );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the loaded entries in a snapshot, in a temporary file renamed when complete
+     */
+    private void writeSnapshot( File snapshotFile, long checksum, List<Entry> entries )
+    {
+        File tmpFile = new File( snapshotFile.getPath() + ".tmp" );
+
+        try
+        {
+            try ( ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream(
+                Files.newOutputStream( tmpFile.toPath() ) ) ) )
+            {
+                out.writeInt( SNAPSHOT_VERSION );
+                out.writeLong( checksum );
+                out.writeInt( entries.size() );
+
+                for ( Entry entry : entries )
+                {
+                    entry.writeExternal( out );
+                }
+            }
+
+            Files.move( tmpFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( IOException ioe )
+        {
+            // Not fatal, the LDIF files will be parsed on the next startup
+            LOG.warn( "Cannot write the snapshot {}", snapshotFile, ioe );
         }
     }
 
@@ -923,4 +1191,27 @@ public class LdifPartition extends AbstractLdifPartition
             return file.delete();
         }
     }
-}
\ No newline at end of file
+
+
+    /**
+     * @return <code>true</code> if the entries are cached in a snapshot
+     */
+    public boolean isSnapshotEnabled()
+    {
+        return snapshotEnabled;
+    }
+
+
+    /**
+     * Enables or disables the snapshot. When enabled, the entries are read from a snapshot
+     * stored next to the suffix directory if none of the LDIF files has been modified since
+     * it has been written.
+     *
+     * @param snapshotEnabled <code>true</code> to cache the entries in a snapshot
+     */
+    public void setSnapshotEnabled( boolean snapshotEnabled )
+    {
+        checkInitialized( "snapshotEnabled" );
+        this.snapshotEnabled = snapshotEnabled;
+    }
+}
@@ -25,7 +25,14 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
@@ -37,6 +44,7 @@ import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapInvalidDnException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.ldif.ChangeType;
 import org.apache.directory.api.ldap.model.ldif.LdifEntry;
 import org.apache.directory.api.ldap.model.ldif.LdifReader;
 import org.apache.directory.api.ldap.model.ldif.LdifUtils;
@@ -60,6 +68,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A Partition implementation backed by a single LDIF file.
+ * <br>
+ * By default, the whole file is written again after each modification. When the partition
+ * is journaled, each modification is instead appended to a journal, stored next to the
+ * LDIF file, as LDIF change records. The LDIF file is written again, atomically, when the
+ * journal grows bigger than the compaction threshold and when the partition is destroyed.
+ * The journal is replayed when the partition is loaded.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -77,6 +91,24 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /** lock for serializing the operations on the backing LDIF file */
     private Object lock = new Object();
 
+    /** The extension of the journal file */
+    public static final String JOURNAL_FILE_EXTN = ".journal";
+
+    /** The default journal size above which the LDIF file is written again */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 1024L * 1024L;
+
+    /** the LDIF file path */
+    private File partitionFile;
+
+    /** the journal holding the modifications done since the LDIF file has been written */
+    private RandomAccessFile journal;
+
+    /** flag to enable/disable the journal, default is set to false */
+    private boolean journaled = false;
+
+    /** the journal size above which the LDIF file is written again */
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
     private static final Logger LOG = LoggerFactory.getLogger( SingleFileLdifPartition.class );
 
 
@@ -102,7 +134,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new IllegalArgumentException( "Partition path cannot be null" );
             }
 
-            File partitionFile = new File( getPartitionPath() );
+            partitionFile = new File( getPartitionPath() );
 
             if ( partitionFile.exists() && !partitionFile.isFile() )
             {
@@ -112,6 +144,11 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             try
             {
                 ldifFile = new RandomAccessFile( partitionFile, "rws" );
+
+                if ( journaled )
+                {
+                    journal = new RandomAccessFile( getJournalFile(), "rw" );
+                }
             }
             catch ( FileNotFoundException fnfe )
             {
@@ -142,58 +179,177 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
 
     /**
-     * load the entries from the LDIF file if present
+     * load the entries from the LDIF file if present, and replay the journal if any
      * @throws Exception
      */
     private void loadEntries() throws LdapException
     {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+
         try ( RandomAccessLdifReader parser = new RandomAccessLdifReader( schemaManager ) )
         {
             Iterator<LdifEntry> itr = parser.iterator();
     
-            if ( !itr.hasNext() )
+            while ( itr.hasNext() )
             {
-                return;
+                Entry entry = new DefaultEntry( schemaManager, itr.next().getEntry() );
+                entries.put( entry.getDn().getNormName(), entry );
             }
-    
-            LdifEntry ldifEntry = itr.next();
-    
-            contextEntry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-            if ( suffixDn.equals( contextEntry.getDn() ) )
-            {
-                addMandatoryOpAt( contextEntry );
-    
-                AddOperationContext addContext = new AddOperationContext( null, contextEntry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        boolean replayed = replayJournal( entries );
+
+        if ( entries.isEmpty() )
+        {
+            return;
+        }
+
+        // The parents must be added before their children : the journal may have moved
+        // some entries after their new parent
+        List<Entry> sortedEntries = new ArrayList<>( entries.values() );
+        sortedEntries.sort( Comparator.comparingInt( entry -> entry.getDn().size() ) );
+
+        contextEntry = sortedEntries.get( 0 );
+
+        if ( !suffixDn.equals( contextEntry.getDn() ) )
+        {
+            throw new LdapException( "The given LDIF file doesn't contain the context entry" );
+        }
+
+        PartitionTxn partitionTxn = this.beginWriteTransaction();
+
+        for ( Entry entry : sortedEntries )
+        {
+            addMandatoryOpAt( entry );
+
+            AddOperationContext addContext = new AddOperationContext( null, entry );
+            addContext.setPartition( this );
+            addContext.setTransaction( partitionTxn );
+
+            super.add( addContext );
+        }
+
+        if ( replayed )
+        {
+            // Write the replayed modifications in the LDIF file, and empty the journal
+            dirty = true;
+            rewritePartitionData( partitionTxn );
+        }
+    }
+
+
+    /**
+     * Applies the modifications stored in the journal to the entries read from the LDIF
+     * file. The journal may contain modifications which have already been written in the
+     * LDIF file, if the server stopped while compacting : replaying them again has no effect.
+     *
+     * @param entries The entries, by normalized Dn
+     * @return <code>true</code> if the journal was not empty
+     */
+    private boolean replayJournal( Map<String, Entry> entries ) throws LdapException
+    {
+        File journalFile = getJournalFile();
+
+        if ( journalFile.length() == 0L )
+        {
+            return false;
+        }
+
+        int nbChanges = 0;
+
+        try ( LdifReader journalReader = new LdifReader( journalFile, schemaManager ) )
+        {
+            Iterator<LdifEntry> itr = journalReader.iterator();
 
-                super.add( addContext );
-            }
-            else
-            {
-                throw new LdapException( "The given LDIF file doesn't contain the context entry" );
-            }
-    
             while ( itr.hasNext() )
             {
-                ldifEntry = itr.next();
-    
-                Entry entry = new DefaultEntry( schemaManager, ldifEntry.getEntry() );
-    
-                addMandatoryOpAt( entry );
-    
-                AddOperationContext addContext = new AddOperationContext( null, entry );
-                addContext.setPartition( this );
-                addContext.setTransaction( this.beginWriteTransaction() );
+                LdifEntry change = itr.next();
+                Dn dn = new Dn( schemaManager, change.getDn() );
 
-                super.add( addContext );
+                switch ( change.getChangeType() )
+                {
+                    case Add:
+                        // The journal contains the entries' state after the modification
+                        entries.remove( dn.getNormName() );
+                        entries.put( dn.getNormName(), new DefaultEntry( schemaManager, change.getEntry() ) );
+                        break;
+
+                    case Delete:
+                        entries.remove( dn.getNormName() );
+                        break;
+
+                    case ModDn:
+                    case ModRdn:
+                        Dn newDn = new Dn( schemaManager, change.getNewRdn(), change.getNewSuperior() );
+                        replayMove( entries, dn, newDn );
+                        break;
+
+                    default:
+                        throw new LdapOtherException( "Unexpected change in the journal : " + change );
+                }
+
+                nbChanges++;
             }
         }
-        catch ( IOException ioe )
+        catch ( IOException | LdapException | RuntimeException e )
         {
-            throw new LdapOtherException( ioe.getMessage(), ioe );
+            // The last change may have been partially written
+            LOG.warn( "Stopped replaying the journal {} after {} changes", journalFile, nbChanges, e );
         }
+
+        LOG.info( "Replayed {} changes from the journal {}", nbChanges, journalFile );
+
+        return true;
+    }
+
+
+    /**
+     * Moves an entry and its descendants
+     */
+    private void replayMove( Map<String, Entry> entries, Dn oldDn, Dn newDn ) throws LdapException
+    {
+        List<Entry> moved = new ArrayList<>();
+        Iterator<Entry> itr = entries.values().iterator();
+
+        while ( itr.hasNext() )
+        {
+            Entry entry = itr.next();
+
+            if ( entry.getDn().isDescendantOf( oldDn ) )
+            {
+                moved.add( entry );
+                itr.remove();
+            }
+        }
+
+        for ( Entry entry : moved )
+        {
+            Dn relativeDn = entry.getDn().getDescendantOf( oldDn );
+
+            if ( relativeDn.isEmpty() )
+            {
+                entry.setDn( newDn );
+            }
+            else
+            {
+                entry.setDn( new Dn( schemaManager, relativeDn.getName(), newDn.getName() ) );
+            }
+
+            entries.put( entry.getDn().getNormName(), entry );
+        }
+    }
+
+
+    /**
+     * @return The journal file, stored next to the LDIF file
+     */
+    private File getJournalFile()
+    {
+        return new File( partitionFile.getPath() + JOURNAL_FILE_EXTN );
     }
 
 
@@ -220,8 +376,10 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 }
             }
 
-            dirty = true;
-            rewritePartitionData( addContext.getTransaction() );
+            Entry entry = addContext.getEntry().clone();
+            entry.removeAttributes( entryDnAT );
+
+            writeChange( addContext.getTransaction(), newAddChange( entry ) );
         }
     }
 
@@ -252,8 +410,10 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
                 throw new LdapOperationException( e.getMessage(), e );
             }
 
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            Entry entry = modifyContext.getAlteredEntry().clone();
+            entry.removeAttributes( entryDnAT );
+
+            writeChange( partitionTxn, newAddChange( entry ) );
         }
     }
 
@@ -267,8 +427,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.rename( renameContext );
-            dirty = true;
-            rewritePartitionData( renameContext.getTransaction() );
+            writeMoveChange( renameContext.getTransaction(), renameContext.getDn(), renameContext.getNewRdn(),
+                renameContext.getDn().getParent() );
         }
     }
 
@@ -282,8 +442,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.move( moveContext );
-            dirty = true;
-            rewritePartitionData( moveContext.getTransaction() );
+            writeMoveChange( moveContext.getTransaction(), moveContext.getDn(), moveContext.getDn().getRdn(),
+                moveContext.getNewSuperior() );
         }
     }
 
@@ -297,8 +457,8 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         synchronized ( lock )
         {
             super.moveAndRename( opContext );
-            dirty = true;
-            rewritePartitionData( opContext.getTransaction() );
+            writeMoveChange( opContext.getTransaction(), opContext.getDn(), opContext.getNewRdn(),
+                opContext.getNewSuperiorDn() );
         }
     }
 
@@ -308,15 +468,115 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     {
         synchronized ( lock )
         {
+            if ( !journaled )
+            {
+                Entry deletedEntry = super.delete( partitionTxn, id );
+                writeChange( partitionTxn );
+
+                return deletedEntry;
+            }
+
+            LdifEntry change = new LdifEntry();
+            change.setDn( buildEntryDn( partitionTxn, id ) );
+            change.setChangeType( ChangeType.Delete );
+
             Entry deletedEntry = super.delete( partitionTxn, id );
-            dirty = true;
-            rewritePartitionData( partitionTxn );
+            writeChange( partitionTxn, change );
 
             return deletedEntry;
         }
     }
 
 
+    /**
+     * Creates the journal record of an added or modified entry, holding its new state
+     */
+    private LdifEntry newAddChange( Entry entry )
+    {
+        LdifEntry change = new LdifEntry( entry );
+        change.setChangeType( ChangeType.Add );
+
+        return change;
+    }
+
+
+    /**
+     * Saves a moved or renamed entry : the move is journaled, followed by the entry's
+     * new state, as its Rdn attributes may have been modified
+     */
+    private void writeMoveChange( PartitionTxn partitionTxn, Dn oldDn, Rdn newRdn, Dn newSuperior )
+        throws LdapException
+    {
+        if ( !journaled )
+        {
+            writeChange( partitionTxn );
+
+            return;
+        }
+
+        Dn newDn = new Dn( schemaManager, newRdn.getName(), newSuperior.getName() );
+
+        LdifEntry move = new LdifEntry();
+        move.setDn( oldDn );
+        move.setChangeType( ChangeType.ModDn );
+        move.setNewRdn( newDn.getRdn().getName() );
+        move.setNewSuperior( newDn.getParent().getName() );
+        move.setDeleteOldRdn( false );
+
+        Entry entry = fetch( partitionTxn, getEntryId( partitionTxn, newDn ) ).clone();
+        entry.removeAttributes( entryDnAT );
+        entry.setDn( newDn );
+
+        writeChange( partitionTxn, move, newAddChange( entry ) );
+    }
+
+
+    /**
+     * Saves a modification : it is appended to the journal if the partition is journaled,
+     * otherwise the whole partition is written again.
+     *
+     * @param partitionTxn The transaction in use
+     * @param changes The modification's journal records
+     * @throws LdapException If the modification can't be saved
+     */
+    private void writeChange( PartitionTxn partitionTxn, LdifEntry... changes ) throws LdapException
+    {
+        dirty = true;
+
+        if ( ( journal == null ) || !enableRewriting )
+        {
+            rewritePartitionData( partitionTxn );
+
+            return;
+        }
+
+        try
+        {
+            StringBuilder sb = new StringBuilder();
+
+            for ( LdifEntry change : changes )
+            {
+                sb.append( LdifUtils.convertToLdif( change ) ).append( '\n' );
+            }
+
+            journal.seek( journal.length() );
+            journal.write( Strings.getBytesUtf8( sb.toString() ) );
+            journal.getChannel().force( false );
+            dirty = false;
+
+            if ( journal.length() > compactionThreshold )
+            {
+                dirty = true;
+                rewritePartitionData( partitionTxn );
+            }
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
     /**
      * writes the partition's data to the file if {@link #enableRewriting} is set to true
      * and partition was modified since the last write or {@link #dirty} data. 
@@ -334,30 +594,15 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             try
             {
-                ldifFile.setLength( 0 ); // wipe the file clean
-
-                String suffixId = getEntryId( partitionTxn, suffixDn );
-
-                if ( suffixId == null )
+                if ( journal != null )
                 {
-                    contextEntry = null;
-                    return;
+                    compact( partitionTxn );
                 }
-
-                ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
-
-                if ( suffixEntry != null )
+                else
                 {
-                    Entry entry = master.get( partitionTxn, suffixId );
-
-                    // Don't write the EntryDN attribute
-                    entry.removeAttributes( entryDnAT );
-
-                    entry.setDn( suffixDn );
-
-                    appendLdif( entry );
-
-                    appendRecursive( partitionTxn, suffixId, suffixEntry.getNbChildren() );
+                    ldifFile.setLength( 0 ); // wipe the file clean
+                    writePartitionData( partitionTxn, ldifFile );
+                    Files.deleteIfExists( getJournalFile().toPath() );
                 }
 
                 dirty = false;
@@ -374,8 +619,66 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     }
 
 
-    private void appendRecursive( PartitionTxn partitionTxn, String id, int nbSibbling ) throws Exception
+    /**
+     * Writes the LDIF file in a temporary file, which replaces it once completely written,
+     * then empties the journal
+     */
+    private void compact( PartitionTxn partitionTxn ) throws Exception
+    {
+        File tmpFile = new File( partitionFile.getPath() + ".tmp" );
+
+        try ( RandomAccessFile out = new RandomAccessFile( tmpFile, "rw" ) )
+        {
+            out.setLength( 0 );
+            writePartitionData( partitionTxn, out );
+            out.getChannel().force( true );
+        }
+
+        ldifFile.close();
+        Files.move( tmpFile.toPath(), partitionFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+        ldifFile = new RandomAccessFile( partitionFile, "rws" );
+
+        journal.setLength( 0 );
+        journal.getChannel().force( true );
+    }
+
+
+    /**
+     * Writes all the entries, starting with the context entry
+     */
+    private void writePartitionData( PartitionTxn partitionTxn, RandomAccessFile out ) throws Exception
+    {
+        String suffixId = getEntryId( partitionTxn, suffixDn );
+
+        if ( suffixId == null )
+        {
+            contextEntry = null;
+            return;
+        }
+
+        ParentIdAndRdn suffixEntry = rdnIdx.reverseLookup( partitionTxn, suffixId );
+
+        if ( suffixEntry != null )
+        {
+            Entry entry = master.get( partitionTxn, suffixId );
+
+            // Don't write the EntryDN attribute
+            entry.removeAttributes( entryDnAT );
+
+            entry.setDn( suffixDn );
+
+            appendLdif( out, entry );
+
+            appendRecursive( partitionTxn, out, suffixId, suffixEntry.getNbChildren() );
+        }
+    }
+
+
+    private void appendRecursive( PartitionTxn partitionTxn, RandomAccessFile out, String id, int nbSibbling )
+        throws Exception
     {
+
         // Start with the root
         Cursor<IndexEntry<ParentIdAndRdn, String>> cursor = rdnIdx.forwardCursor( partitionTxn );
 
@@ -393,7 +696,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
             // Remove the EntryDn
             entry.removeAttributes( SchemaConstants.ENTRY_DN_AT );
 
-            appendLdif( entry );
+            appendLdif( out, entry );
 
             countChildren++;
 
@@ -402,7 +705,7 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
 
             if ( nbChildren > 0 )
             {
-                appendRecursive( partitionTxn, childId, nbChildren );
+                appendRecursive( partitionTxn, out, childId, nbChildren );
             }
         }
 
@@ -413,15 +716,16 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     /**
      * append data to the LDIF file
      *
+     * @param out the file to write to
      * @param entry the entry to be written
      * @throws LdapException
      */
-    private void appendLdif( Entry entry ) throws IOException
+    private void appendLdif( RandomAccessFile out, Entry entry ) throws IOException
     {
         synchronized ( lock )
         {
             String ldif = LdifUtils.convertToLdif( entry );
-            ldifFile.write( Strings.getBytesUtf8( ldif + "\n" ) );
+            out.write( Strings.getBytesUtf8( ldif + "\n" ) );
         }
     }
 
@@ -505,11 +809,33 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
     @Override
     protected void doDestroy( PartitionTxn partitionTxn ) throws LdapException
     {
+        synchronized ( lock )
+        {
+            try
+            {
+                // Write the journaled modifications in the LDIF file
+                if ( ( journal != null ) && enableRewriting && ( journal.length() > 0L ) )
+                {
+                    dirty = true;
+                    rewritePartitionData( partitionTxn );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+        }
+
         super.doDestroy( partitionTxn );
         
         try
         {
             ldifFile.close();
+
+            if ( journal != null )
+            {
+                journal.close();
+            }
         }
         catch ( IOException ioe )
         {
@@ -533,4 +859,44 @@ public class SingleFileLdifPartition extends AbstractLdifPartition
         // save data if found dirty 
         rewritePartitionData( partitionTxn );
     }
+
+
+    /**
+     * @return <code>true</code> if the modifications are appended to a journal
+     */
+    public boolean isJournaled()
+    {
+        return journaled;
+    }
+
+
+    /**
+     * Enables or disables the journal. Must be called before the partition is initialized.
+     *
+     * @param journaled <code>true</code> to append the modifications to a journal instead of
+     * writing the whole LDIF file
+     */
+    public void setJournaled( boolean journaled )
+    {
+        checkInitialized( "journaled" );
+        this.journaled = journaled;
+    }
+
+
+    /**
+     * @return the journal size above which the LDIF file is written again
+     */
+    public long getCompactionThreshold()
+    {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * @param compactionThreshold the journal size above which the LDIF file is written again
+     */
+    public void setCompactionThreshold( long compactionThreshold )
+    {
+        this.compactionThreshold = compactionThreshold;
+    }
 }
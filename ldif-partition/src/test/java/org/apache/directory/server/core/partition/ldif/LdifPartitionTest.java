@@ -28,6 +28,8 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -55,6 +57,7 @@ import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
 import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
 import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.Strings;
 import org.apache.directory.api.util.exception.Exceptions;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
@@ -702,6 +705,94 @@ public class LdifPartitionTest
      * Test for DIRSERVER-1551 (LdifPartition file names on Unix and Windows).
      * Ensure that special characters (http://en.wikipedia.org/wiki/Filenames) are encoded.
      */
+    /**
+     * Reloads the partition from the disk
+     */
+    private LdifPartition reloadPartition( boolean snapshotEnabled ) throws Exception
+    {
+        LdifPartition reloaded = new LdifPartition( schemaManager, dnFactory );
+        reloaded.setId( "test-ldif" );
+        reloaded.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
+        reloaded.setSchemaManager( schemaManager );
+        reloaded.setPartitionPath( wkdir.toURI() );
+        reloaded.setSnapshotEnabled( snapshotEnabled );
+        reloaded.initialize();
+
+        return reloaded;
+    }
+
+
+    private Entry fetch( LdifPartition ldifPartition, String dn ) throws Exception
+    {
+        PartitionTxn partitionTxn = ldifPartition.beginReadTransaction();
+        String id = ldifPartition.getEntryId( partitionTxn, new Dn( schemaManager, dn ) );
+
+        return id == null ? null : ldifPartition.fetch( partitionTxn, id );
+    }
+
+
+    @Test
+    public void testReloadEntries() throws Exception
+    {
+        AddOperationContext addCtx = new AddOperationContext( null );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+
+        for ( int i = 0; i < 20; i++ )
+        {
+            Entry child = createEntry( "dc=child" + i + ",ou=test,ou=system" );
+            child.put( "ObjectClass", "top", "domain" );
+            child.put( "dc", "child" + i );
+            addCtx.setEntry( child );
+            partition.add( addCtx );
+
+            for ( int j = 0; j < 5; j++ )
+            {
+                Entry grandChild = createEntry( "dc=grandChild" + j + ",dc=child" + i + ",ou=test,ou=system" );
+                grandChild.put( "ObjectClass", "top", "domain" );
+                grandChild.put( "dc", "grandChild" + j );
+                addCtx.setEntry( grandChild );
+                partition.add( addCtx );
+            }
+        }
+
+        long count = partition.count( partition.beginReadTransaction() );
+        File snapshotFile = new File( wkdir, "ou=test,ou=system" + LdifPartition.SNAPSHOT_FILE_EXTN );
+
+        // Parse the LDIF files, in parallel
+        LdifPartition reloaded = reloadPartition( false );
+
+        assertEquals( count, reloaded.count( reloaded.beginReadTransaction() ) );
+        assertNotNull( fetch( reloaded, "dc=grandChild4,dc=child19,ou=test,ou=system" ) );
+        assertFalse( snapshotFile.exists() );
+
+        // Parse them again, and write the snapshot
+        reloaded = reloadPartition( true );
+
+        assertEquals( count, reloaded.count( reloaded.beginReadTransaction() ) );
+        assertTrue( snapshotFile.exists() );
+
+        // Read the snapshot
+        reloaded = reloadPartition( true );
+
+        assertEquals( count, reloaded.count( reloaded.beginReadTransaction() ) );
+        Entry grandChild = fetch( reloaded, "dc=grandChild4,dc=child19,ou=test,ou=system" );
+        assertNotNull( grandChild );
+        assertEquals( fetch( partition, "dc=grandChild4,dc=child19,ou=test,ou=system" ), grandChild );
+
+        // Modify a file : the snapshot is ignored
+        File ldifFile = new File( wkdir, "ou=test,ou=system/dc=child3/dc=grandchild2.ldif" );
+        assertTrue( ldifFile.exists() );
+        Files.write( ldifFile.toPath(), Strings.getBytesUtf8( "description: modified\n" ), StandardOpenOption.APPEND );
+
+        reloaded = reloadPartition( true );
+
+        assertEquals( count, reloaded.count( reloaded.beginReadTransaction() ) );
+        assertTrue( fetch( reloaded, "dc=grandChild2,dc=child3,ou=test,ou=system" ).contains( "description",
+            "modified" ) );
+    }
+
+
     @Test
     public void testSpecialCharacters() throws Exception
     {
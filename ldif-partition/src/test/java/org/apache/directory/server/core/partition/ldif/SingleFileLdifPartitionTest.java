@@ -31,7 +31,10 @@ import static org.junit.Assert.fail;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -119,6 +122,9 @@ public class SingleFileLdifPartitionTest
     /** the file in use during the current test method's execution */
     private File ldifFileInUse;
 
+    /** tells if the partitions created by the current test method are journaled */
+    private boolean journaled;
+
     @Rule
     public TemporaryFolder folder = new TemporaryFolder();
 
@@ -241,6 +247,7 @@ public class SingleFileLdifPartitionTest
         partition.setPartitionPath( new File( fileName ).toURI() );
         partition.setSuffixDn( new Dn( schemaManager, "ou=test,ou=system" ) );
         partition.setSchemaManager( schemaManager );
+        partition.setJournaled( journaled );
         partition.initialize();
 
         return partition;
@@ -1128,6 +1135,111 @@ public class SingleFileLdifPartitionTest
     }
 
 
+    @Test
+    public void testJournaledOperations() throws Exception
+    {
+        journaled = true;
+        SingleFileLdifPartition partition = injectEntries();
+        File ldif = new File( partition.getPartitionPath() );
+        File journalFile = new File( ldif.getPath() + SingleFileLdifPartition.JOURNAL_FILE_EXTN );
+
+        // The modifications are only written in the journal
+        assertEquals( 0L, ldif.length() );
+        assertTrue( journalFile.length() > 0L );
+
+        MoveOperationContext moveOpCtx = new MoveOperationContext( mockSession,
+            new Dn( schemaManager, "cn=child1,ou=test,ou=system" ), new Dn( schemaManager, "cn=child2,ou=test,ou=system" ) );
+        moveOpCtx.setPartition( partition );
+        moveOpCtx.setTransaction( partition.beginWriteTransaction() );
+        partition.move( moveOpCtx );
+
+        RenameOperationContext renameOpCtx = new RenameOperationContext( mockSession,
+            new Dn( schemaManager, "cn=child2,ou=test,ou=system" ), new Rdn( schemaManager, "cn=renamedChild2" ), true );
+        renameOpCtx.setPartition( partition );
+        renameOpCtx.setTransaction( partition.beginWriteTransaction() );
+        partition.rename( renameOpCtx );
+
+        Entry deleted = createEntry( "cn=greatGrandChild111,cn=grandChild11,cn=child1,cn=renamedChild2,ou=test,ou=system" );
+        DeleteOperationContext delOpCtx = new DeleteOperationContext( mockSession );
+        delOpCtx.setDn( deleted.getDn() );
+        delOpCtx.setPartition( partition );
+        delOpCtx.setTransaction( partition.beginWriteTransaction() );
+        partition.delete( delOpCtx );
+
+        ModifyOperationContext modOpCtx = new ModifyOperationContext( mockSession );
+        modOpCtx.setEntry( contextEntry );
+        modOpCtx.setDn( contextEntry.getDn() );
+        modOpCtx.setModItems( Arrays.asList( ( Modification ) new DefaultModification(
+            ModificationOperation.ADD_ATTRIBUTE, schemaManager.lookupAttributeTypeRegistry( "description" ),
+            "journaled" ) ) );
+        partition.modify( modOpCtx );
+
+        assertEquals( 0L, ldif.length() );
+
+        // The journaled entries don't carry their entryDN, which would be stale once replayed
+        String journalContent = new String( Files.readAllBytes( journalFile.toPath() ), StandardCharsets.UTF_8 );
+        assertFalse( Strings.toLowerCaseAscii( journalContent ).contains( "entrydn:" ) );
+
+        // Replay the journal
+        partition = reloadPartition();
+
+        assertExists( partition, "cn=renamedChild2,ou=test,ou=system" );
+        assertExists( partition, "cn=grandChild12,cn=child1,cn=renamedChild2,ou=test,ou=system" );
+        assertExists( partition, "cn=grandChild11,cn=child1,cn=renamedChild2,ou=test,ou=system" );
+        assertNotExists( partition, deleted );
+        assertNotExists( partition, createEntry( "cn=child1,ou=test,ou=system" ) );
+
+        Entry renamed = partition.fetch( partition.beginReadTransaction(), partition.getEntryId(
+            partition.beginReadTransaction(), new Dn( schemaManager, "cn=renamedChild2,ou=test,ou=system" ) ) );
+        assertFalse( renamed.get( "cn" ).contains( "child2" ) );
+
+        Entry suffix = partition.fetch( partition.beginReadTransaction(), partition.getEntryId(
+            partition.beginReadTransaction(), contextEntry.getDn() ) );
+        assertTrue( suffix.contains( "description", "journaled" ) );
+
+        // The replayed journal has been written in the LDIF file
+        assertEquals( 0L, journalFile.length() );
+        assertTrue( ldif.length() > 0L );
+
+        partition = reloadPartition();
+        assertExists( partition, "cn=grandChild12,cn=child1,cn=renamedChild2,ou=test,ou=system" );
+        assertNotExists( partition, deleted );
+    }
+
+
+    @Test
+    public void testJournalCompaction() throws Exception
+    {
+        journaled = true;
+        SingleFileLdifPartition partition = injectEntries();
+        File ldif = new File( partition.getPartitionPath() );
+        File journalFile = new File( ldif.getPath() + SingleFileLdifPartition.JOURNAL_FILE_EXTN );
+        long journalLength = journalFile.length();
+
+        assertTrue( journalLength > 0L );
+
+        // The next modification makes the journal too big
+        partition.setCompactionThreshold( journalLength );
+
+        Entry entry = createEntry( "cn=child3,ou=test,ou=system" );
+        entry.put( "ObjectClass", "top", "person" );
+        entry.put( "cn", "child3" );
+        AddOperationContext addCtx = new AddOperationContext( mockSession );
+        addCtx.setEntry( entry );
+        addCtx.setPartition( partition );
+        addCtx.setTransaction( partition.beginWriteTransaction() );
+        partition.add( addCtx );
+
+        assertEquals( 0L, journalFile.length() );
+
+        // The partition is read from the LDIF file only
+        assertTrue( journalFile.delete() );
+        partition = reloadPartition();
+        assertExists( partition, entry );
+        assertExists( partition, "cn=greatGrandChild111,cn=grandChild11,cn=child1,ou=test,ou=system" );
+    }
+
+
     /**
      * An important test to check the stability of the partition
      * under high concurrency
@@ -0,0 +1,698 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
+import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.i18n.I18n;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Cursor over the Tuples of a LMDB table. If the table allows duplicate values,
+ * we will browse each value and return a Tuple for each one of them. The cursor
+ * can be restricted to the values of a single key.
+ * <br>
+ * The cursor reads the thread's write transaction when it's opened in one, and is
+ * closed when this transaction is done. Otherwise, it reads its own snapshot of the
+ * database, until it's closed.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbCursor<K, V> extends AbstractCursor<Tuple<K, V>>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( "CURSOR" );
+
+    /** The position of the cursor */
+    private enum Position
+    {
+        /** Before the first tuple */
+        BEFORE_FIRST,
+
+        /** Before the tuple the LMDB cursor is on */
+        BEFORE,
+
+        /** On the tuple the LMDB cursor is on */
+        ON,
+
+        /** After the last tuple */
+        AFTER_LAST
+    }
+
+    /** The table we are building a cursor over */
+    private final LmdbTable<K, V> table;
+
+    /** The key the cursor is restricted to, or null */
+    private final K key;
+
+    /** The transaction the cursor reads */
+    private Txn<ByteBuffer> txn;
+
+    /** The write transaction the cursor reads, null if it has its own transaction */
+    private LmdbPartitionWriteTxn writeTxn;
+
+    /** The LMDB cursor */
+    private org.lmdbjava.Cursor<ByteBuffer> cursor;
+
+    /** Tells if the LMDB resources have been released */
+    private boolean released;
+
+    /** The position of the cursor */
+    private Position position = Position.BEFORE_FIRST;
+
+    /** The tuple which will be returned, null if there is no Tuple available */
+    private Tuple<K, V> returnedTuple;
+
+
+    /**
+     * Creates a Cursor over the tuples of a LMDB table.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     */
+    LmdbCursor( LmdbTable<K, V> table )
+    {
+        this( table, null );
+    }
+
+
+    /**
+     * Creates a Cursor over the values of a key of a LMDB table with duplicate values.
+     *
+     * @param table the LMDB Table to build a Cursor over
+     * @param key The key the cursor is restricted to
+     */
+    LmdbCursor( LmdbTable<K, V> table, K key )
+    {
+        LOG_CURSOR.debug( "Creating LmdbCursor {}", this );
+        this.table = table;
+        this.key = key;
+    }
+
+
+    /**
+     * Opens the LMDB cursor, the first time the cursor is positioned
+     */
+    private void open() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( released )
+        {
+            // The write transaction the cursor was reading is done
+            throw new CursorClosedException( "The transaction of the cursor is done" );
+        }
+
+        if ( cursor != null )
+        {
+            return;
+        }
+
+        LmdbEnvironment environment = table.getEnvironment();
+        writeTxn = environment.getWriteTransaction();
+
+        try
+        {
+            if ( writeTxn != null )
+            {
+                txn = writeTxn.getTxn();
+                writeTxn.opened( this );
+            }
+            else
+            {
+                txn = environment.beginReadTxn();
+            }
+
+            cursor = table.getDbi().openCursor( txn );
+        }
+        catch ( LmdbException | IllegalStateException e )
+        {
+            release();
+            throw new CursorException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Sets the position and the returned tuple
+     */
+    private void setPosition( Position position ) throws LdapException
+    {
+        this.position = position;
+
+        if ( position == Position.ON )
+        {
+            ByteBuffer value = cursor.val();
+            K tupleKey = key;
+
+            if ( tupleKey == null )
+            {
+                tupleKey = table.readKey( cursor.key(), value );
+            }
+
+            returnedTuple = new Tuple<>( tupleKey, table.readValue( value ) );
+        }
+        else
+        {
+            returnedTuple = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean available()
+    {
+        return returnedTuple != null;
+    }
+
+
+    /**
+     * Sets the position before a given key
+     *
+     * @param key The key we want to start with
+     * @throws LdapException If the key can't be serialized
+     * @throws CursorException If the cursor can't be positioned
+     */
+    public void beforeKey( K key ) throws LdapException, CursorException
+    {
+        open();
+
+        if ( this.key != null )
+        {
+            if ( table.getKeyComparator().compare( key, this.key ) <= 0 )
+            {
+                beforeFirst();
+            }
+            else
+            {
+                afterLast();
+            }
+
+            return;
+        }
+
+        try
+        {
+            positionBeforeKey( key );
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Sets the position after a given key
+     *
+     * @param key The key we want to start after
+     * @throws LdapException If the key can't be serialized
+     * @throws CursorException If the cursor can't be positioned
+     */
+    public void afterKey( K key ) throws LdapException, CursorException
+    {
+        open();
+
+        if ( this.key != null )
+        {
+            if ( table.getKeyComparator().compare( key, this.key ) < 0 )
+            {
+                beforeFirst();
+            }
+            else
+            {
+                afterLast();
+            }
+
+            return;
+        }
+
+        try
+        {
+            positionAfterKey( key );
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Sets the position before a given key and a given value for this key
+     *
+     * @param key The key we want to start with
+     * @param value The value we want to start with, or null to start with the key
+     * @throws LdapException If the key or the value can't be serialized
+     * @throws CursorException If the cursor can't be positioned
+     */
+    public void beforeValue( K key, V value ) throws LdapException, CursorException
+    {
+        if ( !table.isDupsEnabled() )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_596 ) );
+        }
+
+        if ( ( value == null ) || !isRestrictedTo( key ) )
+        {
+            beforeKey( key );
+
+            return;
+        }
+
+        open();
+
+        try
+        {
+            ByteBuffer keyBuffer = table.keyBuffer( key );
+
+            if ( keyBuffer == null )
+            {
+                // The key can't be in the table
+                positionBeforeKey( key );
+            }
+            else if ( cursor.get( keyBuffer, table.valueBuffer( key, value ), SeekOp.MDB_GET_BOTH_RANGE ) )
+            {
+                setPosition( Position.BEFORE );
+            }
+            else
+            {
+                // All the values of the key are lower
+                positionAfterKey( key );
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Sets the position after a given key and a given value for this key
+     *
+     * @param key The key we want to start after
+     * @param value The value we want to start after, or null to start after the key
+     * @throws LdapException If the key or the value can't be serialized
+     * @throws CursorException If the cursor can't be positioned
+     */
+    public void afterValue( K key, V value ) throws LdapException, CursorException
+    {
+        if ( !table.isDupsEnabled() )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_596 ) );
+        }
+
+        if ( ( value == null ) || !isRestrictedTo( key ) )
+        {
+            afterKey( key );
+
+            return;
+        }
+
+        open();
+
+        try
+        {
+            ByteBuffer keyBuffer = table.keyBuffer( key );
+
+            if ( keyBuffer == null )
+            {
+                // The key can't be in the table
+                positionAfterKey( key );
+
+                return;
+            }
+
+            ByteBuffer valueBuffer = table.valueBuffer( key, value );
+
+            if ( cursor.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH_RANGE )
+                && ( ( LmdbTable.compare( cursor.val(), valueBuffer ) != 0 ) || cursor.seek( SeekOp.MDB_NEXT_DUP ) ) )
+            {
+                // The cursor is on the first value greater than the given one
+                setPosition( Position.BEFORE );
+            }
+            else
+            {
+                // All the values of the key are lower or equal
+                positionAfterKey( key );
+            }
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * Tells if a key can be browsed by this cursor
+     */
+    private boolean isRestrictedTo( K key )
+    {
+        return ( this.key == null ) || ( table.getKeyComparator().compare( key, this.key ) == 0 );
+    }
+
+
+    /**
+     * Positions the cursor before the first key greater or equal to the given one
+     */
+    private void positionBeforeKey( K key ) throws LdapException
+    {
+        if ( this.key != null )
+        {
+            setPosition( Position.AFTER_LAST );
+        }
+        else if ( cursor.get( table.positionBuffer( key ), GetOp.MDB_SET_RANGE ) )
+        {
+            setPosition( Position.BEFORE );
+        }
+        else
+        {
+            setPosition( Position.AFTER_LAST );
+        }
+    }
+
+
+    /**
+     * Positions the cursor before the first key greater than the given one
+     */
+    private void positionAfterKey( K key ) throws LdapException
+    {
+        if ( this.key != null )
+        {
+            setPosition( Position.AFTER_LAST );
+
+            return;
+        }
+
+        ByteBuffer keyBuffer = table.positionBuffer( key );
+
+        if ( !cursor.get( keyBuffer, GetOp.MDB_SET_RANGE ) )
+        {
+            // All the keys are lower
+            setPosition( Position.AFTER_LAST );
+        }
+        else if ( ( table.compareBuffers( cursor.key(), keyBuffer ) != 0 )
+            || cursor.seek( table.isDupsEnabled() ? SeekOp.MDB_NEXT_NODUP : SeekOp.MDB_NEXT ) )
+        {
+            setPosition( Position.BEFORE );
+        }
+        else
+        {
+            setPosition( Position.AFTER_LAST );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void before( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( table.isDupsEnabled() )
+        {
+            beforeValue( element.getKey(), element.getValue() );
+        }
+        else
+        {
+            beforeKey( element.getKey() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void after( Tuple<K, V> element ) throws LdapException, CursorException
+    {
+        if ( table.isDupsEnabled() )
+        {
+            afterValue( element.getKey(), element.getValue() );
+        }
+        else
+        {
+            afterKey( element.getKey() );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        open();
+        setPosition( Position.BEFORE_FIRST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        open();
+        setPosition( Position.AFTER_LAST );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        open();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case AFTER_LAST:
+                    if ( key == null )
+                    {
+                        found = cursor.seek( SeekOp.MDB_LAST );
+                    }
+                    else
+                    {
+                        ByteBuffer keyBuffer = table.keyBuffer( key );
+                        found = cursor.get( keyBuffer, GetOp.MDB_SET_KEY ) && cursor.seek( SeekOp.MDB_LAST_DUP );
+                    }
+
+                    break;
+
+                case BEFORE:
+                case ON:
+                    found = cursor.seek( key == null ? SeekOp.MDB_PREV : SeekOp.MDB_PREV_DUP );
+                    break;
+
+                default:
+                    found = false;
+                    break;
+            }
+
+            setPosition( found ? Position.ON : Position.BEFORE_FIRST );
+
+            return found;
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        open();
+
+        try
+        {
+            boolean found;
+
+            switch ( position )
+            {
+                case BEFORE_FIRST:
+                    if ( key == null )
+                    {
+                        found = cursor.seek( SeekOp.MDB_FIRST );
+                    }
+                    else
+                    {
+                        found = cursor.get( table.keyBuffer( key ), GetOp.MDB_SET_KEY );
+                    }
+
+                    break;
+
+                case BEFORE:
+                    // The cursor is already on the next tuple
+                    found = true;
+                    break;
+
+                case ON:
+                    found = cursor.seek( key == null ? SeekOp.MDB_NEXT : SeekOp.MDB_NEXT_DUP );
+                    break;
+
+                default:
+                    found = false;
+                    break;
+            }
+
+            setPosition( found ? Position.ON : Position.AFTER_LAST );
+
+            return found;
+        }
+        catch ( LmdbException le )
+        {
+            throw new CursorException( le.getMessage(), le );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Tuple<K, V> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( returnedTuple != null )
+        {
+            return returnedTuple;
+        }
+
+        throw new InvalidCursorPositionException();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close();
+        release();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        LOG_CURSOR.debug( "Closing LmdbCursor {}", this );
+        super.close( cause );
+        release();
+    }
+
+
+    /**
+     * Closes the LMDB cursor and its transaction. It's also called when the write
+     * transaction the cursor reads is done.
+     */
+    void release()
+    {
+        if ( released )
+        {
+            return;
+        }
+
+        released = true;
+        returnedTuple = null;
+
+        try
+        {
+            if ( cursor != null )
+            {
+                cursor.close();
+            }
+        }
+        finally
+        {
+            cursor = null;
+
+            if ( writeTxn != null )
+            {
+                writeTxn.closed( this );
+            }
+            else if ( txn != null )
+            {
+                txn.close();
+            }
+
+            txn = null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
+
+
+/**
+ * Serializes the entries stored in the master table, using the {@link CompactEntryCodec}.
+ * The entry's bytes are copied out of the memory mapped file once, as the entry's
+ * attributes are decoded lazily, after the transaction is done.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEntrySerializer extends LmdbSerializer<Entry>
+{
+    /** The codec used to write the entries */
+    private final CompactEntryCodec codec;
+
+
+    /**
+     * Creates a new instance of LmdbEntrySerializer.
+     *
+     * @param schemaManager The server schemaManager
+     * @param dictionary The dictionary giving the AttributeTypes ids
+     */
+    public LmdbEntrySerializer( SchemaManager schemaManager, AttributeTypeDictionary dictionary )
+    {
+        super( ( entry1, entry2 ) -> entry1.getDn().getNormName().compareTo( entry2.getDn().getNormName() ), false );
+        codec = new CompactEntryCodec( schemaManager, dictionary );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( Entry entry ) throws IOException
+    {
+        return codec.encode( entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry deserialize( ByteBuffer buffer ) throws IOException
+    {
+        byte[] bytes = getBytes( buffer );
+
+        return codec.decode( bytes, 0, bytes.length );
+    }
+}
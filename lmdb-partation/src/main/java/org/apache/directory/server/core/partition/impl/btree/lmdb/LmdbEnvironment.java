@@ -0,0 +1,499 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.util.Strings;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The LMDB environment shared by the master table and the indexes of a partition.
+ * <br>
+ * LMDB allows many readers and a single writer, and each read transaction sees a
+ * snapshot of the database, which is never blocked by the writer. The transactions
+ * are used this way :
+ * <ul>
+ *   <li>A {@link LmdbPartitionWriteTxn} holds the LMDB write transaction. It is bound to
+ *   the thread which started it, and all the reads and writes this thread does on the
+ *   partition use it until it's committed or aborted, so that the changes are seen
+ *   before being committed.</li>
+ *   <li>Out of a write transaction, each read takes a read transaction from a bounded pool,
+ *   shared by all the threads. It's reset when it's given back to the pool after the read,
+ *   and renewed by the next read. The transactions which don't fit in the pool are closed,
+ *   so that the idle transactions don't hold more than a share of the reader slots.</li>
+ *   <li>Each cursor has its own read transaction, as the search cursors are read after
+ *   the operation's transaction has been closed.</li>
+ *   <li>A write done out of a write transaction is committed immediately.</li>
+ * </ul>
+ * The environment is opened with MDB_NOTLS, so that a read transaction is not bound to
+ * a thread and that a thread can have many of them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbEnvironment
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbEnvironment.class );
+
+    /** The LMDB environment */
+    private final Env<ByteBuffer> env;
+
+    /** The maximum size of a key, and of a value in a table with duplicate values */
+    private final int maxKeySize;
+
+    /** The write transaction in progress in each thread */
+    private final ThreadLocal<LmdbPartitionWriteTxn> writeTxn = new ThreadLocal<>();
+
+    /** The read transactions which are not used, reset */
+    private final BlockingQueue<Txn<ByteBuffer>> idleReadTxns;
+
+    /** All the read transactions, closed with the environment */
+    private final Set<Txn<ByteBuffer>> readTxns = ConcurrentHashMap.newKeySet();
+
+    /** The direct buffer used to pass the keys to LMDB */
+    private final ThreadLocal<ByteBuffer> keyBuffer;
+
+    /** The direct buffer used to pass the values to LMDB */
+    private final ThreadLocal<ByteBuffer> valueBuffer = new ThreadLocal<>();
+
+    /** Tells if the environment has been closed */
+    private volatile boolean closed;
+
+
+    /**
+     * Opens a LMDB environment.
+     *
+     * @param directory The directory containing the database files
+     * @param mapSize The size of the memory map, which is the maximum size of the database
+     * @param maxDbs The maximum number of tables
+     * @param maxReaders The maximum number of read transactions opened at the same time
+     * @param syncOnWrite If the commits are flushed on disk. Otherwise, the database is
+     * flushed by {@link #sync()}
+     */
+    public LmdbEnvironment( File directory, long mapSize, int maxDbs, int maxReaders, boolean syncOnWrite )
+    {
+        EnvFlags[] flags;
+
+        if ( syncOnWrite )
+        {
+            flags = new EnvFlags[]
+                { EnvFlags.MDB_NOTLS };
+        }
+        else
+        {
+            flags = new EnvFlags[]
+                { EnvFlags.MDB_NOTLS, EnvFlags.MDB_NOSYNC };
+        }
+
+        env = Env.create().setMapSize( mapSize ).setMaxDbs( maxDbs ).setMaxReaders( maxReaders )
+            .open( directory, flags );
+        maxKeySize = env.getMaxKeySize();
+        keyBuffer = ThreadLocal.withInitial( () -> ByteBuffer.allocateDirect( maxKeySize ) );
+
+        // A reset transaction still holds its reader slot : keep most of them for the cursors
+        idleReadTxns = new ArrayBlockingQueue<>( Math.max( 1, maxReaders / 4 ) );
+
+        LOG.debug( "Opened the LMDB environment {}, with a {} bytes map", directory, mapSize );
+    }
+
+
+    /**
+     * Opens a table, creating it if needed.
+     *
+     * @param name The table's name
+     * @param comparator The comparator LMDB calls back to order the keys, or null if the
+     * keys are ordered by their bytes
+     * @param allowDuplicates If a key can have many values
+     * @return The opened table
+     */
+    Dbi<ByteBuffer> openDbi( String name, Comparator<ByteBuffer> comparator, boolean allowDuplicates )
+    {
+        DbiFlags[] flags;
+
+        if ( allowDuplicates )
+        {
+            flags = new DbiFlags[]
+                { DbiFlags.MDB_CREATE, DbiFlags.MDB_DUPSORT };
+        }
+        else
+        {
+            flags = new DbiFlags[]
+                { DbiFlags.MDB_CREATE };
+        }
+
+        if ( comparator == null )
+        {
+            return env.openDbi( name, flags );
+        }
+
+        // The comparator is registered as a native callback
+        return env.openDbi( name, comparator, flags );
+    }
+
+
+    /**
+     * @return The names of the tables stored in the environment
+     */
+    Set<String> getTableNames()
+    {
+        Set<String> names = new HashSet<>();
+
+        for ( byte[] name : env.getDbiNames() )
+        {
+            names.add( Strings.utf8ToString( name ) );
+        }
+
+        return names;
+    }
+
+
+    /**
+     * Starts a write transaction, bound to the current thread. If the thread already has
+     * a write transaction, the new one is nested in it : its changes are part of the
+     * parent transaction once committed, and the parent is used again when it's done.
+     *
+     * @return The write transaction
+     */
+    LmdbPartitionWriteTxn beginWriteTransaction()
+    {
+        checkNotClosed();
+
+        LmdbPartitionWriteTxn parent = writeTxn.get();
+        Txn<ByteBuffer> txn;
+
+        if ( parent == null )
+        {
+            txn = env.txnWrite();
+        }
+        else
+        {
+            txn = env.txn( parent.getTxn() );
+        }
+
+        LmdbPartitionWriteTxn partitionTxn = new LmdbPartitionWriteTxn( this, txn, parent );
+        writeTxn.set( partitionTxn );
+
+        return partitionTxn;
+    }
+
+
+    /**
+     * Unbinds a committed or aborted write transaction from its thread. The parent
+     * transaction, if any, is bound again.
+     *
+     * @param partitionTxn The done transaction
+     */
+    void writeTransactionDone( LmdbPartitionWriteTxn partitionTxn )
+    {
+        if ( writeTxn.get() == partitionTxn )
+        {
+            if ( partitionTxn.getParent() == null )
+            {
+                writeTxn.remove();
+            }
+            else
+            {
+                writeTxn.set( partitionTxn.getParent() );
+            }
+        }
+    }
+
+
+    /**
+     * @return The write transaction in progress in the current thread, or null
+     */
+    LmdbPartitionWriteTxn getWriteTransaction()
+    {
+        return writeTxn.get();
+    }
+
+
+    /**
+     * Gets the transaction used to read : the thread's write transaction if any, so that
+     * the pending changes are seen, or else a read transaction from the pool. It must be
+     * released with {@link #releaseReadTxn(Txn)}.
+     *
+     * @return The transaction to read with
+     */
+    Txn<ByteBuffer> acquireReadTxn()
+    {
+        LmdbPartitionWriteTxn partitionTxn = writeTxn.get();
+
+        if ( partitionTxn != null )
+        {
+            return partitionTxn.getTxn();
+        }
+
+        checkNotClosed();
+
+        Txn<ByteBuffer> txn = idleReadTxns.poll();
+
+        if ( txn == null )
+        {
+            txn = env.txnRead();
+            readTxns.add( txn );
+        }
+        else
+        {
+            txn.renew();
+        }
+
+        return txn;
+    }
+
+
+    /**
+     * Releases a transaction obtained with {@link #acquireReadTxn()}.
+     *
+     * @param txn The transaction to release
+     */
+    void releaseReadTxn( Txn<ByteBuffer> txn )
+    {
+        if ( !txn.isReadOnly() )
+        {
+            // The write transaction is released when committed
+            return;
+        }
+
+        if ( !closed && ( idleReadTxns.remainingCapacity() > 0 ) )
+        {
+            // Don't hold the snapshot until the next read
+            txn.reset();
+
+            if ( idleReadTxns.offer( txn ) )
+            {
+                return;
+            }
+
+            // A reset transaction is not aborted when it's closed
+            txn.renew();
+        }
+
+        readTxns.remove( txn );
+        txn.close();
+    }
+
+
+    /**
+     * Gets the transaction used to write : the thread's write transaction if any, or a new
+     * one otherwise, which is committed by {@link #commitWriteTxn(Txn)}. It must be released
+     * with {@link #releaseWriteTxn(Txn)}.
+     *
+     * @return The transaction to write with
+     */
+    Txn<ByteBuffer> acquireWriteTxn()
+    {
+        LmdbPartitionWriteTxn partitionTxn = writeTxn.get();
+
+        if ( partitionTxn != null )
+        {
+            return partitionTxn.getTxn();
+        }
+
+        checkNotClosed();
+
+        return env.txnWrite();
+    }
+
+
+    /**
+     * Commits a transaction obtained with {@link #acquireWriteTxn()}, unless it's the
+     * thread's write transaction, which is committed with the operation.
+     *
+     * @param txn The transaction to commit
+     */
+    void commitWriteTxn( Txn<ByteBuffer> txn )
+    {
+        if ( !isThreadWriteTxn( txn ) )
+        {
+            txn.commit();
+        }
+    }
+
+
+    /**
+     * Releases a transaction obtained with {@link #acquireWriteTxn()}. It's aborted if it
+     * has not been committed, unless it's the thread's write transaction.
+     *
+     * @param txn The transaction to release
+     */
+    void releaseWriteTxn( Txn<ByteBuffer> txn )
+    {
+        if ( !isThreadWriteTxn( txn ) )
+        {
+            txn.close();
+        }
+    }
+
+
+    /**
+     * Tells if a transaction is the one of the thread's {@link LmdbPartitionWriteTxn}
+     */
+    private boolean isThreadWriteTxn( Txn<ByteBuffer> txn )
+    {
+        LmdbPartitionWriteTxn partitionTxn = writeTxn.get();
+
+        return ( partitionTxn != null ) && ( partitionTxn.getTxn() == txn );
+    }
+
+
+    /**
+     * Begins a read transaction, which the caller has to close. A cursor reads a snapshot
+     * of the database this way, which is not modified by the commits done meanwhile.
+     *
+     * @return The read transaction
+     */
+    Txn<ByteBuffer> beginReadTxn()
+    {
+        checkNotClosed();
+
+        return env.txnRead();
+    }
+
+
+    /**
+     * Copies a key in the thread's key buffer.
+     *
+     * @param bytes The serialized key
+     * @return The buffer to give to LMDB, or null if the key is too long to be stored
+     */
+    ByteBuffer key( byte[] bytes )
+    {
+        if ( bytes.length > maxKeySize )
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = keyBuffer.get();
+        buffer.clear();
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * Copies a value in the thread's value buffer.
+     *
+     * @param bytes The serialized value
+     * @return The buffer to give to LMDB
+     */
+    ByteBuffer value( byte[] bytes )
+    {
+        ByteBuffer buffer = valueBuffer.get();
+
+        if ( ( buffer == null ) || ( buffer.capacity() < bytes.length ) )
+        {
+            buffer = ByteBuffer.allocateDirect( Math.max( bytes.length, 2 * maxKeySize ) );
+            valueBuffer.set( buffer );
+        }
+
+        buffer.clear();
+        buffer.put( bytes ).flip();
+
+        return buffer;
+    }
+
+
+    /**
+     * @return The maximum size of a key, and of a value in a table with duplicate values
+     */
+    public int getMaxKeySize()
+    {
+        return maxKeySize;
+    }
+
+
+    /**
+     * Flushes the committed changes on disk, when the environment has been opened without
+     * syncOnWrite.
+     */
+    public void sync()
+    {
+        if ( !closed )
+        {
+            env.sync( true );
+        }
+    }
+
+
+    /**
+     * Closes the environment. The tables can't be used anymore.
+     */
+    public synchronized void close()
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+
+        for ( Txn<ByteBuffer> txn : readTxns )
+        {
+            try
+            {
+                if ( idleReadTxns.remove( txn ) )
+                {
+                    // A reset transaction is not aborted when it's closed
+                    txn.renew();
+                }
+
+                txn.close();
+            }
+            catch ( LmdbException le )
+            {
+                LOG.debug( "Cannot close a read transaction", le );
+            }
+        }
+
+        readTxns.clear();
+        env.close();
+    }
+
+
+    /**
+     * Checks that the environment can still be used
+     */
+    private void checkNotClosed()
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "The LMDB environment has been closed" );
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.MasterTable;
+
+
+/**
+ * The LMDB master table, which stores the entries by their ID.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbMasterTable extends LmdbTable<String, Entry> implements MasterTable
+{
+    /**
+     * Creates a new instance of LmdbMasterTable.
+     *
+     * @param environment The environment containing the table
+     * @param schemaManager The SchemaManager
+     * @param name The Table name
+     * @param dictionary The dictionary giving the AttributeTypes ids
+     */
+    public LmdbMasterTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        AttributeTypeDictionary dictionary )
+    {
+        super( environment, schemaManager, name, LmdbStringSerializer.INSTANCE,
+            new LmdbEntrySerializer( schemaManager, dictionary ), false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getNextId( Entry entry )
+    {
+        return UUID.randomUUID().toString();
+    }
+}
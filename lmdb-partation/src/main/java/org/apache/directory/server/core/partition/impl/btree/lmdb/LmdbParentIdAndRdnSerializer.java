@@ -0,0 +1,153 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Serialize;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * Serializes a {@link ParentIdAndRdn}. The structure is the following :
+ * <ul>
+ *   <li><b>[parentId]</b> : the parent's ID, as a length followed by the UTF-8 bytes</li>
+ *   <li><b>[nbChildren]</b> : the number of children, an int</li>
+ *   <li><b>[nbDescendants]</b> : the number of descendants, an int</li>
+ *   <li><b>[nbRdns]</b> : the number of Rdns, an int</li>
+ *   <li><b>[Rdns]</b> : the serialized Rdns</li>
+ * </ul>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbParentIdAndRdnSerializer extends LmdbSerializer<ParentIdAndRdn>
+{
+    /** The initial size of the serialization buffer */
+    private static final int BUFFER_SIZE = 256;
+
+    /** The schemaManager used to read the Rdns */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * Creates a new instance of LmdbParentIdAndRdnSerializer.
+     *
+     * @param schemaManager The server schemaManager
+     */
+    public LmdbParentIdAndRdnSerializer( SchemaManager schemaManager )
+    {
+        super( ParentIdAndRdn::compareTo, false );
+        this.schemaManager = schemaManager;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( ParentIdAndRdn parentIdAndRdn ) throws IOException
+    {
+        int bufferSize = BUFFER_SIZE;
+
+        while ( true )
+        {
+            byte[] buffer = new byte[bufferSize];
+
+            try
+            {
+                int pos = Serialize.serialize( Strings.getBytesUtf8( parentIdAndRdn.getParentId() ), buffer, 0 );
+                pos = Serialize.serialize( parentIdAndRdn.getNbChildren(), buffer, pos );
+                pos = Serialize.serialize( parentIdAndRdn.getNbDescendants(), buffer, pos );
+
+                Rdn[] rdns = parentIdAndRdn.getRdns();
+
+                if ( rdns == null )
+                {
+                    pos = Serialize.serialize( 0, buffer, pos );
+                }
+                else
+                {
+                    pos = Serialize.serialize( rdns.length, buffer, pos );
+
+                    for ( Rdn rdn : rdns )
+                    {
+                        pos = rdn.serialize( buffer, pos );
+                    }
+                }
+
+                byte[] result = new byte[pos];
+                System.arraycopy( buffer, 0, result, 0, pos );
+
+                return result;
+            }
+            catch ( ArrayIndexOutOfBoundsException aioobe )
+            {
+                // The buffer is too small, try with a bigger one
+                bufferSize += bufferSize;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ParentIdAndRdn deserialize( ByteBuffer buffer ) throws IOException
+    {
+        byte[] bytes = getBytes( buffer );
+
+        byte[] parentId = Serialize.deserializeBytes( bytes, 0 );
+        int pos = 4 + parentId.length;
+
+        ParentIdAndRdn parentIdAndRdn = new ParentIdAndRdn();
+        parentIdAndRdn.setParentId( Strings.utf8ToString( parentId ) );
+        parentIdAndRdn.setNbChildren( Serialize.deserializeInt( bytes, pos ) );
+        pos += 4;
+        parentIdAndRdn.setNbDescendants( Serialize.deserializeInt( bytes, pos ) );
+        pos += 4;
+
+        Rdn[] rdns = new Rdn[Serialize.deserializeInt( bytes, pos )];
+        pos += 4;
+
+        try
+        {
+            for ( int i = 0; i < rdns.length; i++ )
+            {
+                rdns[i] = new Rdn( schemaManager );
+                pos = rdns[i].deserialize( bytes, pos );
+            }
+        }
+        catch ( LdapInvalidAttributeValueException liave )
+        {
+            throw new IOException( liave.getMessage(), liave );
+        }
+
+        parentIdAndRdn.setRdns( rdns );
+
+        return parentIdAndRdn;
+    }
+}
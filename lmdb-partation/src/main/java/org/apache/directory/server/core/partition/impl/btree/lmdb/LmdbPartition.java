@@ -0,0 +1,682 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.exception.MultiException;
+import org.apache.directory.server.constants.ApacheSchemaConstants;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.entry.ClonedServerEntry;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.OperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionReadTxn;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
+import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
+import org.apache.directory.server.xdbm.search.impl.DefaultSearchEngine;
+import org.apache.directory.server.xdbm.search.impl.EvaluatorBuilder;
+import org.apache.directory.server.xdbm.search.impl.NoOpOptimizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A partition stored in a LMDB environment : the master table and the indexes are
+ * B+trees of a single memory mapped file. The entries are read straight from the map,
+ * in a snapshot which is never blocked by the writer.
+ * There is a single writer, and its commits are durable unless the partition does
+ * not sync on write.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartition extends AbstractBTreePartition
+{
+    /** static logger */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartition.class );
+
+    /** The default size of the memory map, which is the maximum size of the database : 4GB */
+    public static final long DEFAULT_MAP_SIZE = 1L << 32;
+
+    /** The default maximum number of tables, two per index */
+    public static final int DEFAULT_MAX_DBS = 128;
+
+    /** The default maximum number of read transactions opened at the same time */
+    public static final int DEFAULT_MAX_READERS = 1024;
+
+    /** The name of the master table */
+    private static final String MASTER_TABLE_NAME = "master";
+
+    /** The LMDB environment */
+    private LmdbEnvironment environment;
+
+    /** The size of the memory map */
+    private long mapSize = DEFAULT_MAP_SIZE;
+
+    /** The maximum number of tables */
+    private int maxDbs = DEFAULT_MAX_DBS;
+
+    /** The maximum number of read transactions opened at the same time */
+    private int maxReaders = DEFAULT_MAX_READERS;
+
+    /** the entry cache */
+    private Cache<String, Entry> entryCache;
+
+
+    /**
+     * Creates a new instance of LmdbPartition.
+     *
+     * @param schemaManager The SchemaManager instance
+     * @param dnFactory The DN factory
+     */
+    public LmdbPartition( SchemaManager schemaManager, DnFactory dnFactory )
+    {
+        super( schemaManager, dnFactory );
+
+        // Initialize the cache size
+        if ( cacheSize < 0 )
+        {
+            cacheSize = DEFAULT_CACHE_SIZE;
+            LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+        }
+        else
+        {
+            LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+        }
+    }
+
+
+    /**
+     * @return The size of the memory map, which is the maximum size of the database
+     */
+    public long getMapSize()
+    {
+        return mapSize;
+    }
+
+
+    /**
+     * Sets the size of the memory map. The database can't grow beyond it.
+     *
+     * @param mapSize The size of the memory map, in bytes
+     */
+    public void setMapSize( long mapSize )
+    {
+        checkInitialized( "mapSize" );
+        this.mapSize = mapSize;
+    }
+
+
+    /**
+     * @return The maximum number of tables
+     */
+    public int getMaxDbs()
+    {
+        return maxDbs;
+    }
+
+
+    /**
+     * Sets the maximum number of tables. Each index uses two tables.
+     *
+     * @param maxDbs The maximum number of tables
+     */
+    public void setMaxDbs( int maxDbs )
+    {
+        checkInitialized( "maxDbs" );
+        this.maxDbs = maxDbs;
+    }
+
+
+    /**
+     * @return The maximum number of read transactions opened at the same time
+     */
+    public int getMaxReaders()
+    {
+        return maxReaders;
+    }
+
+
+    /**
+     * Sets the maximum number of read transactions opened at the same time. Each thread
+     * reading the partition keeps one, and each opened cursor has one.
+     *
+     * @param maxReaders The maximum number of read transactions
+     */
+    public void setMaxReaders( int maxReaders )
+    {
+        checkInitialized( "maxReaders" );
+        this.maxReaders = maxReaders;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doRepair() throws LdapException
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doInit() throws LdapException
+    {
+        if ( !initialized )
+        {
+            // setup optimizer and registries for parent
+            if ( !isOptimizerEnabled() )
+            {
+                setOptimizer( new NoOpOptimizer() );
+            }
+            else
+            {
+                setOptimizer( new DefaultOptimizer( this ) );
+            }
+
+            EvaluatorBuilder evaluatorBuilder = new EvaluatorBuilder( this, schemaManager );
+            CursorBuilder cursorBuilder = new CursorBuilder( this, evaluatorBuilder );
+
+            setSearchEngine( new DefaultSearchEngine( this, cursorBuilder, evaluatorBuilder, getOptimizer() ) );
+
+            // Create the underlying directories (only if needed)
+            File partitionDir = new File( getPartitionPath() );
+
+            if ( !partitionDir.exists() && !partitionDir.mkdirs() )
+            {
+                throw new LdapOtherException( I18n.err( I18n.ERR_112_COULD_NOT_CREATE_DIRECTORY, partitionDir ) );
+            }
+
+            if ( cacheSize < 0 )
+            {
+                cacheSize = DEFAULT_CACHE_SIZE;
+                LOG.debug( "Using the default entry cache size of {} for {} partition", cacheSize, id );
+            }
+            else
+            {
+                LOG.debug( "Using the custom configured cache size of {} for {} partition", cacheSize, id );
+            }
+
+            environment = new LmdbEnvironment( partitionDir, mapSize, maxDbs, maxReaders, isSyncOnWrite() );
+
+            try
+            {
+                // The tables created before this startup
+                Set<String> existingTables = environment.getTableNames();
+
+                // Initialize the indexes
+                super.doInit();
+
+                try
+                {
+                    File dictionaryFile = new File( partitionDir,
+                        MASTER_TABLE_NAME + AttributeTypeDictionary.DICTIONARY_FILE_EXTN );
+
+                    master = new LmdbMasterTable( environment, schemaManager, MASTER_TABLE_NAME,
+                        new AttributeTypeDictionary( dictionaryFile ) );
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+
+                // The user indexes added since the last startup have to be built
+                if ( existingTables.contains( MASTER_TABLE_NAME ) )
+                {
+                    List<Index<?, String>> indexToBuild = new ArrayList<>();
+
+                    for ( Index<?, String> index : userIndices.values() )
+                    {
+                        if ( !existingTables.contains( index.getAttribute().getOid() + LmdbIndex.FORWARD_BTREE ) )
+                        {
+                            indexToBuild.add( index );
+                        }
+                    }
+
+                    if ( !indexToBuild.isEmpty() )
+                    {
+                        buildUserIndex( indexToBuild );
+                    }
+                }
+
+                entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
+
+                // Load the statistics used by the optimizer
+                try ( PartitionTxn partitionTxn = beginReadTransaction() )
+                {
+                    loadIndexStatistics( partitionTxn );
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+            }
+            catch ( LdapException | RuntimeException e )
+            {
+                // Release the memory map and the lock file
+                environment.close();
+                throw e;
+            }
+
+            // We are done !
+            initialized = true;
+        }
+    }
+
+
+    @Override
+    protected Index<?, String> convertAndInit( Index<?, String> index ) throws LdapException
+    {
+        LmdbIndex<?> lmdbIndex;
+
+        if ( index instanceof LmdbRdnIndex )
+        {
+            lmdbIndex = ( LmdbRdnIndex ) index;
+        }
+        else if ( index instanceof LmdbDnIndex )
+        {
+            lmdbIndex = ( LmdbDnIndex ) index;
+        }
+        else if ( index instanceof LmdbIndex<?> )
+        {
+            lmdbIndex = ( LmdbIndex<?> ) index;
+
+            if ( lmdbIndex.getWkDirPath() == null )
+            {
+                lmdbIndex.setWkDirPath( partitionPath );
+            }
+        }
+        else
+        {
+            LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+                + "Will create new LmdbIndex using copied configuration parameters.", index );
+            lmdbIndex = new LmdbIndex<>( index.getAttributeId(), true );
+            lmdbIndex.setCacheSize( index.getCacheSize() );
+
+            if ( index.getWkDirPath() == null )
+            {
+                lmdbIndex.setWkDirPath( partitionPath );
+            }
+            else
+            {
+                lmdbIndex.setWkDirPath( index.getWkDirPath() );
+            }
+        }
+
+        lmdbIndex.setEnvironment( environment );
+
+        try
+        {
+            lmdbIndex.init( schemaManager, schemaManager.lookupAttributeTypeRegistry( index.getAttributeId() ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected synchronized void doDestroy( PartitionTxn partitionTxn ) throws LdapException
+    {
+        MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
+
+        if ( !initialized )
+        {
+            return;
+        }
+
+        try
+        {
+            super.doDestroy( partitionTxn );
+        }
+        catch ( Exception e )
+        {
+            errors.addThrowable( e );
+        }
+
+        // This is specific to the LMDB store : close the environment
+        try
+        {
+            environment.close();
+            LOG.debug( "Closed the LMDB environment for {} partition.", suffixDn );
+        }
+        catch ( Throwable t )
+        {
+            LOG.error( I18n.err( I18n.ERR_127 ), t );
+            errors.addThrowable( t );
+        }
+        finally
+        {
+            if ( entryCache != null )
+            {
+                entryCache.invalidateAll();
+            }
+        }
+
+        if ( errors.size() > 0 )
+        {
+            throw new LdapOtherException( errors.getMessage(), errors );
+        }
+    }
+
+
+    @Override
+    protected Index createSystemIndex( String indexOid, URI path, boolean withReverse ) throws LdapException
+    {
+        LOG.debug( "Supplied index {} is not a LmdbIndex.  "
+            + "Will create new LmdbIndex using copied configuration parameters.", indexOid );
+        LmdbIndex<?> lmdbIndex;
+
+        if ( indexOid.equals( ApacheSchemaConstants.APACHE_RDN_AT_OID ) )
+        {
+            lmdbIndex = new LmdbRdnIndex();
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_RDN_AT_OID );
+        }
+        else if ( indexOid.equals( ApacheSchemaConstants.APACHE_ALIAS_AT_OID ) )
+        {
+            lmdbIndex = new LmdbDnIndex( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+            lmdbIndex.setAttributeId( ApacheSchemaConstants.APACHE_ALIAS_AT_OID );
+        }
+        else
+        {
+            lmdbIndex = new LmdbIndex<>( indexOid, withReverse );
+        }
+
+        lmdbIndex.setWkDirPath( path );
+
+        return lmdbIndex;
+    }
+
+
+    /**
+     * Builds user defined indexes on a attributes by browsing all the entries present in master db
+     *
+     * @param userIndexes then user defined indexes to create
+     * @throws LdapException in case of any problems while building the index
+     */
+    @SuppressWarnings("unchecked")
+    private void buildUserIndex( List<Index<?, String>> userIndexes ) throws LdapException
+    {
+        PartitionTxn partitionTxn = beginWriteTransaction();
+
+        try
+        {
+            Cursor<Tuple<String, Entry>> cursor = master.cursor();
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                Tuple<String, Entry> tuple = cursor.get();
+
+                String id = tuple.getKey();
+                Entry entry = tuple.getValue();
+
+                for ( Index<?, String> index : userIndexes )
+                {
+                    AttributeType atType = index.getAttribute();
+                    Attribute entryAttr = entry.get( atType );
+
+                    if ( entryAttr != null )
+                    {
+                        for ( Value value : entryAttr )
+                        {
+                            ( ( Index<Object, String> ) index ).add( partitionTxn, value.getNormalized(), id );
+                        }
+
+                        // Adds only those attributes that are indexed
+                        presenceIdx.add( partitionTxn, atType.getOid(), id );
+                    }
+                }
+            }
+
+            cursor.close();
+            partitionTxn.commit();
+        }
+        catch ( LdapException e )
+        {
+            abort( partitionTxn );
+            throw e;
+        }
+        catch ( CursorException | IOException e )
+        {
+            abort( partitionTxn );
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Aborts a transaction after a failure
+     */
+    private void abort( PartitionTxn partitionTxn )
+    {
+        try
+        {
+            partitionTxn.abort();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot abort the transaction", ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void sync() throws LdapException
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        environment.sync();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void syncAfterWrite() throws LdapException
+    {
+        // The commit makes the changes durable, unless the partition does not sync on write
+    }
+
+
+    /**
+     * @return The default ID
+     */
+    public String getDefaultId()
+    {
+        return Partition.DEFAULT_ID;
+    }
+
+
+    /**
+     * @return The ID of the root entry's parent
+     */
+    public String getRootId()
+    {
+        return Partition.ROOT_ID;
+    }
+
+
+    /**
+     * @return The LMDB environment
+     */
+    public LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Entry lookupCache( String id )
+    {
+        return ( entryCache != null ) ? entryCache.getIfPresent( id ) : null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void addToCache( String id, Entry entry )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        if ( entry instanceof ClonedServerEntry )
+        {
+            entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+        }
+
+        entryCache.put( id, entry );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateCache( OperationContext opCtx )
+    {
+        if ( entryCache == null )
+        {
+            return;
+        }
+
+        try
+        {
+            if ( opCtx instanceof ModifyOperationContext )
+            {
+                // replace the entry
+                ModifyOperationContext modCtx = ( ModifyOperationContext ) opCtx;
+                Entry entry = modCtx.getAlteredEntry();
+                String id = entry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+
+                if ( entry instanceof ClonedServerEntry )
+                {
+                    entry = ( ( ClonedServerEntry ) entry ).getOriginalEntry();
+                }
+
+                entryCache.put( id, entry );
+            }
+            else if ( ( opCtx instanceof MoveOperationContext ) || ( opCtx instanceof MoveAndRenameOperationContext )
+                || ( opCtx instanceof RenameOperationContext ) )
+            {
+                // clear the cache it is not worth updating all the children
+                entryCache.invalidateAll();
+            }
+            else if ( opCtx instanceof DeleteOperationContext )
+            {
+                // delete the entry
+                DeleteOperationContext delCtx = ( DeleteOperationContext ) opCtx;
+                entryCache.invalidate( delCtx.getEntry().get( SchemaConstants.ENTRY_UUID_AT ).getString() );
+            }
+        }
+        catch ( LdapException e )
+        {
+            LOG.warn( "Failed to update entry cache", e );
+        }
+    }
+
+
+    /**
+     * @return The set of system and user indexes
+     */
+    public Set<Index<?, String>> getAllIndices()
+    {
+        Set<Index<?, String>> all = new HashSet<>( systemIndices.values() );
+        all.addAll( userIndices.values() );
+
+        return all;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionReadTxn beginReadTransaction()
+    {
+        // The reads are done in LMDB read transactions, or in the thread's write transaction
+        return new PartitionReadTxn();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PartitionWriteTxn beginWriteTransaction()
+    {
+        return environment.beginWriteTransaction();
+    }
+}
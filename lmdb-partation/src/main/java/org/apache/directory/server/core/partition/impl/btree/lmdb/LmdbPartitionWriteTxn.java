@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A write transaction on a {@link LmdbPartition}. It holds the LMDB write transaction,
+ * which has to be committed or aborted by the thread which has started it. The commit
+ * is durable, unless the partition does not sync on write. A write transaction started
+ * while the thread already has one is nested in it.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionWriteTxn extends PartitionWriteTxn
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbPartitionWriteTxn.class );
+
+    /** The environment this transaction writes */
+    private final LmdbEnvironment environment;
+
+    /** The LMDB transaction */
+    private final Txn<ByteBuffer> txn;
+
+    /** The transaction this one is nested in, or null */
+    private final LmdbPartitionWriteTxn parent;
+
+    /** The cursors opened in this transaction, closed before the commit */
+    private final List<LmdbCursor<?, ?>> cursors = new ArrayList<>();
+
+    /** Tells if the transaction has been committed or aborted */
+    private boolean closed;
+
+
+    /**
+     * Creates an instance of LmdbPartitionWriteTxn
+     *
+     * @param environment The environment this transaction writes
+     * @param txn The LMDB write transaction
+     * @param parent The transaction this one is nested in, or null
+     */
+    LmdbPartitionWriteTxn( LmdbEnvironment environment, Txn<ByteBuffer> txn, LmdbPartitionWriteTxn parent )
+    {
+        this.environment = environment;
+        this.txn = txn;
+        this.parent = parent;
+    }
+
+
+    /**
+     * @return The LMDB transaction
+     */
+    Txn<ByteBuffer> getTxn()
+    {
+        return txn;
+    }
+
+
+    /**
+     * @return The transaction this one is nested in, or null
+     */
+    LmdbPartitionWriteTxn getParent()
+    {
+        return parent;
+    }
+
+
+    /**
+     * Registers a cursor reading this transaction.
+     *
+     * @param cursor The opened cursor
+     */
+    void opened( LmdbCursor<?, ?> cursor )
+    {
+        cursors.add( cursor );
+    }
+
+
+    /**
+     * Unregisters a closed cursor.
+     *
+     * @param cursor The closed cursor
+     */
+    void closed( LmdbCursor<?, ?> cursor )
+    {
+        cursors.remove( cursor );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void commit() throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        try
+        {
+            closeCursors();
+            txn.commit();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            done();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void abort() throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        try
+        {
+            closeCursors();
+            txn.abort();
+        }
+        catch ( LmdbException le )
+        {
+            throw new IOException( le.getMessage(), le );
+        }
+        finally
+        {
+            done();
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        commit();
+    }
+
+
+    /**
+     * The LMDB cursors have to be closed before their transaction
+     */
+    private void closeCursors()
+    {
+        for ( LmdbCursor<?, ?> cursor : new ArrayList<>( cursors ) )
+        {
+            LOG.debug( "Closing the cursor {} left open in a write transaction", cursor );
+            cursor.release();
+        }
+
+        cursors.clear();
+    }
+
+
+    /**
+     * Releases the transaction, and unbinds it from its thread
+     */
+    private void done()
+    {
+        closed = true;
+        txn.close();
+        environment.writeTransactionDone( this );
+    }
+}
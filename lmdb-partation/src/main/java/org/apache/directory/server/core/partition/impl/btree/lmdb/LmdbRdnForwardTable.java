@@ -0,0 +1,147 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Serialize;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.xdbm.ParentIdAndRdn;
+
+
+/**
+ * The forward table of the Rdn index. Its keys are the parent ID and the normalized
+ * Rdns, so that they are ordered by their bytes and that the children of an entry are
+ * stored together :
+ * <pre>
+ * [parentId] 0x00 [rdn normName] ( 0x00 [rdn normName] )*
+ * </pre>
+ * The number of children and descendants are not part of the key : each value holds
+ * the whole serialized {@link ParentIdAndRdn}, followed by the entry ID.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class LmdbRdnForwardTable extends LmdbTable<ParentIdAndRdn, String>
+{
+    /** The separator between the parent ID and the Rdns */
+    private static final int SEPARATOR = 0x00;
+
+    /** The serializer for the whole ParentIdAndRdn */
+    private final LmdbParentIdAndRdnSerializer parentIdAndRdnSerializer;
+
+
+    /**
+     * Creates a new instance of LmdbRdnForwardTable.
+     *
+     * @param environment The environment containing the table
+     * @param schemaManager The SchemaManager
+     * @param name The Table name
+     * @param parentIdAndRdnSerializer The ParentIdAndRdn serializer
+     */
+    LmdbRdnForwardTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        LmdbParentIdAndRdnSerializer parentIdAndRdnSerializer )
+    {
+        super( environment, schemaManager, name, parentIdAndRdnSerializer, LmdbStringSerializer.INSTANCE, false,
+            true );
+        this.parentIdAndRdnSerializer = parentIdAndRdnSerializer;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected byte[] serializeKey( ParentIdAndRdn key )
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] parentId = Strings.getBytesUtf8( key.getParentId() );
+        out.write( parentId, 0, parentId.length );
+        out.write( SEPARATOR );
+
+        // A key without Rdn is lower than all the children of the parent
+        Rdn[] rdns = key.getRdns();
+
+        if ( rdns != null )
+        {
+            for ( int i = 0; i < rdns.length; i++ )
+            {
+                if ( i > 0 )
+                {
+                    out.write( SEPARATOR );
+                }
+
+                byte[] normName = Strings.getBytesUtf8( rdns[i].getNormName() );
+                out.write( normName, 0, normName.length );
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected byte[] serializeValue( ParentIdAndRdn key, String id ) throws IOException
+    {
+        byte[] parentIdAndRdn = parentIdAndRdnSerializer.serialize( key );
+        byte[] idBytes = Strings.getBytesUtf8( id );
+        byte[] value = new byte[4 + parentIdAndRdn.length + idBytes.length];
+
+        int pos = Serialize.serialize( parentIdAndRdn, value, 0 );
+        System.arraycopy( idBytes, 0, value, pos, idBytes.length );
+
+        return value;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected ParentIdAndRdn deserializeKey( ByteBuffer key, ByteBuffer value ) throws IOException
+    {
+        byte[] parentIdAndRdn = new byte[value.order( ByteOrder.BIG_ENDIAN ).getInt()];
+        value.get( parentIdAndRdn );
+
+        return parentIdAndRdnSerializer.deserialize( ByteBuffer.wrap( parentIdAndRdn ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String deserializeValue( ByteBuffer value )
+    {
+        // Skip the ParentIdAndRdn
+        int length = value.order( ByteOrder.BIG_ENDIAN ).getInt();
+        value.position( value.position() + length );
+
+        return Strings.utf8ToString( LmdbSerializer.getBytes( value ) );
+    }
+}
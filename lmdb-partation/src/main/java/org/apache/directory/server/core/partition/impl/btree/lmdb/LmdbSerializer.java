@@ -0,0 +1,111 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+
+/**
+ * Converts the keys and the values stored in a {@link LmdbTable} from and to bytes.
+ * The values are read from the buffers LMDB returns, which point in the memory
+ * mapped file : they must be decoded before the transaction ends.
+ *
+ * @param <T> The type of the serialized elements
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public abstract class LmdbSerializer<T>
+{
+    /** The comparator used to order the elements */
+    private final Comparator<T> comparator;
+
+    /** Tells if the serialized elements are in the same order as the elements */
+    private final boolean byteOrdered;
+
+
+    /**
+     * Creates a new instance of LmdbSerializer.
+     *
+     * @param comparator The comparator used to order the elements
+     * @param byteOrdered <code>true</code> if comparing the serialized elements byte per
+     * byte gives the same order as the comparator
+     */
+    protected LmdbSerializer( Comparator<T> comparator, boolean byteOrdered )
+    {
+        this.comparator = comparator;
+        this.byteOrdered = byteOrdered;
+    }
+
+
+    /**
+     * Serializes an element.
+     *
+     * @param element The element to serialize
+     * @return The serialized element
+     * @throws IOException If the element can't be serialized
+     */
+    public abstract byte[] serialize( T element ) throws IOException;
+
+
+    /**
+     * Reads an element, from the buffer's position to its limit. The buffer's
+     * position may be moved.
+     *
+     * @param buffer The buffer containing the serialized element
+     * @return The element
+     * @throws IOException If the element can't be deserialized
+     */
+    public abstract T deserialize( ByteBuffer buffer ) throws IOException;
+
+
+    /**
+     * @return The comparator used to order the elements
+     */
+    public Comparator<T> getComparator()
+    {
+        return comparator;
+    }
+
+
+    /**
+     * @return <code>true</code> if LMDB can order the serialized elements by their bytes
+     */
+    public boolean isByteOrdered()
+    {
+        return byteOrdered;
+    }
+
+
+    /**
+     * Copies the buffer's remaining bytes in an array.
+     *
+     * @param buffer The buffer to read
+     * @return The read bytes
+     */
+    protected static byte[] getBytes( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Serializes the Strings in UTF-8. The UTF-8 bytes order is the same as the String
+ * natural order, except for the supplementary characters.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbStringSerializer extends LmdbSerializer<String>
+{
+    /** The serializer for the Strings compared with their natural order (the entry IDs) */
+    public static final LmdbStringSerializer INSTANCE = new LmdbStringSerializer( Comparator.naturalOrder(), true );
+
+
+    /**
+     * Creates a new instance of LmdbStringSerializer.
+     *
+     * @param comparator The comparator used to order the Strings
+     * @param byteOrdered <code>true</code> if the comparator gives the UTF-8 bytes order
+     */
+    public LmdbStringSerializer( Comparator<String> comparator, boolean byteOrdered )
+    {
+        super( comparator, byteOrdered );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] serialize( String element )
+    {
+        return Strings.getBytesUtf8( element );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String deserialize( ByteBuffer buffer )
+    {
+        return Strings.utf8ToString( getBytes( buffer ) );
+    }
+}
@@ -0,0 +1,976 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.EmptyCursor;
+import org.apache.directory.api.ldap.model.cursor.SingletonCursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AbstractTable;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.GetOp;
+import org.lmdbjava.LmdbException;
+import org.lmdbjava.PutFlags;
+import org.lmdbjava.SeekOp;
+import org.lmdbjava.Txn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A LMDB Table. It extends the default Apache DS Table, when LMDB is the underlying
+ * database.
+ * <br>
+ * The keys are ordered by their bytes, unless the key serializer is not byte ordered :
+ * LMDB then calls back the key comparator. The duplicate values are always ordered by
+ * their bytes. The keys, and the values of the tables with duplicate values, are
+ * limited to {@link LmdbEnvironment#getMaxKeySize()} bytes.
+ * <br>
+ * The given {@link PartitionTxn} is not used : the reads and writes are done in the
+ * thread's write transaction, if any (see {@link LmdbEnvironment}).
+ *
+ * @param <K> The key
+ * @param <V> The stored value
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTable<K, V> extends AbstractTable<K, V>
+{
+    /** A logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( LmdbTable.class );
+
+    /** The environment containing this table */
+    protected final LmdbEnvironment environment;
+
+    /** The keys serializer */
+    protected final LmdbSerializer<K> keySerializer;
+
+    /** The values serializer */
+    protected final LmdbSerializer<V> valueSerializer;
+
+    /** The comparator LMDB calls back to order the keys, null if they are ordered by their bytes */
+    private final Comparator<ByteBuffer> bufferComparator;
+
+    /** The LMDB table */
+    private final Dbi<ByteBuffer> dbi;
+
+
+    /**
+     * Creates a new instance of LmdbTable.
+     *
+     * @param environment The environment containing the table
+     * @param schemaManager The SchemaManager
+     * @param name The Table name
+     * @param keySerializer The Key serializer
+     * @param valueSerializer The Value serializer
+     * @param allowDuplicates If the table allows duplicate values
+     */
+    public LmdbTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer, boolean allowDuplicates )
+    {
+        this( environment, schemaManager, name, keySerializer, valueSerializer, allowDuplicates,
+            keySerializer.isByteOrdered() );
+    }
+
+
+    /**
+     * Creates a new instance of LmdbTable.
+     *
+     * @param environment The environment containing the table
+     * @param schemaManager The SchemaManager
+     * @param name The Table name
+     * @param keySerializer The Key serializer
+     * @param valueSerializer The Value serializer
+     * @param allowDuplicates If the table allows duplicate values
+     * @param byteOrdered If the serialized keys are ordered by their bytes
+     */
+    protected LmdbTable( LmdbEnvironment environment, SchemaManager schemaManager, String name,
+        LmdbSerializer<K> keySerializer, LmdbSerializer<V> valueSerializer, boolean allowDuplicates,
+        boolean byteOrdered )
+    {
+        super( schemaManager, name, keySerializer.getComparator(), valueSerializer.getComparator() );
+        this.environment = environment;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.allowsDuplicates = allowDuplicates;
+
+        if ( byteOrdered )
+        {
+            bufferComparator = null;
+        }
+        else
+        {
+            bufferComparator = this::compareKeys;
+        }
+
+        dbi = environment.openDbi( name, bufferComparator, allowDuplicates );
+    }
+
+
+    /**
+     * Compares two serialized keys with the key comparator. It's called back by LMDB.
+     */
+    private int compareKeys( ByteBuffer key1, ByteBuffer key2 )
+    {
+        try
+        {
+            return keyComparator.compare( keySerializer.deserialize( key1.duplicate() ),
+                keySerializer.deserialize( key2.duplicate() ) );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // Nothing can be thrown back to LMDB : fall back on the bytes order
+            LOG.error( "Cannot compare two keys of the table {}", name, e );
+
+            return compare( key1, key2 );
+        }
+    }
+
+
+    /**
+     * Compares the remaining bytes of two buffers, as unsigned bytes.
+     *
+     * @param buffer1 The first buffer
+     * @param buffer2 The second buffer
+     * @return A negative value, 0 or a positive value if the first buffer is lower, equal
+     * or greater than the second one
+     */
+    static int compare( ByteBuffer buffer1, ByteBuffer buffer2 )
+    {
+        int pos1 = buffer1.position();
+        int pos2 = buffer2.position();
+        int length = Math.min( buffer1.remaining(), buffer2.remaining() );
+
+        for ( int i = 0; i < length; i++ )
+        {
+            int delta = ( buffer1.get( pos1 + i ) & 0xFF ) - ( buffer2.get( pos2 + i ) & 0xFF );
+
+            if ( delta != 0 )
+            {
+                return delta;
+            }
+        }
+
+        return buffer1.remaining() - buffer2.remaining();
+    }
+
+
+    /**
+     * Compares two serialized keys the way LMDB orders them.
+     *
+     * @param key1 The first key
+     * @param key2 The second key
+     * @return A negative value, 0 or a positive value if the first key is lower, equal
+     * or greater than the second one
+     */
+    int compareBuffers( ByteBuffer key1, ByteBuffer key2 )
+    {
+        if ( bufferComparator == null )
+        {
+            return compare( key1, key2 );
+        }
+
+        return bufferComparator.compare( key1, key2 );
+    }
+
+
+    /**
+     * Serializes a key.
+     *
+     * @param key The key to serialize
+     * @return The key's bytes, as they are ordered in the table
+     * @throws IOException If the key can't be serialized
+     */
+    protected byte[] serializeKey( K key ) throws IOException
+    {
+        return keySerializer.serialize( key );
+    }
+
+
+    /**
+     * Serializes a value.
+     *
+     * @param key The value's key
+     * @param value The value to serialize
+     * @return The value's bytes
+     * @throws IOException If the value can't be serialized
+     */
+    protected byte[] serializeValue( K key, V value ) throws IOException
+    {
+        return valueSerializer.serialize( value );
+    }
+
+
+    /**
+     * Reads a key. The buffers can be modified.
+     *
+     * @param key The buffer containing the key
+     * @param value The buffer containing the value
+     * @return The read key
+     * @throws IOException If the key can't be deserialized
+     */
+    protected K deserializeKey( ByteBuffer key, ByteBuffer value ) throws IOException
+    {
+        return keySerializer.deserialize( key );
+    }
+
+
+    /**
+     * Reads a value. The buffer can be modified.
+     *
+     * @param value The buffer containing the value
+     * @return The read value
+     * @throws IOException If the value can't be deserialized
+     */
+    protected V deserializeValue( ByteBuffer value ) throws IOException
+    {
+        return valueSerializer.deserialize( value );
+    }
+
+
+    /**
+     * Serializes a key in the thread's key buffer.
+     *
+     * @param key The key to serialize
+     * @return The buffer, or null if the key is too long to be stored in the table
+     * @throws LdapException If the key can't be serialized
+     */
+    ByteBuffer keyBuffer( K key ) throws LdapException
+    {
+        try
+        {
+            return environment.key( serializeKey( key ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Serializes a key used to position a cursor in the thread's key buffer. A key too
+     * long to be stored in the table is truncated.
+     *
+     * @param key The key to serialize
+     * @return The buffer
+     * @throws LdapException If the key can't be serialized
+     */
+    ByteBuffer positionBuffer( K key ) throws LdapException
+    {
+        try
+        {
+            byte[] bytes = serializeKey( key );
+
+            if ( bytes.length > environment.getMaxKeySize() )
+            {
+                bytes = Arrays.copyOf( bytes, environment.getMaxKeySize() );
+            }
+
+            return environment.key( bytes );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Serializes a value in the thread's value buffer.
+     *
+     * @param key The value's key
+     * @param value The value to serialize
+     * @return The buffer
+     * @throws LdapException If the value can't be serialized
+     */
+    ByteBuffer valueBuffer( K key, V value ) throws LdapException
+    {
+        try
+        {
+            return environment.value( serializeValue( key, value ) );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Reads the key of a tuple stored in the table.
+     *
+     * @param key The buffer containing the key, in the memory map
+     * @param value The buffer containing the value, in the memory map
+     * @return The read key
+     * @throws LdapException If the key can't be deserialized
+     */
+    K readKey( ByteBuffer key, ByteBuffer value ) throws LdapException
+    {
+        try
+        {
+            return deserializeKey( key.duplicate(), value.duplicate() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Reads a value stored in the table.
+     *
+     * @param value The buffer containing the value, in the memory map
+     * @return The read value
+     * @throws LdapException If the value can't be deserialized
+     */
+    V readValue( ByteBuffer value ) throws LdapException
+    {
+        try
+        {
+            return deserializeValue( value.duplicate() );
+        }
+        catch ( IOException ioe )
+        {
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return false;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try
+        {
+            return dbi.get( txn, keyBuffer ) != null;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean has( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V stored = get( partitionTxn, key );
+
+            return ( stored != null ) && ( valueComparator.compare( stored, value ) == 0 );
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return false;
+        }
+
+        ByteBuffer valueBuffer = valueBuffer( key, value );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            return cursor.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        ByteBuffer keyBuffer = positionBuffer( key );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            return cursor.get( keyBuffer, GetOp.MDB_SET_RANGE );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        ByteBuffer keyBuffer = positionBuffer( key );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( cursor.get( keyBuffer, GetOp.MDB_SET_RANGE ) )
+            {
+                // Test for equality first since it satisfies both greater/less than
+                if ( compareBuffers( cursor.key(), keyBuffer ) == 0 )
+                {
+                    return true;
+                }
+
+                return cursor.seek( SeekOp.MDB_PREV );
+            }
+
+            // All the keys are lower
+            return cursor.seek( SeekOp.MDB_LAST );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasGreaterOrEqual( PartitionTxn partitionTxn, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return false;
+        }
+
+        ByteBuffer valueBuffer = valueBuffer( key, val );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            // Positions the cursor on the first value greater or equal, if any
+            return cursor.get( keyBuffer, valueBuffer, SeekOp.MDB_GET_BOTH_RANGE );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasLessOrEqual( PartitionTxn partitionTxn, K key, V val ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return false;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            throw new UnsupportedOperationException( I18n.err( I18n.ERR_593 ) );
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return false;
+        }
+
+        ByteBuffer valueBuffer = valueBuffer( key, val );
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            // The cursor is on the lowest value of the key
+            return cursor.get( keyBuffer, GetOp.MDB_SET_KEY ) && ( compare( cursor.val(), valueBuffer ) <= 0 );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public V get( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return null;
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return null;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try
+        {
+            ByteBuffer value = dbi.get( txn, keyBuffer );
+
+            if ( value == null )
+            {
+                return null;
+            }
+
+            return readValue( value );
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( value == null ) || ( key == null ) )
+        {
+            throw new IllegalArgumentException( I18n.err( I18n.ERR_594 ) );
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            throw new LdapOtherException( I18n.err( I18n.ERR_131, key, name ) + " : the key is too long" );
+        }
+
+        ByteBuffer valueBuffer = valueBuffer( key, value );
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn();
+
+        try
+        {
+            if ( allowsDuplicates )
+            {
+                dbi.put( txn, keyBuffer, valueBuffer, PutFlags.MDB_NODUPDATA );
+            }
+            else
+            {
+                dbi.put( txn, keyBuffer, valueBuffer );
+            }
+
+            environment.commitWriteTxn( txn );
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_131, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn();
+
+        try
+        {
+            // Removes all the values of the key
+            dbi.delete( txn, keyBuffer );
+            environment.commitWriteTxn( txn );
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_133, key, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    {
+        if ( ( key == null ) || ( value == null ) )
+        {
+            return;
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return;
+        }
+
+        ByteBuffer valueBuffer = valueBuffer( key, value );
+        Txn<ByteBuffer> txn = environment.acquireWriteTxn();
+
+        try
+        {
+            if ( allowsDuplicates )
+            {
+                dbi.delete( txn, keyBuffer, valueBuffer );
+            }
+            else
+            {
+                // The key is only removed if it's associated with this value
+                ByteBuffer stored = dbi.get( txn, keyBuffer );
+
+                if ( ( stored != null ) && ( ( compare( stored, valueBuffer ) == 0 )
+                    || ( valueComparator.compare( readValue( stored ), value ) == 0 ) ) )
+                {
+                    dbi.delete( txn, keyBuffer );
+                }
+            }
+
+            environment.commitWriteTxn( txn );
+        }
+        catch ( LmdbException le )
+        {
+            LOG.error( I18n.err( I18n.ERR_132, key, value, name ), le );
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseWriteTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor()
+    {
+        return new LmdbCursor<>( this );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<Tuple<K, V>> cursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V value = get( partitionTxn, key );
+
+            if ( value == null )
+            {
+                return new EmptyCursor<>();
+            }
+
+            return new SingletonCursor<>( new Tuple<K, V>( key, value ) );
+        }
+
+        if ( keyBuffer( key ) == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbCursor<>( this, key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cursor<V> valueCursor( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        if ( !allowsDuplicates )
+        {
+            V value = get( partitionTxn, key );
+
+            if ( value == null )
+            {
+                return new EmptyCursor<>();
+            }
+
+            return new SingletonCursor<>( value );
+        }
+
+        if ( keyBuffer( key ) == null )
+        {
+            return new EmptyCursor<>();
+        }
+
+        return new LmdbValueCursor<>( new LmdbCursor<>( this, key ), key );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn ) throws LdapException
+    {
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try
+        {
+            // LMDB keeps the number of tuples
+            count = dbi.stat( txn ).entries;
+
+            return count;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long count( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        if ( key == null )
+        {
+            return 0;
+        }
+
+        if ( !allowsDuplicates )
+        {
+            return has( partitionTxn, key ) ? 1 : 0;
+        }
+
+        ByteBuffer keyBuffer = keyBuffer( key );
+
+        if ( keyBuffer == null )
+        {
+            return 0;
+        }
+
+        Txn<ByteBuffer> txn = environment.acquireReadTxn();
+
+        try ( org.lmdbjava.Cursor<ByteBuffer> cursor = dbi.openCursor( txn ) )
+        {
+            if ( cursor.get( keyBuffer, GetOp.MDB_SET_KEY ) )
+            {
+                return cursor.count();
+            }
+
+            return 0;
+        }
+        catch ( LmdbException le )
+        {
+            throw new LdapOtherException( le.getMessage(), le );
+        }
+        finally
+        {
+            environment.releaseReadTxn( txn );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long greaterThanCount( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        // take a best guess, the number of tuples is not maintained on writes
+        return Math.min( count( partitionTxn ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long lessThanCount( PartitionTxn partitionTxn, K key ) throws LdapException
+    {
+        // take a best guess, the number of tuples is not maintained on writes
+        return Math.min( count( partitionTxn ), 10L );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( PartitionTxn partitionTxn ) throws LdapException
+    {
+        // Nothing to do : the tables are closed with the environment
+    }
+
+
+    /**
+     * @return The environment containing this table
+     */
+    LmdbEnvironment getEnvironment()
+    {
+        return environment;
+    }
+
+
+    /**
+     * @return The LMDB table
+     */
+    Dbi<ByteBuffer> getDbi()
+    {
+        return dbi;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append( "LMDB table :\n" ).append( super.toString() );
+
+        return sb.toString();
+    }
+}
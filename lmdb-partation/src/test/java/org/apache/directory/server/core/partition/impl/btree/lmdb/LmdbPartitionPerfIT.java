@@ -0,0 +1,362 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Modification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.CoreSession;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.DnFactory;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.LookupOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.SearchOperationContext;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotIndex;
+import org.apache.directory.server.core.partition.impl.btree.mavibot.MavibotPartition;
+import org.apache.directory.server.core.shared.DefaultDnFactory;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Compares the LmdbPartition with the JdbmPartition and the MavibotPartition : the same
+ * entries are loaded in each partition, then we measure random lookups, indexed searches
+ * and modifications.
+ * <br>
+ * The MavibotPartition is measured on a smaller data set : it takes more than half an
+ * hour to load and modify the full one. Compare the rates, not the durations.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbPartitionPerfIT
+{
+    /** The number of entries in each partition */
+    private static final int NB_ENTRIES = 10000;
+
+    /** The number of operations we measure */
+    private static final int NB_OPERATIONS = 20000;
+
+    /** The number of entries in the MavibotPartition */
+    private static final int MAVIBOT_NB_ENTRIES = 1000;
+
+    /** The number of operations we measure on the MavibotPartition */
+    private static final int MAVIBOT_NB_OPERATIONS = 2000;
+
+    private static SchemaManager schemaManager;
+    private static DnFactory dnFactory;
+    private static CoreSession session;
+
+    @Rule
+    public TemporaryFolder tmpDir = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = LmdbPartitionPerfIT.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        schemaManager = new DefaultSchemaManager( new LdifSchemaLoader( schemaRepository ) );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        dnFactory = new DefaultDnFactory( schemaManager, 100 );
+
+        DirectoryService directoryService = new MockDirectoryService();
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    private AbstractBTreePartition createLmdbPartition( int nbEntries ) throws Exception
+    {
+        LmdbPartition partition = new LmdbPartition( schemaManager, dnFactory );
+        partition.addIndex( new LmdbIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        partition.addIndex( new LmdbIndex<String>( SchemaConstants.UID_AT_OID, false ) );
+        partition.addIndex( new LmdbIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+
+        return initPartition( partition, "lmdb", nbEntries );
+    }
+
+
+    private AbstractBTreePartition createJdbmPartition( int nbEntries ) throws Exception
+    {
+        JdbmPartition partition = new JdbmPartition( schemaManager, dnFactory );
+        partition.addIndex( new JdbmIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        partition.addIndex( new JdbmIndex<String>( SchemaConstants.UID_AT_OID, false ) );
+        partition.addIndex( new JdbmIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+
+        return initPartition( partition, "jdbm", nbEntries );
+    }
+
+
+    private AbstractBTreePartition createMavibotPartition( int nbEntries ) throws Exception
+    {
+        MavibotPartition partition = new MavibotPartition( schemaManager, dnFactory );
+        partition.addIndex( new MavibotIndex<String>( SchemaConstants.OU_AT_OID, false ) );
+        partition.addIndex( new MavibotIndex<String>( SchemaConstants.UID_AT_OID, false ) );
+        partition.addIndex( new MavibotIndex<String>( SchemaConstants.CN_AT_OID, false ) );
+
+        return initPartition( partition, "mavibot", nbEntries );
+    }
+
+
+    private AbstractBTreePartition initPartition( AbstractBTreePartition partition, String id, int nbEntries )
+        throws Exception
+    {
+        // The entry cache is smaller than the data set, so that we mostly read the backend
+        partition.setId( id );
+        partition.setCacheSize( nbEntries / 10 );
+        partition.setPartitionPath( tmpDir.newFolder( id ).toURI() );
+        partition.setSyncOnWrite( false );
+        partition.setSuffixDn( new Dn( schemaManager, "o=perf" ) );
+        partition.initialize();
+
+        return partition;
+    }
+
+
+    private void add( AbstractBTreePartition partition, Entry entry ) throws Exception
+    {
+        AddOperationContext addContext = new AddOperationContext( null, entry );
+        addContext.setPartition( partition );
+        PartitionTxn partitionTxn = partition.beginWriteTransaction();
+        addContext.setTransaction( partitionTxn );
+        partition.add( addContext );
+        partitionTxn.commit();
+    }
+
+
+    private Dn userDn( int i ) throws Exception
+    {
+        return new Dn( schemaManager, "uid=user" + i + ",ou=people,o=perf" );
+    }
+
+
+    private long load( AbstractBTreePartition partition, int nbEntries ) throws Exception
+    {
+        CsnFactory csnFactory = new CsnFactory( 1 );
+        long t0 = System.currentTimeMillis();
+
+        add( partition, new DefaultEntry( schemaManager, "o=perf",
+            "objectClass: top",
+            "objectClass: organization",
+            "o: perf",
+            "entryCSN", csnFactory.newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() ) );
+
+        add( partition, new DefaultEntry( schemaManager, "ou=people,o=perf",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou: people",
+            "entryCSN", csnFactory.newInstance().toString(),
+            "entryUUID", UUID.randomUUID().toString() ) );
+
+        for ( int i = 0; i < nbEntries; i++ )
+        {
+            add( partition, new DefaultEntry( schemaManager, userDn( i ),
+                "objectClass: top",
+                "objectClass: person",
+                "objectClass: organizationalPerson",
+                "objectClass: inetOrgPerson",
+                "uid", "user" + i,
+                "cn", "user" + i,
+                "sn", "User " + i,
+                "entryCSN", csnFactory.newInstance().toString(),
+                "entryUUID", UUID.randomUUID().toString() ) );
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private long lookup( AbstractBTreePartition partition, Random random, int nbEntries, int nbOperations )
+        throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbOperations; i++ )
+        {
+            LookupOperationContext lookupContext = new LookupOperationContext( session,
+                userDn( random.nextInt( nbEntries ) ) );
+
+            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+            {
+                lookupContext.setTransaction( partitionTxn );
+                assertNotNull( partition.lookup( lookupContext ) );
+            }
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private long search( AbstractBTreePartition partition, Random random, int nbEntries, int nbOperations )
+        throws Exception
+    {
+        Dn baseDn = new Dn( schemaManager, "ou=people,o=perf" );
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbOperations; i++ )
+        {
+            SearchOperationContext searchContext = new SearchOperationContext( session, baseDn,
+                SearchScope.SUBTREE, FilterParser.parse( schemaManager, "(cn=user" + random.nextInt( nbEntries )
+                    + ")" ), "*" );
+            searchContext.setPartition( partition );
+
+            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+            {
+                searchContext.setTransaction( partitionTxn );
+                int count = 0;
+
+                try ( Cursor<Entry> cursor = partition.search( searchContext ) )
+                {
+                    while ( cursor.next() )
+                    {
+                        cursor.get();
+                        count++;
+                    }
+                }
+
+                assertEquals( 1, count );
+            }
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private long modify( AbstractBTreePartition partition, Random random, int nbEntries, int nbOperations )
+        throws Exception
+    {
+        long t0 = System.currentTimeMillis();
+
+        for ( int i = 0; i < nbOperations; i++ )
+        {
+            Modification modification = new DefaultModification( ModificationOperation.REPLACE_ATTRIBUTE,
+                schemaManager.getAttributeType( SchemaConstants.SN_AT ), "Modified " + i );
+            PartitionTxn partitionTxn = partition.beginWriteTransaction();
+            partition.modify( partitionTxn, userDn( random.nextInt( nbEntries ) ), modification );
+            partitionTxn.commit();
+        }
+
+        return System.currentTimeMillis() - t0;
+    }
+
+
+    private void measure( String name, AbstractBTreePartition partition, int nbEntries, int nbOperations )
+        throws Exception
+    {
+        try
+        {
+            long load = load( partition, nbEntries );
+            System.out.println( name + " : added " + nbEntries + " entries in " + load + " ms" );
+
+            // Warm up
+            lookup( partition, new Random( 1L ), nbEntries, nbOperations );
+            search( partition, new Random( 1L ), nbEntries, nbOperations );
+
+            long delta = Math.max( 1L, lookup( partition, new Random( 2L ), nbEntries, nbOperations ) );
+            System.out.println( name + " : " + nbOperations + " lookups in " + delta + " ms ( "
+                + ( ( nbOperations * 1000L ) / delta ) + " per s )" );
+
+            delta = Math.max( 1L, search( partition, new Random( 3L ), nbEntries, nbOperations ) );
+            System.out.println( name + " : " + nbOperations + " searches in " + delta + " ms ( "
+                + ( ( nbOperations * 1000L ) / delta ) + " per s )" );
+
+            delta = Math.max( 1L, modify( partition, new Random( 4L ), nbEntries, nbOperations ) );
+            System.out.println( name + " : " + nbOperations + " modifications in " + delta + " ms ( "
+                + ( ( nbOperations * 1000L ) / delta ) + " per s )" );
+        }
+        finally
+        {
+            try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
+            {
+                partition.destroy( partitionTxn );
+            }
+        }
+    }
+
+
+    @Test
+    public void testPerfLmdbPartition() throws Exception
+    {
+        measure( "LMDB", createLmdbPartition( NB_ENTRIES ), NB_ENTRIES, NB_OPERATIONS );
+    }
+
+
+    @Test
+    public void testPerfJdbmPartition() throws Exception
+    {
+        measure( "JDBM", createJdbmPartition( NB_ENTRIES ), NB_ENTRIES, NB_OPERATIONS );
+    }
+
+
+    @Test
+    public void testPerfMavibotPartition() throws Exception
+    {
+        measure( "Mavibot", createMavibotPartition( MAVIBOT_NB_ENTRIES ), MAVIBOT_NB_ENTRIES,
+            MAVIBOT_NB_OPERATIONS );
+    }
+}
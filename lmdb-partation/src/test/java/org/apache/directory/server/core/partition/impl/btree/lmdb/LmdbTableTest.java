@@ -0,0 +1,334 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree.lmdb;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorClosedException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapOtherException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the LmdbTable operations and cursors, with and without duplicate values.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LmdbTableTest
+{
+    private LmdbEnvironment environment;
+
+    /** A table with duplicate values */
+    private LmdbTable<String, String> dupsTable;
+
+    /** A table without duplicate values */
+    private LmdbTable<String, String> table;
+
+    private PartitionTxn partitionTxn;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+
+    @Before
+    public void setup() throws IOException
+    {
+        File dbFileDir = tempFolder.newFolder( LmdbTableTest.class.getSimpleName() );
+        environment = new LmdbEnvironment( dbFileDir, 1L << 24, 16, 16, true );
+
+        // String tables don't need the SchemaManager
+        dupsTable = new LmdbTable<>( environment, null, "dups", LmdbStringSerializer.INSTANCE,
+            LmdbStringSerializer.INSTANCE, true );
+        table = new LmdbTable<>( environment, null, "nodups", LmdbStringSerializer.INSTANCE,
+            LmdbStringSerializer.INSTANCE, false );
+
+        partitionTxn = new MockPartitionReadTxn();
+    }
+
+
+    @After
+    public void teardown() throws Exception
+    {
+        environment.close();
+    }
+
+
+    private void loadDups() throws Exception
+    {
+        dupsTable.put( partitionTxn, "a", "2" );
+        dupsTable.put( partitionTxn, "a", "1" );
+        dupsTable.put( partitionTxn, "a", "3" );
+        dupsTable.put( partitionTxn, "b", "1" );
+    }
+
+
+    @Test
+    public void testPutWithDuplicates() throws Exception
+    {
+        loadDups();
+
+        // Adding an existing value does nothing
+        dupsTable.put( partitionTxn, "a", "1" );
+
+        assertEquals( 4, dupsTable.count( partitionTxn ) );
+        assertEquals( 3, dupsTable.count( partitionTxn, "a" ) );
+        assertEquals( 0, dupsTable.count( partitionTxn, "c" ) );
+        assertEquals( "1", dupsTable.get( partitionTxn, "a" ) );
+        assertTrue( dupsTable.has( partitionTxn, "a", "2" ) );
+        assertFalse( dupsTable.has( partitionTxn, "a", "4" ) );
+        assertTrue( dupsTable.hasGreaterOrEqual( partitionTxn, "a", "3" ) );
+        assertFalse( dupsTable.hasGreaterOrEqual( partitionTxn, "a", "4" ) );
+        assertTrue( dupsTable.hasLessOrEqual( partitionTxn, "b", "2" ) );
+
+        dupsTable.remove( partitionTxn, "a", "2" );
+        assertEquals( 2, dupsTable.count( partitionTxn, "a" ) );
+
+        dupsTable.remove( partitionTxn, "a" );
+        assertFalse( dupsTable.has( partitionTxn, "a" ) );
+        assertEquals( 1, dupsTable.count( partitionTxn ) );
+    }
+
+
+    @Test
+    public void testReadsFromManyThreads() throws Exception
+    {
+        table.put( partitionTxn, "a", "1" );
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        // Many more threads than reader slots read once, then end
+        for ( int i = 0; i < 100; i++ )
+        {
+            Thread reader = new Thread( () ->
+            {
+                try
+                {
+                    assertEquals( "1", table.get( partitionTxn, "a" ) );
+                }
+                catch ( Exception e )
+                {
+                    failure.compareAndSet( null, e );
+                }
+            } );
+
+            reader.start();
+            reader.join();
+        }
+
+        if ( failure.get() != null )
+        {
+            throw failure.get();
+        }
+
+        assertEquals( "1", table.get( partitionTxn, "a" ) );
+    }
+
+
+    @Test
+    public void testPutWithoutDuplicates() throws Exception
+    {
+        table.put( partitionTxn, "a", "1" );
+        table.put( partitionTxn, "a", "2" );
+
+        assertEquals( 1, table.count( partitionTxn ) );
+        assertEquals( "2", table.get( partitionTxn, "a" ) );
+        assertFalse( table.has( partitionTxn, "a", "1" ) );
+        assertTrue( table.hasGreaterOrEqual( partitionTxn, "0" ) );
+        assertFalse( table.hasGreaterOrEqual( partitionTxn, "b" ) );
+    }
+
+
+    @Test
+    public void testValueCursor() throws Exception
+    {
+        loadDups();
+
+        try ( Cursor<String> cursor = dupsTable.valueCursor( partitionTxn, "a" ) )
+        {
+            // The values are ordered
+            assertTrue( cursor.next() );
+            assertEquals( "1", cursor.get() );
+            assertTrue( cursor.next() );
+            assertEquals( "2", cursor.get() );
+            assertTrue( cursor.next() );
+            assertEquals( "3", cursor.get() );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test
+    public void testCursorRestrictedToKey() throws Exception
+    {
+        loadDups();
+
+        try ( Cursor<Tuple<String, String>> cursor = dupsTable.cursor( partitionTxn, "a" ) )
+        {
+            int count = 0;
+
+            while ( cursor.next() )
+            {
+                assertEquals( "a", cursor.get().getKey() );
+                count++;
+            }
+
+            assertEquals( 3, count );
+
+            cursor.afterLast();
+            assertTrue( cursor.previous() );
+            assertEquals( "3", cursor.get().getValue() );
+        }
+    }
+
+
+    @Test
+    public void testCursorBeforeAfterValue() throws Exception
+    {
+        loadDups();
+
+        try ( Cursor<Tuple<String, String>> cursor = dupsTable.cursor() )
+        {
+            cursor.before( new Tuple<String, String>( "a", "2" ) );
+            assertTrue( cursor.next() );
+            assertEquals( "2", cursor.get().getValue() );
+
+            cursor.after( new Tuple<String, String>( "a", "2" ) );
+            assertTrue( cursor.next() );
+            assertEquals( "3", cursor.get().getValue() );
+
+            // After the last value of a key, we are on the next key
+            cursor.after( new Tuple<String, String>( "a", "3" ) );
+            assertTrue( cursor.next() );
+            assertEquals( "b", cursor.get().getKey() );
+
+            cursor.after( new Tuple<String, String>( "b", "1" ) );
+            assertFalse( cursor.next() );
+        }
+    }
+
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testBeforeValueWithoutDuplicates() throws Exception
+    {
+        table.put( partitionTxn, "a", "1" );
+
+        try ( LmdbCursor<String, String> cursor = new LmdbCursor<>( table ) )
+        {
+            cursor.beforeValue( "a", "1" );
+        }
+    }
+
+
+    @Test
+    public void testTooLongKey() throws Exception
+    {
+        char[] chars = new char[environment.getMaxKeySize() + 1];
+        Arrays.fill( chars, 'x' );
+        String key = new String( chars );
+
+        try
+        {
+            table.put( partitionTxn, key, "1" );
+            fail( "The key should be rejected" );
+        }
+        catch ( LdapOtherException loe )
+        {
+            // Expected
+        }
+
+        // Such a key can't be in the table
+        assertNull( table.get( partitionTxn, key ) );
+        assertFalse( table.has( partitionTxn, key ) );
+        assertEquals( 0, table.count( partitionTxn ) );
+    }
+
+
+    @Test
+    public void testWriteTransaction() throws Exception
+    {
+        try ( PartitionTxn writeTxn = environment.beginWriteTransaction() )
+        {
+            table.put( writeTxn, "a", "1" );
+
+            // The changes are visible in the transaction
+            assertEquals( "1", table.get( writeTxn, "a" ) );
+        }
+
+        assertEquals( "1", table.get( partitionTxn, "a" ) );
+
+        LmdbPartitionWriteTxn writeTxn = environment.beginWriteTransaction();
+        table.put( writeTxn, "b", "2" );
+        writeTxn.abort();
+
+        assertFalse( table.has( partitionTxn, "b" ) );
+    }
+
+
+    @Test
+    public void testNestedWriteTransaction() throws Exception
+    {
+        LmdbPartitionWriteTxn parent = environment.beginWriteTransaction();
+        table.put( parent, "a", "1" );
+
+        try ( PartitionTxn child = environment.beginWriteTransaction() )
+        {
+            table.put( child, "b", "2" );
+        }
+
+        // The committed child is visible in its parent
+        assertTrue( table.has( parent, "b" ) );
+        parent.abort();
+
+        assertEquals( 0, table.count( partitionTxn ) );
+        assertNull( environment.getWriteTransaction() );
+    }
+
+
+    @Test(expected = CursorClosedException.class)
+    public void testCursorReleasedOnCommit() throws Exception
+    {
+        table.put( partitionTxn, "a", "1" );
+
+        LmdbPartitionWriteTxn writeTxn = environment.beginWriteTransaction();
+        Cursor<Tuple<String, String>> cursor = table.cursor();
+        assertTrue( cursor.next() );
+        writeTxn.commit();
+
+        // The cursor can't read a transaction which is done
+        cursor.next();
+    }
+}
@@ -27,6 +27,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Comparator;
 
 import org.apache.directory.api.ldap.model.entry.Attribute;
@@ -42,6 +43,8 @@ import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.serializer.AbstractElementSerializer;
 import org.apache.directory.mavibot.btree.serializer.BufferHandler;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +52,9 @@ import org.slf4j.LoggerFactory;
 /**
  * Serialize and deserialize a ServerEntry. There is a big difference with the standard
  * Entry serialization : we don't serialize the entry's Dn, we just serialize it's Rdn.
+ * <br>
+ * When created with an {@link AttributeTypeDictionary}, the entries are written using the
+ * {@link CompactEntryCodec}, the entries written in the previous format being still readable.
  * <br><br>
  * <b>This class must *not* be used outside of the server.</b>
  *  
@@ -83,6 +89,9 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
 
     private static Comparator<Entry> comparator = new EntryComparator();
 
+    /** The codec used to write the entries in the compact format, if any */
+    private transient CompactEntryCodec codec;
+
 
     /**
      * Creates a new instance of ServerEntrySerializer.
@@ -94,6 +103,19 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     }
 
 
+    /**
+     * Creates a new instance of ServerEntrySerializer writing the entries in the compact format.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     * @param dictionary The dictionary of the partition's AttributeTypes
+     */
+    public MavibotEntrySerializer( SchemaManager schemaManager, AttributeTypeDictionary dictionary )
+    {
+        super( comparator );
+        codec = new CompactEntryCodec( schemaManager, dictionary );
+    }
+
+
     @Override
     public Comparator<Entry> getComparator()
     {
@@ -127,6 +149,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     {
         try
         {
+            if ( codec != null )
+            {
+                return codec.encode( entry );
+            }
+
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
             ObjectOutput out = new ObjectOutputStream( baos );
@@ -199,6 +226,14 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         // read the length
         int len = buffer.limit();
 
+        if ( CompactEntryCodec.isCompact( buffer.array(), buffer.position() ) )
+        {
+            Entry entry = decodeCompact( buffer.array(), buffer.position(), len );
+            buffer.position( buffer.position() + len );
+
+            return entry;
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer.array(), buffer.position(), len ) );
 
         try
@@ -301,6 +336,11 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
         // read the length
         int len = buffer.length - pos;
 
+        if ( CompactEntryCodec.isCompact( buffer, pos ) )
+        {
+            return decodeCompact( buffer, pos, len );
+        }
+
         ObjectInputStream in = new ObjectInputStream( new ByteArrayInputStream( buffer, pos, len ) );
 
         try
@@ -369,6 +409,21 @@ public class MavibotEntrySerializer extends AbstractElementSerializer<Entry>
     }
 
 
+    /**
+     * Deserializes an entry written in the compact format. The bytes are copied, as the
+     * entry's attributes are decoded from them when they are used.
+     */
+    private Entry decodeCompact( byte[] buffer, int pos, int len ) throws IOException
+    {
+        if ( codec == null )
+        {
+            throw new IOException( "Cannot read an entry in the compact format without dictionary" );
+        }
+
+        return codec.decode( Arrays.copyOfRange( buffer, pos, pos + len ), 0, len );
+    }
+
+
     /**
      * {@inheritDoc}
      */
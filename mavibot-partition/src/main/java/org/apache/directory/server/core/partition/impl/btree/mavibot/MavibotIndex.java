@@ -337,6 +337,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
      */
     public synchronized void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        // Only count the tuples which were not already present
+        long count = forward.count( partitionTxn );
+
         // The pair to be removed must exists
         forward.put( partitionTxn, attrVal, id );
 
@@ -344,6 +347,11 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        if ( forward.count( partitionTxn ) > count )
+        {
+            statistics.added( attrVal );
+        }
     }
 
 
@@ -357,6 +365,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
         if ( forward.has( partitionTxn, attrVal, id ) )
         {
             forward.remove( partitionTxn, attrVal, id );
+            statistics.dropped( attrVal );
 
             if ( withReverse )
             {
@@ -384,7 +393,9 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                     while ( values.next() )
                     {
                         // Remove the Key -> entryId from the index
-                        forward.remove( partitionTxn, values.get().getValue(), entryId );
+                        K key = values.get().getValue();
+                        forward.remove( partitionTxn, key, entryId );
+                        statistics.dropped( key );
                     }
     
                     values.close();
@@ -399,6 +410,7 @@ public class MavibotIndex<K> extends AbstractIndex<K, String>
                 K key = reverse.get( partitionTxn, entryId );
 
                 forward.remove( partitionTxn, key );
+                statistics.dropped( key );
             }
 
             // Remove the id -> key from the reverse index
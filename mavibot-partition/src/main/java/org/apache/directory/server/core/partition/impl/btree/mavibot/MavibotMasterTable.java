@@ -27,6 +27,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.mavibot.btree.RecordManager;
 import org.apache.directory.mavibot.btree.serializer.StringSerializer;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
 import org.apache.directory.server.xdbm.MasterTable;
 
 
@@ -50,6 +51,14 @@ public class MavibotMasterTable extends MavibotTable<String, Entry> implements M
     }
 
 
+    public MavibotMasterTable( RecordManager recordMan, SchemaManager schemaManager, String name,
+        AttributeTypeDictionary dictionary, int cacheSize ) throws IOException
+    {
+        super( recordMan, schemaManager, name, StringSerializer.INSTANCE,
+            new MavibotEntrySerializer( schemaManager, dictionary ), false, cacheSize );
+    }
+
+
     @Override
     public String getNextId( Entry entry )
     {
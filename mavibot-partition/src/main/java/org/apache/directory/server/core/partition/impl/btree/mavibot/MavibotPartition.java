@@ -57,6 +57,7 @@ import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.AttributeTypeDictionary;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.search.impl.CursorBuilder;
 import org.apache.directory.server.xdbm.search.impl.DefaultOptimizer;
@@ -174,10 +175,21 @@ public class MavibotPartition extends AbstractBTreePartition
             super.doInit();
 
             // First, check if the file storing the data exists
+            File conversionMarker = new File( partitionDir, "master" + ENTRY_CONVERSION_FILE_EXTN );
 
             try
             {
-                master = new MavibotMasterTable( recordMan, schemaManager, "master", cacheSize );
+                File dictionaryFile = new File( partitionDir, "master" + AttributeTypeDictionary.DICTIONARY_FILE_EXTN );
+                boolean newDictionary = !dictionaryFile.exists();
+
+                master = new MavibotMasterTable( recordMan, schemaManager, "master",
+                    new AttributeTypeDictionary( dictionaryFile ), cacheSize );
+
+                // The existing entries have been written in the previous format
+                if ( newDictionary && ( master.count( null ) > 0L ) && !conversionMarker.createNewFile() )
+                {
+                    LOG.warn( "Cannot create the entry conversion marker {}", conversionMarker );
+                }
             }
             catch ( IOException ioe )
             {
@@ -231,6 +243,19 @@ public class MavibotPartition extends AbstractBTreePartition
 
             entryCache = Caffeine.newBuilder().maximumSize( cacheSize ).build();
 
+            // Load the statistics used by the optimizer
+            try ( PartitionTxn partitionTxn = beginReadTransaction() )
+            {
+                loadIndexStatistics( partitionTxn );
+            }
+            catch ( IOException ioe )
+            {
+                throw new LdapOtherException( ioe.getMessage(), ioe );
+            }
+
+            // Convert the entries written in the previous format, if any
+            startEntryConversion( conversionMarker );
+
             // We are done !
             initialized = true;
         }
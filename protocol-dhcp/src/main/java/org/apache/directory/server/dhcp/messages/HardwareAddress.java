@@ -88,11 +88,13 @@ public final class HardwareAddress
      */
     public int hashCode()
     {
+        // The bytes are not just XORed : the addresses of a batch of NICs would
+        // have a few hash codes only
         int hashCode = 98643532 ^ type ^ length;
 
         for ( int i = 0; i < length; i++ )
         {
-            hashCode ^= address[i];
+            hashCode = 31 * hashCode + address[i];
         }
 
         return hashCode;
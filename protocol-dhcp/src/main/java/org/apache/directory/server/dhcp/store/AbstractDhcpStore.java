@@ -233,7 +233,7 @@ public abstract class AbstractDhcpStore implements DhcpStore
      * @param properties
      * @return long
      */
-    private long determineLeaseTime( long requestedLeaseTime, Map properties )
+    protected long determineLeaseTime( long requestedLeaseTime, Map properties )
     {
         // built-in default
         long leaseTime = 1000L * 3600;
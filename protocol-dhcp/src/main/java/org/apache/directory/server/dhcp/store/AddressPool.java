@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dhcp.store;
+
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.BitSet;
+
+
+/**
+ * The addresses of a {@link Subnet} which can be leased, with a bit per address telling
+ * if it is in use. Only IPv4 subnets are supported. The methods are synchronized : each
+ * subnet has its own pool, so the requests for different subnets don't wait for each other.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class AddressPool
+{
+    /** The subnet the addresses belong to */
+    private final Subnet subnet;
+
+    /** The first address of the pool */
+    private final long first;
+
+    /** The number of addresses in the pool */
+    private final int size;
+
+    /** The addresses in use, leased or fixed */
+    private final BitSet used;
+
+    /** The addresses of the designated hosts, which are never released */
+    private final BitSet fixed;
+
+    /** The number of addresses in use */
+    private int usedCount;
+
+    /** The position the search for a free address starts from */
+    private int cursor;
+
+
+    /**
+     * Creates a new instance of AddressPool. The pool holds the subnet's range, or the
+     * whole subnet but its network and broadcast addresses if the range isn't set.
+     *
+     * @param subnet The subnet
+     */
+    AddressPool( Subnet subnet )
+    {
+        this.subnet = subnet;
+
+        long network = toLong( subnet.getAddress() );
+        long hosts = ~toLong( subnet.getNetmask() ) & 0xFFFFFFFFL;
+
+        long min = ( subnet.getRangeMin() != null ) ? toLong( subnet.getRangeMin() ) : network + 1;
+        long max = ( subnet.getRangeMax() != null ) ? toLong( subnet.getRangeMax() ) : network + hosts - 1;
+
+        if ( ( network < 0 ) || ( min < 0 ) || ( max < min ) )
+        {
+            throw new IllegalArgumentException( "Invalid address range for subnet " + subnet.getAddress() );
+        }
+
+        first = min;
+        size = ( int ) ( max - min + 1 );
+        used = new BitSet( size );
+        fixed = new BitSet( size );
+    }
+
+
+    /**
+     * Converts an IPv4 address to a positive long, -1 for an IPv6 address
+     */
+    static long toLong( InetAddress address )
+    {
+        if ( !( address instanceof Inet4Address ) )
+        {
+            return -1L;
+        }
+
+        byte[] bytes = address.getAddress();
+
+        return ( ( bytes[0] & 0xFFL ) << 24 ) | ( ( bytes[1] & 0xFFL ) << 16 ) | ( ( bytes[2] & 0xFFL ) << 8 )
+            | ( bytes[3] & 0xFFL );
+    }
+
+
+    /**
+     * Converts a long to an IPv4 address
+     */
+    private static InetAddress toAddress( long value )
+    {
+        byte[] bytes = new byte[]
+            { ( byte ) ( value >>> 24 ), ( byte ) ( value >>> 16 ), ( byte ) ( value >>> 8 ), ( byte ) value };
+
+        try
+        {
+            return InetAddress.getByAddress( bytes );
+        }
+        catch ( UnknownHostException uhe )
+        {
+            // Doesn't happen with 4 bytes
+            throw new IllegalStateException( uhe );
+        }
+    }
+
+
+    /**
+     * @return The position of an address in the pool, -1 if it isn't in the pool
+     */
+    private int indexOf( InetAddress address )
+    {
+        long value = toLong( address );
+
+        if ( ( value < first ) || ( value >= first + size ) )
+        {
+            return -1;
+        }
+
+        return ( int ) ( value - first );
+    }
+
+
+    /**
+     * @return The subnet the addresses belong to
+     */
+    Subnet getSubnet()
+    {
+        return subnet;
+    }
+
+
+    /**
+     * Takes a free address from the pool.
+     *
+     * @param preferred The address the client asks for, may be null
+     * @return The preferred address if it's free, any free address otherwise, or null
+     * if the pool is exhausted
+     */
+    synchronized InetAddress allocate( InetAddress preferred )
+    {
+        if ( preferred != null )
+        {
+            int index = indexOf( preferred );
+
+            if ( ( index >= 0 ) && !used.get( index ) )
+            {
+                use( index );
+
+                return preferred;
+            }
+        }
+
+        if ( usedCount == size )
+        {
+            return null;
+        }
+
+        int index = used.nextClearBit( cursor );
+
+        if ( index >= size )
+        {
+            index = used.nextClearBit( 0 );
+        }
+
+        use( index );
+        cursor = index + 1;
+
+        return toAddress( first + index );
+    }
+
+
+    /**
+     * Marks an address as used, when a lease is recovered.
+     *
+     * @param address The leased address
+     * @return false if the address is outside the pool or already used
+     */
+    synchronized boolean take( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index < 0 ) || used.get( index ) )
+        {
+            return false;
+        }
+
+        use( index );
+
+        return true;
+    }
+
+
+    /**
+     * Keeps the fixed address of a designated host out of the pool.
+     *
+     * @param address The host's address
+     */
+    synchronized void reserve( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( index >= 0 )
+        {
+            if ( !used.get( index ) )
+            {
+                use( index );
+            }
+
+            fixed.set( index );
+        }
+    }
+
+
+    /**
+     * Gives a leased address back to the pool. The fixed addresses are kept.
+     *
+     * @param address The address which is not leased anymore
+     */
+    synchronized void release( InetAddress address )
+    {
+        int index = indexOf( address );
+
+        if ( ( index >= 0 ) && used.get( index ) && !fixed.get( index ) )
+        {
+            used.clear( index );
+            usedCount--;
+        }
+    }
+
+
+    private void use( int index )
+    {
+        used.set( index );
+        usedCount++;
+    }
+
+
+    /**
+     * @return The number of free addresses
+     */
+    synchronized int getFreeCount()
+    {
+        return size - usedCount;
+    }
+}
@@ -0,0 +1,784 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dhcp.store;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.directory.server.dhcp.DhcpException;
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.options.OptionsField;
+import org.apache.directory.server.dhcp.options.vendor.SubnetMask;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A thread safe, in memory DhcpStore leasing the addresses of a set of subnets.
+ * <ul>
+ * <li>Each subnet has an {@link AddressPool}, a bitmap of the addresses in use.</li>
+ * <li>The leases and the designated hosts are found by hardware address in hash maps. The
+ * changes of the lease of a client, and their journal records, are done atomically.</li>
+ * <li>The leases are expired by a timer wheel : a ring of slots, one per tick, holding
+ * the leases expiring during that tick. A background thread processes the elapsed
+ * slots.</li>
+ * <li>The leases are written in an append only journal, replayed when the store is
+ * opened. The journal is rewritten with the current leases only when it holds too
+ * many outdated records.</li>
+ * </ul>
+ * The subnets and the hosts have to be added before the store is opened.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class PooledDhcpStore extends AbstractDhcpStore
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( PooledDhcpStore.class );
+
+    /** The default duration of a tick of the expiration wheel, in milliseconds */
+    public static final long DEFAULT_TICK_DURATION = 1000L;
+
+    /** The number of slots of the expiration wheel, a power of 2 */
+    private static final int WHEEL_SIZE = 512;
+
+    /** The minimal number of journal records before the journal is compacted */
+    private static final int COMPACTION_THRESHOLD = 10000;
+
+    /** The journal record storing a lease */
+    private static final byte RECORD_PUT = 1;
+
+    /** The journal record removing a lease */
+    private static final byte RECORD_REMOVE = 2;
+
+    /** The address pools, by subnet address */
+    private final ConcurrentNavigableMap<Long, AddressPool> pools = new ConcurrentSkipListMap<>();
+
+    /** The designated hosts, by hardware address */
+    private final Map<HardwareAddress, Host> hosts = new ConcurrentHashMap<>();
+
+    /** The current leases, by hardware address */
+    private final Map<HardwareAddress, Lease> leases = new ConcurrentHashMap<>();
+
+    /** The expiration wheel. A slot holds the clients whose leases expire during its ticks */
+    private final Set<HardwareAddress>[] wheel;
+
+    /** The duration of a tick, in milliseconds */
+    private final long tickDuration;
+
+    /** The last processed tick */
+    private volatile long lastTick;
+
+    /** The journal file, null if the leases are not persisted */
+    private final File journalFile;
+
+    /** The journal, while the store is open */
+    private DataOutputStream journal;
+
+    /** The number of records in the journal */
+    private int journalRecords;
+
+    /** The lock protecting the journal */
+    private final Object journalLock = new Object();
+
+    /** The thread expiring the leases, while the store is open */
+    private ScheduledExecutorService expirationTimer;
+
+
+    /**
+     * Creates a new instance of PooledDhcpStore, which does not persist the leases.
+     */
+    public PooledDhcpStore()
+    {
+        this( null, DEFAULT_TICK_DURATION );
+    }
+
+
+    /**
+     * Creates a new instance of PooledDhcpStore.
+     *
+     * @param journalFile The file the leases are persisted in, null if they are not persisted
+     */
+    public PooledDhcpStore( File journalFile )
+    {
+        this( journalFile, DEFAULT_TICK_DURATION );
+    }
+
+
+    /**
+     * Creates a new instance of PooledDhcpStore.
+     *
+     * @param journalFile The file the leases are persisted in, null if they are not persisted
+     * @param tickDuration The precision of the expiration of the leases, in milliseconds
+     */
+    @SuppressWarnings("unchecked")
+    public PooledDhcpStore( File journalFile, long tickDuration )
+    {
+        this.journalFile = journalFile;
+        this.tickDuration = tickDuration;
+        wheel = new Set[WHEEL_SIZE];
+
+        for ( int i = 0; i < WHEEL_SIZE; i++ )
+        {
+            wheel[i] = ConcurrentHashMap.newKeySet();
+        }
+
+        lastTick = System.currentTimeMillis() / tickDuration;
+    }
+
+
+    /**
+     * Adds a subnet whose addresses can be leased. Only IPv4 subnets are supported.
+     *
+     * @param subnet The subnet
+     */
+    public void addSubnet( Subnet subnet )
+    {
+        AddressPool pool = new AddressPool( subnet );
+        pools.put( AddressPool.toLong( subnet.getAddress() ), pool );
+
+        for ( Host host : hosts.values() )
+        {
+            if ( ( host.getAddress() != null ) && subnet.contains( host.getAddress() ) )
+            {
+                pool.reserve( host.getAddress() );
+            }
+        }
+    }
+
+
+    /**
+     * Adds a host with a fixed address. The address is not leased to the other clients.
+     *
+     * @param host The host
+     */
+    public void addHost( Host host )
+    {
+        hosts.put( host.getHardwareAddress(), host );
+
+        if ( host.getAddress() != null )
+        {
+            AddressPool pool = findPool( host.getAddress() );
+
+            if ( pool != null )
+            {
+                pool.reserve( host.getAddress() );
+            }
+        }
+    }
+
+
+    /**
+     * Reads the leases from the journal, and starts expiring them.
+     *
+     * @throws IOException If the journal can't be read or written
+     */
+    public synchronized void open() throws IOException
+    {
+        if ( journalFile != null )
+        {
+            recover();
+            compact();
+        }
+
+        expirationTimer = Executors.newSingleThreadScheduledExecutor( runnable ->
+        {
+            Thread thread = new Thread( runnable, "DHCP lease expiration" );
+            thread.setDaemon( true );
+
+            return thread;
+        } );
+
+        expirationTimer.scheduleWithFixedDelay( this::tick, tickDuration, tickDuration, TimeUnit.MILLISECONDS );
+    }
+
+
+    /**
+     * Stops expiring the leases, and closes the journal.
+     */
+    public synchronized void close()
+    {
+        if ( expirationTimer != null )
+        {
+            expirationTimer.shutdownNow();
+            expirationTimer = null;
+        }
+
+        synchronized ( journalLock )
+        {
+            closeJournal();
+        }
+    }
+
+
+    /**
+     * @return The number of current leases
+     */
+    public int getLeaseCount()
+    {
+        return leases.size();
+    }
+
+
+    /**
+     * @param subnet The subnet
+     * @return The number of addresses of the subnet which can still be leased, -1 if the
+     * subnet is not handled by this store
+     */
+    public int getFreeAddressCount( Subnet subnet )
+    {
+        AddressPool pool = findPool( subnet.getAddress() );
+
+        return ( pool != null ) ? pool.getFreeCount() : -1;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Lease getLeaseOffer( HardwareAddress hardwareAddress, InetAddress requestedAddress,
+        InetAddress selectionBase, long requestedLeaseTime, OptionsField options ) throws DhcpException
+    {
+        AddressPool pool = findPool( selectionBase );
+
+        // The existing leases and the designated hosts don't need a new address
+        if ( ( pool == null ) || leases.containsKey( hardwareAddress ) || hosts.containsKey( hardwareAddress ) )
+        {
+            return super.getLeaseOffer( hardwareAddress, requestedAddress, selectionBase, requestedLeaseTime,
+                options );
+        }
+
+        InetAddress address = pool.allocate( requestedAddress );
+        Subnet subnet = pool.getSubnet();
+
+        if ( address == null )
+        {
+            LOG.warn( "No address left to lease in the subnet {}", subnet.getAddress() );
+            return null;
+        }
+
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease();
+        lease.setAcquired( now );
+        lease.setExpires( now + determineLeaseTime( requestedLeaseTime, getProperties( subnet ) ) );
+        lease.setHardwareAddress( hardwareAddress );
+        lease.setClientAddress( address );
+        lease.setState( Lease.STATE_OFFERED );
+
+        OptionsField o = lease.getOptions();
+        o.add( new SubnetMask( subnet.getNetmask() ) );
+        o.merge( subnet.getOptions() );
+
+        Lease offered = leases.compute( hardwareAddress, ( key, current ) ->
+        {
+            if ( current != null )
+            {
+                // The client sent another DHCPDISCOVER meanwhile
+                return current;
+            }
+
+            schedule( key, lease.getExpires() );
+            writeRecord( RECORD_PUT, key, lease );
+
+            return lease;
+        } );
+
+        if ( offered != lease )
+        {
+            pool.release( address );
+        }
+
+        return offered;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void updateLease( Lease lease )
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+        int state = lease.getState();
+
+        if ( ( state == Lease.STATE_RELEASED ) || ( state == Lease.STATE_EXPIRED ) )
+        {
+            leases.computeIfPresent( hardwareAddress, ( key, current ) -> removeLease( key, current, lease ) );
+
+            return;
+        }
+
+        leases.compute( hardwareAddress, ( key, previous ) ->
+        {
+            if ( previous == null )
+            {
+                // The lease may have expired meanwhile : its address has been released
+                if ( !takeAddress( lease ) )
+                {
+                    LOG.warn( "The address of the lease {} has been leased to another client", lease );
+
+                    return null;
+                }
+            }
+            else if ( ( previous != lease ) && !previous.getClientAddress().equals( lease.getClientAddress() ) )
+            {
+                releaseAddress( previous );
+            }
+
+            schedule( key, lease.getExpires() );
+            writeRecord( RECORD_PUT, key, lease );
+
+            return lease;
+        } );
+    }
+
+
+    /**
+     * Removes the lease of a client, if it's still the current one, and releases its address.
+     * Called while the lease of the client is locked.
+     *
+     * @return The current lease of the client, null if it has been removed
+     */
+    private Lease removeLease( HardwareAddress hardwareAddress, Lease current, Lease lease )
+    {
+        if ( current != lease )
+        {
+            return current;
+        }
+
+        releaseAddress( lease );
+        writeRecord( RECORD_REMOVE, hardwareAddress, null );
+
+        return null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Lease findExistingLease( HardwareAddress hardwareAddress, Lease existingLease )
+    {
+        Lease lease = leases.get( hardwareAddress );
+
+        return ( lease != null ) ? lease : existingLease;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Host findDesignatedHost( HardwareAddress hardwareAddress )
+    {
+        return hosts.get( hardwareAddress );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Subnet findSubnet( InetAddress clientAddress )
+    {
+        AddressPool pool = findPool( clientAddress );
+
+        return ( pool != null ) ? pool.getSubnet() : null;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected OptionsField getOptions( DhcpConfigElement element )
+    {
+        // we don't have groups, classes, etc. yet.
+        return element.getOptions();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    protected Map getProperties( DhcpConfigElement element )
+    {
+        // A copy, as the host properties are added to the subnet ones
+        return new HashMap( element.getProperties() );
+    }
+
+
+    /**
+     * Finds the pool of the subnet containing an address
+     */
+    private AddressPool findPool( InetAddress address )
+    {
+        long value = AddressPool.toLong( address );
+
+        if ( value < 0 )
+        {
+            return null;
+        }
+
+        Map.Entry<Long, AddressPool> entry = pools.floorEntry( value );
+
+        if ( ( entry != null ) && entry.getValue().getSubnet().contains( address ) )
+        {
+            return entry.getValue();
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Takes the address of a lease in its pool, unless it's the fixed address of its host
+     *
+     * @return false if the address is used by another client
+     */
+    private boolean takeAddress( Lease lease )
+    {
+        InetAddress clientAddress = lease.getClientAddress();
+        Host host = hosts.get( lease.getHardwareAddress() );
+
+        if ( ( host != null ) && clientAddress.equals( host.getAddress() ) )
+        {
+            return true;
+        }
+
+        AddressPool pool = findPool( clientAddress );
+
+        return ( pool != null ) && pool.take( clientAddress );
+    }
+
+
+    private void releaseAddress( Lease lease )
+    {
+        AddressPool pool = findPool( lease.getClientAddress() );
+
+        if ( pool != null )
+        {
+            pool.release( lease.getClientAddress() );
+        }
+    }
+
+
+    /**
+     * Puts a client in the slot of the wheel its lease expires in
+     */
+    private void schedule( HardwareAddress hardwareAddress, long expires )
+    {
+        // A lease which is already expired is processed with the current tick
+        long tick = Math.max( expires / tickDuration, lastTick );
+
+        wheel[( int ) ( tick & ( WHEEL_SIZE - 1 ) )].add( hardwareAddress );
+    }
+
+
+    /**
+     * Expires the leases, and compacts the journal if needed. Runs in the expiration thread.
+     */
+    private void tick()
+    {
+        try
+        {
+            expireLeases( System.currentTimeMillis() );
+
+            synchronized ( journalLock )
+            {
+                if ( ( journal != null ) && ( journalRecords > COMPACTION_THRESHOLD )
+                    && ( journalRecords > 2 * leases.size() ) )
+                {
+                    compact();
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            // The thread must go on expiring the leases
+            LOG.error( "Failed to process the DHCP leases", e );
+        }
+    }
+
+
+    /**
+     * Expires the leases which expire before a given time.
+     *
+     * @param now The current time, in milliseconds
+     */
+    synchronized void expireLeases( long now )
+    {
+        long tick = now / tickDuration;
+
+        // The last processed slot is processed again, its tick may have not been over
+        for ( long t = Math.max( lastTick, tick - WHEEL_SIZE + 1 ); t <= tick; t++ )
+        {
+            Set<HardwareAddress> slot = wheel[( int ) ( t & ( WHEEL_SIZE - 1 ) )];
+            Iterator<HardwareAddress> clients = slot.iterator();
+
+            while ( clients.hasNext() )
+            {
+                HardwareAddress hardwareAddress = clients.next();
+                Lease lease = leases.get( hardwareAddress );
+
+                if ( lease == null )
+                {
+                    clients.remove();
+                }
+                else if ( lease.getExpires() <= now )
+                {
+                    clients.remove();
+
+                    // A renewal of the lease is either done before it's expired, or takes its address again
+                    leases.computeIfPresent( hardwareAddress, ( key, current ) ->
+                    {
+                        if ( ( current == lease ) && ( lease.getExpires() <= now ) )
+                        {
+                            lease.setState( Lease.STATE_EXPIRED );
+
+                            return removeLease( key, current, lease );
+                        }
+
+                        return current;
+                    } );
+                }
+                else if ( wheel[( int ) ( ( lease.getExpires() / tickDuration ) & ( WHEEL_SIZE - 1 ) )] != slot )
+                {
+                    // The lease has been renewed, it is in another slot
+                    clients.remove();
+                }
+            }
+        }
+
+        lastTick = Math.max( lastTick, tick );
+    }
+
+
+    /**
+     * Appends a record to the journal
+     */
+    private void writeRecord( byte type, HardwareAddress hardwareAddress, Lease lease )
+    {
+        synchronized ( journalLock )
+        {
+            if ( journal == null )
+            {
+                return;
+            }
+
+            try
+            {
+                writeRecord( journal, type, hardwareAddress, lease );
+                journal.flush();
+                journalRecords++;
+            }
+            catch ( IOException ioe )
+            {
+                // The lease is still known until the server is stopped
+                LOG.error( "Cannot write the lease of {} in the journal", hardwareAddress, ioe );
+            }
+        }
+    }
+
+
+    private static void writeRecord( DataOutputStream out, byte type, HardwareAddress hardwareAddress, Lease lease )
+        throws IOException
+    {
+        out.writeByte( type );
+        out.writeShort( hardwareAddress.getType() );
+        out.writeShort( hardwareAddress.getLength() );
+        out.writeShort( hardwareAddress.getAddress().length );
+        out.write( hardwareAddress.getAddress() );
+
+        if ( type == RECORD_PUT )
+        {
+            byte[] clientAddress = lease.getClientAddress().getAddress();
+            out.writeByte( clientAddress.length );
+            out.write( clientAddress );
+            out.writeInt( lease.getState() );
+            out.writeLong( lease.getAcquired() );
+            out.writeLong( lease.getExpires() );
+        }
+    }
+
+
+    /**
+     * Reads the leases from the journal. A record partially written when the server
+     * stopped is ignored.
+     */
+    private void recover() throws IOException
+    {
+        if ( !journalFile.exists() )
+        {
+            return;
+        }
+
+        Map<HardwareAddress, Lease> recovered = new HashMap<>();
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream(
+            new FileInputStream( journalFile ) ) ) )
+        {
+            int type = in.read();
+
+            while ( type >= 0 )
+            {
+                short hardwareType = in.readShort();
+                short hardwareLength = in.readShort();
+                byte[] hardwareBytes = new byte[in.readShort()];
+                in.readFully( hardwareBytes );
+                HardwareAddress hardwareAddress = new HardwareAddress( hardwareType, hardwareLength, hardwareBytes );
+
+                if ( type == RECORD_PUT )
+                {
+                    byte[] clientAddress = new byte[in.readByte()];
+                    in.readFully( clientAddress );
+
+                    Lease lease = new Lease();
+                    lease.setHardwareAddress( hardwareAddress );
+                    lease.setClientAddress( InetAddress.getByAddress( clientAddress ) );
+                    lease.setState( in.readInt() );
+                    lease.setAcquired( in.readLong() );
+                    lease.setExpires( in.readLong() );
+                    recovered.put( hardwareAddress, lease );
+                }
+                else if ( type == RECORD_REMOVE )
+                {
+                    recovered.remove( hardwareAddress );
+                }
+                else
+                {
+                    LOG.warn( "The DHCP lease journal {} is corrupted, the next records are ignored", journalFile );
+                    break;
+                }
+
+                type = in.read();
+            }
+        }
+        catch ( EOFException eofe )
+        {
+            LOG.warn( "The last record of the DHCP lease journal {} is incomplete", journalFile );
+        }
+
+        long now = System.currentTimeMillis();
+
+        for ( Lease lease : recovered.values() )
+        {
+            if ( lease.getExpires() > now )
+            {
+                restore( lease );
+            }
+        }
+
+        LOG.info( "{} DHCP leases read from {}", leases.size(), journalFile );
+    }
+
+
+    /**
+     * Restores a lease read from the journal, if its address is still available
+     */
+    private void restore( Lease lease )
+    {
+        HardwareAddress hardwareAddress = lease.getHardwareAddress();
+        InetAddress clientAddress = lease.getClientAddress();
+        Host host = hosts.get( hardwareAddress );
+        AddressPool pool = findPool( clientAddress );
+
+        boolean fixed = ( host != null ) && clientAddress.equals( host.getAddress() );
+
+        if ( ( pool == null ) || ( !fixed && !pool.take( clientAddress ) ) )
+        {
+            LOG.warn( "The address of the lease {} can't be leased anymore", lease );
+            return;
+        }
+
+        OptionsField o = lease.getOptions();
+        o.add( new SubnetMask( pool.getSubnet().getNetmask() ) );
+        o.merge( pool.getSubnet().getOptions() );
+
+        leases.put( hardwareAddress, lease );
+        schedule( hardwareAddress, lease.getExpires() );
+    }
+
+
+    /**
+     * Rewrites the journal with the current leases only
+     */
+    void compact() throws IOException
+    {
+        synchronized ( journalLock )
+        {
+            File compacted = new File( journalFile.getPath() + ".tmp" );
+            int records = 0;
+
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                new FileOutputStream( compacted ) ) ) )
+            {
+                for ( Lease lease : leases.values() )
+                {
+                    writeRecord( out, RECORD_PUT, lease.getHardwareAddress(), lease );
+                    records++;
+                }
+            }
+
+            closeJournal();
+            Files.move( compacted.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE );
+
+            journal = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( journalFile, true ) ) );
+            journalRecords = records;
+        }
+    }
+
+
+    private void closeJournal()
+    {
+        if ( journal != null )
+        {
+            try
+            {
+                journal.close();
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot close the DHCP lease journal {}", journalFile, ioe );
+            }
+
+            journal = null;
+        }
+    }
+}
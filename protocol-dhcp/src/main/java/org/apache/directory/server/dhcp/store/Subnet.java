@@ -149,19 +149,13 @@ public class Subnet extends DhcpConfigElement
     public boolean isInRange( InetAddress clientAddress )
     {
         byte[] client = clientAddress.getAddress();
-        byte[] masked = netmask.getAddress();
-
-        for ( int i = 0; i < masked.length; i++ )
-        {
-            masked[i] &= client[i];
-        }
 
-        if ( null != rangeMin && arrayComp( masked, rangeMin.getAddress() ) < 0 )
+        if ( null != rangeMin && arrayComp( client, rangeMin.getAddress() ) < 0 )
         {
             return false;
         }
 
-        return ( null == rangeMin || arrayComp( masked, rangeMax.getAddress() ) <= 0 );
+        return ( null == rangeMax || arrayComp( client, rangeMax.getAddress() ) <= 0 );
     }
 
 
@@ -0,0 +1,147 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Simulates a building powering up : 50k clients sending a DHCPDISCOVER then a
+ * DHCPREQUEST from several threads, then measures the time needed to read the
+ * leases back from the journal.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+public class PooledDhcpStorePerfIT
+{
+    /** The number of distinct clients */
+    private static final int NB_CLIENTS = 50000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    private PooledDhcpStore openStore( File journalFile, Subnet subnet ) throws Exception
+    {
+        PooledDhcpStore store = new PooledDhcpStore( journalFile );
+        store.addSubnet( subnet );
+        store.open();
+
+        return store;
+    }
+
+
+    private void discoverAndRequest( PooledDhcpStore store, InetAddress selectionBase, int thread, int nbThreads )
+        throws Exception
+    {
+        for ( int client = thread; client < NB_CLIENTS; client += nbThreads )
+        {
+            HardwareAddress hardwareAddress = new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+                { 0x00, 0x16, 0x3e, ( byte ) ( client >> 16 ), ( byte ) ( client >> 8 ), ( byte ) client } );
+
+            Lease offer = store.getLeaseOffer( hardwareAddress, null, selectionBase, -1L, null );
+            assertNotNull( offer );
+            assertNotNull( store.getExistingLease( hardwareAddress, offer.getClientAddress(), selectionBase, -1L,
+                null ) );
+        }
+    }
+
+
+    @Test
+    public void testPerfLeaseStorm() throws Exception
+    {
+        File journalFile = new File( folder.getRoot(), "leases.journal" );
+        Subnet subnet = new Subnet( InetAddress.getByName( "10.0.0.0" ), InetAddress.getByName( "255.255.0.0" ),
+            null, null );
+        InetAddress selectionBase = InetAddress.getByName( "10.0.0.1" );
+        PooledDhcpStore store = openStore( journalFile, subnet );
+
+        int nbThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool( nbThreads );
+
+        try
+        {
+            long t0 = System.currentTimeMillis();
+            List<Future<?>> results = new ArrayList<>();
+
+            for ( int thread = 0; thread < nbThreads; thread++ )
+            {
+                int threadNumber = thread;
+                results.add( executor.submit( () ->
+                {
+                    discoverAndRequest( store, selectionBase, threadNumber, nbThreads );
+
+                    return null;
+                } ) );
+            }
+
+            for ( Future<?> result : results )
+            {
+                result.get();
+            }
+
+            long t1 = System.currentTimeMillis();
+
+            Long delta = Math.max( 1L, t1 - t0 );
+            System.out.println( "Delta DHCP leases, " + nbThreads + " threads: " + delta + "( "
+                + ( ( NB_CLIENTS * 1000L ) / delta ) + " clients per s )" );
+
+            assertEquals( NB_CLIENTS, store.getLeaseCount() );
+            assertEquals( 65534 - NB_CLIENTS, store.getFreeAddressCount( subnet ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            store.close();
+        }
+
+        long t2 = System.currentTimeMillis();
+        PooledDhcpStore recovered = openStore( journalFile, subnet );
+        long t3 = System.currentTimeMillis();
+
+        try
+        {
+            System.out.println( "Delta DHCP lease recovery: " + ( t3 - t2 ) + " ms" );
+            assertEquals( NB_CLIENTS, recovered.getLeaseCount() );
+        }
+        finally
+        {
+            recovered.close();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dhcp.store;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+
+import org.apache.directory.server.dhcp.messages.HardwareAddress;
+import org.apache.directory.server.dhcp.service.Lease;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the {@link PooledDhcpStore} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+@SuppressWarnings("PMD.AvoidUsingHardCodedIP")
+public class PooledDhcpStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File journalFile;
+
+    private Subnet subnet;
+
+    private InetAddress selectionBase;
+
+    private PooledDhcpStore store;
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        journalFile = new File( folder.getRoot(), "leases.journal" );
+        subnet = new Subnet( InetAddress.getByName( "192.168.1.0" ), InetAddress.getByName( "255.255.255.0" ),
+            InetAddress.getByName( "192.168.1.10" ), InetAddress.getByName( "192.168.1.13" ) );
+        selectionBase = InetAddress.getByName( "192.168.1.1" );
+        store = openStore();
+    }
+
+
+    @After
+    public void closeStore()
+    {
+        store.close();
+    }
+
+
+    private PooledDhcpStore openStore() throws Exception
+    {
+        PooledDhcpStore pooledStore = new PooledDhcpStore( journalFile );
+        pooledStore.addSubnet( subnet );
+        pooledStore.addHost( new Host( "printer", InetAddress.getByName( "192.168.1.11" ), mac( 99 ) ) );
+        pooledStore.open();
+
+        return pooledStore;
+    }
+
+
+    private static HardwareAddress mac( int client )
+    {
+        return new HardwareAddress( ( short ) 1, ( short ) 6, new byte[]
+            { 0x00, 0x16, 0x3e, 0x00, ( byte ) ( client >> 8 ), ( byte ) client } );
+    }
+
+
+    private Lease offer( int client, String requestedAddress ) throws Exception
+    {
+        InetAddress requested = ( requestedAddress != null ) ? InetAddress.getByName( requestedAddress ) : null;
+
+        return store.getLeaseOffer( mac( client ), requested, selectionBase, -1L, null );
+    }
+
+
+    private Lease request( int client, InetAddress address ) throws Exception
+    {
+        return store.getExistingLease( mac( client ), address, selectionBase, -1L, null );
+    }
+
+
+    @Test
+    public void testLeaseFromPool() throws Exception
+    {
+        Lease lease = offer( 1, null );
+
+        assertEquals( InetAddress.getByName( "192.168.1.10" ), lease.getClientAddress() );
+        assertEquals( Lease.STATE_OFFERED, lease.getState() );
+
+        // The same client gets the same offer
+        assertSame( lease, offer( 1, null ) );
+
+        Lease active = request( 1, lease.getClientAddress() );
+        assertSame( lease, active );
+        assertEquals( Lease.STATE_ACTIVE, active.getState() );
+
+        // The requested address is honored when it's free, the host address is never leased
+        assertEquals( InetAddress.getByName( "192.168.1.13" ), offer( 2, "192.168.1.13" ).getClientAddress() );
+        assertEquals( InetAddress.getByName( "192.168.1.12" ), offer( 3, "192.168.1.11" ).getClientAddress() );
+        assertEquals( InetAddress.getByName( "192.168.1.11" ), offer( 99, null ).getClientAddress() );
+
+        // The pool is exhausted
+        assertEquals( 0, store.getFreeAddressCount( subnet ) );
+        assertNull( offer( 4, null ) );
+
+        store.releaseLease( active );
+        assertEquals( 1, store.getFreeAddressCount( subnet ) );
+        assertEquals( InetAddress.getByName( "192.168.1.10" ), offer( 4, null ).getClientAddress() );
+    }
+
+
+    @Test
+    public void testExpiration() throws Exception
+    {
+        Lease lease = offer( 1, null );
+        offer( 2, null );
+        lease.setExpires( System.currentTimeMillis() + 1000L * 3600 * 3 );
+        store.updateLease( lease );
+
+        store.expireLeases( System.currentTimeMillis() + 1000L * 3600 * 2 );
+
+        assertEquals( 1, store.getLeaseCount() );
+        assertEquals( 2, store.getFreeAddressCount( subnet ) );
+        assertSame( lease, offer( 1, null ) );
+
+        store.expireLeases( System.currentTimeMillis() + 1000L * 3600 * 4 );
+
+        assertEquals( 0, store.getLeaseCount() );
+        assertEquals( Lease.STATE_EXPIRED, lease.getState() );
+        assertEquals( 3, store.getFreeAddressCount( subnet ) );
+    }
+
+
+    @Test
+    public void testRenewalWhileExpiring() throws Exception
+    {
+        Lease lease1 = offer( 1, null );
+        request( 1, lease1.getClientAddress() );
+        Lease lease2 = offer( 2, null );
+        request( 2, lease2.getClientAddress() );
+
+        // The leases expire while their clients renew them
+        store.expireLeases( System.currentTimeMillis() + 1000L * 3600 * 2 );
+        assertEquals( 0, store.getLeaseCount() );
+        assertEquals( 3, store.getFreeAddressCount( subnet ) );
+
+        // The address of the second lease is leased to another client meanwhile
+        assertEquals( lease2.getClientAddress(), offer( 3, "192.168.1.12" ).getClientAddress() );
+
+        lease1.setState( Lease.STATE_ACTIVE );
+        lease1.setExpires( System.currentTimeMillis() + 1000L * 3600 );
+        store.updateLease( lease1 );
+        lease2.setState( Lease.STATE_ACTIVE );
+        lease2.setExpires( System.currentTimeMillis() + 1000L * 3600 );
+        store.updateLease( lease2 );
+
+        // The renewed lease has taken its address again, the other one is lost
+        assertEquals( 2, store.getLeaseCount() );
+        assertEquals( 1, store.getFreeAddressCount( subnet ) );
+        assertSame( lease1, offer( 1, null ) );
+        assertEquals( InetAddress.getByName( "192.168.1.13" ), offer( 2, null ).getClientAddress() );
+        assertEquals( 0, store.getFreeAddressCount( subnet ) );
+    }
+
+
+    @Test
+    public void testRecovery() throws Exception
+    {
+        Lease lease1 = offer( 1, null );
+        request( 1, lease1.getClientAddress() );
+        Lease lease2 = offer( 2, null );
+        store.releaseLease( offer( 3, null ) );
+        store.close();
+
+        // A record partially written is ignored
+        try ( RandomAccessFile file = new RandomAccessFile( journalFile, "rw" ) )
+        {
+            file.seek( file.length() );
+            file.write( new byte[]
+                { 1, 0, 1, 0 } );
+        }
+
+        store = openStore();
+
+        // The journal has been compacted when opened
+        long compactedSize = journalFile.length();
+
+        assertEquals( 2, store.getLeaseCount() );
+        assertEquals( 1, store.getFreeAddressCount( subnet ) );
+
+        Lease recovered = offer( 1, null );
+        assertEquals( lease1.getClientAddress(), recovered.getClientAddress() );
+        assertEquals( Lease.STATE_ACTIVE, recovered.getState() );
+        assertEquals( lease1.getExpires(), recovered.getExpires() );
+        assertNotNull( request( 2, lease2.getClientAddress() ) );
+
+        // The renewals are appended, until the journal is compacted again
+        store.close();
+        assertTrue( journalFile.length() > compactedSize );
+        store = openStore();
+        assertEquals( compactedSize, journalFile.length() );
+        assertEquals( 2, store.getLeaseCount() );
+    }
+}
@@ -24,6 +24,7 @@ import java.io.IOException;
 
 import org.apache.directory.server.dns.protocol.DnsProtocolHandler;
 import org.apache.directory.server.dns.store.RecordStore;
+import org.apache.directory.server.dns.store.jndi.CachingRecordStore;
 import org.apache.directory.server.dns.store.jndi.JndiRecordStoreImpl;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -57,6 +58,9 @@ public class DnsServer extends DirectoryBackedService
     /** The default service name. */
     private static final String SERVICE_NAME_DEFAULT = "ApacheDS DNS Service";
 
+    /** The store caching the records, while the server is started */
+    private transient CachingRecordStore store;
+
 
     /**
      * Creates a new instance of DnsConfiguration.
@@ -73,7 +77,9 @@ public class DnsServer extends DirectoryBackedService
      */
     public void start() throws IOException
     {
-        RecordStore store = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(), getDirectoryService() );
+        RecordStore jndiStore = new JndiRecordStoreImpl( getSearchBaseDn(), getSearchBaseDn(),
+            getDirectoryService() );
+        store = new CachingRecordStore( jndiStore, getDirectoryService() );
 
         if ( ( transports == null ) || transports.isEmpty() )
         {
@@ -141,6 +147,12 @@ public class DnsServer extends DirectoryBackedService
             }
         }
 
+        if ( store != null )
+        {
+            store.close();
+            store = null;
+        }
+
         LOG.info( "DNS service stopped." );
     }
 
@@ -158,8 +158,43 @@ public class DnsMessageEncoder
     }
 
 
+    /**
+     * Encodes a {@link ResourceRecord} once, so that it can be written as is in
+     * the responses. The returned record holds the record's wire encoding.
+     *
+     * @param record The record to encode
+     * @return The encoded record
+     * @throws IOException If the record type can't be encoded
+     */
+    public EncodedResourceRecord encode( ResourceRecord record ) throws IOException
+    {
+        if ( record instanceof EncodedResourceRecord )
+        {
+            return ( EncodedResourceRecord ) record;
+        }
+
+        IoBuffer byteBuffer = IoBuffer.allocate( 64 );
+        byteBuffer.setAutoExpand( true );
+        put( byteBuffer, record );
+        byteBuffer.flip();
+
+        byte[] encoded = new byte[byteBuffer.remaining()];
+        byteBuffer.get( encoded );
+
+        return new EncodedResourceRecord( record, encoded );
+    }
+
+
     private void put( IoBuffer byteBuffer, ResourceRecord record ) throws IOException
     {
+        if ( record instanceof EncodedResourceRecord )
+        {
+            // Already encoded, there is nothing left to do but copying it
+            byteBuffer.put( ( ( EncodedResourceRecord ) record ).getEncoded() );
+
+            return;
+        }
+
         RecordType type = record.getRecordType();
 
         RecordEncoder encoder = DEFAULT_ENCODERS.get( type );
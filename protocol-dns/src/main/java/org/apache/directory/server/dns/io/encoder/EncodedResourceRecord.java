@@ -0,0 +1,151 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dns.io.encoder;
+
+
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+
+
+/**
+ * A {@link ResourceRecord} holding its RFC-1035 wire encoding, so that the
+ * {@link DnsMessageEncoder} copies it in the responses instead of encoding it
+ * again. The instances are created by {@link DnsMessageEncoder#encode(ResourceRecord)}.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public final class EncodedResourceRecord implements ResourceRecord
+{
+    /** The encoded record */
+    private final ResourceRecord record;
+
+    /** The record, as it is written in a DNS message */
+    private final byte[] encoded;
+
+
+    /**
+     * Creates a new instance of EncodedResourceRecord.
+     *
+     * @param record The encoded record
+     * @param encoded The record's wire encoding
+     */
+    EncodedResourceRecord( ResourceRecord record, byte[] encoded )
+    {
+        this.record = record;
+        this.encoded = encoded;
+    }
+
+
+    /**
+     * @return The record's wire encoding. It must not be modified.
+     */
+    byte[] getEncoded()
+    {
+        return encoded;
+    }
+
+
+    /**
+     * @return The record which has been encoded
+     */
+    public ResourceRecord getRecord()
+    {
+        return record;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String getDomainName()
+    {
+        return record.getDomainName();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecordType getRecordType()
+    {
+        return record.getRecordType();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecordClass getRecordClass()
+    {
+        return record.getRecordClass();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getTimeToLive()
+    {
+        return record.getTimeToLive();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public String get( String id )
+    {
+        return record.get( id );
+    }
+
+
+    public boolean equals( Object o )
+    {
+        if ( this == o )
+        {
+            return true;
+        }
+
+        if ( !( o instanceof EncodedResourceRecord ) )
+        {
+            return false;
+        }
+
+        return record.equals( ( ( EncodedResourceRecord ) o ).record );
+    }
+
+
+    /**
+     * Compute the instance hash code
+     * @return the instance's hash code
+     */
+    public int hashCode()
+    {
+        return record.hashCode();
+    }
+
+
+    public String toString()
+    {
+        return record.toString();
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dns.store.jndi;
+
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.util.Strings;
+import org.apache.directory.server.core.api.DirectoryService;
+import org.apache.directory.server.core.api.event.CacheInvalidationListener;
+import org.apache.directory.server.core.api.event.CacheInvalidations;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.io.encoder.DnsMessageEncoder;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.store.RecordStore;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+
+/**
+ * A RecordStore keeping in memory the answers another RecordStore gives, so that the
+ * authoritative answers don't need a search in the DIT. The answers are cached by
+ * question, with their records already encoded. The empty answers are kept in a
+ * separate, smaller cache, so that questions about unknown names can't evict the
+ * answers holding records.
+ * <p>
+ * A synchronous listener clears the cache each time a DNS record is added, deleted or
+ * modified, and each time an entry is renamed or moved. As the zones are read from a
+ * catalog, any part of the DIT may hold records : the listener is registered on the
+ * whole DIT.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStore implements RecordStore
+{
+    /** The default maximum number of cached answers */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+
+    /** The default maximum number of cached empty answers */
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 1000;
+
+    /** The prefix of the DNS record ObjectClasses, in lower case */
+    private static final String DNS_OBJECT_CLASS_PREFIX = "apachedns";
+
+    /** The store the answers are read from */
+    private final RecordStore delegate;
+
+    /** The cached answers holding records, by question. The domain names are in lower case */
+    private final Cache<QuestionRecord, Set<ResourceRecord>> answers;
+
+    /** The questions which have an empty answer. The domain names are in lower case */
+    private final Cache<QuestionRecord, Boolean> negativeAnswers;
+
+    /** The encoder used to encode the cached records */
+    private final DnsMessageEncoder encoder = new DnsMessageEncoder();
+
+    /** Counts the invalidations of the cache */
+    private final CacheInvalidations invalidations = new CacheInvalidations();
+
+    /** The listener invalidating the cache, null if the answers aren't cached */
+    private RecordChangeListener listener;
+
+
+    /**
+     * Creates a new instance of CachingRecordStore.
+     *
+     * @param delegate The store the answers are read from
+     * @param directoryService The DirectoryService holding the records
+     */
+    public CachingRecordStore( RecordStore delegate, DirectoryService directoryService )
+    {
+        this( delegate, directoryService.getEventService(), directoryService.getSchemaManager(),
+            DEFAULT_CACHE_SIZE, DEFAULT_NEGATIVE_CACHE_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of CachingRecordStore. Without event service, the answers
+     * are not cached.
+     *
+     * @param delegate The store the answers are read from
+     * @param eventService The event service notifying the changes of the records
+     * @param schemaManager The SchemaManager
+     * @param cacheSize The maximum number of cached answers holding records
+     * @param negativeCacheSize The maximum number of cached empty answers
+     */
+    public CachingRecordStore( RecordStore delegate, EventService eventService, SchemaManager schemaManager,
+        int cacheSize, int negativeCacheSize )
+    {
+        this.delegate = delegate;
+        answers = Caffeine.newBuilder().maximumSize( Math.max( cacheSize, 0 ) ).build();
+        negativeAnswers = Caffeine.newBuilder().maximumSize( Math.max( negativeCacheSize, 0 ) ).build();
+
+        if ( cacheSize > 0 )
+        {
+            listener = new RecordChangeListener();
+
+            if ( !listener.register( eventService, schemaManager, Dn.ROOT_DSE ) )
+            {
+                listener = null;
+            }
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+    {
+        if ( ( listener == null ) || ( question.getDomainName() == null ) )
+        {
+            return delegate.getRecords( question );
+        }
+
+        QuestionRecord key = new QuestionRecord( Strings.toLowerCaseAscii( question.getDomainName() ),
+            question.getRecordType(), question.getRecordClass() );
+        Set<ResourceRecord> records = answers.getIfPresent( key );
+
+        if ( records != null )
+        {
+            return records;
+        }
+
+        if ( negativeAnswers.getIfPresent( key ) != null )
+        {
+            return Collections.emptySet();
+        }
+
+        // An answer read while the cache is invalidated may be outdated : it's not cached
+        long invalidation = invalidations.get();
+        Set<ResourceRecord> encoded = encode( delegate.getRecords( question ) );
+
+        if ( encoded.isEmpty() )
+        {
+            invalidations.runIfUnchanged( invalidation, () -> negativeAnswers.put( key, Boolean.TRUE ) );
+        }
+        else
+        {
+            invalidations.runIfUnchanged( invalidation, () -> answers.put( key, encoded ) );
+        }
+
+        return encoded;
+    }
+
+
+    /**
+     * Removes the listener keeping the cache up to date, and clears the cache.
+     */
+    public void close()
+    {
+        if ( listener != null )
+        {
+            listener.unregister();
+            listener = null;
+        }
+
+        invalidateAll();
+    }
+
+
+    /**
+     * @return The number of cached answers, empty answers included
+     */
+    public long size()
+    {
+        answers.cleanUp();
+        negativeAnswers.cleanUp();
+
+        return answers.estimatedSize() + negativeAnswers.estimatedSize();
+    }
+
+
+    /**
+     * Encodes the records of an answer, which is then read only
+     */
+    private Set<ResourceRecord> encode( Set<ResourceRecord> records )
+    {
+        if ( ( records == null ) || records.isEmpty() )
+        {
+            return Collections.emptySet();
+        }
+
+        Set<ResourceRecord> encoded = new HashSet<>( records.size() );
+
+        for ( ResourceRecord record : records )
+        {
+            try
+            {
+                encoded.add( encoder.encode( record ) );
+            }
+            catch ( IOException ioe )
+            {
+                // The message encoder will report the error when sending the record
+                encoded.add( record );
+            }
+        }
+
+        return Collections.unmodifiableSet( encoded );
+    }
+
+
+    /**
+     * Removes all the answers from the cache
+     */
+    private void invalidateAll()
+    {
+        invalidations.invalidate( () ->
+        {
+            answers.invalidateAll();
+            negativeAnswers.invalidateAll();
+        } );
+    }
+
+
+    /**
+     * Tells if an entry is a DNS record
+     */
+    private static boolean isRecord( Entry entry )
+    {
+        if ( entry == null )
+        {
+            return false;
+        }
+
+        Attribute objectClasses = entry.get( SchemaConstants.OBJECT_CLASS_AT );
+
+        if ( objectClasses == null )
+        {
+            return false;
+        }
+
+        for ( Value value : objectClasses )
+        {
+            if ( Strings.toLowerCaseAscii( value.getString() ).startsWith( DNS_OBJECT_CLASS_PREFIX ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Invalidates the cached answers when a record is changed.
+     */
+    private class RecordChangeListener extends CacheInvalidationListener
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            if ( isRecord( addContext.getEntry() ) )
+            {
+                invalidateAll();
+            }
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            if ( isRecord( deleteContext.getEntry() ) )
+            {
+                invalidateAll();
+            }
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            if ( isRecord( modifyContext.getEntry() ) || isRecord( modifyContext.getAlteredEntry() ) )
+            {
+                invalidateAll();
+            }
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            invalidateAll();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dns.io.encoder;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+
+import org.apache.directory.server.dns.messages.DnsMessage;
+import org.apache.directory.server.dns.messages.DnsMessageModifier;
+import org.apache.directory.server.dns.messages.MessageType;
+import org.apache.directory.server.dns.messages.OpCode;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.messages.ResourceRecordModifier;
+import org.apache.directory.server.dns.messages.ResponseCode;
+import org.apache.directory.server.dns.store.DnsAttribute;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+
+/**
+ * Tests that the records encoded ahead are written as the other records.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EncodedResourceRecordTest
+{
+    private ResourceRecord createRecord()
+    {
+        ResourceRecordModifier modifier = new ResourceRecordModifier();
+        modifier.setDnsClass( RecordClass.IN );
+        modifier.setDnsName( "www.example.com" );
+        modifier.setDnsTtl( 100 );
+        modifier.setDnsType( RecordType.CNAME );
+        modifier.put( DnsAttribute.DOMAIN_NAME, "server.example.com" );
+
+        return modifier.getEntry();
+    }
+
+
+    private byte[] encodeMessage( ResourceRecord record )
+    {
+        DnsMessageModifier modifier = new DnsMessageModifier();
+        modifier.setTransactionId( 1 );
+        modifier.setMessageType( MessageType.RESPONSE );
+        modifier.setOpCode( OpCode.QUERY );
+        modifier.setResponseCode( ResponseCode.NO_ERROR );
+        modifier.setAnswerRecords( Collections.singletonList( record ) );
+        DnsMessage message = modifier.getDnsMessage();
+
+        IoBuffer buffer = IoBuffer.allocate( 128 );
+        new DnsMessageEncoder().encode( buffer, message );
+        buffer.flip();
+
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get( bytes );
+
+        return bytes;
+    }
+
+
+    @Test
+    public void testEncode() throws Exception
+    {
+        ResourceRecord record = createRecord();
+        EncodedResourceRecord encoded = new DnsMessageEncoder().encode( record );
+
+        IoBuffer expected = IoBuffer.allocate( 128 );
+        new CanonicalNameRecordEncoder().put( expected, record );
+        expected.flip();
+        byte[] expectedBytes = new byte[expected.remaining()];
+        expected.get( expectedBytes );
+
+        assertArrayEquals( expectedBytes, encoded.getEncoded() );
+        assertSame( record, encoded.getRecord() );
+        assertEquals( record.getDomainName(), encoded.getDomainName() );
+        assertEquals( "server.example.com", encoded.get( DnsAttribute.DOMAIN_NAME ) );
+
+        // An encoded record is not encoded again
+        assertSame( encoded, new DnsMessageEncoder().encode( encoded ) );
+    }
+
+
+    @Test
+    public void testEncodeMessage() throws Exception
+    {
+        ResourceRecord record = createRecord();
+
+        assertArrayEquals( encodeMessage( record ), encodeMessage( new DnsMessageEncoder().encode( record ) ) );
+    }
+}
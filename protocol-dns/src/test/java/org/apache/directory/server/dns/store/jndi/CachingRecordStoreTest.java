@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *  
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License. 
+ *  
+ */
+
+package org.apache.directory.server.dns.store.jndi;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.server.core.api.event.DirectoryListener;
+import org.apache.directory.server.core.api.event.EventService;
+import org.apache.directory.server.core.api.event.NotificationCriteria;
+import org.apache.directory.server.core.api.event.RegistrationEntry;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.dns.DnsException;
+import org.apache.directory.server.dns.io.encoder.EncodedResourceRecord;
+import org.apache.directory.server.dns.messages.QuestionRecord;
+import org.apache.directory.server.dns.messages.RecordClass;
+import org.apache.directory.server.dns.messages.RecordType;
+import org.apache.directory.server.dns.messages.ResourceRecord;
+import org.apache.directory.server.dns.store.RecordStoreStub;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link CachingRecordStore} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CachingRecordStoreTest
+{
+    /** The number of questions the delegate store has answered */
+    private int reads;
+
+    /** The listener registered by the store */
+    private DirectoryListener listener;
+
+    private CachingRecordStore store;
+
+
+    @Before
+    public void createStore()
+    {
+        reads = 0;
+        listener = null;
+
+        RecordStoreStub delegate = new RecordStoreStub()
+        {
+            @Override
+            public Set<ResourceRecord> getRecords( QuestionRecord question ) throws DnsException
+            {
+                reads++;
+
+                if ( question.getDomainName().startsWith( "unknown" ) )
+                {
+                    return Collections.emptySet();
+                }
+
+                return super.getRecords( question );
+            }
+        };
+
+        EventService eventService = new EventService()
+        {
+            public void addListener( DirectoryListener directoryListener, NotificationCriteria criteria )
+            {
+                listener = directoryListener;
+            }
+
+
+            public void removeListener( DirectoryListener directoryListener )
+            {
+                listener = null;
+            }
+
+
+            public List<RegistrationEntry> getRegistrationEntries()
+            {
+                return Collections.emptyList();
+            }
+        };
+
+        store = new CachingRecordStore( delegate, eventService, null, 10, 5 );
+    }
+
+
+    @Test
+    public void testCachedAnswer() throws Exception
+    {
+        Set<ResourceRecord> records = store.getRecords( new QuestionRecord( "www.example.com", RecordType.A,
+            RecordClass.IN ) );
+
+        assertEquals( 2, records.size() );
+        assertTrue( records.iterator().next() instanceof EncodedResourceRecord );
+
+        // The domain names are case insensitive
+        assertSame( records, store.getRecords( new QuestionRecord( "WWW.Example.com", RecordType.A,
+            RecordClass.IN ) ) );
+        assertEquals( 1, reads );
+        assertEquals( 1, store.size() );
+
+        store.getRecords( new QuestionRecord( "www.example.com", RecordType.MX, RecordClass.IN ) );
+        assertEquals( 2, reads );
+        assertEquals( 2, store.size() );
+    }
+
+
+    @Test
+    public void testInvalidation() throws Exception
+    {
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+        store.getRecords( question );
+
+        // Adding an entry which is not a record keeps the cache
+        listener.entryAdded( new AddOperationContext( null, new DefaultEntry( "cn=test,ou=system",
+            "objectClass: person", "cn: test", "sn: test" ) ) );
+        store.getRecords( question );
+        assertEquals( 1, reads );
+
+        // Adding a record clears it
+        listener.entryAdded( new AddOperationContext( null, new DefaultEntry( "apacheDnsName=mail,ou=system",
+            "objectClass: apacheDnsAddressRecord", "apacheDnsName: mail" ) ) );
+        assertEquals( 0, store.size() );
+        store.getRecords( question );
+        assertEquals( 2, reads );
+
+        // The store doesn't listen to the changes once closed
+        store.close();
+        assertNull( listener );
+        store.getRecords( question );
+        store.getRecords( question );
+        assertEquals( 4, reads );
+    }
+
+
+    @Test
+    public void testCacheSize() throws Exception
+    {
+        for ( int i = 0; i < 15; i++ )
+        {
+            store.getRecords( new QuestionRecord( "host" + i + ".example.com", RecordType.A, RecordClass.IN ) );
+        }
+
+        assertTrue( store.size() <= 10 );
+        assertEquals( 15, reads );
+    }
+
+
+    @Test
+    public void testNegativeCacheSize() throws Exception
+    {
+        QuestionRecord question = new QuestionRecord( "www.example.com", RecordType.A, RecordClass.IN );
+        store.getRecords( question );
+
+        // The questions about unknown names don't evict the answers holding records
+        for ( int i = 0; i < 50; i++ )
+        {
+            assertTrue( store.getRecords( new QuestionRecord( "unknown" + i + ".example.com", RecordType.A,
+                RecordClass.IN ) ).isEmpty() );
+        }
+
+        assertTrue( store.size() <= 6 );
+        assertEquals( 51, reads );
+
+        store.getRecords( question );
+        assertEquals( 51, reads );
+
+        // An empty answer is cached
+        QuestionRecord unknown = new QuestionRecord( "unknown.example.com", RecordType.A, RecordClass.IN );
+        store.getRecords( unknown );
+        store.getRecords( unknown );
+        assertEquals( 52, reads );
+    }
+}
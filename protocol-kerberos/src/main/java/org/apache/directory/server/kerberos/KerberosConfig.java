@@ -80,6 +80,12 @@ public class KerberosConfig
     public static final String[] DEFAULT_ENCRYPTION_TYPES = new String[]
         { "aes128-cts-hmac-sha1-96", "des-cbc-md5", "des3-cbc-sha1-kd" };
 
+    /** The default maximum number of principals kept in the KDC cache */
+    public static final int DEFAULT_PRINCIPAL_CACHE_SIZE = 10000;
+
+    /** The default time a principal is kept in the KDC cache (5 minutes) */
+    public static final long DEFAULT_PRINCIPAL_CACHE_TTL = 5L * 60000L;
+
     /** The primary realm */
     private String primaryRealm = KerberosConfig.DEFAULT_REALM;
 
@@ -122,6 +128,12 @@ public class KerberosConfig
     /** The encryption types. */
     private Set<EncryptionType> encryptionTypes;
 
+    /** The maximum number of principals kept in the KDC cache, 0 to disable it. */
+    private int principalCacheSize = KerberosConfig.DEFAULT_PRINCIPAL_CACHE_SIZE;
+
+    /** The time a principal is kept in the KDC cache, in milliseconds. */
+    private long principalCacheTtl = KerberosConfig.DEFAULT_PRINCIPAL_CACHE_TTL;
+
     /* cached kerberos/changepassword service principal */
     private KerberosPrincipal srvPrincipal;
 
@@ -419,6 +431,42 @@ public class KerberosConfig
     }
 
 
+    /**
+     * @return The maximum number of principals kept in the KDC cache, 0 if the cache is disabled
+     */
+    public int getPrincipalCacheSize()
+    {
+        return principalCacheSize;
+    }
+
+
+    /**
+     * @param principalCacheSize The maximum number of principals kept in the KDC cache, 0 to disable it
+     */
+    public void setPrincipalCacheSize( int principalCacheSize )
+    {
+        this.principalCacheSize = principalCacheSize;
+    }
+
+
+    /**
+     * @return The time a principal is kept in the KDC cache, in milliseconds
+     */
+    public long getPrincipalCacheTtl()
+    {
+        return principalCacheTtl;
+    }
+
+
+    /**
+     * @param principalCacheTtl The time a principal is kept in the KDC cache, in milliseconds
+     */
+    public void setPrincipalCacheTtl( long principalCacheTtl )
+    {
+        this.principalCacheTtl = principalCacheTtl;
+    }
+
+
     public long getMinimumTicketLifetime()
     {
         return minimumTicketLifetime;
@@ -20,6 +20,11 @@
 package org.apache.directory.server.kerberos.kdc;
 
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import javax.security.auth.kerberos.KerberosPrincipal;
 
 import org.apache.directory.api.ldap.model.constants.AuthenticationLevel;
@@ -30,14 +35,24 @@ import org.apache.directory.api.ldap.model.entry.DefaultModification;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
 import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.constants.ServerDNConstants;
 import org.apache.directory.server.core.api.CoreSession;
 import org.apache.directory.server.core.api.DirectoryService;
 import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.event.CacheInvalidationListener;
+import org.apache.directory.server.core.api.event.CacheInvalidations;
+import org.apache.directory.server.core.api.interceptor.context.AddOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.DeleteOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.ModifyOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveAndRenameOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.MoveOperationContext;
+import org.apache.directory.server.core.api.interceptor.context.RenameOperationContext;
 import org.apache.directory.server.core.shared.DefaultCoreSession;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswdErrorType;
 import org.apache.directory.server.kerberos.changepwd.exceptions.ChangePasswordException;
@@ -47,21 +62,48 @@ import org.apache.directory.server.protocol.shared.kerberos.GetPrincipal;
 import org.apache.directory.server.protocol.shared.kerberos.StoreUtils;
 import org.apache.directory.shared.kerberos.KerberosAttribute;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 
 /**
  * A PrincipalStore backing entries in a DirectoryService.
- * 
+ * <br>
+ * The principals may be kept in a cache, bounded in size and in time. A listener registered
+ * on the search base removes a principal from the cache as soon as its entry is added,
+ * deleted, or modified in one of the attributes the principal is read from. A renamed or
+ * moved entry clears the whole cache, as the entries below it are moved too.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DirectoryPrincipalStore implements PrincipalStore
 {
+    /** The names of the attributes a principal is read from, in lower case */
+    private static final Set<String> PRINCIPAL_ATTRIBUTES = new HashSet<>( Arrays.asList(
+        Strings.toLowerCaseAscii( SchemaConstants.OBJECT_CLASS_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_KEY_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_KEY_VERSION_NUMBER_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_ACCOUNT_DISABLED_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_ACCOUNT_LOCKEDOUT_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.KRB5_ACCOUNT_EXPIRATION_TIME_AT ),
+        Strings.toLowerCaseAscii( KerberosAttribute.APACHE_SAM_TYPE_AT ) ) );
+
     /** The directory service backing store for this PrincipalStore. */
     private final DirectoryService directoryService;
     private final Dn searchBaseDn;
 
     private CoreSession adminSession;
 
+    /** The cached principals, by principal name. Null if the cache is disabled */
+    private final Cache<String, PrincipalStoreEntry> principalCache;
+
+    /** Counts the invalidations of the cache */
+    private final CacheInvalidations invalidations = new CacheInvalidations();
+
+    /** The listener invalidating the cache, if it has been registered */
+    private PrincipalChangeListener listener;
+
 
     /**
      * Creates a new instance of DirectoryPrincipalStore.
@@ -70,10 +112,63 @@ public class DirectoryPrincipalStore implements PrincipalStore
      * @param searchBaseDn The Search Base DN
      */
     public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn )
+    {
+        this( directoryService, searchBaseDn, 0, 0L );
+    }
+
+
+    /**
+     * Creates a new instance of DirectoryPrincipalStore caching the principals.
+     *
+     * @param directoryService backing store for this PrincipalStore
+     * @param searchBaseDn The Search Base DN
+     * @param cacheSize The maximum number of cached principals, 0 to disable the cache
+     * @param cacheTtl The time a principal is cached, in milliseconds
+     */
+    public DirectoryPrincipalStore( DirectoryService directoryService, Dn searchBaseDn, int cacheSize,
+        long cacheTtl )
     {
         this.directoryService = directoryService;
         this.adminSession = directoryService.getAdminSession();
         this.searchBaseDn = searchBaseDn;
+
+        Cache<String, PrincipalStoreEntry> cache = null;
+
+        if ( ( cacheSize > 0 ) && ( cacheTtl > 0L ) )
+        {
+            listener = new PrincipalChangeListener();
+
+            if ( listener.register( directoryService.getEventService(), directoryService.getSchemaManager(),
+                searchBaseDn ) )
+            {
+                cache = Caffeine.newBuilder().maximumSize( cacheSize )
+                    .expireAfterWrite( Duration.ofMillis( cacheTtl ) ).build();
+            }
+            else
+            {
+                listener = null;
+            }
+        }
+
+        principalCache = cache;
+    }
+
+
+    /**
+     * Removes the listener keeping the principal cache up to date, and clears the cache.
+     */
+    public void close()
+    {
+        if ( listener != null )
+        {
+            listener.unregister();
+            listener = null;
+        }
+
+        if ( principalCache != null )
+        {
+            invalidateAll();
+        }
     }
 
 
@@ -153,6 +248,146 @@ public class DirectoryPrincipalStore implements PrincipalStore
      */
     public PrincipalStoreEntry getPrincipal( KerberosPrincipal principal ) throws Exception
     {
-        return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        if ( ( principalCache == null ) || ( principal == null ) )
+        {
+            return ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession, searchBaseDn );
+        }
+
+        String principalName = principal.getName();
+        PrincipalStoreEntry entry = principalCache.getIfPresent( principalName );
+
+        if ( entry != null )
+        {
+            return entry;
+        }
+
+        // An entry read while the cache is invalidated may be outdated : it's not cached
+        long invalidation = invalidations.get();
+        PrincipalStoreEntry readEntry = ( PrincipalStoreEntry ) new GetPrincipal( principal ).execute( adminSession,
+            searchBaseDn );
+
+        // The missing principals are not cached, an entry may become a principal when modified
+        if ( readEntry != null )
+        {
+            invalidations.runIfUnchanged( invalidation, () -> principalCache.put( principalName, readEntry ) );
+        }
+
+        return readEntry;
+    }
+
+
+    /**
+     * Removes the principals an entry holds from the cache
+     */
+    private void invalidate( Entry entry )
+    {
+        if ( entry == null )
+        {
+            return;
+        }
+
+        Attribute principalNames = entry.get( KerberosAttribute.KRB5_PRINCIPAL_NAME_AT );
+
+        invalidations.invalidate( () ->
+        {
+            if ( principalNames != null )
+            {
+                for ( Value value : principalNames )
+                {
+                    principalCache.invalidate( value.getString() );
+                }
+            }
+        } );
+    }
+
+
+    /**
+     * Removes all the principals from the cache
+     */
+    private void invalidateAll()
+    {
+        invalidations.invalidate( principalCache::invalidateAll );
+    }
+
+
+    /**
+     * Tells if a modification applies to an attribute a principal is read from
+     */
+    private static boolean isPrincipalModification( Modification modification )
+    {
+        Attribute attribute = modification.getAttribute();
+        AttributeType attributeType = attribute.getAttributeType();
+
+        if ( attributeType == null )
+        {
+            return PRINCIPAL_ATTRIBUTES.contains( Strings.toLowerCaseAscii( attribute.getUpId() ) );
+        }
+
+        for ( String name : attributeType.getNames() )
+        {
+            if ( PRINCIPAL_ATTRIBUTES.contains( Strings.toLowerCaseAscii( name ) ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Invalidates the cached principals when their entries are changed.
+     */
+    private class PrincipalChangeListener extends CacheInvalidationListener
+    {
+        @Override
+        public void entryAdded( AddOperationContext addContext )
+        {
+            invalidate( addContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryDeleted( DeleteOperationContext deleteContext )
+        {
+            invalidate( deleteContext.getEntry() );
+        }
+
+
+        @Override
+        public void entryModified( ModifyOperationContext modifyContext )
+        {
+            for ( Modification modification : modifyContext.getModItems() )
+            {
+                if ( isPrincipalModification( modification ) )
+                {
+                    invalidate( modifyContext.getEntry() );
+                    invalidate( modifyContext.getAlteredEntry() );
+
+                    return;
+                }
+            }
+        }
+
+
+        @Override
+        public void entryRenamed( RenameOperationContext renameContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMoved( MoveOperationContext moveContext )
+        {
+            invalidateAll();
+        }
+
+
+        @Override
+        public void entryMovedAndRenamed( MoveAndRenameOperationContext moveAndRenameContext )
+        {
+            invalidateAll();
+        }
     }
 }
@@ -30,7 +30,6 @@ import org.apache.directory.server.kerberos.protocol.KerberosProtocolHandler;
 import org.apache.directory.server.kerberos.protocol.codec.KerberosProtocolCodecFactory;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCache;
 import org.apache.directory.server.kerberos.shared.replay.ReplayCacheImpl;
-import org.apache.directory.server.kerberos.shared.store.PrincipalStore;
 import org.apache.directory.server.protocol.shared.DirectoryBackedService;
 import org.apache.directory.server.protocol.shared.transport.TcpTransport;
 import org.apache.directory.server.protocol.shared.transport.Transport;
@@ -68,6 +67,9 @@ public class KdcServer extends DirectoryBackedService
 
     private ChangePasswordServer changePwdServer;
 
+    /** The store the principals are read from */
+    private DirectoryPrincipalStore store;
+
 
     /**
      * Creates a new instance of KdcServer with the default configuration.
@@ -106,9 +108,8 @@ public class KdcServer extends DirectoryBackedService
      */
     public void start() throws IOException, LdapInvalidDnException
     {
-        PrincipalStore store;
-
-        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ) );
+        store = new DirectoryPrincipalStore( getDirectoryService(), new Dn( this.getSearchBaseDn() ),
+            config.getPrincipalCacheSize(), config.getPrincipalCacheTtl() );
 
         LOG.debug( "initializing the kerberos replay cache" );
 
@@ -188,6 +189,12 @@ public class KdcServer extends DirectoryBackedService
             replayCache.clear();
         }
 
+        if ( store != null )
+        {
+            store.close();
+            store = null;
+        }
+
         LOG.info( "Kerberos service stopped." );
 
         if ( changePwdServer != null )
@@ -144,6 +144,12 @@ public class LdapServer extends DirectoryBackedService
     /** The default maximum time limit. */
     private static final int MAX_TIME_LIMIT_DEFAULT = 10000;
 
+    /** The default number of bytes waiting to be sent above which a search is suspended */
+    public static final long SEARCH_WRITE_HIGH_WATERMARK_DEFAULT = 1024L * 1024L;
+
+    /** The default number of bytes waiting to be sent below which a suspended search is resumed */
+    public static final long SEARCH_WRITE_LOW_WATERMARK_DEFAULT = 256L * 1024L;
+
     /** The default service pid. */
     private static final String SERVICE_PID_DEFAULT = "org.apache.directory.server.ldap";
 
@@ -171,6 +177,12 @@ public class LdapServer extends DirectoryBackedService
     /** The maximum size for an incoming PDU */
     private int maxPDUSize = Integer.MAX_VALUE;
 
+    /** The number of bytes waiting to be sent to a client above which a search is suspended */
+    private long searchWriteHighWatermark = SEARCH_WRITE_HIGH_WATERMARK_DEFAULT;
+
+    /** The number of bytes waiting to be sent to a client below which a suspended search is resumed */
+    private long searchWriteLowWatermark = SEARCH_WRITE_LOW_WATERMARK_DEFAULT;
+
     /** If LDAPS is activated : the external Keystore file, if defined */
     private String keystoreFile;
 
@@ -1675,6 +1687,56 @@ public class LdapServer extends DirectoryBackedService
     }
 
 
+    /**
+     * @return The number of bytes waiting to be sent to a client above which the searches
+     * of this client are suspended
+     */
+    public long getSearchWriteHighWatermark()
+    {
+        return searchWriteHighWatermark;
+    }
+
+
+    /**
+     * Set the number of bytes waiting to be sent to a client above which the searches of
+     * this client are suspended, until the client has read enough responses.
+     * 
+     * @param searchWriteHighWatermark A number of bytes. A negative or null value disables
+     * the suspension of the searches
+     */
+    public void setSearchWriteHighWatermark( long searchWriteHighWatermark )
+    {
+        this.searchWriteHighWatermark = searchWriteHighWatermark;
+    }
+
+
+    /**
+     * @return The number of bytes waiting to be sent to a client below which the suspended
+     * searches of this client are resumed
+     */
+    public long getSearchWriteLowWatermark()
+    {
+        return searchWriteLowWatermark;
+    }
+
+
+    /**
+     * Set the number of bytes waiting to be sent to a client below which the suspended
+     * searches of this client are resumed
+     * 
+     * @param searchWriteLowWatermark A number of bytes, lower than the high watermark
+     */
+    public void setSearchWriteLowWatermark( long searchWriteLowWatermark )
+    {
+        if ( searchWriteLowWatermark < 0L )
+        {
+            searchWriteLowWatermark = 0L;
+        }
+
+        this.searchWriteLowWatermark = searchWriteLowWatermark;
+    }
+
+
     /**
      * @return the number of seconds pinger thread sleeps between subsequent pings
      */
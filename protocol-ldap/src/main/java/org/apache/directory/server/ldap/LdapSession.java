@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -96,6 +97,18 @@ public class LdapSession
     /** A map containing all the paged search context */
     private Map<Integer, PagedSearchContext> pagedSearchContexts;
 
+    /** The lock used to wait for the write queue to drain */
+    private final Object writeQueueLock = new Object();
+
+    /** The number of threads waiting for the write queue to drain */
+    private volatile int writeQueueWaiters;
+
+    /** The highest number of bytes waiting in the write queue seen while waiting for it to drain */
+    private volatile long peakScheduledWriteBytes;
+
+    /** The maximum delay between two checks of the write queue, in milliseconds */
+    private static final long WRITE_QUEUE_CHECK_DELAY = 100L;
+
 
     /**
      * Creates a new instance of LdapSession associated with the underlying
@@ -581,6 +594,112 @@ public class LdapSession
     }
 
 
+    /**
+     * @return The number of bytes written to the client but not yet sent
+     */
+    public long getScheduledWriteBytes()
+    {
+        return ioSession.getScheduledWriteBytes();
+    }
+
+
+    /**
+     * @return The highest number of bytes scheduled for writing seen by
+     * {@link #awaitWriteQueue(long, long, long)}
+     */
+    public long getPeakScheduledWriteBytes()
+    {
+        return peakScheduledWriteBytes;
+    }
+
+
+    /**
+     * Waits for the client to read the responses already written, when the number of bytes
+     * waiting to be sent exceeds a high watermark. The method returns when this number goes
+     * below the low watermark, or when the session is closed. The wait is bounded by a
+     * timeout, so that a client which stops reading can't hold the request forever.
+     *
+     * @param highWatermark The number of bytes above which we wait, 0 or less to never wait
+     * @param lowWatermark The number of bytes below which we stop waiting
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return <code>false</code> if the session has been closed
+     * @throws InterruptedException If the thread has been interrupted while waiting
+     * @throws TimeoutException If the number of bytes waiting to be sent is still above the
+     * low watermark once the timeout has expired
+     */
+    public boolean awaitWriteQueue( long highWatermark, long lowWatermark, long timeout )
+        throws InterruptedException, TimeoutException
+    {
+        long scheduled = ioSession.getScheduledWriteBytes();
+
+        if ( ( highWatermark <= 0L ) || ( scheduled <= highWatermark ) )
+        {
+            return true;
+        }
+
+        if ( scheduled > peakScheduledWriteBytes )
+        {
+            peakScheduledWriteBytes = scheduled;
+        }
+
+        if ( IS_DEBUG )
+        {
+            LOG.debug( "{} bytes waiting to be sent to {}, suspending the writes", scheduled, this );
+        }
+
+        long start = System.currentTimeMillis();
+
+        synchronized ( writeQueueLock )
+        {
+            writeQueueWaiters++;
+
+            try
+            {
+                while ( ioSession.getScheduledWriteBytes() > lowWatermark )
+                {
+                    if ( ioSession.isClosing() )
+                    {
+                        return false;
+                    }
+
+                    long remaining = timeout - ( System.currentTimeMillis() - start );
+
+                    if ( remaining <= 0L )
+                    {
+                        throw new TimeoutException( "The responses have not been read by " + this + " within "
+                            + timeout + "ms" );
+                    }
+
+                    // The wait is bounded, as we may miss the closure of the session
+                    writeQueueLock.wait( Math.min( remaining, WRITE_QUEUE_CHECK_DELAY ) );
+                }
+            }
+            finally
+            {
+                writeQueueWaiters--;
+            }
+        }
+
+        return !ioSession.isClosing();
+    }
+
+
+    /**
+     * Signals that a message has been sent to the client, waking up the threads waiting
+     * for the write queue to drain.
+     */
+    public void messageSent()
+    {
+        if ( writeQueueWaiters > 0 )
+        {
+            synchronized ( writeQueueLock )
+            {
+                writeQueueLock.notifyAll();
+            }
+        }
+    }
+
+
     /**
      * The principal and remote address associated with this session.
      * @see Object#toString()
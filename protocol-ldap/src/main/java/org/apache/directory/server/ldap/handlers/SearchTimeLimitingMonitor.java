@@ -68,6 +68,15 @@ public class SearchTimeLimitingMonitor implements ClosureMonitor
     }
 
 
+    /**
+     * @return The time, in milliseconds, at which the monitor closes
+     */
+    public long getDeadline()
+    {
+        return startTime + millisToLive;
+    }
+
+
     /**
      * {@inheritDoc}
      */
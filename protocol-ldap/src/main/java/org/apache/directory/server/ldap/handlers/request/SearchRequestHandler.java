@@ -27,6 +27,7 @@ import static org.apache.directory.server.ldap.LdapServer.NO_TIME_LIMIT;
 import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
@@ -38,6 +39,7 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Value;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOperationException;
+import org.apache.directory.api.ldap.model.exception.LdapTimeLimitExceededException;
 import org.apache.directory.api.ldap.model.exception.LdapURLEncodingException;
 import org.apache.directory.api.ldap.model.exception.OperationAbandonedException;
 import org.apache.directory.api.ldap.model.filter.EqualityNode;
@@ -101,6 +103,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG.isDebugEnabled();
 
+    /** The deadline of the searches without time limit */
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
     /** The replication handler */
     protected ReplicationRequestHandler replicationReqHandler;
 
@@ -290,14 +295,15 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
      * @param req the {@link SearchRequest} issued
      * @param session the {@link LdapSession} on which search was requested
      * @param cursor the {@link EntryFilteringCursor} over the search results
+     * @return The time, in milliseconds, at which the search must end, or NO_DEADLINE
      */
-    private void setTimeLimitsOnCursor( SearchRequest req, LdapSession session,
+    private long setTimeLimitsOnCursor( SearchRequest req, LdapSession session,
         final Cursor<Entry> cursor )
     {
         // Don't bother setting time limits for administrators
         if ( session.getCoreSession().isAnAdministrator() && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return NO_DEADLINE;
         }
 
         /*
@@ -307,9 +313,11 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( ldapServer.getMaxTimeLimit() == NO_TIME_LIMIT && req.getTimeLimit() == NO_TIME_LIMIT )
         {
-            return;
+            return NO_DEADLINE;
         }
 
+        SearchTimeLimitingMonitor monitor;
+
         /*
          * If the non-administrator user specifies unlimited time but the server
          * is configured to limit the search time then we limit by the max time
@@ -317,8 +325,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          */
         if ( req.getTimeLimit() == 0 )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            monitor = new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS );
         }
 
         /*
@@ -326,10 +333,9 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          * less than the maximum limit configured in the server then we
          * constrain search by the amount specified in the request
          */
-        if ( ldapServer.getMaxTimeLimit() >= req.getTimeLimit() )
+        else if ( ldapServer.getMaxTimeLimit() >= req.getTimeLimit() )
         {
-            cursor.setClosureMonitor( new SearchTimeLimitingMonitor( req.getTimeLimit(), TimeUnit.SECONDS ) );
-            return;
+            monitor = new SearchTimeLimitingMonitor( req.getTimeLimit(), TimeUnit.SECONDS );
         }
 
         /*
@@ -337,7 +343,14 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
          * than what the server's configured maximum limit allows so we limit
          * the search to the configured limit
          */
-        cursor.setClosureMonitor( new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS ) );
+        else
+        {
+            monitor = new SearchTimeLimitingMonitor( ldapServer.getMaxTimeLimit(), TimeUnit.SECONDS );
+        }
+
+        cursor.setClosureMonitor( monitor );
+
+        return monitor.getDeadline();
     }
 
 
@@ -372,7 +385,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
 
     private void writeResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
-        Cursor<Entry> cursor, long sizeLimit ) throws Exception
+        Cursor<Entry> cursor, long sizeLimit, long deadline ) throws Exception
     {
         long count = 0;
 
@@ -413,6 +426,18 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             }
 
             count++;
+
+            // Don't read the next entries while the client is not reading the previous ones
+            if ( !awaitWriteQueue( session, deadline ) )
+            {
+                if ( IS_DEBUG )
+                {
+                    LOG.debug( "Request terminated for message {}, the client has closed the session",
+                        req.getMessageId() );
+                }
+
+                break;
+            }
         }
 
         // check if the result code is not already set
@@ -435,12 +460,55 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
     }
 
 
+    /**
+     * Waits for the client to read the responses already written if too many bytes
+     * are waiting to be sent. The wait ends with the time limit of the search, or with
+     * the write timeout of the session if the search has no time limit : the search is
+     * then abandoned.
+     *
+     * @param session the LdapSession for which this search is conducted
+     * @param deadline The time, in milliseconds, at which the search must end
+     * @return <code>false</code> if the session has been closed
+     * @throws LdapOperationException If the client has not read the responses in time
+     */
+    private boolean awaitWriteQueue( LdapSession session, long deadline )
+        throws InterruptedException, LdapOperationException
+    {
+        long timeout;
+
+        if ( deadline == NO_DEADLINE )
+        {
+            long writeTimeout = session.getIoSession().getConfig().getWriteTimeoutInMillis();
+            timeout = writeTimeout > 0L ? writeTimeout : Long.MAX_VALUE;
+        }
+        else
+        {
+            timeout = deadline - System.currentTimeMillis();
+        }
+
+        try
+        {
+            return session.awaitWriteQueue( ldapServer.getSearchWriteHighWatermark(),
+                ldapServer.getSearchWriteLowWatermark(), timeout );
+        }
+        catch ( TimeoutException te )
+        {
+            if ( deadline == NO_DEADLINE )
+            {
+                throw new LdapOperationException( ResultCodeEnum.BUSY, te.getMessage(), te );
+            }
+
+            throw new LdapTimeLimitExceededException( te.getMessage() );
+        }
+    }
+
+
     private void readPagedResults( LdapSession session, SearchRequest req, LdapResult ldapResult,
         Cursor<Entry> cursor, long sizeLimit, int pagedLimit, PagedSearchContext pagedContext,
         PagedResults pagedResultsControl ) throws Exception
     {
         req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
-        setTimeLimitsOnCursor( req, session, cursor );
+        long deadline = setTimeLimitsOnCursor( req, session, cursor );
 
         if ( IS_DEBUG )
         {
@@ -463,6 +531,11 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             session.getIoSession().write( generateResponse( session, req, entry ) );
             count++;
             pageCount++;
+
+            if ( !awaitWriteQueue( session, deadline ) )
+            {
+                break;
+            }
         }
 
         // DO NOT WRITE THE RESPONSE - JUST RETURN IT
@@ -649,7 +722,8 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
                 try
                 {
                     // And write the entries
-                    writeResults( session, req, ldapResult, cursor, sizeLimit );
+                    long deadline = setTimeLimitsOnCursor( req, session, cursor );
+                    writeResults( session, req, ldapResult, cursor, sizeLimit, deadline );
                 }
                 finally
                 {
@@ -815,7 +889,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
             long requestLimit = req.getSizeLimit() == 0L ? Long.MAX_VALUE : req.getSizeLimit();
 
             req.addAbandonListener( new SearchAbandonListener( ldapServer, cursor ) );
-            setTimeLimitsOnCursor( req, session, cursor );
+            long deadline = setTimeLimitsOnCursor( req, session, cursor );
 
             if ( IS_DEBUG )
             {
@@ -824,7 +898,7 @@ public class SearchRequestHandler extends LdapRequestHandler<SearchRequest>
 
             long sizeLimit = min( requestLimit, serverLimit );
 
-            writeResults( session, req, ldapResult, cursor, sizeLimit );
+            writeResults( session, req, ldapResult, cursor, sizeLimit, deadline );
         }
         finally
         {
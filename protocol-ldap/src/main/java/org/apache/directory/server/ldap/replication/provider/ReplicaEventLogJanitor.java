@@ -20,20 +20,19 @@
 package org.apache.directory.server.ldap.replication.provider;
 
 
-import java.io.File;
 import java.util.Map;
 
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.csn.Csn;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.server.core.api.DirectoryService;
-import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Deletes old entries from the replication event logs that are configured in refreshNPersist mode.
+ * Removes the idle replication event logs, and deletes old entries from the replication journal
+ * shared by the consumers. The purge is driven by the slowest consumer : only the entries older
+ * than the last CSN sent to all the consumers can be deleted.
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -45,6 +44,9 @@ public class ReplicaEventLogJanitor extends Thread
 
     private Map<Integer, ReplicaEventLog> replicaLogMap;
 
+    /** The replication journal shared by the consumers */
+    private ReplicationJournal journal;
+
     private volatile boolean stop = false;
 
     /** A lock used to wait */
@@ -57,12 +59,14 @@ public class ReplicaEventLogJanitor extends Thread
 
 
     public ReplicaEventLogJanitor( final DirectoryService directoryService,
-        final Map<Integer, ReplicaEventLog> replicaLogMap )
+        final Map<Integer, ReplicaEventLog> replicaLogMap, final ReplicationJournal journal )
     {
-        // if log is in refreshNpersist mode, has more entries than the log's threshold count then 
-        // all the entries before the last sent CSN and older than 2 hours will be purged
+        // if the journal has more entries than the smallest threshold count of the logs then 
+        // all the entries before the last CSN sent to all the consumers and older than 2 hours
+        // will be purged
         this.directoryService = directoryService;
         this.replicaLogMap = replicaLogMap;
+        this.journal = journal;
         setDaemon( true );
     }
 
@@ -72,96 +76,76 @@ public class ReplicaEventLogJanitor extends Thread
     {
         while ( !stop )
         {
+            long now = directoryService.getTimeProvider().currentIimeMillis();
+            String purgeCsn = null;
+            long thresholdCount = Long.MAX_VALUE;
+            boolean purgeable = true;
+
             for ( ReplicaEventLog log : replicaLogMap.values() )
             {
-                synchronized ( log ) // lock the log and clean
-                {
-                    try
-                    {
-                        String lastSentCsn = log.getLastSentCsn();
-
-                        if ( lastSentCsn == null )
-                        {
-                            LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
-                            return;
-                        }
-
-                        long now = directoryService.getTimeProvider().currentIimeMillis();
-
-                        long maxIdleTime = log.getMaxIdlePeriod() * 1000L;
-
-                        long lastUpdatedTime = new Csn( lastSentCsn ).getTimestamp();
+                String lastSentCsn = log.getLastSentCsn();
 
-                        LOG.debug( "checking log idle time now={} lastUpdatedTime={} maxIdleTime={}", now,
-                            lastUpdatedTime, maxIdleTime );
-
-                        // DO NOT delete those with maxIdleTime <= 0
-                        if ( ( maxIdleTime > 0 ) && ( now - lastUpdatedTime ) >= maxIdleTime )
-                        {
-                            //max idle time of the event log reached, delete it
-                            removeEventLog( log );
-
-                            // delete the associated entry from DiT, note that ConsumerLogEntryDeleteListener 
-                            // will get called eventually but removeEventLog() will not be called cause by 
-                            // that time this log will not be present in replicaLogMap
-                            // The reason we don't call this method first is to guard against any rename
-                            // operation performed on the log's entry in DiT
-                            try
-                            {
-                                directoryService.getAdminSession().delete( log.getConsumerEntryDn() );
-                            }
-                            catch ( LdapException e )
-                            {
-                                LOG.warn( "Failed to delete the entry {} of replica event log {}",
-                                    log.getConsumerEntryDn(), log.getName(), e );
-                            }
-
-                            continue;
-                        }
-
-                        long thresholdCount = log.getPurgeThresholdCount();
+                if ( lastSentCsn == null )
+                {
+                    // we don't know what this consumer has received yet
+                    LOG.debug( "last sent CSN is null for the replica {}, skipping cleanup", log.getName() );
+                    purgeable = false;
+                    continue;
+                }
 
-                        if ( log.count() < thresholdCount )
-                        {
-                            continue;
-                        }
+                long maxIdleTime = log.getMaxIdlePeriod() * 1000L;
 
-                        LOG.debug( "starting to purge the log entries that are older than {} milliseconds",
-                            thresholdTime );
+                long lastUpdatedTime = new Csn( lastSentCsn ).getTimestamp();
 
-                        long deleteCount = 0;
+                LOG.debug( "checking log idle time now={} lastUpdatedTime={} maxIdleTime={}", now,
+                    lastUpdatedTime, maxIdleTime );
 
-                        ReplicaJournalCursor cursor = log.getCursor( null ); // pass no CSN
-                        cursor.skipQualifyingWhileFetching();
+                // DO NOT delete those with maxIdleTime <= 0
+                if ( ( maxIdleTime > 0 ) && ( now - lastUpdatedTime ) >= maxIdleTime )
+                {
+                    //max idle time of the event log reached, delete it
+                    removeEventLog( log );
+
+                    // delete the associated entry from DiT, note that ConsumerLogEntryDeleteListener 
+                    // will get called eventually but removeEventLog() will not be called cause by 
+                    // that time this log will not be present in replicaLogMap
+                    // The reason we don't call this method first is to guard against any rename
+                    // operation performed on the log's entry in DiT
+                    try
+                    {
+                        directoryService.getAdminSession().delete( log.getConsumerEntryDn() );
+                    }
+                    catch ( LdapException e )
+                    {
+                        LOG.warn( "Failed to delete the entry {} of replica event log {}",
+                            log.getConsumerEntryDn(), log.getName(), e );
+                    }
 
-                        while ( cursor.next() )
-                        {
-                            ReplicaEventMessage message = cursor.get();
-                            String csnVal = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+                    continue;
+                }
 
-                            // skip if we reach the lastSentCsn or got past it
-                            if ( csnVal.compareTo( lastSentCsn ) >= 0 )
-                            {
-                                break;
-                            }
+                if ( ( purgeCsn == null ) || ( lastSentCsn.compareTo( purgeCsn ) < 0 ) )
+                {
+                    purgeCsn = lastSentCsn;
+                }
 
-                            Csn csn = new Csn( csnVal );
+                thresholdCount = Math.min( thresholdCount, log.getPurgeThresholdCount() );
+            }
 
-                            if ( ( now - csn.getTimestamp() ) >= thresholdTime )
-                            {
-                                cursor.delete();
-                                deleteCount++;
-                            }
-                        }
+            if ( purgeable && ( purgeCsn != null ) && ( journal.count() >= thresholdCount ) )
+            {
+                LOG.debug( "starting to purge the journal entries before {} that are older than {} milliseconds",
+                    purgeCsn, thresholdTime );
 
-                        cursor.close();
+                try
+                {
+                    long deleteCount = journal.purge( purgeCsn, now - thresholdTime );
 
-                        LOG.debug( "purged {} messages from the log {}", deleteCount, log.getName() );
-                    }
-                    catch ( Exception e )
-                    {
-                        LOG.warn( "Failed to purge old entries from the log {}", log.getName(), e );
-                    }
+                    LOG.debug( "purged {} messages from the replication journal", deleteCount );
+                }
+                catch ( Exception e )
+                {
+                    LOG.warn( "Failed to purge old entries from the replication journal", e );
                 }
             }
 
@@ -180,6 +164,12 @@ public class ReplicaEventLogJanitor extends Thread
     }
 
 
+    /**
+     * Removes a consumer's event log. The messages sent to this consumer are left in
+     * the journal, they will be purged once the other consumers have received them.
+     *
+     * @param replicaEventLog The removed event log
+     */
     public synchronized void removeEventLog( ReplicaEventLog replicaEventLog )
     {
         directoryService.getEventService().removeListener( replicaEventLog.getPersistentListener() );
@@ -191,9 +181,6 @@ public class ReplicaEventLogJanitor extends Thread
         try
         {
             replicaEventLog.stop();
-
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".db" ).delete();
-            new File( directoryService.getInstanceLayout().getReplDirectory(), name + ".lg" ).delete();
             LOG.info( "successfully removed replication event log {}", name );
         }
         catch ( Exception e )
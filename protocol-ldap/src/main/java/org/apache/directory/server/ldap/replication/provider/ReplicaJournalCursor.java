@@ -22,68 +22,67 @@ package org.apache.directory.server.ldap.replication.provider;
 
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
 
 import org.apache.directory.api.ldap.model.constants.Loggers;
-import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
-import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.exception.LdapException;
-import org.apache.directory.api.ldap.model.message.controls.ChangeType;
-import org.apache.directory.server.core.api.partition.PartitionTxn;
-import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
 import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * Define a cursor on top of a replication journal.
+ * Define a cursor on top of the replication journal, reading sequentially the messages
+ * sent to a consumer after its last sent CSN. The journal is read by batches, so that it
+ * is not locked while the messages are sent to the consumer.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
 {
-    /** Logger for this class */
-    private static final Logger LOG = LoggerFactory.getLogger( ReplicaJournalCursor.class );
-
     /** A dedicated log for cursors */
     private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
 
     /** Speedup for logs */
     private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
 
-    /** the underlying journal's cursor */
-    private Cursor<Tuple<String, ReplicaEventMessage>> tupleCursor;
+    /** The number of journal records read at once */
+    private static final int BATCH_SIZE = 256;
 
-    /** the event log journal */
-    private JdbmTable<String, ReplicaEventMessage> journal;
+    /** the replication journal */
+    private final ReplicationJournal journal;
 
-    /** the consumer's CSN based on which messages will be qualified for sending */
-    private String consumerCsn;
+    /** the consumer's ID */
+    private final int replicaId;
 
-    private ReplicaEventMessage qualifiedEvtMsg;
+    /** the CSN of the last journal record read, null if none has been read yet */
+    private String lastReadCsn;
 
-    /** used while cleaning up the log */
-    private boolean skipQualifying;
-    
-    /** The partition transaction */
-    private PartitionTxn partitionTxn;
-    
+    /** tells if the end of the journal has been reached */
+    private boolean exhausted;
+
+    /** the messages read but not yet returned */
+    private final Deque<ReplicaEventMessage> pending = new ArrayDeque<>();
+
+    /** the current message */
+    private ReplicaEventMessage qualifiedEvtMsg;
 
 
     /**
      * Creates a cursor on top of the given journal
      * 
-     * @param partitionTxn The Transaction to use
-     * @param journal the log journal
-     * @param consumerCsn the consumer's CSN taken from cookie
-     * @throws Exception If the cursor creation failed
+     * @param journal the replication journal
+     * @param replicaId the consumer's ID
+     * @param consumerCsn the consumer's CSN taken from cookie, the messages with a CSN
+     * lower than or equal to this CSN are not returned
      */
-    public ReplicaJournalCursor( PartitionTxn partitionTxn, JdbmTable<String, ReplicaEventMessage> journal, 
-            String consumerCsn ) throws Exception
+    public ReplicaJournalCursor( ReplicationJournal journal, int replicaId, String consumerCsn )
     {
         if ( IS_DEBUG )
         {
@@ -91,9 +90,8 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
         }
 
         this.journal = journal;
-        this.tupleCursor = journal.cursor();
-        this.consumerCsn = consumerCsn;
-        this.partitionTxn = partitionTxn;
+        this.replicaId = replicaId;
+        this.lastReadCsn = consumerCsn;
     }
 
 
@@ -159,38 +157,6 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
     }
 
 
-    /**
-     * selects the current queue entry if qualified for sending to the consumer
-     * 
-     * @throws Exception
-     */
-    private boolean isQualified( String csn, ReplicaEventMessage evtMsg ) throws LdapException
-    {
-        LOG.debug( "ReplicaEventMessage: {}", evtMsg );
-
-        if ( evtMsg.isEventOlderThan( consumerCsn ) )
-        {
-            if ( LOG.isDebugEnabled() )
-            {
-                String evt = "MODDN"; // take this as default cause the event type for MODDN is null
-
-                ChangeType changeType = evtMsg.getChangeType();
-
-                if ( changeType != null )
-                {
-                    evt = changeType.name();
-                }
-
-                LOG.debug( "event {} for dn {} is not qualified for sending", evt, evtMsg.getEntry().getDn() );
-            }
-
-            return false;
-        }
-
-        return true;
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -205,35 +171,34 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
      */
     public boolean next() throws LdapException, CursorException
     {
-        while ( tupleCursor.next() )
+        while ( pending.isEmpty() && !exhausted )
         {
-            Tuple<String, ReplicaEventMessage> tuple = tupleCursor.get();
-
-            String csn = tuple.getKey();
-            ReplicaEventMessage message = tuple.getValue();
+            List<ReplicaEventMessage> messages = new ArrayList<>();
 
-            if ( skipQualifying )
+            try
             {
-                qualifiedEvtMsg = message;
-                return true;
-            }
+                String csn = journal.read( replicaId, lastReadCsn, BATCH_SIZE, messages );
 
-            boolean qualified = isQualified( csn, message );
-
-            if ( qualified )
-            {
-                qualifiedEvtMsg = message;
-                return true;
+                if ( csn == null )
+                {
+                    exhausted = true;
+                }
+                else
+                {
+                    lastReadCsn = csn;
+                }
             }
-            else
+            catch ( Exception e )
             {
-                journal.remove( partitionTxn, csn );
+                throw new CursorException( e );
             }
+
+            pending.addAll( messages );
         }
 
-        qualifiedEvtMsg = null;
+        qualifiedEvtMsg = pending.poll();
 
-        return false;
+        return qualifiedEvtMsg != null;
     }
 
 
@@ -257,7 +222,7 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        pending.clear();
         super.close();
     }
 
@@ -273,40 +238,11 @@ public class ReplicaJournalCursor extends AbstractCursor<ReplicaEventMessage>
             LOG_CURSOR.debug( "Closing ReplicaJournalCursor {}", this );
         }
 
-        tupleCursor.close();
+        pending.clear();
         super.close( cause );
     }
 
 
-    /**
-     * sets the flag to skip CSN based checking while traversing
-     * used for internal log cleanup ONLY 
-     */
-    protected void skipQualifyingWhileFetching()
-    {
-        skipQualifying = true;
-    }
-
-
-    /**
-     * delete the current message
-     * used for internal log cleanup ONLY
-     */
-    protected void delete()
-    {
-        try
-        {
-            if ( qualifiedEvtMsg != null )
-            {
-                journal.remove( partitionTxn, qualifiedEvtMsg.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
-            }
-        }
-        catch ( Exception e )
-        {
-        }
-    }
-
-
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,483 @@
+/*
+ *   Licensed to the Apache Software Foundation (ASF) under one
+ *   or more contributor license agreements.  See the NOTICE file
+ *   distributed with this work for additional information
+ *   regarding copyright ownership.  The ASF licenses this file
+ *   to you under the Apache License, Version 2.0 (the
+ *   "License"); you may not use this file except in compliance
+ *   with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing,
+ *   software distributed under the License is distributed on an
+ *   "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *   KIND, either express or implied.  See the License for the
+ *   specific language governing permissions and limitations
+ *   under the License.
+ *
+ */
+
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdbm.RecordManager;
+import jdbm.helper.ByteArraySerializer;
+import jdbm.recman.BaseRecordManager;
+import jdbm.recman.TransactionManager;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.model.schema.comparators.SerializableComparator;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmTable;
+import org.apache.directory.server.core.partition.impl.btree.jdbm.StringSerializer;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessageSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * The replication journal, shared by all the consumers of a provider. The modifications are
+ * appended once, keyed by their CSN, whatever the number of consumers they have to be sent to,
+ * and each consumer reads the journal sequentially from its last sent CSN.
+ * <br>
+ * The same modification may be seen differently by two consumers, for instance as a MODDN by
+ * a consumer and as a DELETE by another consumer when the entry is moved out of its scope. The
+ * record stored for a CSN therefore contains one message per change type, each message being
+ * associated with the IDs of the consumers it has to be sent to :
+ * <ul>
+ * <li>int : the number of messages</li>
+ * <li>for each message :
+ *   <ul>
+ *   <li>byte : the change type</li>
+ *   <li>int : the number of consumers, followed by the consumers' ID</li>
+ *   <li>int : the length of the serialized message, followed by the serialized message</li>
+ *   </ul>
+ * </li>
+ * </ul>
+ * The modifications are purged once all the consumers have received them.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicationJournal
+{
+    /** The logger */
+    private static final Logger LOG = LoggerFactory.getLogger( ReplicationJournal.class );
+
+    /** A logger for the replication provider */
+    private static final Logger PROVIDER_LOG = LoggerFactory.getLogger( Loggers.PROVIDER_LOG.getName() );
+
+    /** The name of the journal file */
+    public static final String REPLICATION_JOURNAL_NAME = "REPL_JOURNAL";
+
+    /** The journal's records, per CSN */
+    private JdbmTable<String, byte[]> journal;
+
+    /** The record manager */
+    private RecordManager recman;
+
+    /** The message serializer */
+    private final ReplicaEventMessageSerializer messageSerializer;
+
+    /** The SchemaManager */
+    private final SchemaManager schemaManager;
+
+
+    /**
+     * The messages stored for a CSN, one per change type
+     */
+    private static final class Variant
+    {
+        /** The change type */
+        private byte changeType;
+
+        /** The consumers the message has to be sent to */
+        private int[] replicaIds;
+
+        /** The serialized message */
+        private byte[] message;
+
+
+        private boolean isSentTo( int replicaId )
+        {
+            for ( int id : replicaIds )
+            {
+                if ( id == replicaId )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+
+    /**
+     * Creates the replication journal, or opens it if it already exists.
+     *
+     * @param schemaManager The SchemaManager
+     * @param replDir The replication directory
+     * @throws IOException If the journal can't be opened
+     */
+    public ReplicationJournal( SchemaManager schemaManager, File replDir ) throws IOException
+    {
+        this.schemaManager = schemaManager;
+        messageSerializer = new ReplicaEventMessageSerializer( schemaManager );
+
+        File journalFile = new File( replDir, REPLICATION_JOURNAL_NAME );
+        recman = new BaseRecordManager( journalFile.getAbsolutePath() );
+        TransactionManager transactionManager = ( ( BaseRecordManager ) recman ).getTransactionManager();
+        transactionManager.setMaximumTransactionsInLog( 200 );
+
+        try
+        {
+            journal = new JdbmTable<>( schemaManager, REPLICATION_JOURNAL_NAME, recman, newCsnComparator(),
+                StringSerializer.INSTANCE, ByteArraySerializer.INSTANCE );
+        }
+        catch ( IOException ioe )
+        {
+            recman.close();
+            throw ioe;
+        }
+    }
+
+
+    /**
+     * @return A comparator on the CSNs, which can be stored in a JDBM BTree
+     */
+    private SerializableComparator<String> newCsnComparator()
+    {
+        SerializableComparator<String> comparator = new SerializableComparator<>(
+            SchemaConstants.CSN_ORDERING_MATCH_MR_OID );
+        comparator.setSchemaManager( schemaManager );
+
+        return comparator;
+    }
+
+
+    /**
+     * Appends a message to send to a consumer. If the same message is already stored
+     * for another consumer, only the consumer ID is added.
+     *
+     * @param replicaId The consumer's ID
+     * @param message The message
+     * @throws IOException If the message can't be serialized
+     * @throws LdapException If the message can't be stored
+     */
+    public synchronized void append( int replicaId, ReplicaEventMessage message ) throws IOException, LdapException
+    {
+        String csn = message.getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString();
+        byte changeType = ( byte ) message.getChangeType().getValue();
+
+        byte[] record = journal.get( null, csn );
+        List<Variant> variants = record == null ? new ArrayList<>( 1 ) : readRecord( record );
+        Variant variant = null;
+
+        for ( Variant existing : variants )
+        {
+            if ( existing.changeType == changeType )
+            {
+                variant = existing;
+                break;
+            }
+        }
+
+        if ( variant == null )
+        {
+            variant = new Variant();
+            variant.changeType = changeType;
+            variant.replicaIds = new int[]
+                { replicaId };
+            variant.message = messageSerializer.serialize( message );
+            variants.add( variant );
+        }
+        else if ( variant.isSentTo( replicaId ) )
+        {
+            return;
+        }
+        else
+        {
+            int[] replicaIds = new int[variant.replicaIds.length + 1];
+            System.arraycopy( variant.replicaIds, 0, replicaIds, 0, variant.replicaIds.length );
+            replicaIds[variant.replicaIds.length] = replicaId;
+            variant.replicaIds = replicaIds;
+        }
+
+        journal.put( null, csn, writeRecord( variants ) );
+    }
+
+
+    /**
+     * Reads the next messages to send to a consumer.
+     *
+     * @param replicaId The consumer's ID
+     * @param afterCsn The CSN to read the messages after, or null to read from the beginning
+     * @param maxRecords The maximum number of records to read
+     * @param messages The list the messages are added to
+     * @return The CSN of the last record read, or null if the end of the journal has been reached
+     * @throws Exception If the journal can't be read
+     */
+    public synchronized String read( int replicaId, String afterCsn, int maxRecords,
+        List<ReplicaEventMessage> messages ) throws Exception
+    {
+        String lastCsn = afterCsn;
+
+        try ( Cursor<Tuple<String, byte[]>> cursor = journal.cursor() )
+        {
+            if ( afterCsn == null )
+            {
+                cursor.beforeFirst();
+            }
+            else
+            {
+                cursor.after( new Tuple<String, byte[]>( afterCsn, null ) );
+            }
+
+            for ( int i = 0; i < maxRecords; i++ )
+            {
+                if ( !cursor.next() )
+                {
+                    return null;
+                }
+
+                Tuple<String, byte[]> tuple = cursor.get();
+
+                for ( Variant variant : readRecord( tuple.getValue() ) )
+                {
+                    if ( variant.isSentTo( replicaId ) )
+                    {
+                        messages.add( ( ReplicaEventMessage ) messageSerializer.deserialize( variant.message ) );
+                    }
+                }
+
+                lastCsn = tuple.getKey();
+            }
+        }
+
+        return lastCsn;
+    }
+
+
+    /**
+     * Deletes the records older than a given CSN, and older than a given time.
+     *
+     * @param beforeCsn The CSN all the consumers have received
+     * @param maxTime The time before which the records can be deleted
+     * @return The number of deleted records
+     * @throws Exception If the journal can't be purged
+     */
+    public synchronized long purge( String beforeCsn, long maxTime ) throws Exception
+    {
+        List<String> purgedCsns = new ArrayList<>();
+
+        try ( Cursor<Tuple<String, byte[]>> cursor = journal.cursor() )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                String csn = cursor.get().getKey();
+
+                // stop when we reach the CSN or get past it
+                if ( csn.compareTo( beforeCsn ) >= 0 )
+                {
+                    break;
+                }
+
+                if ( new Csn( csn ).getTimestamp() <= maxTime )
+                {
+                    purgedCsns.add( csn );
+                }
+            }
+        }
+
+        for ( String csn : purgedCsns )
+        {
+            journal.remove( null, csn );
+        }
+
+        if ( !purgedCsns.isEmpty() )
+        {
+            recman.commit();
+        }
+
+        return purgedCsns.size();
+    }
+
+
+    /**
+     * Imports a replication event log written by a former version of the server, where
+     * each consumer had its own log, and deletes it.
+     *
+     * @param logFile The consumer's log file, without extension
+     * @param replicaId The consumer's ID
+     * @return The number of imported messages
+     * @throws Exception If the log can't be imported
+     */
+    public long importLog( File logFile, int replicaId ) throws Exception
+    {
+        long nbMessages = 0L;
+        RecordManager logRecman = new BaseRecordManager( logFile.getAbsolutePath() );
+
+        try
+        {
+            JdbmTable<String, ReplicaEventMessage> log = new JdbmTable<>( schemaManager, logFile.getName(),
+                logRecman, newCsnComparator(), StringSerializer.INSTANCE, messageSerializer );
+
+            try ( Cursor<Tuple<String, ReplicaEventMessage>> cursor = log.cursor() )
+            {
+                while ( cursor.next() )
+                {
+                    append( replicaId, cursor.get().getValue() );
+                    nbMessages++;
+                }
+            }
+
+            log.close( null );
+        }
+        finally
+        {
+            logRecman.close();
+        }
+
+        sync();
+
+        if ( !new File( logFile.getPath() + ".db" ).delete() || !new File( logFile.getPath() + ".lg" ).delete() )
+        {
+            LOG.warn( "Failed to delete the imported replication event log {}", logFile );
+        }
+
+        PROVIDER_LOG.info( "Imported {} messages from the replication event log {}", nbMessages, logFile );
+
+        return nbMessages;
+    }
+
+
+    /**
+     * @return The number of records in the journal
+     */
+    public synchronized long count()
+    {
+        try
+        {
+            return journal.count( null );
+        }
+        catch ( LdapException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * Writes the pending modifications on disk
+     *
+     * @throws IOException If the journal can't be written
+     */
+    public synchronized void sync() throws IOException
+    {
+        if ( recman != null )
+        {
+            recman.commit();
+        }
+    }
+
+
+    /**
+     * Closes the journal
+     *
+     * @throws Exception If the journal can't be closed
+     */
+    public synchronized void close() throws Exception
+    {
+        if ( journal != null )
+        {
+            journal.close( null );
+            journal = null;
+        }
+
+        if ( recman != null )
+        {
+            recman.close();
+            recman = null;
+        }
+    }
+
+
+    /**
+     * Reads the messages stored for a CSN
+     */
+    private static List<Variant> readRecord( byte[] record ) throws IOException
+    {
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( record ) ) )
+        {
+            int nbVariants = in.readInt();
+            List<Variant> variants = new ArrayList<>( nbVariants + 1 );
+
+            for ( int i = 0; i < nbVariants; i++ )
+            {
+                Variant variant = new Variant();
+                variant.changeType = in.readByte();
+                variant.replicaIds = new int[in.readInt()];
+
+                for ( int j = 0; j < variant.replicaIds.length; j++ )
+                {
+                    variant.replicaIds[j] = in.readInt();
+                }
+
+                variant.message = new byte[in.readInt()];
+                in.readFully( variant.message );
+                variants.add( variant );
+            }
+
+            return variants;
+        }
+    }
+
+
+    /**
+     * Writes the messages stored for a CSN
+     */
+    private static byte[] writeRecord( List<Variant> variants ) throws IOException
+    {
+        try ( ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            out.writeInt( variants.size() );
+
+            for ( Variant variant : variants )
+            {
+                out.writeByte( variant.changeType );
+                out.writeInt( variant.replicaIds.length );
+
+                for ( int replicaId : variant.replicaIds )
+                {
+                    out.writeInt( replicaId );
+                }
+
+                out.writeInt( variant.message.length );
+                out.write( variant.message );
+            }
+
+            out.flush();
+
+            return baos.toByteArray();
+        }
+    }
+}
@@ -144,6 +144,9 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
     private ReplicaEventLogJanitor logJanitor;
 
+    /** The replication journal shared by all the consumers */
+    private ReplicationJournal journal;
+
     private AttributeType replLogMaxIdleAT;
 
     private AttributeType replLogPurgeThresholdCountAT;
@@ -202,9 +205,12 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
             // Create the replication manager
             replicaUtil = new ReplConsumerManager( dirService );
 
+            // Open the journal shared by the consumers
+            journal = new ReplicationJournal( dirService.getSchemaManager(), syncReplData );
+
             loadReplicaInfo();
 
-            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap );
+            logJanitor = new ReplicaEventLogJanitor( dirService, replicaLogMap, journal );
             logJanitor.start();
 
             registerPersistentSearches();
@@ -277,6 +283,15 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
         // flush the dirty repos
         storeReplicaInfo();
 
+        try
+        {
+            journal.close();
+        }
+        catch ( Exception e )
+        {
+            PROVIDER_LOG.error( "Failed to close the replication journal", e );
+        }
+
         initialized = false;
     }
 
@@ -523,12 +538,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
         // first register a ReplicaEventLog before starting the initial content refresh
         // this is to log all the operations happen on DIT during initial content refresh
-        ReplicaEventLog replicaLog = null;
-        
-        try ( PartitionTxn partitionTxn = partition.beginReadTransaction() )
-        {
-            replicaLog = createReplicaEventLog( partitionTxn, hostName, originalFilter );
-        }
+        ReplicaEventLog replicaLog = createReplicaEventLog( hostName, originalFilter );
 
         replicaLog.setRefreshNPersist( refreshNPersist );
         Value contexCsnValue = new Value( dirService.getAtProvider().getEntryCSN(), contextCsn );
@@ -1011,14 +1021,33 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
 
 
     /**
-     * Read and store the consumer's informations
+     * Write the messages logged in the replication journal on disk
+     */
+    private void syncJournal()
+    {
+        try
+        {
+            journal.sync();
+        }
+        catch ( IOException e )
+        {
+            PROVIDER_LOG.error( "Failed to write the replication journal", e );
+        }
+    }
+
+
+    /**
+     * Read and store the consumer's informations. The messages stored in the event logs
+     * of a former version of the server, one per consumer, are imported into the journal.
      */
     private void loadReplicaInfo()
     {
         try
         {
-            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs();
-            Set<String> eventLogNames = new HashSet<>();
+            List<ReplicaEventLog> eventLogs = replicaUtil.getReplicaEventLogs( journal );
+
+            // The event logs which could not be imported, and must be kept
+            Set<String> failedLogs = new HashSet<>();
 
             if ( !eventLogs.isEmpty() )
             {
@@ -1026,7 +1055,11 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     PROVIDER_LOG.debug( "initializing the replica log from {}", replica.getId() );
                     replicaLogMap.put( replica.getId(), replica );
-                    eventLogNames.add( replica.getName() );
+
+                    if ( !importEventLog( replica ) )
+                    {
+                        failedLogs.add( replica.getName() );
+                    }
 
                     // update the replicaCount's value to assign a correct value to the new replica(s)
                     if ( replicaCount.get() < replica.getId() )
@@ -1040,14 +1073,20 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 PROVIDER_LOG.debug( "no replica logs found to initialize" );
             }
 
-            // remove unused logs
+            // remove the imported and unused logs
             for ( File f : getAllReplJournalNames() )
             {
-                if ( !eventLogNames.contains( f.getName() ) )
+                String name = f.getName();
+                int pos = name.lastIndexOf( '.' );
+
+                if ( ( pos > 0 ) && failedLogs.contains( name.substring( 0, pos ) ) )
                 {
-                    f.delete();
-                    PROVIDER_LOG.info( "removed unused replication event log {}", f );
+                    PROVIDER_LOG.warn( "keeping the replication event log {}, it has not been imported", f );
+                    continue;
                 }
+
+                f.delete();
+                PROVIDER_LOG.info( "removed unused replication event log {}", f );
             }
         }
         catch ( Exception e )
@@ -1057,6 +1096,33 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     }
 
 
+    /**
+     * Import the event log of a consumer written by a former version of the server, if any
+     *
+     * @return <code>false</code> if the event log exists but could not be imported
+     */
+    private boolean importEventLog( ReplicaEventLog replica )
+    {
+        File logFile = new File( syncReplData, replica.getName() );
+
+        if ( new File( logFile.getPath() + ".db" ).exists() )
+        {
+            try
+            {
+                journal.importLog( logFile, replica.getId() );
+            }
+            catch ( Exception e )
+            {
+                PROVIDER_LOG.error( "Failed to import the replication event log {}", logFile, e );
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
     /**
      * Register the listeners for each existing consumers
      */
@@ -1097,6 +1163,7 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
                 {
                     while ( true )
                     {
+                        syncJournal();
                         storeReplicaInfo();
                         
                         latch.countDown();
@@ -1133,13 +1200,13 @@ public class SyncReplRequestHandler implements ReplicationRequestHandler
     /**
      * Create a new ReplicaEventLog. Each replica will have a unique ID, created by the provider.
      */
-    private ReplicaEventLog createReplicaEventLog( PartitionTxn partitionTxn, String hostName, String filter ) throws Exception
+    private ReplicaEventLog createReplicaEventLog( String hostName, String filter )
     {
         int replicaId = replicaCount.incrementAndGet();
 
         PROVIDER_LOG.debug( "creating a new event log for the replica with id {}", replicaId );
 
-        ReplicaEventLog replicaLog = new ReplicaEventLog( partitionTxn, dirService, replicaId );
+        ReplicaEventLog replicaLog = new ReplicaEventLog( dirService, journal, replicaId );
         replicaLog.setHostName( hostName );
         replicaLog.setSearchFilter( filter );
 
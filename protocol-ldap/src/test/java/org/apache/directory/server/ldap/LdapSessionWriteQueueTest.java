@@ -0,0 +1,160 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.mina.core.session.DummySession;
+import org.junit.Test;
+
+
+/**
+ * Tests the suspension of the writes when the write queue of a {@link LdapSession} is full.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LdapSessionWriteQueueTest
+{
+    /** The maximum time to wait, longer than the tests */
+    private static final long TIMEOUT = 60000L;
+
+
+    @Test
+    public void testNoWaitBelowHighWatermark() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        ioSession.increaseScheduledWriteBytes( 1000 );
+
+        assertEquals( 1000L, session.getScheduledWriteBytes() );
+        assertTrue( session.awaitWriteQueue( 1000L, 100L, 0L ) );
+
+        // Disabled
+        assertTrue( session.awaitWriteQueue( 0L, 0L, 0L ) );
+        assertEquals( 0L, session.getPeakScheduledWriteBytes() );
+    }
+
+
+    @Test
+    public void testWaitUntilLowWatermark() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        CountDownLatch done = new CountDownLatch( 1 );
+        AtomicBoolean result = new AtomicBoolean();
+
+        Thread writer = new Thread( () ->
+        {
+            try
+            {
+                result.set( session.awaitWriteQueue( 1000L, 500L, TIMEOUT ) );
+            }
+            catch ( InterruptedException | TimeoutException e )
+            {
+                // Nothing to do
+            }
+
+            done.countDown();
+        } );
+
+        writer.start();
+        assertFalse( done.await( 200L, TimeUnit.MILLISECONDS ) );
+
+        // Above the low watermark : still waiting
+        ioSession.increaseScheduledWriteBytes( -1000 );
+        session.messageSent();
+        assertFalse( done.await( 300L, TimeUnit.MILLISECONDS ) );
+
+        // Below the low watermark
+        ioSession.increaseScheduledWriteBytes( -600 );
+        session.messageSent();
+        assertTrue( done.await( 5L, TimeUnit.SECONDS ) );
+        assertTrue( result.get() );
+        assertEquals( 2000L, session.getPeakScheduledWriteBytes() );
+    }
+
+
+    @Test
+    public void testClosedSessionStopsWaiting() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        CountDownLatch done = new CountDownLatch( 1 );
+        AtomicBoolean result = new AtomicBoolean( true );
+
+        Thread writer = new Thread( () ->
+        {
+            try
+            {
+                result.set( session.awaitWriteQueue( 1000L, 500L, TIMEOUT ) );
+            }
+            catch ( InterruptedException | TimeoutException e )
+            {
+                // Nothing to do
+            }
+
+            done.countDown();
+        } );
+
+        writer.start();
+        assertFalse( done.await( 200L, TimeUnit.MILLISECONDS ) );
+
+        // The client is gone
+        ioSession.closeNow();
+
+        assertTrue( done.await( 5L, TimeUnit.SECONDS ) );
+        assertFalse( result.get() );
+    }
+
+
+    @Test
+    public void testTimeoutStopsWaiting() throws Exception
+    {
+        DummySession ioSession = new DummySession();
+        LdapSession session = new LdapSession( ioSession );
+        ioSession.increaseScheduledWriteBytes( 2000 );
+
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            // The client never reads the responses
+            session.awaitWriteQueue( 1000L, 500L, 300L );
+            fail();
+        }
+        catch ( TimeoutException te )
+        {
+            assertTrue( System.currentTimeMillis() - start >= 300L );
+        }
+    }
+}
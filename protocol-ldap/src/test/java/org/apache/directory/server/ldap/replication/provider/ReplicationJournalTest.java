@@ -0,0 +1,239 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.ldap.replication.provider;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.csn.Csn;
+import org.apache.directory.api.ldap.model.csn.CsnFactory;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.controls.ChangeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.ldap.replication.ReplicaEventMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link ReplicationJournal} shared by the consumers.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class ReplicationJournalTest
+{
+    /** The SchemaManager instance */
+    private static SchemaManager schemaManager;
+
+    /** The CsnFactory */
+    private static CsnFactory csnFactory;
+
+    /** The replication directory */
+    private File replDir;
+
+    /** The journal */
+    private ReplicationJournal journal;
+
+
+    @BeforeClass
+    public static void init() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = ReplicationJournalTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        if ( !schemaManager.loadAllEnabled() )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        csnFactory = new CsnFactory( 0 );
+    }
+
+
+    @Before
+    public void openJournal() throws Exception
+    {
+        replDir = Files.createTempDirectory( getClass().getSimpleName() ).toFile();
+        journal = new ReplicationJournal( schemaManager, replDir );
+    }
+
+
+    @After
+    public void closeJournal() throws Exception
+    {
+        journal.close();
+        FileUtils.deleteDirectory( replDir );
+    }
+
+
+    private ReplicaEventMessage newMessage( ChangeType changeType, Csn csn, int i ) throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager, "ou=test" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: organizationalUnit",
+            "ou", "test" + i,
+            "entryCsn", csn.toString() );
+
+        return new ReplicaEventMessage( changeType, entry );
+    }
+
+
+    private List<ReplicaEventMessage> readAll( int replicaId, String fromCsn ) throws Exception
+    {
+        List<ReplicaEventMessage> messages = new ArrayList<>();
+
+        try ( ReplicaJournalCursor cursor = new ReplicaJournalCursor( journal, replicaId, fromCsn ) )
+        {
+            while ( cursor.next() )
+            {
+                messages.add( cursor.get() );
+            }
+        }
+
+        return messages;
+    }
+
+
+    @Test
+    public void testSharedMessages() throws Exception
+    {
+        List<Csn> csns = new ArrayList<>();
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            Csn csn = csnFactory.newInstance();
+            csns.add( csn );
+            ReplicaEventMessage message = newMessage( ChangeType.ADD, csn, i );
+
+            // Consumer 1 gets everything, consumer 2 one message out of two
+            journal.append( 1, message );
+
+            if ( i % 2 == 0 )
+            {
+                journal.append( 2, message );
+            }
+        }
+
+        // Each message is stored once
+        assertEquals( 1000L, journal.count() );
+
+        List<ReplicaEventMessage> messages = readAll( 1, null );
+        assertEquals( 1000, messages.size() );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( csns.get( i ).toString(),
+                messages.get( i ).getEntry().get( SchemaConstants.ENTRY_CSN_AT ).getString() );
+        }
+
+        // Read after the 100th CSN
+        messages = readAll( 2, csns.get( 99 ).toString() );
+        assertEquals( 450, messages.size() );
+        assertEquals( "test100", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+
+        // An unknown consumer gets nothing
+        assertTrue( readAll( 3, null ).isEmpty() );
+    }
+
+
+    @Test
+    public void testVariants() throws Exception
+    {
+        Csn csn = csnFactory.newInstance();
+
+        // The same modification is a MODDN for a consumer, and a DELETE for another one
+        journal.append( 1, newMessage( ChangeType.MODDN, csn, 0 ) );
+        journal.append( 2, newMessage( ChangeType.DELETE, csn, 0 ) );
+        journal.append( 1, newMessage( ChangeType.MODDN, csn, 0 ) );
+
+        assertEquals( 1L, journal.count() );
+
+        List<ReplicaEventMessage> messages = readAll( 1, null );
+        assertEquals( 1, messages.size() );
+        assertEquals( ChangeType.MODDN, messages.get( 0 ).getChangeType() );
+
+        messages = readAll( 2, null );
+        assertEquals( 1, messages.size() );
+        assertEquals( ChangeType.DELETE, messages.get( 0 ).getChangeType() );
+    }
+
+
+    @Test
+    public void testPurgeAndReopen() throws Exception
+    {
+        List<Csn> csns = new ArrayList<>();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            Csn csn = csnFactory.newInstance();
+            csns.add( csn );
+            journal.append( 1, newMessage( ChangeType.ADD, csn, i ) );
+        }
+
+        // Nothing is old enough
+        assertEquals( 0L, journal.purge( csns.get( 5 ).toString(), 0L ) );
+
+        // Everything before the 6th CSN is purged
+        assertEquals( 5L, journal.purge( csns.get( 5 ).toString(), Long.MAX_VALUE ) );
+        assertEquals( 5L, journal.count() );
+
+        journal.close();
+        journal = new ReplicationJournal( schemaManager, replDir );
+
+        assertEquals( 5L, journal.count() );
+        List<ReplicaEventMessage> messages = readAll( 1, null );
+        assertEquals( 5, messages.size() );
+        assertEquals( "test5", messages.get( 0 ).getEntry().get( "ou" ).getString() );
+
+        List<ReplicaEventMessage> batch = new ArrayList<>();
+        assertNull( journal.read( 1, csns.get( 9 ).toString(), 10, batch ) );
+        assertTrue( batch.isEmpty() );
+    }
+}
@@ -20,10 +20,17 @@
 package org.apache.directory.server.core.partition.impl.btree;
 
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.nio.file.Files;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -33,12 +40,14 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.Tuple;
 import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.entry.Modification;
@@ -87,10 +96,14 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.api.partition.PartitionWriteTxn;
 import org.apache.directory.server.core.api.partition.Subordinates;
+import org.apache.directory.server.core.partition.impl.btree.SubtreeLockManager.SubtreeLock;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.CompactEntryCodec;
+import org.apache.directory.server.xdbm.EntryIdMap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.MasterTable;
 import org.apache.directory.server.xdbm.ParentIdAndRdn;
 import org.apache.directory.server.xdbm.Store;
@@ -129,6 +142,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     /** The Entry cache size for this partition */
     protected int cacheSize = DEFAULT_CACHE_SIZE;
 
+    /** The default number of candidates whose entries are fetched ahead during a search */
+    public static final int DEFAULT_PREFETCH_SIZE = 64;
+
+    /** The number of candidates whose entries are fetched ahead during a search, 0 to disable it */
+    protected int prefetchSize = DEFAULT_PREFETCH_SIZE;
+
+    /** Tells if the prefetched entries are returned in the candidates order */
+    protected boolean prefetchOrdered = true;
+
     /** The alias cache */
     protected Cache<String, Dn> aliasCache;
 
@@ -205,13 +227,43 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     protected static final boolean REMOVE_CHILD = false;
 
     /** A lock to protect the backend from concurrent reads/writes */
-    private ReadWriteLock rwLock;
+    private volatile ReadWriteLock rwLock;
+
+    /** The locks protecting the entries and their subtrees against concurrent modifications */
+    private final SubtreeLockManager subtreeLocks = new SubtreeLockManager();
+
+    /** A lock serializing the updates of the number of children and descendants in the Rdn index */
+    private final Object rdnCountsLock = new Object();
 
     /** a cache to hold <entryUUID, Dn> pairs, this is used for speeding up the buildEntryDn() method */
     private Cache<String, Dn> entryDnCache;
     
     /** a semaphore to serialize the writes on context entry while updating contextCSN attribute */
     private Semaphore ctxCsnSemaphore = new Semaphore( 1 );
+
+    /** The mapping between the entry UUIDs and the identifiers used by the search engine */
+    private final EntryIdMap entryIdMap = new EntryIdMap();
+
+    /** The name of the file storing the index statistics when the partition is stopped */
+    public static final String INDEX_STATISTICS_FILE = "index.stats";
+
+    /** Tells if the index statistics have been loaded, and have to be saved on destroy */
+    private boolean statisticsLoaded;
+
+    /** The extension of the file telling that some entries have to be converted */
+    public static final String ENTRY_CONVERSION_FILE_EXTN = ".convert";
+
+    /** The number of entries converted in each write transaction */
+    private static final int CONVERSION_BATCH_SIZE = 100;
+
+    /** The thread converting the entries stored in a previous format, if any */
+    private Thread entryConverter;
+
+    /** The conversion marker, when the conversion waits for the first operation to know the lock */
+    private volatile File pendingConversion;
+
+    /** Tells the entry converter to stop */
+    private volatile boolean stopConversion;
     
     // ------------------------------------------------------------------------
     // C O N S T R U C T O R S
@@ -308,6 +360,49 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The number of candidates whose entries are fetched ahead during a search
+     */
+    public int getPrefetchSize()
+    {
+        return prefetchSize;
+    }
+
+
+    /**
+     * Sets the number of candidates whose entries are fetched ahead, in parallel, during a
+     * search. The entries are only fetched ahead once a search has returned as many
+     * candidates, so that the small searches are not impacted.
+     *
+     * @param prefetchSize The number of candidates read at once, 0 to disable the prefetch
+     */
+    public void setPrefetchSize( int prefetchSize )
+    {
+        this.prefetchSize = prefetchSize;
+    }
+
+
+    /**
+     * @return <code>true</code> if the prefetched entries are returned in the candidates order
+     */
+    public boolean isPrefetchOrdered()
+    {
+        return prefetchOrdered;
+    }
+
+
+    /**
+     * Tells if the prefetched entries are returned in the candidates order, or as soon
+     * as they have been fetched.
+     *
+     * @param prefetchOrdered <code>true</code> to return the entries in the candidates order
+     */
+    public void setPrefetchOrdered( boolean prefetchOrdered )
+    {
+        this.prefetchOrdered = prefetchOrdered;
+    }
+
+
     /**
      * Tells if the Optimizer is enabled or not
      * @return true if the optimizer is enabled
@@ -363,6 +458,22 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Flushes the changes done by a write operation when the partition is configured to
+     * sync on write. Partitions which make their write transactions durable by themselves
+     * may override this method.
+     *
+     * @throws LdapException If the flush failed
+     */
+    protected void syncAfterWrite() throws LdapException
+    {
+        if ( isSyncOnWrite.get() )
+        {
+            sync();
+        }
+    }
+
+
     /**
      * Sets up the system indices.
      * 
@@ -540,15 +651,28 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             return;
         }
 
+        stopEntryConversion();
+
         // don't reset initialized flag
         initialized = false;
 
         aliasCache.invalidateAll();
         piarCache.invalidateAll();
         entryDnCache.invalidateAll();
+        entryIdMap.clear();
 
         MultiException errors = new MultiException( I18n.err( I18n.ERR_577 ) );
 
+        try
+        {
+            saveIndexStatistics();
+        }
+        catch ( Throwable t )
+        {
+            // Not fatal : the statistics will be rebuilt on the next startup
+            LOG.warn( "Cannot save the index statistics for partition {}", suffixDn, t );
+        }
+
         for ( Index<?, String> index : userIndices.values() )
         {
             try
@@ -640,6 +764,194 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * @return The indexes which statistics are used by the optimizer
+     */
+    private List<Index<?, String>> getStatisticsIndices()
+    {
+        List<Index<?, String>> indices = new ArrayList<>( userIndices.values() );
+
+        for ( Index<?, String> index : systemIndices.values() )
+        {
+            // The optimizer never looks at the Rdn and alias indexes statistics
+            if ( ( index != rdnIdx ) && ( index != aliasIdx ) && ( index != oneAliasIdx ) && ( index != subAliasIdx ) )
+            {
+                indices.add( index );
+            }
+        }
+
+        return indices;
+    }
+
+
+    /**
+     * Loads the index statistics used by the optimizer. They are read from the file
+     * saved when the partition was last stopped if it exists, otherwise they are 
+     * rebuilt by browsing the indexes. The file is deleted once read, so that the
+     * statistics are rebuilt if the partition is not properly stopped.
+     * <br>
+     * This method must be called once the indexes are initialized.
+     *
+     * @param partitionTxn The transaction to use
+     * @throws LdapException If the indexes can't be read
+     */
+    protected void loadIndexStatistics( PartitionTxn partitionTxn ) throws LdapException
+    {
+        Map<String, IndexStatistics> savedStatistics = new HashMap<>();
+        File statisticsFile = getIndexStatisticsFile();
+
+        if ( ( statisticsFile != null ) && statisticsFile.exists() )
+        {
+            try ( DataInputStream in = new DataInputStream( new BufferedInputStream( 
+                Files.newInputStream( statisticsFile.toPath() ) ) ) )
+            {
+                int nbIndices = in.readInt();
+
+                for ( int i = 0; i < nbIndices; i++ )
+                {
+                    String oid = in.readUTF();
+                    IndexStatistics statistics = new IndexStatistics();
+                    statistics.read( in );
+                    savedStatistics.put( oid, statistics );
+                }
+            }
+            catch ( IOException ioe )
+            {
+                LOG.warn( "Cannot read the index statistics for partition {}, they will be rebuilt", suffixDn, ioe );
+                savedStatistics.clear();
+            }
+
+            if ( !statisticsFile.delete() )
+            {
+                LOG.warn( "Cannot delete the index statistics file {}", statisticsFile );
+            }
+        }
+
+        for ( Index<?, String> index : getStatisticsIndices() )
+        {
+            IndexStatistics statistics = index.getStatistics();
+            IndexStatistics saved = savedStatistics.get( index.getAttribute().getOid() );
+
+            if ( saved != null )
+            {
+                statistics.copy( saved );
+            }
+            else
+            {
+                LOG.debug( "Building the {} index statistics for partition {}", index.getAttributeId(), suffixDn );
+                buildIndexStatistics( partitionTxn, index );
+            }
+        }
+
+        statisticsLoaded = true;
+    }
+
+
+    /**
+     * Rebuilds the statistics of an index by browsing all its keys
+     */
+    private <K> void buildIndexStatistics( PartitionTxn partitionTxn, Index<K, String> index ) throws LdapException
+    {
+        IndexStatistics statistics = index.getStatistics();
+        statistics.clear();
+
+        try ( Cursor<IndexEntry<K, String>> cursor = index.forwardCursor( partitionTxn ) )
+        {
+            while ( cursor.next() )
+            {
+                statistics.added( cursor.get().getKey() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Clears the caches and rebuilds the index statistics, when some changes have been 
+     * rolled back : they may hold some data which has never been committed. This method
+     * must be called while no write operation is in progress.
+     */
+    protected void resetCaches()
+    {
+        if ( !initialized )
+        {
+            return;
+        }
+
+        aliasCache.invalidateAll();
+        piarCache.invalidateAll();
+        entryDnCache.invalidateAll();
+        entryIdMap.clear();
+
+        if ( !statisticsLoaded )
+        {
+            return;
+        }
+
+        try ( PartitionTxn partitionTxn = beginReadTransaction() )
+        {
+            for ( Index<?, String> index : getStatisticsIndices() )
+            {
+                buildIndexStatistics( partitionTxn, index );
+            }
+        }
+        catch ( LdapException | IOException e )
+        {
+            LOG.warn( "Cannot rebuild the index statistics for partition {}", suffixDn, e );
+        }
+    }
+
+
+    /**
+     * Saves the index statistics so that they don't have to be rebuilt on the
+     * next startup. Does nothing for partitions without a path.
+     *
+     * @throws IOException If the statistics can't be written
+     */
+    protected void saveIndexStatistics() throws IOException
+    {
+        File statisticsFile = getIndexStatisticsFile();
+
+        if ( !statisticsLoaded || ( statisticsFile == null ) || !statisticsFile.getParentFile().exists() )
+        {
+            return;
+        }
+
+        statisticsLoaded = false;
+
+        List<Index<?, String>> indices = getStatisticsIndices();
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( 
+            Files.newOutputStream( statisticsFile.toPath() ) ) ) )
+        {
+            out.writeInt( indices.size() );
+
+            for ( Index<?, String> index : indices )
+            {
+                out.writeUTF( index.getAttribute().getOid() );
+                index.getStatistics().write( out );
+            }
+        }
+    }
+
+
+    /**
+     * @return The file storing the index statistics, or null if the partition has no path
+     */
+    private File getIndexStatisticsFile()
+    {
+        if ( ( partitionPath == null ) || !"file".equals( partitionPath.getScheme() ) )
+        {
+            return null;
+        }
+
+        return new File( new File( partitionPath ), INDEX_STATISTICS_FILE );
+    }
+
+
     private void dumpAllRdnIdx( PartitionTxn partitionTxn ) throws LdapException, CursorException, IOException
     {
         if ( LOG.isDebugEnabled() )
@@ -769,7 +1081,7 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         assert ( partitionTxn != null );
         assert ( partitionTxn instanceof PartitionWriteTxn );
 
-        try
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockSubtrees( addContext.getEntry().getDn() ) )
         {
             setRWLock( addContext );
             Entry entry = ( ( ClonedServerEntry ) addContext.getEntry() ).getClonedEntry();
@@ -822,7 +1134,8 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 suffixId = id;
             }
 
-            // Update the ObjectClass index
+            // Check the entry before updating any index, so that a rejected entry
+            // leaves the tables untouched
             Attribute objectClass = entry.get( objectClassAT );
 
             if ( objectClass == null )
@@ -833,18 +1146,15 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 throw new LdapSchemaViolationException( rc, msg );
             }
 
-            for ( Value value : objectClass )
-            {
-                if ( value.equals( topOCValue ) )
-                {
-                    continue;
-                }
-                
-                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
+            Attribute entryCsn = entry.get( entryCsnAT );
 
-                objectClassIdx.add( partitionTxn, normalizedOc, id );
+            if ( entryCsn == null )
+            {
+                String msg = I18n.err( I18n.ERR_219, entryDn.getName(), entry );
+                throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, msg );
             }
 
+            // The alias is checked before its indexes are updated
             if ( objectClass.contains( SchemaConstants.ALIAS_OC ) )
             {
                 Attribute aliasAttr = entry.get( aliasedObjectNameAT );
@@ -852,15 +1162,20 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 addAliasIndices( partitionTxn, id, entryDn, new Dn( schemaManager, aliasAttr.getString() ) );
             }
 
-            // Update the EntryCsn index
-            Attribute entryCsn = entry.get( entryCsnAT );
-
-            if ( entryCsn == null )
+            // Update the ObjectClass index
+            for ( Value value : objectClass )
             {
-                String msg = I18n.err( I18n.ERR_219, entryDn.getName(), entry );
-                throw new LdapSchemaViolationException( ResultCodeEnum.OBJECT_CLASS_VIOLATION, msg );
+                if ( value.equals( topOCValue ) )
+                {
+                    continue;
+                }
+                
+                String normalizedOc = objectClassNormalizer.normalize( value.getString() );
+
+                objectClassIdx.add( partitionTxn, normalizedOc, id );
             }
 
+            // Update the EntryCsn index
             entryCsnIdx.add( partitionTxn, entryCsn.getString(), id );
 
             // Update the AdministrativeRole index, if needed
@@ -960,40 +1275,43 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
         assert ( partitionTxn != null );
         assert ( partitionTxn instanceof PartitionWriteTxn );
 
-        setRWLock( deleteContext );
-        Dn dn = deleteContext.getDn();
-        String id = null;
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockSubtrees( deleteContext.getDn() ) )
+        {
+            setRWLock( deleteContext );
+            Dn dn = deleteContext.getDn();
+            String id = null;
 
-        lockRead();
+            lockRead();
 
-        try
-        {
-            id = getEntryId( partitionTxn, dn );
-        }
-        finally
-        {
-            unlockRead();
-        }
+            try
+            {
+                id = getEntryId( partitionTxn, dn );
+            }
+            finally
+            {
+                unlockRead();
+            }
 
-        // don't continue if id is null
-        if ( id == null )
-        {
-            throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_699, dn ) );
-        }
+            // don't continue if id is null
+            if ( id == null )
+            {
+                throw new LdapNoSuchObjectException( I18n.err( I18n.ERR_699, dn ) );
+            }
 
-        long childCount = getChildCount( partitionTxn, id );
+            long childCount = getChildCount( partitionTxn, id );
 
-        if ( childCount > 0 )
-        {
-            throw new LdapContextNotEmptyException( I18n.err( I18n.ERR_700, dn ) );
-        }
+            if ( childCount > 0 )
+            {
+                throw new LdapContextNotEmptyException( I18n.err( I18n.ERR_700, dn ) );
+            }
 
-        // We now defer the deletion to the implementing class
-        Entry deletedEntry = delete( partitionTxn, id );
+            // We now defer the deletion to the implementing class
+            Entry deletedEntry = delete( partitionTxn, id );
 
-        updateCache( deleteContext );
+            updateCache( deleteContext );
         
-        return deletedEntry;
+            return deletedEntry;
+        }
     }
 
 
@@ -1006,42 +1324,45 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
             return;
         }
 
-        ParentIdAndRdn parent = rdnIdx.reverseLookup( partitionTxn, parentId );
-
-        while ( parent != null )
+        synchronized ( rdnCountsLock )
         {
-            rdnIdx.drop( partitionTxn, parentId );
-            
-            if ( isFirst )
+            ParentIdAndRdn parent = rdnIdx.reverseLookup( partitionTxn, parentId );
+
+            while ( parent != null )
             {
+                rdnIdx.drop( partitionTxn, parentId );
+            
+                if ( isFirst )
+                {
+                    if ( addRemove == ADD_CHILD )
+                    {
+                        parent.setNbChildren( parent.getNbChildren() + 1 );
+                    }
+                    else
+                    {
+                        parent.setNbChildren( parent.getNbChildren() - 1 );
+                    }
+
+                    isFirst = false;
+                }
+
                 if ( addRemove == ADD_CHILD )
                 {
-                    parent.setNbChildren( parent.getNbChildren() + 1 );
+                    parent.setNbDescendants( parent.getNbDescendants() + ( nbDescendant + 1 ) );
                 }
                 else
                 {
-                    parent.setNbChildren( parent.getNbChildren() - 1 );
+                    parent.setNbDescendants( parent.getNbDescendants() - ( nbDescendant + 1 ) );
                 }
 
-                isFirst = false;
-            }
+                // Inject the modified element into the index
+                rdnIdx.add( partitionTxn, parent, parentId );
 
-            if ( addRemove == ADD_CHILD )
-            {
-                parent.setNbDescendants( parent.getNbDescendants() + ( nbDescendant + 1 ) );
-            }
-            else
-            {
-                parent.setNbDescendants( parent.getNbDescendants() - ( nbDescendant + 1 ) );
-            }
+                ////dumpRdnIdx();
 
-            // Inject the modified element into the index
-            rdnIdx.add( partitionTxn, parent, parentId );
-
-            ////dumpRdnIdx();
-
-            parentId = parent.getParentId();
-            parent = rdnIdx.reverseLookup( partitionTxn, parentId );
+                parentId = parent.getParentId();
+                parent = rdnIdx.reverseLookup( partitionTxn, parentId );
+            }
         }
     }
 
@@ -1161,16 +1482,14 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 }
 
                 master.remove( partitionTxn, id );
+                entryIdMap.release( id );
             }
             finally
             {
                 unlockWrite();
             }
 
-            if ( isSyncOnWrite.get() )
-            {
-                sync();
-            }
+            syncAfterWrite();
 
             return entry;
         }
@@ -1318,6 +1637,36 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Fetches an entry on behalf of a search, from another thread. The entry is not
+     * fetched if the partition is being written, as the writer may be the thread
+     * waiting for the entry.
+     *
+     * @param partitionTxn The transaction to use
+     * @param id The Entry UUID we want to get back
+     * @return The found Entry, or null if not found or if the partition is being written
+     * @throws LdapException If the lookup failed for any reason (except a not found entry)
+     */
+    Entry prefetch( PartitionTxn partitionTxn, String id ) throws LdapException
+    {
+        ReadWriteLock lock = rwLock;
+
+        if ( ( lock == null ) || !lock.readLock().tryLock() )
+        {
+            return null;
+        }
+
+        try
+        {
+            return fetch( partitionTxn, id );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+
     /**
      * Get back an entry knowing its UUID
      *
@@ -1430,55 +1779,58 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
+    public final Entry modify( PartitionTxn partitionTxn, Dn dn, Modification... mods ) throws LdapException
     {
-        String id = getEntryId( partitionTxn, dn );
-        Entry entry = master.get( partitionTxn, id );
-
-        for ( Modification mod : mods )
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockEntry( dn ) )
         {
-            Attribute attrMods = mod.getAttribute();
+            String id = getEntryId( partitionTxn, dn );
+            Entry entry = master.get( partitionTxn, id );
 
-            try
-            { 
-                switch ( mod.getOperation() )
-                {
-                    case ADD_ATTRIBUTE:
-                        modifyAdd( partitionTxn, id, entry, attrMods );
-                        break;
+            for ( Modification mod : mods )
+            {
+                Attribute attrMods = mod.getAttribute();
+
+                try
+                { 
+                    switch ( mod.getOperation() )
+                    {
+                        case ADD_ATTRIBUTE:
+                            modifyAdd( partitionTxn, id, entry, attrMods );
+                            break;
     
-                    case REMOVE_ATTRIBUTE:
-                        modifyRemove( partitionTxn, id, entry, attrMods );
-                        break;
+                        case REMOVE_ATTRIBUTE:
+                            modifyRemove( partitionTxn, id, entry, attrMods );
+                            break;
     
-                    case REPLACE_ATTRIBUTE:
-                        modifyReplace( partitionTxn, id, entry, attrMods );
-                        break;
+                        case REPLACE_ATTRIBUTE:
+                            modifyReplace( partitionTxn, id, entry, attrMods );
+                            break;
     
-                    case INCREMENT_ATTRIBUTE:
-                        modifyIncrement( partitionTxn, id, entry, attrMods );
-                        break;
+                        case INCREMENT_ATTRIBUTE:
+                            modifyIncrement( partitionTxn, id, entry, attrMods );
+                            break;
     
-                    default:
-                        throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                        default:
+                            throw new LdapException( I18n.err( I18n.ERR_221 ) );
+                    }
+                }
+                catch ( IndexNotFoundException infe )
+                {
+                    throw new LdapOtherException( infe.getMessage(), infe );
                 }
             }
-            catch ( IndexNotFoundException infe )
-            {
-                throw new LdapOtherException( infe.getMessage(), infe );
-            }
-        }
 
-        updateCsnIndex( partitionTxn, entry, id );
+            updateCsnIndex( partitionTxn, entry, id );
 
-        // Remove the EntryDN
-        entry.removeAttributes( entryDnAT );
+            // Remove the EntryDN
+            entry.removeAttributes( entryDnAT );
 
-        setContextCsn( entry.get( entryCsnAT ).getString() );
+            setContextCsn( entry.get( entryCsnAT ).getString() );
         
-        master.put( partitionTxn, id, entry );
+            master.put( partitionTxn, id, entry );
 
-        return entry;
+            return entry;
+        }
     }
 
 
@@ -2099,106 +2451,106 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      * {@inheritDoc}
      */
     @Override
-    public final synchronized void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
+    public final void move( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Dn newDn, Entry modifiedEntry )
         throws LdapException
     {
-        // Check that the parent Dn exists
-        String newParentId = getEntryId( partitionTxn, newSuperiorDn );
-
-        if ( newParentId == null )
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockSubtrees( oldDn, newDn ) )
         {
-            // This is not allowed : the parent must exist
-            throw new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
-        }
+            // Check that the parent Dn exists
+            String newParentId = getEntryId( partitionTxn, newSuperiorDn );
 
-        // Now check that the new entry does not exist
-        String newId = getEntryId( partitionTxn, newDn );
+            if ( newParentId == null )
+            {
+                // This is not allowed : the parent must exist
+                throw new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_256_NO_SUCH_OBJECT, newSuperiorDn.getName() ) );
+            }
 
-        if ( newId != null )
-        {
-            // This is not allowed : we should not be able to move an entry
-            // to an existing position
-            throw new LdapEntryAlreadyExistsException(
-                I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
-        }
+            // Now check that the new entry does not exist
+            String newId = getEntryId( partitionTxn, newDn );
 
-        // Get the entry and the old parent IDs
-        String entryId = getEntryId( partitionTxn, oldDn );
-        String oldParentId = getParentId( partitionTxn, entryId );
+            if ( newId != null )
+            {
+                // This is not allowed : we should not be able to move an entry
+                // to an existing position
+                throw new LdapEntryAlreadyExistsException(
+                    I18n.err( I18n.ERR_250_ENTRY_ALREADY_EXISTS, newSuperiorDn.getName() ) );
+            }
 
-        /*
-         * All aliases including and below oldChildDn, will be affected by
-         * the move operation with respect to one and subtree userIndices since
-         * their relationship to ancestors above oldChildDn will be
-         * destroyed.  For each alias below and including oldChildDn we will
-         * drop the index tuples mapping ancestor ids above oldChildDn to the
-         * respective target ids of the aliases.
-         */
-        dropMovedAliasIndices( partitionTxn, oldDn );
+            // Get the entry and the old parent IDs
+            String entryId = getEntryId( partitionTxn, oldDn );
+            String oldParentId = getParentId( partitionTxn, entryId );
+
+            /*
+             * All aliases including and below oldChildDn, will be affected by
+             * the move operation with respect to one and subtree userIndices since
+             * their relationship to ancestors above oldChildDn will be
+             * destroyed.  For each alias below and including oldChildDn we will
+             * drop the index tuples mapping ancestor ids above oldChildDn to the
+             * respective target ids of the aliases.
+             */
+            dropMovedAliasIndices( partitionTxn, oldDn );
 
-        // Update the Rdn index
-        // First drop the old entry
-        ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
+            // Update the Rdn index
+            // First drop the old entry
+            ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
 
-        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+            updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
 
-        rdnIdx.drop( partitionTxn, entryId );
-        updatePiarCache( movedEntry, entryId, DEL_CACHE );
+            rdnIdx.drop( partitionTxn, entryId );
+            updatePiarCache( movedEntry, entryId, DEL_CACHE );
 
-        // Now, add the new entry at the right position
-        movedEntry.setParentId( newParentId );
-        rdnIdx.add( partitionTxn, movedEntry, entryId );
-        updatePiarCache( movedEntry, entryId, ADD_CACHE );
+            // Now, add the new entry at the right position
+            movedEntry.setParentId( newParentId );
+            rdnIdx.add( partitionTxn, movedEntry, entryId );
+            updatePiarCache( movedEntry, entryId, ADD_CACHE );
 
-        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+            updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
-        /*
-         * Read Alias Index Tuples
-         *
-         * If this is a name change due to a move operation then the one and
-         * subtree userIndices for aliases were purged before the aliases were
-         * moved.  Now we must add them for each alias entry we have moved.
-         *
-         * aliasTarget is used as a marker to tell us if we're moving an
-         * alias.  If it is null then the moved entry is not an alias.
-         */
-        Dn aliasTarget = aliasIdx.reverseLookup( partitionTxn, entryId );
+            /*
+             * Read Alias Index Tuples
+             *
+             * If this is a name change due to a move operation then the one and
+             * subtree userIndices for aliases were purged before the aliases were
+             * moved.  Now we must add them for each alias entry we have moved.
+             *
+             * aliasTarget is used as a marker to tell us if we're moving an
+             * alias.  If it is null then the moved entry is not an alias.
+             */
+            Dn aliasTarget = aliasIdx.reverseLookup( partitionTxn, entryId );
 
-        if ( null != aliasTarget )
-        {
-            if ( !aliasTarget.isSchemaAware() )
+            if ( null != aliasTarget )
             {
-                aliasTarget = new Dn( schemaManager, aliasTarget );
-            }
+                if ( !aliasTarget.isSchemaAware() )
+                {
+                    aliasTarget = new Dn( schemaManager, aliasTarget );
+                }
             
 
-            addAliasIndices( partitionTxn, entryId, buildEntryDn( partitionTxn, entryId ), aliasTarget );
-        }
+                addAliasIndices( partitionTxn, entryId, buildEntryDn( partitionTxn, entryId ), aliasTarget );
+            }
 
-        // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
-        // directly using the Store API, in this case the value of modified entry will be null
-        // we need to lookup the entry to update the parent UUID
-        if ( modifiedEntry == null )
-        {
-            modifiedEntry = fetch( partitionTxn, entryId );
-        }
+            // the below case arises only when the move( Dn oldDn, Dn newSuperiorDn, Dn newDn  ) is called
+            // directly using the Store API, in this case the value of modified entry will be null
+            // we need to lookup the entry to update the parent UUID
+            if ( modifiedEntry == null )
+            {
+                modifiedEntry = fetch( partitionTxn, entryId );
+            }
 
-        // Update the master table with the modified entry
-        modifiedEntry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
+            // Update the master table with the modified entry
+            modifiedEntry.put( ApacheSchemaConstants.ENTRY_PARENT_ID_AT, newParentId );
 
-        // Remove the EntryDN
-        modifiedEntry.removeAttributes( entryDnAT );
+            // Remove the EntryDN
+            modifiedEntry.removeAttributes( entryDnAT );
 
-        entryDnCache.invalidateAll();
+            entryDnCache.invalidateAll();
         
-        setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
+            setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        master.put( partitionTxn, entryId, modifiedEntry );
+            master.put( partitionTxn, entryId, modifiedEntry );
 
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
+            syncAfterWrite();
         }
     }
 
@@ -2268,114 +2620,117 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     public void moveAndRename( PartitionTxn partitionTxn, Dn oldDn, Dn newSuperiorDn, Rdn newRdn, Map<String, 
             List<ModDnAva>> modAvas, Entry modifiedEntry ) throws LdapException
     {
-        // Get the child and the new parent to be entries and Ids
-        Attribute entryIdAt = modifiedEntry.get( SchemaConstants.ENTRY_UUID_AT );
-        String entryId;
-        
-        if ( entryIdAt == null )
-        {
-            entryId = getEntryId( partitionTxn, modifiedEntry.getDn() );
-        }
-        else
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockSubtrees( oldDn, newSuperiorDn.add( newRdn ) ) )
         {
-            entryId = modifiedEntry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
-        }
+            // Get the child and the new parent to be entries and Ids
+            Attribute entryIdAt = modifiedEntry.get( SchemaConstants.ENTRY_UUID_AT );
+            String entryId;
+        
+            if ( entryIdAt == null )
+            {
+                entryId = getEntryId( partitionTxn, modifiedEntry.getDn() );
+            }
+            else
+            {
+                entryId = modifiedEntry.get( SchemaConstants.ENTRY_UUID_AT ).getString();
+            }
 
-        Attribute oldParentIdAt = modifiedEntry.get( ApacheSchemaConstants.ENTRY_PARENT_ID_AT );
-        String oldParentId;
+            Attribute oldParentIdAt = modifiedEntry.get( ApacheSchemaConstants.ENTRY_PARENT_ID_AT );
+            String oldParentId;
         
-        if ( oldParentIdAt == null )
-        {
-            oldParentId = getEntryId( partitionTxn, oldDn.getParent() );
-        }
-        else
-        {
-            oldParentId = oldParentIdAt.getString();
-        }
+            if ( oldParentIdAt == null )
+            {
+                oldParentId = getEntryId( partitionTxn, oldDn.getParent() );
+            }
+            else
+            {
+                oldParentId = oldParentIdAt.getString();
+            }
 
-        String newParentId = getEntryId( partitionTxn, newSuperiorDn );
+            String newParentId = getEntryId( partitionTxn, newSuperiorDn );
 
-        //Get the info about the moved entry
-        ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
+            //Get the info about the moved entry
+            ParentIdAndRdn movedEntry = rdnIdx.reverseLookup( partitionTxn, entryId );
         
-        // First drop the moved entry from the rdn index
-        rdnIdx.drop( partitionTxn, entryId );
-        updatePiarCache( movedEntry, entryId, DEL_CACHE );
-
-        //
-        // The update the Rdn index. We will remove the ParentIdAndRdn associated with the
-        // moved entry, and update the nbChilden of its parent and the nbSubordinates
-        // of all its ascendant, up to the common superior.
-        // Then we will add a ParentidAndRdn for the moved entry under the new superior,
-        // update its children number and the nbSubordinates of all the new ascendant.
-        updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
+            // First drop the moved entry from the rdn index
+            rdnIdx.drop( partitionTxn, entryId );
+            updatePiarCache( movedEntry, entryId, DEL_CACHE );
+
+            //
+            // The update the Rdn index. We will remove the ParentIdAndRdn associated with the
+            // moved entry, and update the nbChilden of its parent and the nbSubordinates
+            // of all its ascendant, up to the common superior.
+            // Then we will add a ParentidAndRdn for the moved entry under the new superior,
+            // update its children number and the nbSubordinates of all the new ascendant.
+            updateRdnIdx( partitionTxn, oldParentId, REMOVE_CHILD, movedEntry.getNbDescendants() );
 
-        /*
-         * All aliases including and below oldChildDn, will be affected by
-         * the move operation with respect to one and subtree userIndices since
-         * their relationship to ancestors above oldChildDn will be
-         * destroyed.  For each alias below and including oldChildDn we will
-         * drop the index tuples mapping ancestor ids above oldChildDn to the
-         * respective target ids of the aliases.
-         */
-        dropMovedAliasIndices( partitionTxn, oldDn );
+            /*
+             * All aliases including and below oldChildDn, will be affected by
+             * the move operation with respect to one and subtree userIndices since
+             * their relationship to ancestors above oldChildDn will be
+             * destroyed.  For each alias below and including oldChildDn we will
+             * drop the index tuples mapping ancestor ids above oldChildDn to the
+             * respective target ids of the aliases.
+             */
+            dropMovedAliasIndices( partitionTxn, oldDn );
 
-        // Now, add the new entry at the right position
-        // First
-        movedEntry.setParentId( newParentId );
-        movedEntry.setRdns( new Rdn[]
-            { newRdn } );
-        rdnIdx.add( partitionTxn, movedEntry, entryId );
-        updatePiarCache( movedEntry, entryId, ADD_CACHE );
+            // Now, add the new entry at the right position
+            // First
+            movedEntry.setParentId( newParentId );
+            movedEntry.setRdns( new Rdn[]
+                { newRdn } );
+            rdnIdx.add( partitionTxn, movedEntry, entryId );
+            updatePiarCache( movedEntry, entryId, ADD_CACHE );
 
-        updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
+            updateRdnIdx( partitionTxn, newParentId, ADD_CHILD, movedEntry.getNbDescendants() );
 
-        // Process the modified indexes now
-        try
-        {
-            processModifiedAvas( partitionTxn, modAvas, entryId );
-        }
-        catch ( IndexNotFoundException infe )
-        {
-            throw new LdapOtherException( infe.getMessage(), infe );
-        }
+            // Process the modified indexes now
+            try
+            {
+                processModifiedAvas( partitionTxn, modAvas, entryId );
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
 
-        /*
-         * Read Alias Index Tuples
-         *
-         * If this is a name change due to a move operation then the one and
-         * subtree userIndices for aliases were purged before the aliases were
-         * moved.  Now we must add them for each alias entry we have moved.
-         *
-         * aliasTarget is used as a marker to tell us if we're moving an
-         * alias.  If it is null then the moved entry is not an alias.
-         */
-        Dn aliasTarget = aliasIdx.reverseLookup( partitionTxn, entryId );
+            /*
+             * Read Alias Index Tuples
+             *
+             * If this is a name change due to a move operation then the one and
+             * subtree userIndices for aliases were purged before the aliases were
+             * moved.  Now we must add them for each alias entry we have moved.
+             *
+             * aliasTarget is used as a marker to tell us if we're moving an
+             * alias.  If it is null then the moved entry is not an alias.
+             */
+            Dn aliasTarget = aliasIdx.reverseLookup( partitionTxn, entryId );
 
-        if ( null != aliasTarget )
-        {
-            if ( !aliasTarget.isSchemaAware() )
+            if ( null != aliasTarget )
             {
-                aliasTarget = new Dn( schemaManager, aliasTarget );
-            }
+                if ( !aliasTarget.isSchemaAware() )
+                {
+                    aliasTarget = new Dn( schemaManager, aliasTarget );
+                }
             
-            addAliasIndices( partitionTxn, entryId, buildEntryDn( partitionTxn, entryId ), aliasTarget );
-        }
+                addAliasIndices( partitionTxn, entryId, buildEntryDn( partitionTxn, entryId ), aliasTarget );
+            }
 
-        // Remove the EntryDN
-        modifiedEntry.removeAttributes( entryDnAT );
+            // Remove the EntryDN
+            modifiedEntry.removeAttributes( entryDnAT );
         
-        // Update the entryParentId attribute
-        modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
-        modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
+            // Update the entryParentId attribute
+            modifiedEntry.removeAttributes( ApacheSchemaConstants.ENTRY_PARENT_ID_OID );
+            modifiedEntry.add( ApacheSchemaConstants.ENTRY_PARENT_ID_OID, newParentId );
         
-        // Doom the DN cache now
-        entryDnCache.invalidateAll();
+            // Doom the DN cache now
+            entryDnCache.invalidateAll();
 
-        setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
+            setContextCsn( modifiedEntry.get( entryCsnAT ).getString() );
 
-        // save the modified entry at the new place
-        master.put( partitionTxn, entryId, modifiedEntry );
+            // save the modified entry at the new place
+            master.put( partitionTxn, entryId, modifiedEntry );
+        }
     }
     
     
@@ -2655,49 +3010,49 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
      */
     @SuppressWarnings("unchecked")
     @Override
-    public final synchronized void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
+    public final void rename( PartitionTxn partitionTxn, Dn dn, Rdn newRdn, boolean deleteOldRdn, Entry entry ) 
         throws LdapException
     {
-        String oldId = getEntryId( partitionTxn, dn );
-
-        try
-        {
-            rename( partitionTxn, oldId, newRdn, deleteOldRdn, entry );
-        }
-        catch ( IndexNotFoundException infe )
+        try ( SubtreeLock subtreeLock = subtreeLocks.lockSubtrees( dn, dn.getParent().add( newRdn ) ) )
         {
-            throw new LdapOtherException( infe.getMessage(), infe );
-        }
+            String oldId = getEntryId( partitionTxn, dn );
 
-        /*
-         * H A N D L E   D N   C H A N G E
-         * ====================================================================
-         * We only need to update the Rdn index.
-         * No need to calculate the new Dn.
-         */
-        String parentId = getParentId( partitionTxn, oldId );
+            try
+            {
+                rename( partitionTxn, oldId, newRdn, deleteOldRdn, entry );
+            }
+            catch ( IndexNotFoundException infe )
+            {
+                throw new LdapOtherException( infe.getMessage(), infe );
+            }
+
+            /*
+             * H A N D L E   D N   C H A N G E
+             * ====================================================================
+             * We only need to update the Rdn index.
+             * No need to calculate the new Dn.
+             */
+            String parentId = getParentId( partitionTxn, oldId );
 
-        // Get the old parentIdAndRdn to get the nb of children and descendant
-        ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, oldId );
+            // Get the old parentIdAndRdn to get the nb of children and descendant
+            ParentIdAndRdn parentIdAndRdn = rdnIdx.reverseLookup( partitionTxn, oldId );
 
-        // Now we can drop it
-        rdnIdx.drop( partitionTxn, oldId );
+            // Now we can drop it
+            rdnIdx.drop( partitionTxn, oldId );
         
-        updatePiarCache( parentIdAndRdn, oldId, DEL_CACHE );
+            updatePiarCache( parentIdAndRdn, oldId, DEL_CACHE );
 
-        // Update the descendants
-        parentIdAndRdn.setParentId( parentId );
-        parentIdAndRdn.setRdns( newRdn );
+            // Update the descendants
+            parentIdAndRdn.setParentId( parentId );
+            parentIdAndRdn.setRdns( newRdn );
 
-        rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
+            rdnIdx.add( partitionTxn, parentIdAndRdn, oldId );
 
-        updatePiarCache( parentIdAndRdn, oldId, ADD_CACHE );
+            updatePiarCache( parentIdAndRdn, oldId, ADD_CACHE );
 
-        entryDnCache.invalidateAll();
+            entryDnCache.invalidateAll();
         
-        if ( isSyncOnWrite.get() )
-        {
-            sync();
+            syncAfterWrite();
         }
     }
 
@@ -3625,6 +3980,250 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     }
 
 
+    /**
+     * Rewrites the entries which have been read from a previous serialization format, so
+     * that they get stored in the {@link CompactEntryCodec} format. The partition can be
+     * used meanwhile : the entries are converted by small batches, each batch holding the
+     * write lock from the beginning of its transaction to its commit.
+     *
+     * @return The number of converted entries
+     * @throws LdapException If an entry can't be converted
+     */
+    private long convertEntries() throws LdapException
+    {
+        long nbConverted = 0L;
+        List<String> ids = new ArrayList<>( CONVERSION_BATCH_SIZE );
+
+        do
+        {
+            String lastId = ids.isEmpty() ? null : ids.get( ids.size() - 1 );
+            PartitionTxn partitionTxn;
+            Lock lock = rwLock.writeLock();
+            lock.lock();
+
+            try
+            {
+                readIds( lastId, ids );
+
+                if ( ids.isEmpty() )
+                {
+                    break;
+                }
+
+                partitionTxn = beginWriteTransaction();
+                nbConverted += convertEntries( partitionTxn, ids );
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            // Wait for the grouped commit, if any, once the lock is released
+            if ( partitionTxn instanceof PartitionWriteTxn )
+            {
+                try
+                {
+                    ( ( PartitionWriteTxn ) partitionTxn ).awaitDurability();
+                }
+                catch ( IOException ioe )
+                {
+                    throw new LdapOtherException( ioe.getMessage(), ioe );
+                }
+            }
+        }
+        while ( !stopConversion );
+
+        return nbConverted;
+    }
+
+
+    /**
+     * Reads the ids of the next batch of entries to convert
+     *
+     * @param lastId The last id of the previous batch, null for the first batch
+     * @param ids The list storing the read ids
+     */
+    private void readIds( String lastId, List<String> ids ) throws LdapException
+    {
+        ids.clear();
+
+        try ( Cursor<Tuple<String, Entry>> cursor = master.cursor() )
+        {
+            if ( lastId == null )
+            {
+                cursor.beforeFirst();
+            }
+            else
+            {
+                cursor.after( new Tuple<String, Entry>( lastId, null ) );
+            }
+
+            while ( ( ids.size() < CONVERSION_BATCH_SIZE ) && cursor.next() )
+            {
+                ids.add( cursor.get().getKey() );
+            }
+        }
+        catch ( CursorException | IOException e )
+        {
+            throw new LdapOtherException( e.getMessage(), e );
+        }
+    }
+
+
+    /**
+     * Rewrites some entries in a write transaction, if they have been read from a previous
+     * serialization format. Must be called while holding the write lock.
+     */
+    private int convertEntries( PartitionTxn partitionTxn, List<String> ids ) throws LdapException
+    {
+        int nbConverted = 0;
+
+        try
+        {
+            for ( String id : ids )
+            {
+                Entry entry = master.get( partitionTxn, id );
+
+                if ( ( entry != null ) && !CompactEntryCodec.isCompact( entry ) )
+                {
+                    master.put( partitionTxn, id, entry );
+                    nbConverted++;
+                }
+            }
+
+            partitionTxn.commit();
+
+            return nbConverted;
+        }
+        catch ( LdapException le )
+        {
+            abort( partitionTxn );
+
+            throw le;
+        }
+        catch ( IOException ioe )
+        {
+            abort( partitionTxn );
+
+            throw new LdapOtherException( ioe.getMessage(), ioe );
+        }
+    }
+
+
+    /**
+     * Aborts a transaction, logging the failures
+     */
+    private void abort( PartitionTxn partitionTxn )
+    {
+        try
+        {
+            partitionTxn.abort();
+        }
+        catch ( IOException ioe )
+        {
+            LOG.error( "Cannot abort the transaction", ioe );
+        }
+    }
+
+
+    /**
+     * Starts a thread converting the entries stored in a previous serialization format,
+     * if the conversion marker file exists. The marker is deleted once all the entries
+     * have been converted, so an interrupted conversion is resumed on the next startup.
+     * <br>
+     * The conversion holds the OperationManager write lock, which is only known once the
+     * partition has been used : until then, the thread start is deferred.
+     *
+     * @param conversionMarker The conversion marker file
+     */
+    protected void startEntryConversion( File conversionMarker )
+    {
+        if ( !conversionMarker.exists() )
+        {
+            return;
+        }
+
+        pendingConversion = conversionMarker;
+
+        if ( rwLock != null )
+        {
+            startPendingConversion();
+        }
+    }
+
+
+    /**
+     * Starts the deferred entry conversion, if any
+     */
+    private synchronized void startPendingConversion()
+    {
+        File conversionMarker = pendingConversion;
+
+        if ( conversionMarker == null )
+        {
+            return;
+        }
+
+        pendingConversion = null;
+        stopConversion = false;
+
+        entryConverter = new Thread( () ->
+        {
+            try
+            {
+                long nbConverted = convertEntries();
+
+                if ( !stopConversion )
+                {
+                    LOG.info( "{} entries converted in partition {}", nbConverted, getId() );
+                    Files.deleteIfExists( conversionMarker.toPath() );
+                }
+            }
+            catch ( LdapException | IOException e )
+            {
+                LOG.error( "Cannot convert the entries of partition {}", getId(), e );
+            }
+        }, "EntryConverter-" + getId() );
+
+        entryConverter.setDaemon( true );
+        entryConverter.start();
+    }
+
+
+    /**
+     * Stops the thread converting the entries, if any. The conversion is resumed by
+     * {@link #startEntryConversion(File)}.
+     */
+    protected void stopEntryConversion()
+    {
+        Thread converter;
+
+        synchronized ( this )
+        {
+            pendingConversion = null;
+            converter = entryConverter;
+        }
+
+        if ( converter == null )
+        {
+            return;
+        }
+
+        stopConversion = true;
+
+        try
+        {
+            converter.join();
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        entryConverter = null;
+    }
+
+
     /**
      * Acquire a Read lock
      */
@@ -3744,6 +4343,11 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
                 rwLock = new ReentrantReadWriteLock();
             }
         }
+
+        if ( pendingConversion != null )
+        {
+            startPendingConversion();
+        }
     }
 
 
@@ -3765,6 +4369,16 @@ public abstract class AbstractBTreePartition extends AbstractPartition implement
     {
         return aliasCache;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EntryIdMap getEntryIdMap()
+    {
+        return entryIdMap;
+    }
     
     
     /**
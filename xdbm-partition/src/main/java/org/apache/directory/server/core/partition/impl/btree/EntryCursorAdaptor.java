@@ -27,6 +27,7 @@ import org.apache.directory.api.ldap.model.cursor.AbstractCursor;
 import org.apache.directory.api.ldap.model.cursor.ClosureMonitor;
 import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
@@ -40,6 +41,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Adapts index cursors to return just Entry objects.
+ * <br>
+ * Once the cursor has moved forward on as many candidates as the partition's prefetch
+ * size, the next candidates' entries are fetched ahead, in parallel, by an
+ * {@link EntryPrefetcher}. As the index cursor is then read ahead, moving backward
+ * stops the prefetching, and repositions the index cursor from the first candidate.
+ * The cursor follows the candidates order from this point. The entries are not fetched
+ * ahead once the cursor has been positioned from the end.
  *
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
@@ -57,6 +65,21 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
     private final Cursor<IndexEntry<String, String>> indexCursor;
     private final Evaluator<? extends ExprNode> evaluator;
 
+    /** The partition being searched */
+    private final AbstractBTreePartition db;
+
+    /** The number of candidates read before fetching the entries ahead, 0 if disabled */
+    private final int prefetchSize;
+
+    /** The position of the current candidate, starting at 1. 0 before the first one, -1 if unknown */
+    private int position;
+
+    /** The prefetcher, once the entries are fetched ahead */
+    private EntryPrefetcher prefetcher;
+
+    /** The current candidate, once the entries are fetched ahead */
+    private IndexEntry<String, String> current;
+
 
     public EntryCursorAdaptor( PartitionTxn partitionTxn, AbstractBTreePartition db, PartitionSearchResult searchResult )
     {
@@ -68,6 +91,45 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
         indexCursor = searchResult.getResultSet();
         evaluator = searchResult.getEvaluator();
         this.partitionTxn = partitionTxn;
+        this.db = db;
+        prefetchSize = db.getPrefetchSize();
+    }
+
+
+    /**
+     * Stops fetching the entries ahead, before the cursor is positioned again
+     */
+    private void stopPrefetch()
+    {
+        if ( prefetcher != null )
+        {
+            prefetcher.cancel();
+            prefetcher = null;
+            current = null;
+        }
+    }
+
+
+    /**
+     * Moves the index cursor back on the candidate preceding the current one, the
+     * index cursor being ahead of the prefetcher
+     */
+    private boolean replayPrevious() throws LdapException, CursorException
+    {
+        // After the last candidate, the previous one is the last delivered candidate
+        int target = ( current != null ) ? position - 1 : position;
+
+        stopPrefetch();
+        position = 0;
+        indexCursor.beforeFirst();
+        position = 0;
+
+        while ( ( position < target ) && indexCursor.next() )
+        {
+            position++;
+        }
+
+        return position > 0;
     }
 
 
@@ -85,6 +147,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void afterLast() throws LdapException, CursorException
     {
+        stopPrefetch();
+        position = -1;
         this.indexCursor.afterLast();
     }
 
@@ -94,6 +158,11 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean available()
     {
+        if ( prefetcher != null )
+        {
+            return current != null;
+        }
+
         return indexCursor.available();
     }
 
@@ -112,6 +181,8 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public void beforeFirst() throws LdapException, CursorException
     {
+        stopPrefetch();
+        position = 0;
         indexCursor.beforeFirst();
     }
 
@@ -137,6 +208,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
+        stopPrefetch();
         indexCursor.close();
     }
 
@@ -152,6 +224,7 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
             LOG_CURSOR.debug( "Closing EntryCursorAdaptor {}", this );
         }
 
+        stopPrefetch();
         indexCursor.close( cause );
     }
 
@@ -161,7 +234,11 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean first() throws LdapException, CursorException
     {
-        return indexCursor.first();
+        stopPrefetch();
+        boolean found = indexCursor.first();
+        position = found ? 1 : 0;
+
+        return found;
     }
 
 
@@ -170,7 +247,21 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public Entry get() throws CursorException
     {
-        IndexEntry<String, String> indexEntry = indexCursor.get();
+        IndexEntry<String, String> indexEntry;
+
+        if ( prefetcher != null )
+        {
+            if ( current == null )
+            {
+                throw new InvalidCursorPositionException();
+            }
+
+            indexEntry = current;
+        }
+        else
+        {
+            indexEntry = indexCursor.get();
+        }
 
         try
         {
@@ -210,6 +301,9 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean last() throws LdapException, CursorException
     {
+        stopPrefetch();
+        position = -1;
+
         return indexCursor.last();
     }
 
@@ -219,7 +313,30 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean next() throws LdapException, CursorException
     {
-        return indexCursor.next();
+        if ( ( prefetcher == null ) && ( prefetchSize > 0 ) && ( position >= prefetchSize ) )
+        {
+            // A large search : read the next entries ahead
+            prefetcher = new EntryPrefetcher( partitionTxn, db, indexCursor, prefetchSize, db.isPrefetchOrdered() );
+        }
+
+        boolean found;
+
+        if ( prefetcher != null )
+        {
+            current = prefetcher.next();
+            found = current != null;
+        }
+        else
+        {
+            found = indexCursor.next();
+        }
+
+        if ( found && ( position >= 0 ) )
+        {
+            position++;
+        }
+
+        return found;
     }
 
 
@@ -228,7 +345,19 @@ public class EntryCursorAdaptor extends AbstractCursor<Entry>
      */
     public boolean previous() throws LdapException, CursorException
     {
-        return indexCursor.previous();
+        if ( prefetcher != null )
+        {
+            return replayPrevious();
+        }
+
+        boolean found = indexCursor.previous();
+
+        if ( position > 0 )
+        {
+            position = found ? position - 1 : 0;
+        }
+
+        return found;
     }
 
 
@@ -0,0 +1,339 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.xdbm.IndexEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Fetches the entries of a search's candidates ahead of the cursor consuming them. The
+ * candidates are read by batches, sorted by their ID so that the master table is read in
+ * its keys order, and fetched in parallel by a pool of threads shared by all the
+ * partitions. The next batch is read when half of the current one has been consumed.
+ * <br>
+ * The candidates are delivered either in the order the index cursor returned them, or
+ * as soon as their entry has been fetched. A candidate whose entry could not be fetched
+ * ahead, because the partition was locked for writing, is delivered without entry : the
+ * evaluator will then fetch it as usual.
+ * <br>
+ * The prefetcher only delivers the candidates in the forward direction, the index cursor
+ * being read ahead of it. The {@link EntryCursorAdaptor} moving backward cancels it, and
+ * repositions the index cursor itself.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+class EntryPrefetcher
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( EntryPrefetcher.class );
+
+    /** The number of threads fetching the entries */
+    private static final int POOL_SIZE = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+
+    /** The minimal number of candidates fetched by a task */
+    private static final int MIN_TASK_SIZE = 8;
+
+    /** The pool of threads fetching the entries, shared by all the partitions */
+    private static final ThreadPoolExecutor FETCH_POOL;
+
+    static
+    {
+        AtomicInteger threadNumber = new AtomicInteger();
+
+        FETCH_POOL = new ThreadPoolExecutor( POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), runnable ->
+            {
+                Thread thread = new Thread( runnable, "EntryPrefetcher-" + threadNumber.incrementAndGet() );
+                thread.setDaemon( true );
+
+                return thread;
+            } );
+
+        FETCH_POOL.allowCoreThreadTimeOut( true );
+    }
+
+    /** The transaction in use */
+    private final PartitionTxn partitionTxn;
+
+    /** The partition the entries are fetched from */
+    private final AbstractBTreePartition db;
+
+    /** The cursor on the candidates */
+    private final Cursor<IndexEntry<String, String>> indexCursor;
+
+    /** Sorts the candidates in the master table keys order */
+    private final Comparator<IndexEntry<String, String>> idComparator;
+
+    /** The number of candidates read at once */
+    private final int batchSize;
+
+    /** Tells if the candidates are delivered in the index cursor order */
+    private final boolean ordered;
+
+    /** The candidates being fetched, in the index cursor order, when ordered */
+    private final Deque<Prefetched> pending = new ArrayDeque<>();
+
+    /** The candidates which have been fetched, when not ordered */
+    private final BlockingQueue<IndexEntry<String, String>> fetched = new LinkedBlockingQueue<>();
+
+    /** The tasks which may not be completed */
+    private final List<Future<?>> tasks = new ArrayList<>();
+
+    /** The number of candidates read and not yet delivered */
+    private int nbPending;
+
+    /** Tells if the index cursor has no more candidates */
+    private boolean exhausted;
+
+
+    /**
+     * A candidate and the task fetching its entry
+     */
+    private static final class Prefetched
+    {
+        private final IndexEntry<String, String> indexEntry;
+        private final Future<?> task;
+
+
+        private Prefetched( IndexEntry<String, String> indexEntry, Future<?> task )
+        {
+            this.indexEntry = indexEntry;
+            this.task = task;
+        }
+    }
+
+
+    /**
+     * Creates a new EntryPrefetcher instance
+     *
+     * @param partitionTxn The transaction in use
+     * @param db The partition the entries are fetched from
+     * @param indexCursor The cursor on the candidates, positioned before the next candidate to deliver
+     * @param batchSize The number of candidates read at once
+     * @param ordered Tells if the candidates are delivered in the index cursor order
+     */
+    EntryPrefetcher( PartitionTxn partitionTxn, AbstractBTreePartition db,
+        Cursor<IndexEntry<String, String>> indexCursor, int batchSize, boolean ordered )
+    {
+        this.partitionTxn = partitionTxn;
+        this.db = db;
+        this.indexCursor = indexCursor;
+        this.batchSize = batchSize;
+        this.ordered = ordered;
+
+        Comparator<String> keyComparator = db.getMasterTable().getKeyComparator();
+        idComparator = ( indexEntry1, indexEntry2 ) -> keyComparator.compare( indexEntry1.getId(),
+            indexEntry2.getId() );
+    }
+
+
+    /**
+     * Gets the next candidate, its entry being fetched if possible.
+     *
+     * @return The next candidate, or null if there is no more candidates
+     * @throws LdapException If the index cursor can't be read
+     * @throws CursorException If the index cursor can't be read
+     */
+    IndexEntry<String, String> next() throws LdapException, CursorException
+    {
+        if ( !exhausted && ( nbPending <= batchSize / 2 ) )
+        {
+            readBatch();
+        }
+
+        if ( nbPending == 0 )
+        {
+            return null;
+        }
+
+        nbPending--;
+
+        try
+        {
+            if ( ordered )
+            {
+                Prefetched prefetched = pending.poll();
+
+                if ( prefetched.task != null )
+                {
+                    prefetched.task.get();
+                }
+
+                return prefetched.indexEntry;
+            }
+            else
+            {
+                return fetched.take();
+            }
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+
+            throw new CursorException( ie.getMessage(), ie );
+        }
+        catch ( ExecutionException ee )
+        {
+            throw new CursorException( ee.getMessage(), ee.getCause() );
+        }
+    }
+
+
+    /**
+     * Cancels the tasks which have not been started. The running tasks are not
+     * interrupted, as an interruption closes the underlying FileChannels of some
+     * backends.
+     */
+    void cancel()
+    {
+        for ( Future<?> task : tasks )
+        {
+            task.cancel( false );
+        }
+
+        tasks.clear();
+        pending.clear();
+        fetched.clear();
+        nbPending = 0;
+        exhausted = true;
+    }
+
+
+    /**
+     * Reads the next batch of candidates, and starts fetching their entries
+     */
+    private void readBatch() throws LdapException, CursorException
+    {
+        tasks.removeIf( Future::isDone );
+
+        List<IndexEntry<String, String>> batch = new ArrayList<>( batchSize );
+        List<IndexEntry<String, String>> toFetch = new ArrayList<>( batchSize );
+
+        while ( batch.size() < batchSize )
+        {
+            if ( !indexCursor.next() )
+            {
+                exhausted = true;
+                break;
+            }
+
+            IndexEntry<String, String> indexEntry = indexCursor.get();
+            batch.add( indexEntry );
+
+            if ( indexEntry.getEntry() == null )
+            {
+                toFetch.add( indexEntry );
+            }
+            else if ( !ordered )
+            {
+                // Already known, no need to wait
+                fetched.add( indexEntry );
+            }
+        }
+
+        nbPending += batch.size();
+
+        // The tasks fetching each candidate, when ordered
+        Map<IndexEntry<String, String>, Future<?>> taskOf = ordered ? new IdentityHashMap<>() : null;
+
+        if ( !toFetch.isEmpty() )
+        {
+            toFetch.sort( idComparator );
+
+            // Split the sorted candidates in contiguous ranges, one per task
+            int nbTasks = Math.max( 1, Math.min( POOL_SIZE, toFetch.size() / MIN_TASK_SIZE ) );
+            int taskSize = ( toFetch.size() + nbTasks - 1 ) / nbTasks;
+
+            for ( int start = 0; start < toFetch.size(); start += taskSize )
+            {
+                List<IndexEntry<String, String>> range = toFetch.subList( start,
+                    Math.min( start + taskSize, toFetch.size() ) );
+                FutureTask<Void> task = new FutureTask<>( () -> fetch( range ), null );
+                tasks.add( task );
+
+                if ( ordered )
+                {
+                    for ( IndexEntry<String, String> indexEntry : range )
+                    {
+                        taskOf.put( indexEntry, task );
+                    }
+                }
+
+                FETCH_POOL.execute( task );
+            }
+        }
+
+        if ( ordered )
+        {
+            for ( IndexEntry<String, String> indexEntry : batch )
+            {
+                pending.add( new Prefetched( indexEntry, taskOf.get( indexEntry ) ) );
+            }
+        }
+    }
+
+
+    /**
+     * Fetches the entries of some candidates. Runs in the pool's threads.
+     */
+    private void fetch( List<IndexEntry<String, String>> range )
+    {
+        for ( IndexEntry<String, String> indexEntry : range )
+        {
+            try
+            {
+                indexEntry.setEntry( db.prefetch( partitionTxn, indexEntry.getId() ) );
+            }
+            catch ( LdapException | RuntimeException e )
+            {
+                // The evaluator will fetch the entry, and report the error
+                LOG.debug( "Cannot prefetch the entry {}", indexEntry.getId(), e );
+            }
+
+            if ( !ordered )
+            {
+                fetched.add( indexEntry );
+            }
+        }
+    }
+}
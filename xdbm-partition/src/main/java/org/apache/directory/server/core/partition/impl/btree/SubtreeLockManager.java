@@ -0,0 +1,247 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+
+
+/**
+ * Locks the entries of a partition by their Dn, so that modifications of independent
+ * entries can be done concurrently.
+ * <br>
+ * Two kinds of locks are used, both striped over a fixed number of slots selected by the
+ * hash of the normalized Dn :
+ * <ul>
+ *   <li>A structure lock, which is a read/write lock. A change of the DN structure (add,
+ *   delete, move, rename) takes the write lock on the modified Dns, and the read lock on
+ *   all their ancestors. Any other operation on an entry takes the read lock on the entry
+ *   and its ancestors. A change in the DN structure thus only excludes the operations done
+ *   in the affected subtrees.</li>
+ *   <li>A content lock, which is an exclusive lock taken by the modify operation once the
+ *   structure is protected, so that two modifications of the same entry are serialized
+ *   without blocking the modifications of its children.</li>
+ * </ul>
+ * The slots are always acquired in ascending order, and only one content lock is held at
+ * a time, so no deadlock can occur whatever the collisions between the slots. The locks
+ * are not upgradable : a thread holding a lock must not request a new one.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubtreeLockManager
+{
+    /** The default number of slots */
+    public static final int DEFAULT_NB_SLOTS = 256;
+
+    /** The structure locks */
+    private final ReentrantReadWriteLock[] structureLocks;
+
+    /** The content locks */
+    private final ReentrantLock[] contentLocks;
+
+    /** The mask used to select a slot */
+    private final int mask;
+
+
+    /**
+     * A set of acquired locks, released when closed.
+     */
+    public static final class SubtreeLock implements AutoCloseable
+    {
+        /** The acquired locks, in acquisition order */
+        private final Lock[] locks;
+
+
+        private SubtreeLock( Lock[] locks )
+        {
+            this.locks = locks;
+        }
+
+
+        /**
+         * Releases the locks, in the reverse acquisition order
+         */
+        @Override
+        public void close()
+        {
+            for ( int i = locks.length - 1; i >= 0; i-- )
+            {
+                locks[i].unlock();
+            }
+        }
+    }
+
+
+    /**
+     * Creates a new SubtreeLockManager instance, with {@link #DEFAULT_NB_SLOTS} slots
+     */
+    public SubtreeLockManager()
+    {
+        this( DEFAULT_NB_SLOTS );
+    }
+
+
+    /**
+     * Creates a new SubtreeLockManager instance
+     *
+     * @param nbSlots The number of slots, rounded up to a power of 2
+     */
+    public SubtreeLockManager( int nbSlots )
+    {
+        int size = Integer.highestOneBit( Math.max( 1, nbSlots - 1 ) ) << 1;
+        mask = size - 1;
+        structureLocks = new ReentrantReadWriteLock[size];
+        contentLocks = new ReentrantLock[size];
+
+        for ( int i = 0; i < size; i++ )
+        {
+            structureLocks[i] = new ReentrantReadWriteLock();
+            contentLocks[i] = new ReentrantLock();
+        }
+    }
+
+
+    /**
+     * Locks an entry before modifying its content. The entry and its ancestors can't
+     * be moved, renamed or deleted until the lock is released, and the other modifications
+     * of the same entry are blocked.
+     *
+     * @param dn The entry Dn
+     * @return The acquired lock, to be closed when the modification is done
+     */
+    public SubtreeLock lockEntry( Dn dn )
+    {
+        int[] slots = new int[dn.size() + 1];
+        int nbSlots = collect( dn, false, slots, 0 );
+        Lock[] locks = acquire( slots, nbSlots, 1 );
+
+        Lock contentLock = contentLocks[slot( dn )];
+        contentLock.lock();
+        locks[locks.length - 1] = contentLock;
+
+        return new SubtreeLock( locks );
+    }
+
+
+    /**
+     * Locks some subtrees before modifying the DN structure. No operation can be done
+     * on the entries in these subtrees, and their ancestors can't be moved, renamed or
+     * deleted, until the lock is released.
+     *
+     * @param dns The Dns of the subtrees roots
+     * @return The acquired lock, to be closed when the modification is done
+     */
+    public SubtreeLock lockSubtrees( Dn... dns )
+    {
+        int length = 0;
+
+        for ( Dn dn : dns )
+        {
+            length += dn.size() + 1;
+        }
+
+        int[] slots = new int[length];
+        int nbSlots = 0;
+
+        for ( Dn dn : dns )
+        {
+            nbSlots = collect( dn, true, slots, nbSlots );
+        }
+
+        return new SubtreeLock( acquire( slots, nbSlots, 0 ) );
+    }
+
+
+    /**
+     * Stores the slots of a Dn and its ancestors. Each slot is stored as (slot << 1) | 1
+     * for a read lock, and (slot << 1) for a write lock, so that once sorted a slot used in
+     * both modes is first seen with the write mode.
+     */
+    private int collect( Dn dn, boolean write, int[] slots, int pos )
+    {
+        slots[pos++] = ( slot( dn ) << 1 ) | ( write ? 0 : 1 );
+        Dn ancestor = dn.getParent();
+
+        while ( !ancestor.isEmpty() )
+        {
+            slots[pos++] = ( slot( ancestor ) << 1 ) | 1;
+            ancestor = ancestor.getParent();
+        }
+
+        return pos;
+    }
+
+
+    /**
+     * Acquires the structure locks, in ascending slot order.
+     *
+     * @param slots The collected slots
+     * @param nbSlots The number of collected slots
+     * @param extra The number of extra locks that will be added by the caller
+     * @return The acquired locks, followed by <code>extra</code> empty positions
+     */
+    private Lock[] acquire( int[] slots, int nbSlots, int extra )
+    {
+        Arrays.sort( slots, 0, nbSlots );
+
+        Lock[] locks = new Lock[nbSlots + extra];
+        int nbLocks = 0;
+        int previous = -1;
+
+        for ( int i = 0; i < nbSlots; i++ )
+        {
+            int slot = slots[i] >>> 1;
+
+            if ( slot == previous )
+            {
+                continue;
+            }
+
+            previous = slot;
+            ReentrantReadWriteLock structureLock = structureLocks[slot];
+            Lock lock = ( slots[i] & 1 ) == 0 ? structureLock.writeLock() : structureLock.readLock();
+            lock.lock();
+            locks[nbLocks++] = lock;
+        }
+
+        if ( nbLocks < nbSlots )
+        {
+            locks = Arrays.copyOf( locks, nbLocks + extra );
+        }
+
+        return locks;
+    }
+
+
+    /**
+     * Computes the slot of a Dn
+     */
+    private int slot( Dn dn )
+    {
+        int hash = dn.getNormName().hashCode();
+
+        return ( hash ^ ( hash >>> 16 ) ) & mask;
+    }
+}
@@ -52,6 +52,9 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     /** A counter used to differ the commit on disk after N operations */
     protected AtomicInteger commitNumber;
 
+    /** The statistics about the index content, used by the optimizer */
+    protected final IndexStatistics statistics = new IndexStatistics();
+
 
     /**
      * Creates a new instance of AbstractIndex.
@@ -162,4 +165,13 @@ public abstract class AbstractIndex<K, E> implements Index<K, E>
     {
         return withReverse;
     }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    public IndexStatistics getStatistics()
+    {
+        return statistics;
+    }
 }
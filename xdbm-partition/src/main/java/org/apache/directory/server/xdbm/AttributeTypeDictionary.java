@@ -0,0 +1,256 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Associates a small integer to each AttributeType stored in a partition, so that the
+ * serialized entries don't have to store the AttributeTypes' OID. An id is never
+ * reused nor changed once it has been given.
+ * <br>
+ * The dictionary is stored in its own file, each new OID being appended to it and
+ * synced before its id is returned, so that no serialized entry can reference an id
+ * which would be lost on a crash. A dictionary created without file only lives in
+ * memory.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class AttributeTypeDictionary
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( AttributeTypeDictionary.class );
+
+    /** The file extension of the dictionaries */
+    public static final String DICTIONARY_FILE_EXTN = ".dict";
+
+    /** The file storing the OIDs, in ids order */
+    private final File file;
+
+    /** The id of each OID */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** The OIDs, indexed by their id */
+    private volatile String[] oids = new String[0];
+
+
+    /**
+     * Creates a dictionary living in memory only
+     */
+    public AttributeTypeDictionary()
+    {
+        file = null;
+    }
+
+
+    /**
+     * Opens the dictionary stored in a file, creating the file if it does not exist.
+     *
+     * @param file The file storing the dictionary
+     * @throws IOException If the file can't be read
+     */
+    public AttributeTypeDictionary( File file ) throws IOException
+    {
+        this.file = file;
+
+        if ( !file.exists() )
+        {
+            return;
+        }
+
+        String[] loaded = new String[16];
+        int nbOids = 0;
+        long validLength = 0L;
+
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) )
+        {
+            while ( true )
+            {
+                String oid;
+
+                try
+                {
+                    oid = in.readUTF();
+                }
+                catch ( EOFException eofe )
+                {
+                    break;
+                }
+
+                if ( nbOids == loaded.length )
+                {
+                    loaded = Arrays.copyOf( loaded, nbOids * 2 );
+                }
+
+                ids.put( oid, nbOids );
+                loaded[nbOids++] = oid;
+                validLength += 2 + utfLength( oid );
+            }
+        }
+
+        if ( validLength < file.length() )
+        {
+            // The last OID has not been completely written : it can't be referenced
+            LOG.warn( "Truncating the incomplete last record of the dictionary {}", file );
+
+            try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+            {
+                raf.setLength( validLength );
+            }
+        }
+
+        oids = Arrays.copyOf( loaded, nbOids );
+    }
+
+
+    /**
+     * Gets the id of an AttributeType, giving it a new id if it has none yet.
+     *
+     * @param attributeType The AttributeType
+     * @return The AttributeType's id
+     * @throws IOException If the new id can't be stored
+     */
+    public int getId( AttributeType attributeType ) throws IOException
+    {
+        Integer id = ids.get( attributeType.getOid() );
+
+        if ( id != null )
+        {
+            return id;
+        }
+
+        return addOid( attributeType.getOid() );
+    }
+
+
+    /**
+     * Gets the OID of the AttributeType having a given id
+     *
+     * @param id The AttributeType's id
+     * @return The OID, or null if the id is unknown
+     */
+    public String getOid( int id )
+    {
+        String[] current = oids;
+
+        if ( ( id < 0 ) || ( id >= current.length ) )
+        {
+            return null;
+        }
+
+        return current[id];
+    }
+
+
+    /**
+     * @return The number of AttributeTypes in the dictionary
+     */
+    public int size()
+    {
+        return oids.length;
+    }
+
+
+    /**
+     * Stores a new OID
+     */
+    private synchronized int addOid( String oid ) throws IOException
+    {
+        Integer id = ids.get( oid );
+
+        if ( id != null )
+        {
+            // Added by another thread meanwhile
+            return id;
+        }
+
+        int newId = oids.length;
+
+        if ( file != null )
+        {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            try ( DataOutputStream out = new DataOutputStream( baos ) )
+            {
+                out.writeUTF( oid );
+            }
+
+            try ( FileOutputStream out = new FileOutputStream( file, true ) )
+            {
+                out.write( baos.toByteArray() );
+                out.getFD().sync();
+            }
+        }
+
+        String[] newOids = Arrays.copyOf( oids, newId + 1 );
+        newOids[newId] = oid;
+        oids = newOids;
+        ids.put( oid, newId );
+
+        return newId;
+    }
+
+
+    /**
+     * Computes the length of a String written with writeUTF, its length excluded
+     */
+    private static int utfLength( String value )
+    {
+        int length = 0;
+
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+
+            if ( ( c >= 0x0001 ) && ( c <= 0x007F ) )
+            {
+                length++;
+            }
+            else if ( c > 0x07FF )
+            {
+                length += 3;
+            }
+            else
+            {
+                length += 2;
+            }
+        }
+
+        return length;
+    }
+}
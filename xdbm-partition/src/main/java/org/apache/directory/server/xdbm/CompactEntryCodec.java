@@ -0,0 +1,333 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.name.Rdn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+
+
+/**
+ * Serializes the entries stored in a partition in a compact and versioned format. The
+ * AttributeTypes are stored as ids taken from an {@link AttributeTypeDictionary}, and an
+ * offset table gives the position of each attribute, so that the attributes are only
+ * decoded when they are used (see {@link LazyAttribute}).
+ * <br>
+ * The structure used to store the entry is the following :
+ * <ul>
+ *   <li><b>[version]</b> : a byte, {@link #VERSION}</li>
+ *   <li><b>[a byte]</b> : if the Dn is empty 0 will be written else 1</li>
+ *   <li><b>[Rdn]</b> : The entry's Rdn.</li>
+ *   <li><b>[numberAttr]</b> : the number of attributes. Can be 0</li>
+ *   <li>For each Attribute :
+ *     <ul>
+ *       <li><b>[id]</b> : the AttributeType's id in the dictionary</li>
+ *       <li><b>[offset]</b> : the attribute's position, from the start of the attributes</li>
+ *     </ul>
+ *   </li>
+ *   <li><b>[end]</b> : the attributes' length, which is the end of the last attribute</li>
+ *   <li><b>[Attributes]</b> : the serialized attributes</li>
+ * </ul>
+ * The entries serialized with an ObjectOutputStream, before this format existed, start
+ * with the serialization stream magic number, and can be recognized with
+ * {@link #isCompact(byte[], int)}.
+ * <br><br>
+ * <b>This class must *not* be used outside of the server.</b>
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactEntryCodec
+{
+    /** The current version of the format */
+    public static final byte VERSION = 1;
+
+    /** The first byte of the ObjectOutputStream serialized entries */
+    private static final byte STREAM_MAGIC_FIRST_BYTE = ( byte ) 0xAC;
+
+    /** The schemaManager reference */
+    private final SchemaManager schemaManager;
+
+    /** The dictionary of the AttributeTypes */
+    private final AttributeTypeDictionary dictionary;
+
+
+    /**
+     * An ObjectOutput writing the primitives in their DataOutput format, without the
+     * ObjectOutputStream block headers
+     */
+    private static final class DataObjectOutput extends DataOutputStream implements ObjectOutput
+    {
+        private DataObjectOutput( OutputStream out )
+        {
+            super( out );
+        }
+
+
+        @Override
+        public void writeObject( Object obj ) throws IOException
+        {
+            throw new NotSerializableException( obj == null ? "null" : obj.getClass().getName() );
+        }
+    }
+
+
+    /**
+     * An ObjectInput reading what has been written by a {@link DataObjectOutput}
+     */
+    private static final class DataObjectInput extends DataInputStream implements ObjectInput
+    {
+        private DataObjectInput( InputStream in )
+        {
+            super( in );
+        }
+
+
+        @Override
+        public Object readObject() throws ClassNotFoundException, IOException
+        {
+            throw new NotSerializableException();
+        }
+    }
+
+
+    /**
+     * Creates a new instance of CompactEntryCodec.
+     *
+     * @param schemaManager The reference to the global schemaManager
+     * @param dictionary The dictionary of the partition's AttributeTypes
+     */
+    public CompactEntryCodec( SchemaManager schemaManager, AttributeTypeDictionary dictionary )
+    {
+        this.schemaManager = schemaManager;
+        this.dictionary = dictionary;
+    }
+
+
+    /**
+     * Tells if some serialized bytes are in the compact format.
+     *
+     * @param bytes The serialized entry
+     * @param offset The serialized entry position
+     * @return <code>true</code> if the entry has been serialized by this codec
+     */
+    public static boolean isCompact( byte[] bytes, int offset )
+    {
+        return ( bytes.length > offset ) && ( bytes[offset] != STREAM_MAGIC_FIRST_BYTE );
+    }
+
+
+    /**
+     * Tells if an entry has been read from the compact format. An entry read from an
+     * older format has no {@link LazyAttribute}.
+     *
+     * @param entry The entry
+     * @return <code>true</code> if the entry has been read by this codec
+     */
+    public static boolean isCompact( Entry entry )
+    {
+        if ( entry.size() == 0 )
+        {
+            return true;
+        }
+
+        for ( Attribute attribute : entry )
+        {
+            if ( attribute instanceof LazyAttribute )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Creates an ObjectInput reading the primitives written in the compact format
+     */
+    static ObjectInput newInput( byte[] buffer, int offset, int length )
+    {
+        return new DataObjectInput( new ByteArrayInputStream( buffer, offset, length ) );
+    }
+
+
+    /**
+     * Serializes an entry. The attributes which have not been decoded since they have
+     * been read are copied as is.
+     *
+     * @param entry The entry to serialize
+     * @return The serialized entry
+     * @throws IOException If the entry can't be serialized
+     */
+    public byte[] encode( Entry entry ) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream( 1024 );
+        DataObjectOutput out = new DataObjectOutput( baos );
+
+        out.writeByte( VERSION );
+
+        // First, the Rdn of the Dn
+        Dn dn = entry.getDn();
+
+        if ( dn.isEmpty() )
+        {
+            out.writeByte( 0 );
+        }
+        else
+        {
+            out.writeByte( 1 );
+            Rdn rdn = dn.getRdn();
+            rdn.writeExternal( out );
+        }
+
+        // Then the offset table, and the attributes
+        Collection<Attribute> attributes = entry.getAttributes();
+        out.writeInt( attributes.size() );
+
+        ByteArrayOutputStream attributesBytes = new ByteArrayOutputStream( 1024 );
+        DataObjectOutput attributesOut = new DataObjectOutput( attributesBytes );
+
+        for ( Attribute attribute : attributes )
+        {
+            AttributeType attributeType = attribute.getAttributeType();
+
+            if ( attributeType == null )
+            {
+                throw new IOException( "Cannot serialize the schema agnostic attribute " + attribute.getUpId() );
+            }
+
+            out.writeInt( dictionary.getId( attributeType ) );
+            out.writeInt( attributesOut.size() );
+
+            if ( attribute instanceof LazyAttribute )
+            {
+                ( ( LazyAttribute ) attribute ).writeTo( attributesOut );
+            }
+            else
+            {
+                attribute.writeExternal( attributesOut );
+            }
+        }
+
+        out.writeInt( attributesOut.size() );
+        attributesBytes.writeTo( out );
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserializes an entry. The attributes are decoded when they are used : the buffer
+     * is kept by the returned entry, and must not be modified.
+     *
+     * @param bytes The buffer containing the serialized entry
+     * @param offset The serialized entry position
+     * @param length The serialized entry length
+     * @return The entry
+     * @throws IOException If the entry can't be deserialized
+     */
+    public Entry decode( byte[] bytes, int offset, int length ) throws IOException
+    {
+        ByteArrayInputStream bais = new ByteArrayInputStream( bytes, offset, length );
+        DataObjectInput in = new DataObjectInput( bais );
+
+        byte version = in.readByte();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unknown entry serialization version " + version );
+        }
+
+        Entry entry = new DefaultEntry( schemaManager );
+
+        try
+        {
+            // Read the Dn, if any
+            byte hasDn = in.readByte();
+
+            if ( hasDn == 1 )
+            {
+                Rdn rdn = new Rdn( schemaManager );
+                rdn.readExternal( in );
+                entry.setDn( new Dn( schemaManager, rdn ) );
+            }
+            else
+            {
+                entry.setDn( Dn.EMPTY_DN );
+            }
+
+            // Read the offset table
+            int nbAttributes = in.readInt();
+            int[] ids = new int[nbAttributes];
+            int[] offsets = new int[nbAttributes + 1];
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                ids[i] = in.readInt();
+                offsets[i] = in.readInt();
+            }
+
+            offsets[nbAttributes] = in.readInt();
+
+            // The attributes are what remains in the buffer
+            int attributesStart = offset + length - bais.available();
+
+            for ( int i = 0; i < nbAttributes; i++ )
+            {
+                String oid = dictionary.getOid( ids[i] );
+
+                if ( oid == null )
+                {
+                    throw new IOException( "Unknown AttributeType id " + ids[i] );
+                }
+
+                AttributeType attributeType = schemaManager.lookupAttributeTypeRegistry( oid );
+
+                entry.add( new LazyAttribute( attributeType, bytes, attributesStart + offsets[i],
+                    offsets[i + 1] - offsets[i] ) );
+            }
+
+            return entry;
+        }
+        catch ( LdapException | ClassNotFoundException e )
+        {
+            throw new IOException( e.getMessage(), e );
+        }
+    }
+}
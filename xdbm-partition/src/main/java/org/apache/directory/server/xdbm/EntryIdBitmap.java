@@ -0,0 +1,479 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.Arrays;
+
+
+/**
+ * A compressed bitmap of dense entry identifiers (see {@link EntryIdMap}).
+ * <br>
+ * The 32 bits identifiers are split in a 16 bits high part, which selects a chunk, and
+ * a 16 bits low part, which is stored in the chunk. A chunk is either a sorted array of
+ * chars when it contains at most 4096 values, or a plain 65536 bits bitmap otherwise. A
+ * chunk never uses more than 8kB, and sparse chunks use 2 bytes per value.
+ * <br>
+ * The logical operations (and, or, andNot) are done in place on the current instance.
+ * This class is not thread safe.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdBitmap
+{
+    /** The maximum number of values stored in an array chunk */
+    private static final int ARRAY_MAX_SIZE = 4096;
+
+    /** The number of longs in a bitmap chunk */
+    private static final int BITMAP_WORDS = 1024;
+
+    /** The sorted chunk keys (high 16 bits) */
+    private char[] keys = new char[4];
+
+    /** The chunks, either char[] or long[] */
+    private Object[] chunks = new Object[4];
+
+    /** The number of values in each chunk */
+    private int[] cardinalities = new int[4];
+
+    /** The number of chunks */
+    private int size;
+
+
+    /**
+     * Creates a new, empty, EntryIdBitmap
+     */
+    public EntryIdBitmap()
+    {
+        super();
+    }
+
+
+    /**
+     * Adds an identifier to this bitmap
+     *
+     * @param id The identifier to add. Must be positive.
+     * @return <code>true</code> if the identifier was not already present
+     */
+    public boolean add( int id )
+    {
+        char high = ( char ) ( id >>> 16 );
+        char low = ( char ) id;
+        int pos = Arrays.binarySearch( keys, 0, size, high );
+
+        if ( pos < 0 )
+        {
+            pos = -pos - 1;
+            insertChunk( pos, high, new char[4], 0 );
+        }
+
+        Object chunk = chunks[pos];
+
+        if ( chunk instanceof long[] )
+        {
+            long[] words = ( long[] ) chunk;
+            long mask = 1L << low;
+            int index = low >>> 6;
+
+            if ( ( words[index] & mask ) != 0 )
+            {
+                return false;
+            }
+
+            words[index] |= mask;
+            cardinalities[pos]++;
+
+            return true;
+        }
+
+        char[] values = ( char[] ) chunk;
+        int card = cardinalities[pos];
+        int valuePos = Arrays.binarySearch( values, 0, card, low );
+
+        if ( valuePos >= 0 )
+        {
+            return false;
+        }
+
+        valuePos = -valuePos - 1;
+
+        if ( card == ARRAY_MAX_SIZE )
+        {
+            long[] words = toWords( values, card );
+            words[low >>> 6] |= 1L << low;
+            chunks[pos] = words;
+            cardinalities[pos] = card + 1;
+
+            return true;
+        }
+
+        if ( card == values.length )
+        {
+            values = Arrays.copyOf( values, Math.min( card * 2, ARRAY_MAX_SIZE ) );
+            chunks[pos] = values;
+        }
+
+        System.arraycopy( values, valuePos, values, valuePos + 1, card - valuePos );
+        values[valuePos] = low;
+        cardinalities[pos] = card + 1;
+
+        return true;
+    }
+
+
+    /**
+     * Tells if an identifier is present in this bitmap
+     *
+     * @param id The identifier to check
+     * @return <code>true</code> if the identifier is present
+     */
+    public boolean contains( int id )
+    {
+        int pos = Arrays.binarySearch( keys, 0, size, ( char ) ( id >>> 16 ) );
+
+        if ( pos < 0 )
+        {
+            return false;
+        }
+
+        char low = ( char ) id;
+        Object chunk = chunks[pos];
+
+        if ( chunk instanceof long[] )
+        {
+            return ( ( ( long[] ) chunk )[low >>> 6] & ( 1L << low ) ) != 0;
+        }
+
+        return Arrays.binarySearch( ( char[] ) chunk, 0, cardinalities[pos], low ) >= 0;
+    }
+
+
+    /**
+     * @return The number of identifiers stored in this bitmap
+     */
+    public long getCardinality()
+    {
+        long cardinality = 0L;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            cardinality += cardinalities[i];
+        }
+
+        return cardinality;
+    }
+
+
+    /**
+     * @return <code>true</code> if this bitmap does not contain any identifier
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+
+    /**
+     * Keeps only the identifiers present in both this bitmap and the given one.
+     *
+     * @param other The bitmap to intersect with
+     */
+    public void and( EntryIdBitmap other )
+    {
+        int newSize = 0;
+        int j = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            char key = keys[i];
+
+            while ( ( j < other.size ) && ( other.keys[j] < key ) )
+            {
+                j++;
+            }
+
+            if ( ( j == other.size ) || ( other.keys[j] != key ) )
+            {
+                continue;
+            }
+
+            long[] words = toWords( chunks[i], cardinalities[i] );
+            long[] otherWords = toWords( other.chunks[j], other.cardinalities[j] );
+
+            for ( int w = 0; w < BITMAP_WORDS; w++ )
+            {
+                words[w] &= otherWords[w];
+            }
+
+            newSize = storeChunk( newSize, key, words );
+        }
+
+        truncate( newSize );
+    }
+
+
+    /**
+     * Adds all the identifiers present in the given bitmap.
+     *
+     * @param other The bitmap to merge with
+     */
+    public void or( EntryIdBitmap other )
+    {
+        for ( int j = 0; j < other.size; j++ )
+        {
+            char key = other.keys[j];
+            int pos = Arrays.binarySearch( keys, 0, size, key );
+
+            if ( pos < 0 )
+            {
+                Object otherChunk = other.chunks[j];
+                Object copy;
+
+                if ( otherChunk instanceof long[] )
+                {
+                    copy = ( ( long[] ) otherChunk ).clone();
+                }
+                else
+                {
+                    copy = Arrays.copyOf( ( char[] ) otherChunk, Math.max( other.cardinalities[j], 4 ) );
+                }
+
+                insertChunk( -pos - 1, key, copy, other.cardinalities[j] );
+            }
+            else
+            {
+                long[] words = toWords( chunks[pos], cardinalities[pos] );
+                long[] otherWords = toWords( other.chunks[j], other.cardinalities[j] );
+
+                for ( int w = 0; w < BITMAP_WORDS; w++ )
+                {
+                    words[w] |= otherWords[w];
+                }
+
+                storeChunk( pos, key, words );
+            }
+        }
+    }
+
+
+    /**
+     * Removes all the identifiers present in the given bitmap.
+     *
+     * @param other The bitmap containing the identifiers to remove
+     */
+    public void andNot( EntryIdBitmap other )
+    {
+        int newSize = 0;
+        int j = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            char key = keys[i];
+
+            while ( ( j < other.size ) && ( other.keys[j] < key ) )
+            {
+                j++;
+            }
+
+            if ( ( j == other.size ) || ( other.keys[j] != key ) )
+            {
+                // Nothing to remove, keep the chunk as is
+                keys[newSize] = key;
+                chunks[newSize] = chunks[i];
+                cardinalities[newSize] = cardinalities[i];
+                newSize++;
+
+                continue;
+            }
+
+            long[] words = toWords( chunks[i], cardinalities[i] );
+            long[] otherWords = toWords( other.chunks[j], other.cardinalities[j] );
+
+            for ( int w = 0; w < BITMAP_WORDS; w++ )
+            {
+                words[w] &= ~otherWords[w];
+            }
+
+            newSize = storeChunk( newSize, key, words );
+        }
+
+        truncate( newSize );
+    }
+
+
+    /**
+     * @return The sorted identifiers stored in this bitmap
+     */
+    public int[] toArray()
+    {
+        int[] result = new int[( int ) getCardinality()];
+        int pos = 0;
+
+        for ( int i = 0; i < size; i++ )
+        {
+            int high = keys[i] << 16;
+            Object chunk = chunks[i];
+
+            if ( chunk instanceof long[] )
+            {
+                long[] words = ( long[] ) chunk;
+
+                for ( int w = 0; w < BITMAP_WORDS; w++ )
+                {
+                    long word = words[w];
+
+                    while ( word != 0 )
+                    {
+                        result[pos++] = high | ( w << 6 ) | Long.numberOfTrailingZeros( word );
+                        word &= word - 1;
+                    }
+                }
+            }
+            else
+            {
+                char[] values = ( char[] ) chunk;
+
+                for ( int v = 0; v < cardinalities[i]; v++ )
+                {
+                    result[pos++] = high | values[v];
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Inserts a chunk at a given position, growing the internal arrays if needed
+     */
+    private void insertChunk( int pos, char key, Object chunk, int cardinality )
+    {
+        if ( size == keys.length )
+        {
+            int newLength = size * 2;
+            keys = Arrays.copyOf( keys, newLength );
+            chunks = Arrays.copyOf( chunks, newLength );
+            cardinalities = Arrays.copyOf( cardinalities, newLength );
+        }
+
+        System.arraycopy( keys, pos, keys, pos + 1, size - pos );
+        System.arraycopy( chunks, pos, chunks, pos + 1, size - pos );
+        System.arraycopy( cardinalities, pos, cardinalities, pos + 1, size - pos );
+        keys[pos] = key;
+        chunks[pos] = chunk;
+        cardinalities[pos] = cardinality;
+        size++;
+    }
+
+
+    /**
+     * Stores the result of a logical operation at the given position, using the
+     * most compact representation. Empty results are not stored.
+     *
+     * @return The position of the next chunk to store
+     */
+    private int storeChunk( int pos, char key, long[] words )
+    {
+        int cardinality = 0;
+
+        for ( long word : words )
+        {
+            cardinality += Long.bitCount( word );
+        }
+
+        if ( cardinality == 0 )
+        {
+            // Only an and or an andNot can empty a chunk : skip it
+            return pos;
+        }
+
+        keys[pos] = key;
+        cardinalities[pos] = cardinality;
+
+        if ( cardinality > ARRAY_MAX_SIZE )
+        {
+            chunks[pos] = words;
+        }
+        else
+        {
+            char[] values = new char[cardinality];
+            int v = 0;
+
+            for ( int w = 0; w < BITMAP_WORDS; w++ )
+            {
+                long word = words[w];
+
+                while ( word != 0 )
+                {
+                    values[v++] = ( char ) ( ( w << 6 ) | Long.numberOfTrailingZeros( word ) );
+                    word &= word - 1;
+                }
+            }
+
+            chunks[pos] = values;
+        }
+
+        return pos + 1;
+    }
+
+
+    /**
+     * Drops the chunks after the given size
+     */
+    private void truncate( int newSize )
+    {
+        Arrays.fill( chunks, newSize, size, null );
+        size = newSize;
+    }
+
+
+    /**
+     * Expands a chunk in a new bitmap, which can be freely modified
+     */
+    private static long[] toWords( Object chunk, int cardinality )
+    {
+        if ( chunk instanceof long[] )
+        {
+            return ( ( long[] ) chunk ).clone();
+        }
+
+        long[] words = new long[BITMAP_WORDS];
+        char[] values = ( char[] ) chunk;
+
+        for ( int i = 0; i < cardinality; i++ )
+        {
+            char value = values[i];
+            words[value >>> 6] |= 1L << value;
+        }
+
+        return words;
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "EntryIdBitmap[" + getCardinality() + " ids in " + size + " chunks]";
+    }
+}
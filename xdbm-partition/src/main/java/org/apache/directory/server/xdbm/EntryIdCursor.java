@@ -0,0 +1,279 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+
+import org.apache.directory.api.ldap.model.constants.Loggers;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.InvalidCursorPositionException;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.i18n.I18n;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A Cursor over the candidates stored in an {@link EntryIdBitmap}. The entry UUIDs
+ * are only resolved through the {@link EntryIdMap} when an element is fetched, and
+ * identifiers whose entry has been removed in the meantime are skipped. The reader
+ * opened on the EntryIdMap to compute the candidates is closed with the cursor.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdCursor extends AbstractIndexCursor<String>
+{
+    /** A dedicated log for cursors */
+    private static final Logger LOG_CURSOR = LoggerFactory.getLogger( Loggers.CURSOR_LOG.getName() );
+
+    /** Speedup for logs */
+    private static final boolean IS_DEBUG = LOG_CURSOR.isDebugEnabled();
+
+    /** The sorted candidate identifiers */
+    private final int[] ids;
+
+    /** The mapping used to resolve the identifiers */
+    private final EntryIdMap entryIdMap;
+
+    /** The reader opened on the mapping, so that the identifiers are not reused */
+    private final long reader;
+
+    /** The current position, -1 when before the first element */
+    private int pos = -1;
+
+    /** The UUID of the current element */
+    private String currentUuid;
+
+
+    /**
+     * Creates a new EntryIdCursor instance
+     *
+     * @param partitionTxn The transaction in use
+     * @param candidates The candidates to iterate on
+     * @param entryIdMap The mapping between the identifiers and the UUIDs
+     * @param reader The reader opened on the mapping before the candidates have been computed
+     */
+    public EntryIdCursor( PartitionTxn partitionTxn, EntryIdBitmap candidates, EntryIdMap entryIdMap, long reader )
+    {
+        this.partitionTxn = partitionTxn;
+        this.ids = candidates.toArray();
+        this.entryIdMap = entryIdMap;
+        this.reader = reader;
+
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Creating EntryIdCursor {}", this );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected String getUnsupportedMessage()
+    {
+        return UNSUPPORTED_MSG;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void beforeFirst() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos = -1;
+        currentUuid = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void afterLast() throws LdapException, CursorException
+    {
+        checkNotClosed();
+        pos = ids.length;
+        currentUuid = null;
+        setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean first() throws LdapException, CursorException
+    {
+        beforeFirst();
+
+        return next();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean last() throws LdapException, CursorException
+    {
+        afterLast();
+
+        return previous();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean next() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( pos < ids.length - 1 )
+        {
+            pos++;
+            currentUuid = entryIdMap.getUuid( ids[pos] );
+
+            if ( currentUuid != null )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        pos = ids.length;
+        currentUuid = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean previous() throws LdapException, CursorException
+    {
+        checkNotClosed();
+
+        while ( pos > 0 )
+        {
+            pos--;
+            currentUuid = entryIdMap.getUuid( ids[pos] );
+
+            if ( currentUuid != null )
+            {
+                return setAvailable( true );
+            }
+        }
+
+        pos = -1;
+        currentUuid = null;
+
+        return setAvailable( false );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IndexEntry<String, String> get() throws CursorException
+    {
+        checkNotClosed();
+
+        if ( !available() )
+        {
+            throw new InvalidCursorPositionException( I18n.err( I18n.ERR_708 ) );
+        }
+
+        IndexEntry<String, String> indexEntry = new IndexEntry<>();
+        indexEntry.setId( currentUuid );
+
+        return indexEntry;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing EntryIdCursor {}", this );
+        }
+
+        if ( !isClosed() )
+        {
+            entryIdMap.closeReader( reader );
+        }
+
+        super.close();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close( Exception cause ) throws IOException
+    {
+        if ( IS_DEBUG )
+        {
+            LOG_CURSOR.debug( "Closing EntryIdCursor {}", this );
+        }
+
+        if ( !isClosed() )
+        {
+            entryIdMap.closeReader( reader );
+        }
+
+        super.close( cause );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        return tabs + "EntryIdCursor (" + ids.length + " candidates)\n";
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return toString( "" );
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * An in-memory mapping between the entry UUIDs of a partition and dense integer
+ * identifiers. The integer identifiers are used to store search candidates in
+ * compact {@link EntryIdBitmap}s instead of sets of Strings.
+ * <br>
+ * Identifiers are assigned on demand, the first time an UUID is seen. When an entry
+ * is deleted its identifier is released and reused, oldest first, by the next assignments,
+ * so the table does not grow beyond the largest number of entries the partition ever held.
+ * <br>
+ * A bitmap computed before a deletion must not resolve the released identifier to another
+ * entry, which could be outside of the search scope. The searches holding bitmaps are
+ * registered as readers : an identifier is only reused once all the readers opened before
+ * its release have been closed.
+ * <br>
+ * This class is thread safe. Lookups are lock free, assignments are serialized.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdMap
+{
+    /** The initial number of slots in the reverse table */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The UUID to identifier mapping */
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    /** The identifier to UUID mapping */
+    private volatile String[] uuids = new String[INITIAL_CAPACITY];
+
+    /** The next identifier to assign, when no released identifier is available */
+    private int nextId;
+
+    /** The released identifiers, reused in the order they have been released */
+    private final ArrayDeque<ReleasedId> freeIds = new ArrayDeque<>();
+
+    /** The number of identifiers released so far */
+    private long releaseCount;
+
+    /** The number of open readers, by the number of identifiers released when they were opened */
+    private final TreeMap<Long, Integer> readers = new TreeMap<>();
+
+
+    /**
+     * An identifier, and the number of identifiers released before it
+     */
+    private static final class ReleasedId
+    {
+        /** The released identifier */
+        private final int id;
+
+        /** The value of the release count when the identifier has been released */
+        private final long release;
+
+
+        private ReleasedId( int id, long release )
+        {
+            this.id = id;
+            this.release = release;
+        }
+    }
+
+
+    /**
+     * Creates a new, empty, EntryIdMap instance
+     */
+    public EntryIdMap()
+    {
+        super();
+    }
+
+
+    /**
+     * Gets the identifier associated with an UUID, assigning a new one if this
+     * UUID has never been seen before.
+     *
+     * @param uuid The entry UUID
+     * @return The associated dense identifier
+     */
+    public int getOrAssign( String uuid )
+    {
+        Integer id = ids.get( uuid );
+
+        if ( id != null )
+        {
+            return id;
+        }
+
+        return assign( uuid );
+    }
+
+
+    /**
+     * Assigns a new identifier to an UUID, unless another thread has done it already
+     */
+    private synchronized int assign( String uuid )
+    {
+        Integer id = ids.get( uuid );
+
+        if ( id != null )
+        {
+            return id;
+        }
+
+        ReleasedId freeId = freeIds.peek();
+
+        // The readers opened before the release of the identifier may still hold it
+        if ( ( freeId != null ) && ( readers.isEmpty() || ( freeId.release <= readers.firstKey() ) ) )
+        {
+            freeIds.poll();
+            uuids[freeId.id] = uuid;
+            ids.put( uuid, freeId.id );
+
+            return freeId.id;
+        }
+
+        if ( nextId == Integer.MAX_VALUE )
+        {
+            throw new IllegalStateException( "The entry identifier space is exhausted" );
+        }
+
+        int newId = nextId++;
+        String[] table = uuids;
+
+        if ( newId >= table.length )
+        {
+            // Grow the table. The slot is written before the new table is published
+            // so that a reader fetching the identifier from the map always sees it
+            int newLength = ( int ) Math.min( ( long ) table.length << 1, Integer.MAX_VALUE );
+            table = Arrays.copyOf( table, newLength );
+            table[newId] = uuid;
+            uuids = table;
+        }
+        else
+        {
+            table[newId] = uuid;
+        }
+
+        ids.put( uuid, newId );
+
+        return newId;
+    }
+
+
+    /**
+     * Gets the identifier associated with an UUID, if any.
+     *
+     * @param uuid The entry UUID
+     * @return The associated identifier, or -1 if the UUID has not been mapped
+     */
+    public int getId( String uuid )
+    {
+        Integer id = ids.get( uuid );
+
+        if ( id == null )
+        {
+            return -1;
+        }
+
+        return id;
+    }
+
+
+    /**
+     * Gets the UUID associated with an identifier.
+     *
+     * @param id The dense identifier
+     * @return The associated UUID, or null if the entry has been removed
+     */
+    public String getUuid( int id )
+    {
+        String[] table = uuids;
+
+        if ( ( id < 0 ) || ( id >= table.length ) )
+        {
+            return null;
+        }
+
+        return table[id];
+    }
+
+
+    /**
+     * Removes the mapping for an UUID. The identifier will be reused by a later assignment,
+     * once the readers opened before are closed.
+     *
+     * @param uuid The removed entry UUID
+     */
+    public synchronized void release( String uuid )
+    {
+        Integer id = ids.remove( uuid );
+
+        if ( id != null )
+        {
+            uuids[id] = null;
+            releaseCount++;
+            freeIds.add( new ReleasedId( id, releaseCount ) );
+        }
+    }
+
+
+    /**
+     * Opens a reader : the identifiers released from now on won't be reused until the
+     * reader is closed. A reader must be opened before the identifiers it holds are read.
+     *
+     * @return The reader, to be given to {@link #closeReader(long)}
+     */
+    public synchronized long openReader()
+    {
+        readers.merge( releaseCount, 1, Integer::sum );
+
+        return releaseCount;
+    }
+
+
+    /**
+     * Closes a reader opened by {@link #openReader()}
+     *
+     * @param reader The reader
+     */
+    public synchronized void closeReader( long reader )
+    {
+        readers.computeIfPresent( reader, ( release, count ) -> ( count > 1 ) ? count - 1 : null );
+    }
+
+
+    /**
+     * Removes all the mappings, and restart the identifier assignment from 0.
+     */
+    public synchronized void clear()
+    {
+        ids.clear();
+        uuids = new String[INITIAL_CAPACITY];
+        freeIds.clear();
+        nextId = 0;
+    }
+
+
+    /**
+     * @return The number of mapped UUIDs
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "EntryIdMap[" + ids.size() + " entries]";
+    }
+}
@@ -345,4 +345,10 @@ public interface Index<K, E>
      * @return true if the index has a reverse table
      */
     boolean hasReverse();
+
+
+    /**
+     * @return The statistics about the content of this index
+     */
+    IndexStatistics getStatistics();
 }
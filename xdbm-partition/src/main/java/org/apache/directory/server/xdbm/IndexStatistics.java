@@ -0,0 +1,562 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.directory.api.util.Strings;
+
+
+/**
+ * Statistics about the content of an index, maintained incrementally when values are
+ * added to or removed from the index. They are used by the optimizer to estimate the
+ * number of candidates a filter will select, without reading the index itself.
+ * <br>
+ * We keep :
+ * <ul>
+ *   <li>the number of &lt;key, id&gt; tuples in the index</li>
+ *   <li>the exact number of tuples per key, as long as the index has less than
+ *   {@link #MAX_TRACKED_VALUES} distinct keys (this is typically the case for the
+ *   objectClass and presence indexes)</li>
+ *   <li>a HyperLogLog sketch giving an estimate of the number of distinct keys</li>
+ *   <li>a random sample of the keys, used as an equi-depth histogram to estimate
+ *   range and prefix selectivities</li>
+ * </ul>
+ * Only String keys are tracked in the histogram and the per key counts, the other
+ * kinds of key are just counted.
+ * <br>
+ * All the estimates are approximations : they must never be used to decide that a
+ * filter does not select any entry.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatistics
+{
+    /** The maximum number of distinct keys for which we keep an exact count */
+    public static final int MAX_TRACKED_VALUES = 1024;
+
+    /** The number of keys kept in the sample */
+    public static final int SAMPLE_SIZE = 256;
+
+    /** The HyperLogLog precision : we use 2^10 registers */
+    private static final int HLL_PRECISION = 10;
+
+    /** The number of HyperLogLog registers */
+    private static final int HLL_REGISTERS = 1 << HLL_PRECISION;
+
+    /** The version of the serialized form */
+    private static final int VERSION = 1;
+
+    /** The number of tuples in the index */
+    private long count;
+
+    /** The number of tuples per key, null when there are too many distinct keys */
+    private Map<String, long[]> valueCounts = new HashMap<>();
+
+    /** The HyperLogLog registers */
+    private byte[] registers = new byte[HLL_REGISTERS];
+
+    /** The sampled keys */
+    private String[] sample = new String[SAMPLE_SIZE];
+
+    /** The number of keys stored in the sample */
+    private int sampleSize;
+
+    /** The number of keys submitted to the sample */
+    private long sampled;
+
+    /** The random generator used to select the sampled keys */
+    private final Random random = new Random();
+
+
+    /**
+     * Creates a new, empty, IndexStatistics instance
+     */
+    public IndexStatistics()
+    {
+        super();
+    }
+
+
+    /**
+     * Updates the statistics after a &lt;key, id&gt; tuple has been added to the index
+     *
+     * @param key The added key
+     */
+    public synchronized void added( Object key )
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        count++;
+
+        if ( key instanceof String )
+        {
+            String value = ( String ) key;
+            int hash = value.hashCode();
+
+            if ( valueCounts != null )
+            {
+                long[] valueCount = valueCounts.get( value );
+
+                if ( valueCount != null )
+                {
+                    valueCount[0]++;
+                }
+                else if ( valueCounts.size() < MAX_TRACKED_VALUES )
+                {
+                    valueCounts.put( value, new long[] { 1L } );
+                }
+                else
+                {
+                    // Too many distinct values, switch to estimates
+                    valueCounts = null;
+                }
+            }
+
+            addToSketch( hash );
+            addToSample( value );
+        }
+        else
+        {
+            // We can't track the keys which are not Strings
+            valueCounts = null;
+            addToSketch( key.hashCode() );
+        }
+    }
+
+
+    /**
+     * Updates the statistics after a &lt;key, id&gt; tuple has been removed from the index.
+     * The sketch and the sample are not updated : they will be rebuilt when the partition
+     * statistics are recomputed.
+     *
+     * @param key The removed key
+     */
+    public synchronized void dropped( Object key )
+    {
+        if ( key == null )
+        {
+            return;
+        }
+
+        if ( count > 0 )
+        {
+            count--;
+        }
+
+        if ( ( valueCounts != null ) && ( key instanceof String ) )
+        {
+            long[] valueCount = valueCounts.get( key );
+
+            if ( valueCount != null )
+            {
+                valueCount[0]--;
+
+                if ( valueCount[0] <= 0 )
+                {
+                    valueCounts.remove( key );
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Resets the statistics, before they get recomputed
+     */
+    public synchronized void clear()
+    {
+        count = 0L;
+        valueCounts = new HashMap<>();
+        registers = new byte[HLL_REGISTERS];
+        sample = new String[SAMPLE_SIZE];
+        sampleSize = 0;
+        sampled = 0L;
+    }
+
+
+    /**
+     * Replaces these statistics by a copy of other ones
+     *
+     * @param other The statistics to copy
+     */
+    public synchronized void copy( IndexStatistics other )
+    {
+        synchronized ( other )
+        {
+            count = other.count;
+
+            if ( other.valueCounts == null )
+            {
+                valueCounts = null;
+            }
+            else
+            {
+                valueCounts = new HashMap<>();
+
+                for ( Map.Entry<String, long[]> valueCount : other.valueCounts.entrySet() )
+                {
+                    valueCounts.put( valueCount.getKey(), valueCount.getValue().clone() );
+                }
+            }
+
+            registers = other.registers.clone();
+            sample = other.sample.clone();
+            sampleSize = other.sampleSize;
+            sampled = other.sampled;
+        }
+    }
+
+
+    /**
+     * @return The number of &lt;key, id&gt; tuples in the index
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * @return The estimated number of distinct keys in the index
+     */
+    public synchronized long getDistinctCount()
+    {
+        if ( valueCounts != null )
+        {
+            return valueCounts.size();
+        }
+
+        // HyperLogLog estimate, with the small range correction
+        double sum = 0d;
+        int zeros = 0;
+
+        for ( byte register : registers )
+        {
+            sum += 1d / ( 1L << register );
+
+            if ( register == 0 )
+            {
+                zeros++;
+            }
+        }
+
+        double alpha = 0.7213d / ( 1d + 1.079d / HLL_REGISTERS );
+        double estimate = alpha * HLL_REGISTERS * HLL_REGISTERS / sum;
+
+        if ( ( estimate <= 2.5d * HLL_REGISTERS ) && ( zeros > 0 ) )
+        {
+            estimate = HLL_REGISTERS * Math.log( ( double ) HLL_REGISTERS / zeros );
+        }
+
+        return Math.max( 1L, Math.min( count, Math.round( estimate ) ) );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a given key.
+     *
+     * @param key The key
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimateEquality( Object key )
+    {
+        if ( valueCounts != null )
+        {
+            long[] valueCount = valueCounts.get( key );
+
+            return valueCount == null ? 0L : valueCount[0];
+        }
+
+        long distinct = getDistinctCount();
+
+        return ( count + distinct - 1 ) / distinct;
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key greater or equal to the given one.
+     *
+     * @param key The lower bound
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimateGreaterOrEqual( String key )
+    {
+        return estimateRange( key, true );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key lower or equal to the given one.
+     *
+     * @param key The upper bound
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimateLessOrEqual( String key )
+    {
+        return estimateRange( key, false );
+    }
+
+
+    /**
+     * Estimates the number of tuples having a key starting with the given prefix
+     *
+     * @param prefix The key prefix
+     * @return The estimated number of tuples
+     */
+    public synchronized long estimatePrefix( String prefix )
+    {
+        if ( sampleSize == 0 )
+        {
+            return count;
+        }
+
+        int matching = 0;
+
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            if ( sample[i].startsWith( prefix ) )
+            {
+                matching++;
+            }
+        }
+
+        return scale( matching );
+    }
+
+
+    /**
+     * Estimates the number of tuples in a range, using the sample
+     */
+    private long estimateRange( String key, boolean greater )
+    {
+        if ( ( sampleSize == 0 ) || ( key == null ) )
+        {
+            return count;
+        }
+
+        int matching = 0;
+
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            int comparison = sample[i].compareTo( key );
+
+            if ( greater ? comparison >= 0 : comparison <= 0 )
+            {
+                matching++;
+            }
+        }
+
+        return scale( matching );
+    }
+
+
+    /**
+     * Scales a number of matching samples to the whole index
+     */
+    private long scale( int matching )
+    {
+        // Never estimate that nothing matches only because the sample missed it
+        return Math.max( matching == 0 ? 1L : 0L, ( long ) ( ( double ) count * matching / sampleSize ) );
+    }
+
+
+    /**
+     * Adds a hash to the HyperLogLog sketch
+     */
+    private void addToSketch( int hashCode )
+    {
+        // Spread the 32 bits hash on 64 bits (MurmurHash3 finalizer)
+        long hash = hashCode;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        int index = ( int ) ( hash >>> ( 64 - HLL_PRECISION ) );
+        byte rank = ( byte ) ( Long.numberOfLeadingZeros( ( hash << HLL_PRECISION ) | ( 1L << ( HLL_PRECISION - 1 ) ) ) + 1 );
+
+        if ( rank > registers[index] )
+        {
+            registers[index] = rank;
+        }
+    }
+
+
+    /**
+     * Adds a key to the sample (reservoir sampling)
+     */
+    private void addToSample( String key )
+    {
+        sampled++;
+
+        if ( sampleSize < SAMPLE_SIZE )
+        {
+            sample[sampleSize++] = key;
+        }
+        else
+        {
+            long pos = ( long ) ( random.nextDouble() * sampled );
+
+            if ( pos < SAMPLE_SIZE )
+            {
+                sample[( int ) pos] = key;
+            }
+        }
+    }
+
+
+    /**
+     * Writes the statistics
+     *
+     * @param out The output to write to
+     * @throws IOException If the statistics can't be written
+     */
+    public synchronized void write( DataOutput out ) throws IOException
+    {
+        out.writeInt( VERSION );
+        out.writeLong( count );
+        out.writeLong( sampled );
+
+        if ( valueCounts == null )
+        {
+            out.writeInt( -1 );
+        }
+        else
+        {
+            out.writeInt( valueCounts.size() );
+
+            for ( Map.Entry<String, long[]> valueCount : valueCounts.entrySet() )
+            {
+                writeString( out, valueCount.getKey() );
+                out.writeLong( valueCount.getValue()[0] );
+            }
+        }
+
+        out.write( registers );
+        out.writeInt( sampleSize );
+
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            writeString( out, sample[i] );
+        }
+    }
+
+
+    /**
+     * Reads the statistics previously written by {@link #write(DataOutput)}
+     *
+     * @param in The input to read from
+     * @throws IOException If the statistics can't be read
+     */
+    public synchronized void read( DataInput in ) throws IOException
+    {
+        int version = in.readInt();
+
+        if ( version != VERSION )
+        {
+            throw new IOException( "Unsupported index statistics version " + version );
+        }
+
+        count = in.readLong();
+        sampled = in.readLong();
+
+        int nbValues = in.readInt();
+
+        if ( nbValues < 0 )
+        {
+            valueCounts = null;
+        }
+        else
+        {
+            valueCounts = new HashMap<>();
+
+            for ( int i = 0; i < nbValues; i++ )
+            {
+                String key = readString( in );
+                valueCounts.put( key, new long[] { in.readLong() } );
+            }
+        }
+
+        in.readFully( registers );
+        sampleSize = in.readInt();
+
+        if ( ( sampleSize < 0 ) || ( sampleSize > SAMPLE_SIZE ) )
+        {
+            throw new IOException( "Invalid index statistics sample size " + sampleSize );
+        }
+
+        for ( int i = 0; i < sampleSize; i++ )
+        {
+            sample[i] = readString( in );
+        }
+    }
+
+
+    /**
+     * Writes a String as a length prefixed UTF-8 byte array (DataOutput.writeUTF is
+     * limited to 64kB)
+     */
+    private static void writeString( DataOutput out, String value ) throws IOException
+    {
+        byte[] bytes = Strings.getBytesUtf8( value );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    /**
+     * Reads a String written by {@link #writeString(DataOutput, String)}
+     */
+    private static String readString( DataInput in ) throws IOException
+    {
+        int length = in.readInt();
+
+        if ( length < 0 )
+        {
+            throw new IOException( "Invalid index statistics key length " + length );
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+
+        return Strings.utf8ToString( bytes );
+    }
+
+
+    /**
+     * @see Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "IndexStatistics[count=" + count + ", distinct=" + getDistinctCount() + ", sample=" + sampleSize + "]";
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Iterator;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultAttribute;
+import org.apache.directory.api.ldap.model.entry.Value;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+
+
+/**
+ * An Attribute read from an entry serialized by the {@link CompactEntryCodec}. Its
+ * values are only decoded when they are used : knowing the attribute's AttributeType
+ * does not require to decode it, so an entry can be filtered on its attributes types
+ * without decoding the values of the attributes which will be removed.
+ * <br>
+ * Once decoded, all the calls are delegated to a {@link DefaultAttribute}. An attribute
+ * which has not been decoded is written back as is.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class LazyAttribute implements Attribute
+{
+    /** The serialVersionUID */
+    private static final long serialVersionUID = 1L;
+
+    /** The attribute's AttributeType */
+    private final AttributeType attributeType;
+
+    /** The buffer containing the serialized attribute */
+    private final byte[] buffer;
+
+    /** The serialized attribute position in the buffer */
+    private final int offset;
+
+    /** The serialized attribute length */
+    private final int length;
+
+    /** The decoded attribute, null until a value is used */
+    private volatile Attribute attribute;
+
+
+    /**
+     * Creates a new LazyAttribute instance
+     *
+     * @param attributeType The attribute's AttributeType
+     * @param buffer The buffer containing the serialized attribute. It must not be modified
+     * @param offset The serialized attribute position in the buffer
+     * @param length The serialized attribute length
+     */
+    public LazyAttribute( AttributeType attributeType, byte[] buffer, int offset, int length )
+    {
+        this.attributeType = attributeType;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+
+    /**
+     * @return <code>true</code> if the attribute's values have been decoded
+     */
+    public boolean isDecoded()
+    {
+        return attribute != null;
+    }
+
+
+    /**
+     * Decodes the attribute, if not already done
+     *
+     * @return The decoded attribute
+     */
+    private Attribute decoded()
+    {
+        Attribute result = attribute;
+
+        if ( result == null )
+        {
+            synchronized ( this )
+            {
+                result = attribute;
+
+                if ( result == null )
+                {
+                    result = new DefaultAttribute( attributeType );
+
+                    try
+                    {
+                        result.readExternal( CompactEntryCodec.newInput( buffer, offset, length ) );
+                    }
+                    catch ( IOException | ClassNotFoundException e )
+                    {
+                        throw new IllegalStateException( "Cannot decode the " + attributeType.getName()
+                            + " attribute : " + e.getMessage(), e );
+                    }
+
+                    attribute = result;
+                }
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Writes the serialized attribute. The stored bytes are copied if the attribute
+     * has not been decoded.
+     *
+     * @param out The output
+     * @throws IOException If the attribute can't be written
+     */
+    void writeTo( ObjectOutput out ) throws IOException
+    {
+        Attribute current = attribute;
+
+        if ( current == null )
+        {
+            out.write( buffer, offset, length );
+        }
+        else
+        {
+            current.writeExternal( out );
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public AttributeType getAttributeType()
+    {
+        return attributeType;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isInstanceOf( AttributeType attributeType ) throws LdapInvalidAttributeValueException
+    {
+        return ( attributeType != null )
+            && ( this.attributeType.equals( attributeType ) || this.attributeType.isDescendantOf( attributeType ) );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isHumanReadable()
+    {
+        return decoded().isHumanReadable();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( String... vals ) throws LdapInvalidAttributeValueException
+    {
+        return decoded().add( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( byte[]... vals ) throws LdapInvalidAttributeValueException
+    {
+        return decoded().add( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int add( Value... val ) throws LdapInvalidAttributeValueException
+    {
+        return decoded().add( val );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clear()
+    {
+        decoded().clear();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Attribute clone()
+    {
+        Attribute current = attribute;
+
+        if ( current == null )
+        {
+            // The serialized attribute is never modified, it can be shared
+            return new LazyAttribute( attributeType, buffer, offset, length );
+        }
+
+        return current.clone();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( String... vals )
+    {
+        return decoded().contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( byte[]... vals )
+    {
+        return decoded().contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean contains( Value... vals )
+    {
+        return decoded().contains( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void apply( AttributeType attributeType ) throws LdapInvalidAttributeValueException
+    {
+        decoded().apply( attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Value get()
+    {
+        return decoded().get();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getBytes() throws LdapInvalidAttributeValueException
+    {
+        return decoded().getBytes();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getId()
+    {
+        return decoded().getId();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getUpId()
+    {
+        return decoded().getUpId();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getString() throws LdapInvalidAttributeValueException
+    {
+        return decoded().getString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( String... vals )
+    {
+        return decoded().remove( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( byte[]... val )
+    {
+        return decoded().remove( val );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean remove( Value... vals )
+    {
+        return decoded().remove( vals );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUpId( String upId )
+    {
+        decoded().setUpId( upId );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setUpId( String upId, AttributeType attributeType )
+    {
+        decoded().setUpId( upId, attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size()
+    {
+        return decoded().size();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isValid( AttributeType attributeType ) throws LdapInvalidAttributeValueException
+    {
+        return decoded().isValid( attributeType );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Value> iterator()
+    {
+        return decoded().iterator();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeExternal( ObjectOutput out ) throws IOException
+    {
+        decoded().writeExternal( out );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void readExternal( ObjectInput in ) throws IOException, ClassNotFoundException
+    {
+        decoded().readExternal( in );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return decoded().hashCode();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( obj == this )
+        {
+            return true;
+        }
+
+        if ( obj instanceof LazyAttribute )
+        {
+            obj = ( ( LazyAttribute ) obj ).decoded();
+        }
+
+        return decoded().equals( obj );
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return decoded().toString();
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString( String tabs )
+    {
+        return decoded().toString( tabs );
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An entry cache storing the entries serialized in the {@link CompactEntryCodec} format,
+ * out of the heap, in direct ByteBuffer slabs. The cache is sized in bytes.
+ * <br>
+ * The slabs are filled one after the other, as a ring : when the last slab is full, the
+ * oldest one is emptied at once, and all its entries are evicted. An entry read from the
+ * next slab to be evicted is written again in the current slab, so that the entries which
+ * are still used survive the eviction of their slab.
+ * <br>
+ * Only the entries' locations are kept on the heap. The returned entries are decoded from
+ * a copy of their bytes, their attributes being decoded when used.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCache
+{
+    /** The logger for this class */
+    private static final Logger LOG = LoggerFactory.getLogger( OffHeapEntryCache.class );
+
+    /** The default slab size (4Mb) */
+    public static final int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+
+    /** The codec used to serialize the entries */
+    private final CompactEntryCodec codec;
+
+    /** The size of a slab, in bytes */
+    private final int slabSize;
+
+    /** The slabs, allocated when first used */
+    private final ByteBuffer[] slabs;
+
+    /** The locations of the entries written in each slab, some of them being stale */
+    private final List<List<Location>> slabLocations;
+
+    /** The number of bytes of the live entries of each slab */
+    private final long[] liveBytes;
+
+    /** The locations of the entries, by ID */
+    private final Map<String, Location> index = new HashMap<>();
+
+    /** The slab the entries are written in */
+    private int head;
+
+    /** The position of the next entry in the current slab */
+    private int headPosition;
+
+    /** The statistics */
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+    private long rejectedCount;
+
+
+    /**
+     * The location of a serialized entry
+     */
+    private static final class Location
+    {
+        private final String id;
+        private final int slab;
+        private final int offset;
+        private final int length;
+
+
+        private Location( String id, int slab, int offset, int length )
+        {
+            this.id = id;
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache, using slabs of the default size.
+     *
+     * @param codec The codec used to serialize the entries
+     * @param capacity The maximum number of bytes used by the cache
+     */
+    public OffHeapEntryCache( CompactEntryCodec codec, long capacity )
+    {
+        this( codec, capacity, DEFAULT_SLAB_SIZE );
+    }
+
+
+    /**
+     * Creates a new instance of OffHeapEntryCache. The cache uses at least two slabs, the
+     * slab size being reduced if the capacity is too small.
+     *
+     * @param codec The codec used to serialize the entries
+     * @param capacity The maximum number of bytes used by the cache
+     * @param slabSize The size of a slab, in bytes. An entry bigger than a slab is not cached
+     */
+    public OffHeapEntryCache( CompactEntryCodec codec, long capacity, int slabSize )
+    {
+        if ( capacity < 2 )
+        {
+            throw new IllegalArgumentException( "The off-heap entry cache capacity is too small : " + capacity );
+        }
+
+        this.codec = codec;
+        this.slabSize = ( int ) Math.min( slabSize, capacity / 2 );
+
+        int nbSlabs = ( int ) Math.min( Integer.MAX_VALUE / 2, capacity / this.slabSize );
+        slabs = new ByteBuffer[nbSlabs];
+        slabLocations = new ArrayList<>( nbSlabs );
+        liveBytes = new long[nbSlabs];
+
+        for ( int i = 0; i < nbSlabs; i++ )
+        {
+            slabLocations.add( new ArrayList<Location>() );
+        }
+    }
+
+
+    /**
+     * Gets an entry from the cache.
+     *
+     * @param id The entry ID
+     * @return The entry, or null if it's not in the cache
+     */
+    public Entry get( String id )
+    {
+        byte[] bytes;
+
+        synchronized ( this )
+        {
+            Location location = index.get( id );
+
+            if ( location == null )
+            {
+                missCount++;
+
+                return null;
+            }
+
+            hitCount++;
+            bytes = new byte[location.length];
+            ByteBuffer slab = slabs[location.slab].duplicate();
+            slab.position( location.offset );
+            slab.get( bytes );
+
+            // Give the entry a second chance before its slab gets evicted
+            if ( location.slab == nextSlab( head ) )
+            {
+                write( id, bytes );
+            }
+        }
+
+        try
+        {
+            return codec.decode( bytes, 0, bytes.length );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.warn( "Cannot decode the cached entry {}", id, ioe );
+            invalidate( id );
+
+            return null;
+        }
+    }
+
+
+    /**
+     * Adds an entry to the cache, replacing the previous version of this entry.
+     *
+     * @param id The entry ID
+     * @param entry The entry
+     */
+    public void put( String id, Entry entry )
+    {
+        byte[] bytes;
+
+        try
+        {
+            bytes = codec.encode( entry );
+        }
+        catch ( IOException ioe )
+        {
+            LOG.debug( "Cannot serialize the entry {} in the off-heap cache", id, ioe );
+
+            synchronized ( this )
+            {
+                rejectedCount++;
+                remove( id );
+            }
+
+            return;
+        }
+
+        synchronized ( this )
+        {
+            if ( bytes.length > slabSize )
+            {
+                rejectedCount++;
+                remove( id );
+
+                return;
+            }
+
+            putCount++;
+            write( id, bytes );
+        }
+    }
+
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param id The entry ID
+     */
+    public synchronized void invalidate( String id )
+    {
+        remove( id );
+    }
+
+
+    /**
+     * Removes all the entries from the cache. The slabs are kept.
+     */
+    public synchronized void clear()
+    {
+        index.clear();
+
+        for ( int i = 0; i < slabs.length; i++ )
+        {
+            slabLocations.get( i ).clear();
+            liveBytes[i] = 0L;
+        }
+
+        head = 0;
+        headPosition = 0;
+    }
+
+
+    /**
+     * Removes all the entries from the cache, and releases the slabs.
+     */
+    public synchronized void close()
+    {
+        clear();
+
+        for ( int i = 0; i < slabs.length; i++ )
+        {
+            slabs[i] = null;
+        }
+    }
+
+
+    /**
+     * @return The number of entries in the cache
+     */
+    public synchronized int size()
+    {
+        return index.size();
+    }
+
+
+    /**
+     * @return The number of bytes used by the entries in the cache
+     */
+    public synchronized long getUsedBytes()
+    {
+        long used = 0L;
+
+        for ( long bytes : liveBytes )
+        {
+            used += bytes;
+        }
+
+        return used;
+    }
+
+
+    /**
+     * @return The maximum number of bytes used by the cache
+     */
+    public long getCapacity()
+    {
+        return ( long ) slabs.length * slabSize;
+    }
+
+
+    /**
+     * @return The number of entries found in the cache
+     */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+
+    /**
+     * @return The number of entries not found in the cache
+     */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+
+    /**
+     * @return The number of entries added to the cache
+     */
+    public synchronized long getPutCount()
+    {
+        return putCount;
+    }
+
+
+    /**
+     * @return The number of entries evicted with their slab
+     */
+    public synchronized long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+
+    /**
+     * @return The number of entries which could not be added, being too big or not serializable
+     */
+    public synchronized long getRejectedCount()
+    {
+        return rejectedCount;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString()
+    {
+        return "OffHeapEntryCache[entries=" + index.size() + ", used=" + getUsedBytes() + "/" + getCapacity()
+            + ", hits=" + hitCount + ", misses=" + missCount + ", puts=" + putCount + ", evictions="
+            + evictionCount + ", rejected=" + rejectedCount + "]";
+    }
+
+
+    private int nextSlab( int slab )
+    {
+        return ( slab + 1 ) % slabs.length;
+    }
+
+
+    /**
+     * Writes an entry in the current slab, moving to the next slab if it's full
+     */
+    private void write( String id, byte[] bytes )
+    {
+        remove( id );
+
+        if ( headPosition + bytes.length > slabSize )
+        {
+            head = nextSlab( head );
+            headPosition = 0;
+            evict( head );
+        }
+
+        if ( slabs[head] == null )
+        {
+            slabs[head] = ByteBuffer.allocateDirect( slabSize );
+        }
+
+        ByteBuffer slab = slabs[head].duplicate();
+        slab.position( headPosition );
+        slab.put( bytes );
+
+        Location location = new Location( id, head, headPosition, bytes.length );
+        index.put( id, location );
+        slabLocations.get( head ).add( location );
+        liveBytes[head] += bytes.length;
+        headPosition += bytes.length;
+    }
+
+
+    /**
+     * Removes an entry from the index. Its bytes are reclaimed with its slab
+     */
+    private void remove( String id )
+    {
+        Location location = index.remove( id );
+
+        if ( location != null )
+        {
+            liveBytes[location.slab] -= location.length;
+        }
+    }
+
+
+    /**
+     * Evicts all the entries of a slab
+     */
+    private void evict( int slab )
+    {
+        List<Location> locations = slabLocations.get( slab );
+
+        for ( Location location : locations )
+        {
+            // The entries which have been removed or written again are stale
+            if ( index.get( location.id ) == location )
+            {
+                index.remove( location.id );
+                evictionCount++;
+            }
+        }
+
+        locations.clear();
+        liveBytes[slab] = 0L;
+    }
+}
@@ -486,4 +486,11 @@ public interface Store
      * @return The cache
      */
     Cache< String, Dn > getAliasCache();
+
+
+    /**
+     * @return The mapping between the entry UUIDs and the dense identifiers used
+     * to store the search candidates
+     */
+    EntryIdMap getEntryIdMap();
 }
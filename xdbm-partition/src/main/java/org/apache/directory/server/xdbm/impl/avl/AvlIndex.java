@@ -126,12 +126,20 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
 
     public void add( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
+        // Only count the tuples which were not already present
+        boolean exists = forward.has( partitionTxn, attrVal, id );
+
         forward.put( partitionTxn, attrVal, id );
 
         if ( withReverse )
         {
             reverse.put( partitionTxn, id, attrVal );
         }
+
+        if ( !exists )
+        {
+            statistics.added( attrVal );
+        }
     }
 
 
@@ -188,6 +196,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
                     {
                         Tuple<String, K> tuple = cursor.get();
                         forward.remove( partitionTxn, tuple.getValue(), id );
+                        statistics.dropped( tuple.getValue() );
                     }
     
                     cursor.close();
@@ -201,6 +210,7 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
             {
                 K key = reverse.get( partitionTxn, id );
                 forward.remove( partitionTxn, key );
+                statistics.dropped( key );
             }
 
             reverse.remove( partitionTxn, id );
@@ -214,7 +224,11 @@ public class AvlIndex<K> extends AbstractIndex<K, String>
     @Override
     public void drop( PartitionTxn partitionTxn, K attrVal, String id ) throws LdapException
     {
-        forward.remove( partitionTxn, attrVal, id );
+        if ( forward.has( partitionTxn, attrVal, id ) )
+        {
+            forward.remove( partitionTxn, attrVal, id );
+            statistics.dropped( attrVal );
+        }
 
         if ( withReverse )
         {
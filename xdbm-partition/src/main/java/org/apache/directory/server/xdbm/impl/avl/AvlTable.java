@@ -275,7 +275,7 @@ public class AvlTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    public synchronized void put( PartitionTxn partitionTxn, K key, V value ) throws LdapException
     {
         if ( ( key == null ) || ( value == null ) )
         {
@@ -293,7 +293,7 @@ public class AvlTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void remove( PartitionTxn partitionTxn, K key ) throws LdapException
+    public synchronized void remove( PartitionTxn partitionTxn, K key ) throws LdapException
     {
         if ( key == null )
         {
@@ -322,7 +322,7 @@ public class AvlTable<K, V> extends AbstractTable<K, V>
      * {@inheritDoc}
      */
     @Override
-    public void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
+    public synchronized void remove( PartitionTxn partitionTxn, K key, V value ) throws LdapException
     {
         if ( avl.remove( key, value ) != null )
         {
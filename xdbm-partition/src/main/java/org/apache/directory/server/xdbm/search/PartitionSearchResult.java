@@ -22,10 +22,12 @@ package org.apache.directory.server.xdbm.search;
 
 import java.util.Set;
 
+import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.cursor.SetCursor;
 import org.apache.directory.api.ldap.model.filter.ExprNode;
 import org.apache.directory.api.ldap.model.message.AliasDerefMode;
 import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.server.xdbm.EntryIdBitmap;
 import org.apache.directory.server.xdbm.IndexEntry;
 
 
@@ -42,11 +44,14 @@ import org.apache.directory.server.xdbm.IndexEntry;
 public class PartitionSearchResult
 {
     /** The set of candidate UUIDs selected by the search */
-    private SetCursor<IndexEntry<String, String>> resultSet;
+    private Cursor<IndexEntry<String, String>> resultSet;
 
-    /** The set of candidate UUIDs */
+    /** The set of candidate UUIDs, if the caller wants the UUIDs to be materialized */
     private Set<String> candidateSet;
 
+    /** The compressed set of candidate entry identifiers */
+    private EntryIdBitmap candidateIds;
+
     /** The flag indicating if we are dereferencing the aliases. Default to Never. */
     private AliasDerefMode aliasDerefMode = AliasDerefMode.NEVER_DEREF_ALIASES;
 
@@ -71,7 +76,7 @@ public class PartitionSearchResult
     /**
      * @return the resultSet
      */
-    public SetCursor<IndexEntry<String, String>> getResultSet()
+    public Cursor<IndexEntry<String, String>> getResultSet()
     {
         return resultSet;
     }
@@ -86,6 +91,15 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @param cursor the cursor over the candidates to set as the resultSet
+     */
+    public void setResultSet( Cursor<IndexEntry<String, String>> cursor )
+    {
+        resultSet = cursor;
+    }
+
+
     /**
      * @return the candidateSet
      */
@@ -104,6 +118,24 @@ public class PartitionSearchResult
     }
 
 
+    /**
+     * @return the candidate entry identifiers, or null if a full scan is needed
+     */
+    public EntryIdBitmap getCandidateIds()
+    {
+        return candidateIds;
+    }
+
+
+    /**
+     * @param candidateIds the candidate entry identifiers to set
+     */
+    public void setCandidateIds( EntryIdBitmap candidateIds )
+    {
+        this.candidateIds = candidateIds;
+    }
+
+
     /**
      * @return the evaluator
      */
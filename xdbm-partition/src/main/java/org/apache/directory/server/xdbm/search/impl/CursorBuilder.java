@@ -53,6 +53,8 @@ import org.apache.directory.api.util.exception.NotImplementedException;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryIdBitmap;
+import org.apache.directory.server.xdbm.EntryIdMap;
 import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
@@ -93,13 +95,61 @@ public class CursorBuilder
     }
 
 
+    /**
+     * Computes the candidates for a filter, and stores them in the search result.
+     *
+     * @param partitionTxn The transaction to use
+     * @param node The filter
+     * @param searchResult The search result which will contain the candidates
+     * @return The number of candidates, or Long.MAX_VALUE if a full scan is needed
+     * @throws LdapException If the candidates can't be computed
+     */
     public <T> long build( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult ) throws LdapException
+    {
+        EntryIdBitmap candidates = computeCandidates( partitionTxn, node, searchResult );
+
+        if ( candidates == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        searchResult.setCandidateIds( candidates );
+
+        // Materialize the UUIDs if the caller asked for them
+        Set<String> uuidSet = searchResult.getCandidateSet();
+
+        if ( uuidSet != null )
+        {
+            EntryIdMap entryIdMap = db.getEntryIdMap();
+
+            for ( int id : candidates.toArray() )
+            {
+                String uuid = entryIdMap.getUuid( id );
+
+                if ( uuid != null )
+                {
+                    uuidSet.add( uuid );
+                }
+            }
+        }
+
+        return candidates.getCardinality();
+    }
+
+
+    /**
+     * Computes the candidates for a filter node.
+     *
+     * @return The candidate identifiers, or null if a full scan is needed
+     */
+    private <T> EntryIdBitmap computeCandidates( PartitionTxn partitionTxn, ExprNode node, PartitionSearchResult searchResult )
+        throws LdapException
     {
         Object count = node.get( DefaultOptimizer.COUNT_ANNOTATION );
 
         if ( ( count != null ) && ( ( Long ) count ) == 0L )
         {
-            return 0;
+            return new EntryIdBitmap();
         }
 
         try
@@ -109,19 +159,19 @@ public class CursorBuilder
             /* ---------- LEAF NODE HANDLING ---------- */
     
                 case APPROXIMATE:
-                    return computeApproximate( partitionTxn, ( ApproximateNode<T> ) node, searchResult );
+                    return computeApproximate( partitionTxn, ( ApproximateNode<T> ) node );
     
                 case EQUALITY:
-                    return computeEquality( partitionTxn, ( EqualityNode<T> ) node, searchResult );
+                    return computeEquality( partitionTxn, ( EqualityNode<T> ) node );
     
                 case GREATEREQ:
-                    return computeGreaterEq( partitionTxn, ( GreaterEqNode<T> ) node, searchResult );
+                    return computeGreaterEq( partitionTxn, ( GreaterEqNode<T> ) node );
     
                 case LESSEQ:
-                    return computeLessEq( partitionTxn, ( LessEqNode<T> ) node, searchResult );
+                    return computeLessEq( partitionTxn, ( LessEqNode<T> ) node );
     
                 case PRESENCE:
-                    return computePresence( partitionTxn, ( PresenceNode ) node, searchResult );
+                    return computePresence( partitionTxn, ( PresenceNode ) node );
     
                 case SCOPE:
                     if ( ( ( ScopeNode ) node ).getScope() == SearchScope.ONELEVEL )
@@ -130,11 +180,18 @@ public class CursorBuilder
                     }
                     else
                     {
-                        return computeSubLevelScope( partitionTxn, ( ScopeNode ) node, searchResult );
+                        EntryIdBitmap candidates = new EntryIdBitmap();
+
+                        if ( computeSubLevelScope( partitionTxn, ( ScopeNode ) node, searchResult, candidates ) )
+                        {
+                            return candidates;
+                        }
+
+                        return null;
                     }
     
                 case SUBSTRING:
-                    return computeSubstring( partitionTxn, ( SubstringNode ) node, searchResult );
+                    return computeSubstring( partitionTxn, ( SubstringNode ) node );
     
                     /* ---------- LOGICAL OPERATORS ---------- */
     
@@ -143,7 +200,7 @@ public class CursorBuilder
     
                 case NOT:
                     // Always return infinite, except if the resulting eva 
-                    return computeNot( ( NotNode ) node, searchResult );
+                    return computeNot( ( NotNode ) node );
     
                 case OR:
                     return computeOr( partitionTxn, ( OrNode ) node, searchResult );
@@ -166,64 +223,55 @@ public class CursorBuilder
 
 
     /**
-     * Computes the set of candidates for an Approximate filter. We will feed the set only if
-     * we have an index for the AT.
+     * Adds all the IDs returned by an index cursor to a bitmap, and closes the cursor.
      */
-
-    private <T> long computeApproximate( PartitionTxn partitionTxn, ApproximateNode<T> node, PartitionSearchResult searchResult )
-        throws LdapException, IndexNotFoundException, CursorException, IOException
+    private <T> EntryIdBitmap collect( Cursor<IndexEntry<T, String>> cursor, boolean forward )
+        throws LdapException, CursorException, IOException
     {
-        ApproximateCursor<T> cursor = new ApproximateCursor<>( partitionTxn, db,
-            ( ApproximateEvaluator<T> ) evaluatorBuilder
-                .build( partitionTxn, node ) );
+        EntryIdMap entryIdMap = db.getEntryIdMap();
+        EntryIdBitmap candidates = new EntryIdBitmap();
 
-        int nbResults = 0;
-        Set<String> uuidSet = searchResult.getCandidateSet();
-
-        while ( cursor.next() )
+        try
         {
-            IndexEntry<T, String> indexEntry = cursor.get();
-
-            String uuid = indexEntry.getId();
-            boolean added = uuidSet.add( uuid );
-
-            // if the UUID was added increment the result count
-            if ( added )
+            while ( forward ? cursor.next() : cursor.previous() )
             {
-                nbResults++;
+                candidates.add( entryIdMap.getOrAssign( cursor.get().getId() ) );
             }
         }
+        finally
+        {
+            cursor.close();
+        }
 
-        cursor.close();
-
-        return nbResults;
+        return candidates;
     }
 
 
     /**
-     * Computes the set of candidates for an Equality filter. We will feed the set only if
+     * Computes the set of candidates for an Approximate filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeEquality( PartitionTxn partitionTxn, EqualityNode<T> node, PartitionSearchResult searchResult )
+
+    private <T> EntryIdBitmap computeApproximate( PartitionTxn partitionTxn, ApproximateNode<T> node )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
-        Set<String> thisCandidates = ( Set<String> ) node.get( DefaultOptimizer.CANDIDATES_ANNOTATION_KEY );
-
-        if ( thisCandidates != null )
-        {
-            Set<String> candidates = searchResult.getCandidateSet();
+        ApproximateCursor<T> cursor = new ApproximateCursor<>( partitionTxn, db,
+            ( ApproximateEvaluator<T> ) evaluatorBuilder
+                .build( partitionTxn, node ) );
 
-            for ( String candidate : thisCandidates )
-            {
-                candidates.add( candidate );
-            }
+        return collect( cursor, true );
+    }
 
-            return thisCandidates.size();
-        }
 
+    /**
+     * Computes the set of candidates for an Equality filter. We will feed the set only if
+     * we have an index for the AT.
+     */
+    private <T> EntryIdBitmap computeEquality( PartitionTxn partitionTxn, EqualityNode<T> node )
+        throws LdapException, IndexNotFoundException, CursorException, IOException
+    {
         AttributeType attributeType = node.getAttributeType();
         Value value = node.getValue();
-        int nbResults = 0;
 
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
@@ -231,32 +279,14 @@ public class CursorBuilder
             // Get the cursor using the index
             Index<T, String> userIndex = ( Index<T, String> ) db.getIndex( attributeType );
             Cursor<IndexEntry<T, String>> userIdxCursor = userIndex.forwardCursor( partitionTxn, ( T ) value.getNormalized() );
-            Set<String> uuidSet = searchResult.getCandidateSet();
 
-            // And loop on it
-            while ( userIdxCursor.next() )
-            {
-                IndexEntry<T, String> indexEntry = userIdxCursor.get();
-
-                String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
-                
-                // if the UUID was added increment the result count
-                if ( added )
-                {
-                    nbResults++;
-                }
-            }
-
-            userIdxCursor.close();
+            return collect( userIdxCursor, true );
         }
         else
         {
             // No index, we will have to do a full scan
-            return Long.MAX_VALUE;
+            return null;
         }
-
-        return nbResults;
     }
 
 
@@ -264,12 +294,11 @@ public class CursorBuilder
      * Computes the set of candidates for an GreateEq filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeGreaterEq( PartitionTxn partitionTxn, GreaterEqNode<T> node, PartitionSearchResult searchResult )
+    private <T> EntryIdBitmap computeGreaterEq( PartitionTxn partitionTxn, GreaterEqNode<T> node )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
         Value value = node.getValue();
-        int nbResults = 0;
 
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
@@ -283,32 +312,14 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getString() );
 
             userIdxCursor.before( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
-
-            // And loop on it
-            while ( userIdxCursor.next() )
-            {
-                indexEntry = userIdxCursor.get();
 
-                String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
-
-                // if the UUID was added increment the result count
-                if ( added )
-                {
-                    nbResults++;
-                }
-            }
-
-            userIdxCursor.close();
+            return collect( userIdxCursor, true );
         }
         else
         {
             // No index, we will have to do a full scan
-            return Long.MAX_VALUE;
+            return null;
         }
-
-        return nbResults;
     }
 
 
@@ -316,12 +327,11 @@ public class CursorBuilder
      * Computes the set of candidates for an LessEq filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private <T> long computeLessEq( PartitionTxn partitionTxn, LessEqNode<T> node, PartitionSearchResult searchResult )
+    private <T> EntryIdBitmap computeLessEq( PartitionTxn partitionTxn, LessEqNode<T> node )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
         Value value = node.getValue();
-        int nbResults = 0;
 
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
@@ -335,32 +345,14 @@ public class CursorBuilder
             indexEntry.setKey( ( T ) value.getString() );
 
             userIdxCursor.after( indexEntry );
-            Set<String> uuidSet = searchResult.getCandidateSet();
-
-            // And loop on it
-            while ( userIdxCursor.previous() )
-            {
-                indexEntry = userIdxCursor.get();
-
-                String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
-
-                // if the UUID was added increment the result count
-                if ( added )
-                {
-                    nbResults++;
-                }
-            }
 
-            userIdxCursor.close();
+            return collect( userIdxCursor, false );
         }
         else
         {
             // No index, we will have to do a full scan
-            return Long.MAX_VALUE;
+            return null;
         }
-
-        return nbResults;
     }
 
 
@@ -368,11 +360,10 @@ public class CursorBuilder
      * Computes the set of candidates for a Presence filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computePresence( PartitionTxn partitionTxn, PresenceNode node, PartitionSearchResult searchResult )
+    private EntryIdBitmap computePresence( PartitionTxn partitionTxn, PresenceNode node )
         throws LdapException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
-        int nbResults = 0;
 
         // Fetch all the UUIDs if we have an index
         if ( db.hasIndexOn( attributeType ) )
@@ -381,33 +372,13 @@ public class CursorBuilder
             Cursor<IndexEntry<String, String>> presenceCursor = db.getPresenceIndex().forwardCursor(
                 partitionTxn, attributeType.getOid() );
 
-            // Position the index on the element we should start from
-            Set<String> uuidSet = searchResult.getCandidateSet();
-
-            // And loop on it
-            while ( presenceCursor.next() )
-            {
-                IndexEntry<String, String> indexEntry = presenceCursor.get();
-
-                String uuid = indexEntry.getId();
-                boolean added = uuidSet.add( uuid );
-
-                // if the UUID was added increment the result count
-                if ( added )
-                {
-                    nbResults++;
-                }
-            }
-
-            presenceCursor.close();
+            return collect( presenceCursor, true );
         }
         else
         {
             // No index, we will have to do a full scan
-            return Long.MAX_VALUE;
+            return null;
         }
-
-        return nbResults;
     }
 
 
@@ -415,10 +386,11 @@ public class CursorBuilder
      * Computes the set of candidates for a OneLevelScope filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computeOneLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult )
+    private EntryIdBitmap computeOneLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult )
         throws LdapException, CursorException, IOException
     {
-        int nbResults = 0;
+        EntryIdMap entryIdMap = db.getEntryIdMap();
+        EntryIdBitmap candidates = new EntryIdBitmap();
 
         // We use the RdnIndex to get all the entries from a starting point
         // and below up to the number of children
@@ -429,7 +401,6 @@ public class CursorBuilder
         rdnCursor.before( startingPos );
 
         Cursor<IndexEntry<String, String>> scopeCursor = new ChildrenCursor( partitionTxn, db, node.getBaseId(), rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
         // Fetch all the UUIDs if we have an index
         // And loop on it
@@ -456,60 +427,44 @@ public class CursorBuilder
 
                     // This is an alias. Add it to the set of candidates to process, if it's not already
                     // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
-                    }
+                    candidates.add( entryIdMap.getOrAssign( aliasedId ) );
                 }
                 else
                 {
-                    // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
-                    
                     // This is not an alias
-                    if ( added )
-                    {
-                        nbResults++;
-                    }
+                    candidates.add( entryIdMap.getOrAssign( uuid ) );
                 }
             }
             else
             {
-                // The UUID is not present in the Set, we add it
-                boolean added = candidateSet.add( uuid );
-                
-                // This is not an alias
-                if ( added )
-                {
-                    nbResults++;
-                }
+                candidates.add( entryIdMap.getOrAssign( uuid ) );
             }
         }
 
         scopeCursor.close();
 
-        return nbResults;
+        return candidates;
     }
 
 
     /**
      * Computes the set of candidates for a SubLevelScope filter. We will feed the set only if
      * we have an index for the AT.
+     *
+     * @return false if a full scan is needed
      */
-    private long computeSubLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult )
-        throws LdapException, IOException, CursorException
+    private boolean computeSubLevelScope( PartitionTxn partitionTxn, ScopeNode node, PartitionSearchResult searchResult,
+        EntryIdBitmap candidates ) throws LdapException, IOException, CursorException
     {
         // If we are searching from the partition DN, better get out.
         String contextEntryId = db.getEntryId( partitionTxn, ( ( Partition ) db ).getSuffixDn() );
 
         if ( node.getBaseId() == contextEntryId )
         {
-            return Long.MAX_VALUE;
+            return false;
         }
 
-        int nbResults = 0;
+        EntryIdMap entryIdMap = db.getEntryIdMap();
 
         // We use the RdnIndex to get all the entries from a starting point
         // and below up to the number of descendant
@@ -525,75 +480,68 @@ public class CursorBuilder
         String parentId = parentIdAndRdn.getParentId();
 
         Cursor<IndexEntry<String, String>> scopeCursor = new DescendantCursor( partitionTxn, db, baseId, parentId, rdnCursor );
-        Set<String> candidateSet = searchResult.getCandidateSet();
 
-        // Fetch all the UUIDs if we have an index
-        // And loop on it
-        while ( scopeCursor.next() )
+        try
         {
-            IndexEntry<String, String> indexEntry = scopeCursor.get();
-
-            String uuid = indexEntry.getId();
-
-            // If the entry is an alias, and we asked for it to be dereferenced,
-            // we will dereference the alias
-            if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
+            // Fetch all the UUIDs if we have an index
+            // And loop on it
+            while ( scopeCursor.next() )
             {
-                Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
-
-                if ( aliasedDn != null )
+                IndexEntry<String, String> indexEntry = scopeCursor.get();
+    
+                String uuid = indexEntry.getId();
+    
+                // If the entry is an alias, and we asked for it to be dereferenced,
+                // we will dereference the alias
+                if ( searchResult.isDerefAlways() || searchResult.isDerefInSearching() )
                 {
-                    if ( !aliasedDn.isSchemaAware() )
+                    Dn aliasedDn = db.getAliasIndex().reverseLookup( partitionTxn, uuid );
+    
+                    if ( aliasedDn != null )
                     {
-                        aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
+                        if ( !aliasedDn.isSchemaAware() )
+                        {
+                            aliasedDn = new Dn( evaluatorBuilder.getSchemaManager(), aliasedDn );
+                        }
+    
+                        String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
+    
+                        // This is an alias. Add it to the set of candidates to process, if it's not already
+                        // present in the candidate set 
+                        boolean added = candidates.add( entryIdMap.getOrAssign( aliasedId ) );
+                        
+                        if ( added )
+                        {
+                            ScopeNode newScopeNode = new ScopeNode(
+                                node.getDerefAliases(),
+                                aliasedDn,
+                                aliasedId,
+                                node.getScope() );
+    
+                            if ( !computeSubLevelScope( partitionTxn, newScopeNode, searchResult, candidates ) )
+                            {
+                                return false;
+                            }
+                        }
                     }
-
-                    String aliasedId = db.getEntryId( partitionTxn, aliasedDn );
-
-                    // This is an alias. Add it to the set of candidates to process, if it's not already
-                    // present in the candidate set 
-                    boolean added = candidateSet.add( aliasedId );
-                    
-                    if ( added )
+                    else
                     {
-                        nbResults++;
-
-                        ScopeNode newScopeNode = new ScopeNode(
-                            node.getDerefAliases(),
-                            aliasedDn,
-                            aliasedId,
-                            node.getScope() );
-
-                        nbResults += computeSubLevelScope( partitionTxn, newScopeNode, searchResult );
+                        // This is not an alias
+                        candidates.add( entryIdMap.getOrAssign( uuid ) );
                     }
                 }
                 else
                 {
-                    // This is not an alias
-                    // The UUID is not present in the Set, we add it
-                    boolean added = candidateSet.add( uuid );
-                    
-                    if ( added )
-                    {
-                        nbResults++;
-                    }
-                }
-            }
-            else
-            {
-                // The UUID is not present in the Set, we add it
-                boolean added = candidateSet.add( uuid );
-                
-                if ( added )
-                {
-                    nbResults++;
+                    candidates.add( entryIdMap.getOrAssign( uuid ) );
                 }
             }
         }
+        finally
+        {
+            scopeCursor.close();
+        }
 
-        scopeCursor.close();
-
-        return nbResults;
+        return true;
     }
 
 
@@ -601,16 +549,17 @@ public class CursorBuilder
      * Computes the set of candidates for an Substring filter. We will feed the set only if
      * we have an index for the AT.
      */
-    private long computeSubstring( PartitionTxn partitionTxn, SubstringNode node, PartitionSearchResult searchResult )
+    private EntryIdBitmap computeSubstring( PartitionTxn partitionTxn, SubstringNode node )
         throws LdapException, IndexNotFoundException, CursorException, IOException
     {
         AttributeType attributeType = node.getAttributeType();
+        EntryIdBitmap candidates = new EntryIdBitmap();
         
         // Check if the AttributeType has a SubstringMatchingRule
         if ( attributeType.getSubstring() == null )
         {
             // No SUBSTRING matching rule : return 0
-            return 0L;
+            return candidates;
         }
 
         // Fetch all the UUIDs if we have an index
@@ -637,8 +586,6 @@ public class CursorBuilder
                 cursor.before( indexEntry );
             }
             
-            int nbResults = 0;
-
             MatchingRule rule = attributeType.getSubstring();
 
             if ( rule == null )
@@ -669,13 +616,13 @@ public class CursorBuilder
                 regexp = null;
             }
 
-            Set<String> uuidSet = searchResult.getCandidateSet();
-
             if ( regexp == null )
             {
-                return nbResults;
+                return candidates;
             }
             
+            EntryIdMap entryIdMap = db.getEntryIdMap();
+
             // And loop on it
             while ( cursor.next() )
             {
@@ -689,7 +636,7 @@ public class CursorBuilder
                 {
                     cursor.close();
 
-                    return nbResults;
+                    return candidates;
                 }
 
                 if ( !matched )
@@ -697,44 +644,37 @@ public class CursorBuilder
                     continue;
                 }
                 
-                String uuid = indexEntry.getId();
-
-                boolean added = uuidSet.add( uuid );
-                
-                // if the UUID was added increment the result count
-                if ( added )
-                {
-                    nbResults++;
-                }
+                candidates.add( entryIdMap.getOrAssign( indexEntry.getId() ) );
             }
 
             cursor.close();
 
-            return nbResults;
+            return candidates;
         }
         else
         {
             // No index, we will have to do a full scan
-            return Long.MAX_VALUE;
+            return null;
         }
     }
 
 
     /**
-     * Creates a OrCursor over a disjunction expression branch node.
+     * Computes the union of the candidates of each child of a disjunction expression 
+     * branch node.
      *
      * @param node the disjunction expression branch node
-     * @return Cursor over candidates satisfying disjunction expression
+     * @return The candidates satisfying the disjunction expression, or null if a full scan is needed
      * @throws Exception on db access failures
      */
-    private long computeOr( PartitionTxn partitionTxn, OrNode node, PartitionSearchResult searchResult ) 
+    private EntryIdBitmap computeOr( PartitionTxn partitionTxn, OrNode node, PartitionSearchResult searchResult ) 
         throws LdapException
     {
         List<ExprNode> children = node.getChildren();
 
-        long nbOrResults = 0;
+        EntryIdBitmap candidates = new EntryIdBitmap();
 
-        // Recursively create Cursors and Evaluators for each child expression node
+        // Recursively compute the candidates for each child expression node
         for ( ExprNode child : children )
         {
             Object count = child.get( DefaultOptimizer.COUNT_ANNOTATION );
@@ -751,37 +691,45 @@ public class CursorBuilder
                 else if ( countLong == Long.MAX_VALUE )
                 {
                     // We can stop here, we will anyway do a full scan
-                    return countLong;
+                    return null;
                 }
             }
 
-            long nbResults = build( partitionTxn, child, searchResult );
+            EntryIdBitmap childCandidates = computeCandidates( partitionTxn, child, searchResult );
 
-            if ( nbResults == Long.MAX_VALUE )
+            if ( childCandidates == null )
             {
                 // We can stop here, we will anyway do a full scan
-                return nbResults;
-            }
-            else
-            {
-                nbOrResults += nbResults;
+                return null;
             }
+
+            candidates.or( childCandidates );
         }
 
-        return nbOrResults;
+        return candidates;
     }
 
 
     /**
-     * Creates an AndCursor over a conjunction expression branch node.
+     * Computes the candidates of a conjunction expression branch node, following the
+     * plan selected by the optimizer : we use the child with the smallest scan count to
+     * drive the selection, and, for an intersection plan, we narrow it down with the 
+     * exact candidate sets of the children the optimizer has flagged.
      *
      * @param node a conjunction expression branch node
-     * @return Cursor over the conjunction expression
+     * @return The candidates for the conjunction expression, or null if a full scan is needed
      * @throws Exception on db access failures
      */
-    private long computeAnd( PartitionTxn partitionTxn, AndNode node, PartitionSearchResult searchResult ) 
+    private EntryIdBitmap computeAnd( PartitionTxn partitionTxn, AndNode node, PartitionSearchResult searchResult ) 
         throws LdapException
     {
+        Object plan = node.get( DefaultOptimizer.PLAN_ANNOTATION );
+
+        if ( plan == DefaultOptimizer.AndPlan.FULL_SCAN )
+        {
+            return null;
+        }
+
         int minIndex = 0;
         long minValue = Long.MAX_VALUE;
         long value;
@@ -808,7 +756,7 @@ public class CursorBuilder
             if ( value == 0L )
             {
                 // No need to go any further : we won't have matching candidates anyway
-                return 0L;
+                return new EntryIdBitmap();
             }
 
             if ( value < minValue )
@@ -818,21 +766,62 @@ public class CursorBuilder
             }
         }
 
-        // Once found we return the number of candidates for this child
-        ExprNode minChild = children.get( minIndex );
+        // Once found we compute the candidates for this child
+        EntryIdBitmap candidates = computeCandidates( partitionTxn, children.get( minIndex ), searchResult );
+
+        if ( ( candidates == null ) || ( plan != DefaultOptimizer.AndPlan.INTERSECTION ) )
+        {
+            return candidates;
+        }
 
-        return build( partitionTxn, minChild, searchResult );
+        // Now, intersect them with the children selected by the optimizer. Those children
+        // index gives the exact set of matching entries.
+        for ( int i = 0; i < children.size(); i++ )
+        {
+            if ( candidates.isEmpty() )
+            {
+                break;
+            }
+
+            ExprNode child = children.get( i );
+
+            if ( ( i == minIndex ) || ( child.get( DefaultOptimizer.INTERSECT_ANNOTATION ) != Boolean.TRUE ) )
+            {
+                continue;
+            }
+
+            if ( child instanceof NotNode )
+            {
+                ExprNode negated = ( ( NotNode ) child ).getFirstChild();
+                EntryIdBitmap excluded = computeCandidates( partitionTxn, negated, searchResult );
+
+                if ( excluded != null )
+                {
+                    candidates.andNot( excluded );
+                }
+            }
+            else
+            {
+                EntryIdBitmap childCandidates = computeCandidates( partitionTxn, child, searchResult );
+
+                if ( childCandidates != null )
+                {
+                    candidates.and( childCandidates );
+                }
+            }
+        }
+
+        return candidates;
     }
 
 
     /**
-     * Creates an AndCursor over a conjunction expression branch node.
+     * Computes the candidates for a negation expression branch node.
      *
-     * @param node a conjunction expression branch node
-     * @return Cursor over the conjunction expression
-     * @throws Exception on db access failures
+     * @param node a negation expression branch node
+     * @return The candidates, or null if a full scan is needed
      */
-    private long computeNot( NotNode node, PartitionSearchResult searchResult )
+    private EntryIdBitmap computeNot( NotNode node )
     {
         final List<ExprNode> children = node.getChildren();
 
@@ -841,7 +830,7 @@ public class CursorBuilder
 
         if ( count == null )
         {
-            return Long.MAX_VALUE;
+            return null;
         }
 
         long value = ( Long ) count;
@@ -849,9 +838,9 @@ public class CursorBuilder
         if ( value == Long.MAX_VALUE )
         {
             // No need to go any further : we won't have matching candidates anyway
-            return 0L;
+            return new EntryIdBitmap();
         }
 
-        return Long.MAX_VALUE;
+        return null;
     }
 }
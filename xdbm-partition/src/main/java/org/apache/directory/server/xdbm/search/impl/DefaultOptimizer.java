@@ -20,13 +20,10 @@
 package org.apache.directory.server.xdbm.search.impl;
 
 
-import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.directory.api.ldap.model.constants.SchemaConstants;
-import org.apache.directory.api.ldap.model.cursor.Cursor;
 import org.apache.directory.api.ldap.model.exception.LdapException;
 import org.apache.directory.api.ldap.model.exception.LdapOtherException;
 import org.apache.directory.api.ldap.model.filter.AndNode;
@@ -45,27 +42,73 @@ import org.apache.directory.api.ldap.model.filter.PresenceNode;
 import org.apache.directory.api.ldap.model.filter.ScopeNode;
 import org.apache.directory.api.ldap.model.filter.SimpleNode;
 import org.apache.directory.api.ldap.model.filter.SubstringNode;
+import org.apache.directory.api.ldap.model.message.AliasDerefMode;
+import org.apache.directory.api.ldap.model.schema.MatchingRule;
+import org.apache.directory.api.ldap.model.schema.PrepareString;
 import org.apache.directory.api.util.Strings;
 import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.i18n.I18n;
-import org.apache.directory.server.xdbm.Index;
 import org.apache.directory.server.xdbm.IndexNotFoundException;
+import org.apache.directory.server.xdbm.IndexStatistics;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Optimizer;
 
 
 /**
- * Optimizer that annotates the filter using scan counts.
+ * Optimizer that annotates the filter with estimated scan counts, and selects the way
+ * the candidates of each conjunction will be computed.
+ * <br>
+ * The scan counts are computed from the {@link IndexStatistics} maintained by each
+ * index : no index is read while optimizing a filter. The estimates are never 0, as the
+ * statistics are approximations and can't be used to discard a filter.
+ * <br>
+ * For each AND node, we compare the cost of three plans :
+ * <ul>
+ *   <li>{@link AndPlan#DRIVING_INDEX} : the candidates are read from the child with the
+ *   smallest scan count, and all of them are fetched and evaluated</li>
+ *   <li>{@link AndPlan#INTERSECTION} : the candidates of the driving child are intersected
+ *   with (or, for negations, subtracted from) the candidates of some other children which
+ *   index gives the exact set of matching entries, so that less entries are fetched</li>
+ *   <li>{@link AndPlan#FULL_SCAN} : all the entries are read from the master table</li>
+ * </ul>
  * 
  * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
  */
 public class DefaultOptimizer implements Optimizer
 {
-    /* Package protected*/ static final String CANDIDATES_ANNOTATION_KEY = "candidates";
-    
     /* Package protected*/ static final String COUNT_ANNOTATION = "count"; 
 
+    /** The annotation storing the {@link AndPlan} selected for an AND node */
+    /* Package protected*/ static final String PLAN_ANNOTATION = "plan";
+
+    /** The annotation set on the children of an AND node which candidates have to be intersected */
+    /* Package protected*/ static final String INTERSECT_ANNOTATION = "intersect";
+
+    /** The relative cost of reading one tuple from an index */
+    private static final double INDEX_READ_COST = 1d;
+
+    /** The relative cost of fetching one candidate from the master table and evaluating it */
+    private static final double FETCH_COST = 5d;
+
+    /** The relative cost of reading and evaluating one entry during a full master table scan */
+    private static final double SCAN_COST = 3d;
+
+    /**
+     * The possible ways to compute the candidates of an AND node
+     */
+    /* Package protected*/ enum AndPlan
+    {
+        /** Use the child with the smallest scan count, and evaluate all its candidates */
+        DRIVING_INDEX,
+
+        /** Intersect the candidates of the driving child with the ones of other children */
+        INTERSECTION,
+
+        /** Scan the whole master table */
+        FULL_SCAN
+    }
+
     /** the database this optimizer operates on */
     private final Store db;
     private String contextEntryId;
@@ -109,9 +152,7 @@ public class DefaultOptimizer implements Optimizer
 
     /**
      * Annotates the expression tree to determine optimal evaluation order based
-     * on the scan count for indices that exist for each expression node.  If an
-     * index on the attribute does not exist an IndexNotFoundException will be
-     * thrown.
+     * on the estimated scan count for indices that exist for each expression node.
      *
      * {@inheritDoc}
      */
@@ -127,9 +168,10 @@ public class DefaultOptimizer implements Optimizer
          * --------------------------------------------------------------------
          * 
          * Each leaf node is based on an attribute and it represents a condition
-         * that needs to be statisfied.  We ask the index (if one exists) for 
-         * the attribute to give us a scan count of all the candidates that 
-         * would satisfy the attribute assertion represented by the leaf node.
+         * that needs to be statisfied.  We ask the index statistics (if an index
+         * exists) for the attribute to give us an estimate of the number of
+         * candidates that would satisfy the attribute assertion represented by
+         * the leaf node.
          * 
          * This is conducted differently based on the type of the leaf node.
          * Comments on each node type explain how each scan count is arrived at.
@@ -159,37 +201,36 @@ public class DefaultOptimizer implements Optimizer
                 }
                 else if ( node instanceof EqualityNode )
                 {
-                    count = getEqualityScan( partitionTxn, ( EqualityNode ) leaf );
+                    count = getEqualityScan( ( EqualityNode ) leaf );
                 }
                 else if ( node instanceof GreaterEqNode )
                 {
-                    count = getGreaterLessScan( partitionTxn, ( GreaterEqNode ) leaf, SimpleNode.EVAL_GREATER );
+                    count = getGreaterLessScan( ( GreaterEqNode ) leaf, SimpleNode.EVAL_GREATER );
                 }
                 else if ( node instanceof LessEqNode )
                 {
-                    count = getGreaterLessScan( partitionTxn, ( SimpleNode ) leaf, SimpleNode.EVAL_LESSER );
+                    count = getGreaterLessScan( ( SimpleNode ) leaf, SimpleNode.EVAL_LESSER );
                 }
                 else if ( node instanceof SubstringNode )
                 {
-                    /** Cannot really say so we presume the total index count */
-                    count = getSubstringScan( partitionTxn, ( SubstringNode ) leaf );
+                    count = getSubstringScan( ( SubstringNode ) leaf );
                 }
                 else if ( node instanceof ExtensibleNode )
                 {
                     /** Cannot really say so we presume the total index count */
-                    count = getFullScan( partitionTxn, leaf );
+                    count = getFullScan( leaf );
                 }
                 else if ( node instanceof ApproximateNode )
                 {
                     /** Feature not implemented so we just use equality matching */
-                    count = getEqualityScan( partitionTxn, ( ApproximateNode ) leaf );
+                    count = getEqualityScan( ( ApproximateNode ) leaf );
                 }
                 else
                 {
                     throw new IllegalArgumentException( I18n.err( I18n.ERR_711 ) );
                 }
             }
-            catch ( IndexNotFoundException | IOException e )
+            catch ( IndexNotFoundException e )
             {
                 throw new LdapOtherException( e.getMessage(), e );
             }
@@ -215,7 +256,8 @@ public class DefaultOptimizer implements Optimizer
                  * A negation filter is always worst case since we will have
                  * to retrieve all entries from the master table then test
                  * each one against the negated child filter.  There is no way
-                 * to use the indices.
+                 * to use the indices, except when the negation is part of a
+                 * conjunction (see getConjunctionScan).
                  */
                 count = Long.MAX_VALUE;
             }
@@ -243,6 +285,8 @@ public class DefaultOptimizer implements Optimizer
      * the worst case. Notice that we annotate the child node with a recursive 
      * call before accessing its count parameter making the chain recursion 
      * depth first.
+     * <br>
+     * Once the children are annotated, we select the cheapest plan for this node.
      *
      * @param node a AND (Conjunction) BranchNode
      * @return the calculated scan count
@@ -252,29 +296,166 @@ public class DefaultOptimizer implements Optimizer
     {
         long count = Long.MAX_VALUE;
         List<ExprNode> children = node.getChildren();
+        ExprNode driver = null;
 
         for ( ExprNode child : children )
         {
-            if ( ( count == 1 ) && ( child instanceof ScopeNode ) )
+            child.set( INTERSECT_ANNOTATION, null );
+            annotate( partitionTxn, child );
+            long childCount = ( Long ) child.get( COUNT_ANNOTATION );
+
+            if ( childCount < count )
             {
-                // We can stop here
-                break;
+                count = childCount;
+                driver = child;
             }
+        }
 
-            annotate( partitionTxn, child );
-            count = Math.min( ( ( Long ) child.get( COUNT_ANNOTATION ) ), count );
+        if ( count == Long.MAX_VALUE )
+        {
+            // No usable index
+            node.set( PLAN_ANNOTATION, AndPlan.FULL_SCAN );
+
+            return Long.MAX_VALUE;
+        }
+
+        double total = Math.max( 1L, db.count( partitionTxn ) );
+
+        // The driving index plan
+        double drivingCost = count * ( INDEX_READ_COST + FETCH_COST );
+
+        // The intersection plan : add the exact children, smallest first, as long as
+        // the fetches they save cost more than reading their index
+        List<ExprNode> exactChildren = new ArrayList<>();
+
+        for ( ExprNode child : children )
+        {
+            if ( ( child != driver ) && isExact( child ) )
+            {
+                exactChildren.add( child );
+            }
+        }
+
+        exactChildren.sort( ( c1, c2 ) -> Long.compare( getExactCount( c1 ), getExactCount( c2 ) ) );
+
+        double estimate = count;
+        double readCost = count * INDEX_READ_COST;
+        boolean intersect = false;
+
+        for ( ExprNode child : exactChildren )
+        {
+            long childCount = getExactCount( child );
+            double selectivity = Math.min( 1d, childCount / total );
 
-            if ( count == 0 )
+            if ( child instanceof NotNode )
             {
-                // No need to continue
-                break;
+                selectivity = 1d - selectivity;
+            }
+
+            double newEstimate = estimate * selectivity;
+            double gain = ( estimate - newEstimate ) * FETCH_COST - childCount * INDEX_READ_COST;
+
+            if ( gain > 0d )
+            {
+                child.set( INTERSECT_ANNOTATION, Boolean.TRUE );
+                intersect = true;
+                estimate = newEstimate;
+                readCost += childCount * INDEX_READ_COST;
             }
         }
 
+        double intersectionCost = readCost + estimate * FETCH_COST;
+
+        // The full scan plan
+        double fullScanCost = total * SCAN_COST;
+
+        if ( ( fullScanCost < drivingCost ) && ( !intersect || ( fullScanCost < intersectionCost ) ) )
+        {
+            for ( ExprNode child : exactChildren )
+            {
+                child.set( INTERSECT_ANNOTATION, null );
+            }
+
+            node.set( PLAN_ANNOTATION, AndPlan.FULL_SCAN );
+
+            return Long.MAX_VALUE;
+        }
+
+        if ( intersect && ( intersectionCost < drivingCost ) )
+        {
+            node.set( PLAN_ANNOTATION, AndPlan.INTERSECTION );
+
+            return Math.max( 1L, ( long ) estimate );
+        }
+
+        for ( ExprNode child : exactChildren )
+        {
+            child.set( INTERSECT_ANNOTATION, null );
+        }
+
+        node.set( PLAN_ANNOTATION, AndPlan.DRIVING_INDEX );
+
         return count;
     }
 
 
+    /**
+     * Tells if the candidates computed by the CursorBuilder for a child of an AND node 
+     * are exactly the entries matching this child (and not a superset of them). Negations
+     * of such nodes are also accepted, their candidates will be removed. 
+     */
+    private boolean isExact( ExprNode node ) throws LdapException
+    {
+        if ( node instanceof NotNode )
+        {
+            ExprNode negated = ( ( NotNode ) node ).getFirstChild();
+
+            return !( negated instanceof ScopeNode ) && isExact( negated );
+        }
+
+        if ( getExactCount( node ) == Long.MAX_VALUE )
+        {
+            return false;
+        }
+
+        if ( node instanceof ScopeNode )
+        {
+            // Aliases dereferencing adds some candidates that are checked by the evaluator
+            AliasDerefMode derefMode = ( ( ScopeNode ) node ).getDerefAliases();
+
+            return ( derefMode != AliasDerefMode.DEREF_ALWAYS ) && ( derefMode != AliasDerefMode.DEREF_IN_SEARCHING );
+        }
+
+        if ( node instanceof PresenceNode )
+        {
+            return db.hasUserIndexOn( ( ( PresenceNode ) node ).getAttributeType() );
+        }
+
+        return node instanceof EqualityNode;
+    }
+
+
+    /**
+     * @return the scan count of a node, or of the negated node for a NotNode
+     */
+    private long getExactCount( ExprNode node )
+    {
+        if ( node instanceof NotNode )
+        {
+            node = ( ( NotNode ) node ).getFirstChild();
+        }
+
+        Object count = node.get( COUNT_ANNOTATION );
+
+        if ( count == null )
+        {
+            return Long.MAX_VALUE;
+        }
+
+        return ( Long ) count;
+    }
+
+
     /**
      * Disjunctions (OR) are the union of candidates across all subexpressions 
      * so we add all the counts of the child nodes. Notice that we annotate the 
@@ -294,10 +475,10 @@ public class DefaultOptimizer implements Optimizer
             annotate( partitionTxn, child );
             total += ( Long ) child.get( COUNT_ANNOTATION );
 
-            if ( total == Long.MAX_VALUE )
+            if ( ( total == Long.MAX_VALUE ) || ( total < 0L ) )
             {
                 // We can stop here withoit evaluating the following filters
-                break;
+                return Long.MAX_VALUE;
             }
         }
 
@@ -306,19 +487,28 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Gets the worst case scan count for all entries that satisfy the equality
+     * Makes sure an estimate is never 0 : the statistics may be slightly out of date,
+     * and a 0 count would discard the filter without reading the index.
+     */
+    private static long nonZero( long estimate )
+    {
+        return Math.max( 1L, estimate );
+    }
+
+
+    /**
+     * Gets the estimated scan count for all entries that satisfy the equality
      * assertion in the SimpleNode argument.  
      *
      * @param node the node to get a scan count for 
-     * @return the worst case
+     * @return the estimated count
      * @throws Exception if there is an error accessing an index
      */
-    @SuppressWarnings("unchecked")
-    private <V> long getEqualityScan( PartitionTxn partitionTxn, SimpleNode<V> node ) throws LdapException, IndexNotFoundException, IOException
+    private <V> long getEqualityScan( SimpleNode<V> node ) throws LdapException, IndexNotFoundException
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndex( node.getAttributeType() ).getStatistics();
 
             String normalizedKey;
             
@@ -330,39 +520,8 @@ public class DefaultOptimizer implements Optimizer
             {
                 normalizedKey = node.getAttributeType().getEquality().getNormalizer().normalize( node.getValue().getString() );
             }
-            
-            Cursor<String> result = idx.forwardValueCursor( partitionTxn, ( V ) normalizedKey );
-            Set<String> values = new HashSet<>();
-            int nbFound = 0;
 
-            for ( String value : result )
-            {
-                values.add( value );
-                nbFound++;
-
-                // Arbitrary stop gathering the candidates if we have more than 100
-                if ( nbFound == 100 )
-                {
-                    break;
-                }
-            }
-
-            result.close();
-
-            if ( nbFound < 100 )
-            {
-                // Store the found candidates in the node
-                node.set( CANDIDATES_ANNOTATION_KEY, values );
-
-                return values.size();
-            }
-            else
-            {
-                // Reset the candidates annotation
-                node.set( CANDIDATES_ANNOTATION_KEY, null );
-
-                return idx.count( partitionTxn, ( V ) node.getValue().getNormalized() );
-            }
+            return nonZero( statistics.estimateEquality( normalizedKey ) );
         }
 
         // count for non-indexed attribute is unknown so we presume da worst
@@ -371,28 +530,27 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Gets a scan count of the nodes that satisfy the greater or less than test
-     * specified by the node.
+     * Gets the estimated scan count of the nodes that satisfy the greater or less 
+     * than test specified by the node.
      *
      * @param node the greater or less than node to get a count for 
      * @param isGreaterThan if true test is for >=, otherwise <=
      * @return the scan count of all nodes satisfying the Ava
      * @throws Exception if there is an error accessing an index
      */
-    @SuppressWarnings("unchecked")
-    private <V> long getGreaterLessScan( PartitionTxn partitionTxn, SimpleNode<V> node, boolean isGreaterThan ) throws LdapException, IndexNotFoundException
+    private <V> long getGreaterLessScan( SimpleNode<V> node, boolean isGreaterThan ) throws LdapException, IndexNotFoundException
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<V, String> idx = ( Index<V, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndex( node.getAttributeType() ).getStatistics();
 
             if ( isGreaterThan )
             {
-                return idx.greaterThanCount( partitionTxn, ( V ) node.getValue().getString() );
+                return nonZero( statistics.estimateGreaterOrEqual( node.getValue().getString() ) );
             }
             else
             {
-                return idx.lessThanCount( partitionTxn, ( V ) node.getValue().getString() );
+                return nonZero( statistics.estimateLessOrEqual( node.getValue().getString() ) );
             }
         }
 
@@ -402,31 +560,35 @@ public class DefaultOptimizer implements Optimizer
 
 
     /**
-     * Get a scan count based on a Substring node : we will count the entries that are greater
-     * than ABC where the filter is (attr=ABC*). Any other filter won't be evaluated (for instance,
-     * a filter like (attr=*ABC) will resolve to a full scan atm - we could have created a reverted
-     * index for such a case -, and filters like (attr=*ABC*) also esolve to a full scan).
+     * Get an estimated scan count based on a Substring node : we will count the entries 
+     * that start with ABC where the filter is (attr=ABC*). Any other filter won't be 
+     * evaluated (for instance, a filter like (attr=*ABC) will resolve to a full index
+     * scan atm - we could have created a reverted index for such a case -, and filters
+     * like (attr=*ABC*) also resolve to a full index scan).
      * 
      * @param node The substring node
      * @return The number of candidates
      * @throws Exception If there is an error accessing an index
      */
-    private long getSubstringScan( PartitionTxn partitionTxn, SubstringNode node ) throws LdapException, IndexNotFoundException
+    private long getSubstringScan( SubstringNode node ) throws LdapException, IndexNotFoundException
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<String, String> idx = ( Index<String, String> ) db.getIndex( node.getAttributeType() );
+            IndexStatistics statistics = db.getIndex( node.getAttributeType() ).getStatistics();
 
             String initial = node.getInitial();
+            MatchingRule equality = node.getAttributeType().getEquality();
 
-            if ( Strings.isEmpty( initial ) )
+            if ( Strings.isEmpty( initial ) || ( equality == null ) )
             {
                 // Not a (attr=ABC*) filter : full index scan
-                return idx.count( partitionTxn );
+                return nonZero( statistics.getCount() );
             }
             else
             {
-                return idx.greaterThanCount( partitionTxn, initial );
+                String prefix = equality.getNormalizer().normalize( initial, PrepareString.AssertionType.SUBSTRING_INITIAL );
+
+                return nonZero( statistics.estimatePrefix( prefix ) );
             }
         }
         else
@@ -446,12 +608,13 @@ public class DefaultOptimizer implements Optimizer
      * @return the worst case full scan count
      * @throws Exception if there is an error access database indices
      */
-    private long getFullScan( PartitionTxn partitionTxn, LeafNode node ) throws LdapException, IndexNotFoundException
+    private long getFullScan( LeafNode node ) throws LdapException, IndexNotFoundException
     {
         if ( db.hasIndexOn( node.getAttributeType() ) )
         {
-            Index<?, ?> idx = db.getIndex( node.getAttributeType() );
-            return idx.count( partitionTxn );
+            IndexStatistics statistics = db.getIndex( node.getAttributeType() ).getStatistics();
+
+            return nonZero( statistics.getCount() );
         }
 
         return Long.MAX_VALUE;
@@ -460,7 +623,7 @@ public class DefaultOptimizer implements Optimizer
 
     /**
      * Gets the number of entries that would be returned by a presence node
-     * assertion.  Leverages the presence system index for scan counts.
+     * assertion.  Leverages the presence system index statistics for scan counts.
      *
      * @param node the presence node
      * @return the number of entries matched for the presence of an attribute
@@ -471,9 +634,9 @@ public class DefaultOptimizer implements Optimizer
         if ( db.hasUserIndexOn( node.getAttributeType() )
              || node.getAttributeType().getOid().equals( SchemaConstants.ADMINISTRATIVE_ROLE_AT_OID ) )
         {
-            Index<String, String> presenceIndex = db.getPresenceIndex();
+            IndexStatistics statistics = db.getPresenceIndex().getStatistics();
 
-            return presenceIndex.count( partitionTxn, node.getAttributeType().getOid() );
+            return nonZero( statistics.estimateEquality( node.getAttributeType().getOid() ) );
         }
         else if ( db.hasSystemIndexOn( node.getAttributeType() )
             || ( node.getAttributeType().getOid() == SchemaConstants.ENTRY_UUID_AT_OID ) )
@@ -42,6 +42,8 @@ import org.apache.directory.server.core.api.partition.Partition;
 import org.apache.directory.server.core.api.partition.PartitionTxn;
 import org.apache.directory.server.core.partition.impl.btree.IndexCursorAdaptor;
 import org.apache.directory.server.i18n.I18n;
+import org.apache.directory.server.xdbm.EntryIdCursor;
+import org.apache.directory.server.xdbm.EntryIdMap;
 import org.apache.directory.server.xdbm.IndexEntry;
 import org.apache.directory.server.xdbm.Store;
 import org.apache.directory.server.xdbm.search.Evaluator;
@@ -245,25 +247,39 @@ public class DefaultSearchEngine implements SearchEngine
         optimizer.annotate( partitionTxn, root );
         Evaluator<? extends ExprNode> evaluator = evaluatorBuilder.build( partitionTxn, root );
 
-        Set<String> uuidSet = new HashSet<>();
         searchResult.setAliasDerefMode( aliasDerefMode );
-        searchResult.setCandidateSet( uuidSet );
 
-        long nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
+        // The identifiers of the candidates can't be reused until the cursor is closed
+        EntryIdMap entryIdMap = db.getEntryIdMap();
+        long reader = entryIdMap.openReader();
+        long nbResults;
+
+        try
+        {
+            nbResults = cursorBuilder.build( partitionTxn, root, searchResult );
+        }
+        catch ( LdapException | RuntimeException e )
+        {
+            entryIdMap.closeReader( reader );
+
+            throw e;
+        }
 
         LOG.debug( "Nb results : {} for filter : {}", nbResults, root );
 
         if ( nbResults < Long.MAX_VALUE )
         {
-            for ( String uuid : uuidSet )
-            {
-                IndexEntry<String, String> indexEntry = new IndexEntry<>();
-                indexEntry.setId( uuid );
-                resultSet.add( indexEntry );
-            }
+            // The UUIDs will be materialized when the candidates are fetched
+            searchResult.setEvaluator( evaluator );
+            searchResult.setResultSet( new EntryIdCursor( partitionTxn, searchResult.getCandidateIds(),
+                entryIdMap, reader ) );
+
+            return searchResult;
         }
         else
         {
+            entryIdMap.closeReader( reader );
+
             // Full scan : use the MasterTable
             Cursor<IndexEntry<String, String>> cursor = new IndexCursorAdaptor( partitionTxn, db.getMasterTable().cursor(), true );
 
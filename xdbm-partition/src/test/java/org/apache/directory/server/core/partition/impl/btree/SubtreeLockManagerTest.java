@@ -0,0 +1,144 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.core.partition.impl.btree;
+
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.core.partition.impl.btree.SubtreeLockManager.SubtreeLock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link SubtreeLockManager} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class SubtreeLockManagerTest
+{
+    private SubtreeLockManager lockManager;
+    private ExecutorService executor;
+    private Dn parent;
+    private Dn child1;
+    private Dn child2;
+
+
+    @Before
+    public void setup() throws Exception
+    {
+        lockManager = new SubtreeLockManager( 1 << 16 );
+        executor = Executors.newSingleThreadExecutor();
+        parent = new Dn( "ou=people,dc=example,dc=com" );
+        child1 = new Dn( "uid=user1,ou=people,dc=example,dc=com" );
+        child2 = new Dn( "uid=user2,ou=people,dc=example,dc=com" );
+    }
+
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+
+    /**
+     * Tries to lock an entry from another thread
+     *
+     * @return true if the lock has been acquired and released within the delay
+     */
+    private boolean lockEntryInOtherThread( Dn dn, Future<?>[] holder ) throws Exception
+    {
+        holder[0] = executor.submit( () -> lockManager.lockEntry( dn ).close() );
+
+        try
+        {
+            holder[0].get( 200, TimeUnit.MILLISECONDS );
+
+            return true;
+        }
+        catch ( TimeoutException te )
+        {
+            return false;
+        }
+    }
+
+
+    @Test
+    public void testModifyIndependentEntries() throws Exception
+    {
+        Future<?>[] holder = new Future<?>[1];
+
+        try ( SubtreeLock lock = lockManager.lockEntry( child1 ) )
+        {
+            assertTrue( lockEntryInOtherThread( child2, holder ) );
+        }
+
+        // Modifying an entry does not block the modifications of its children
+        try ( SubtreeLock lock = lockManager.lockEntry( parent ) )
+        {
+            assertTrue( lockEntryInOtherThread( child1, holder ) );
+        }
+    }
+
+
+    @Test
+    public void testModifySameEntry() throws Exception
+    {
+        Future<?>[] holder = new Future<?>[1];
+
+        try ( SubtreeLock lock = lockManager.lockEntry( child1 ) )
+        {
+            assertFalse( lockEntryInOtherThread( child1, holder ) );
+        }
+
+        holder[0].get( 1, TimeUnit.SECONDS );
+    }
+
+
+    @Test
+    public void testRenameBlocksSubtree() throws Exception
+    {
+        Future<?>[] holder = new Future<?>[1];
+        Dn newParent = new Dn( "ou=users,dc=example,dc=com" );
+
+        try ( SubtreeLock lock = lockManager.lockSubtrees( parent, newParent ) )
+        {
+            assertFalse( lockEntryInOtherThread( child1, holder ) );
+        }
+
+        holder[0].get( 1, TimeUnit.SECONDS );
+
+        // An entry outside of the renamed subtree is not blocked
+        try ( SubtreeLock lock = lockManager.lockSubtrees( child1 ) )
+        {
+            assertTrue( lockEntryInOtherThread( child2, holder ) );
+        }
+    }
+}
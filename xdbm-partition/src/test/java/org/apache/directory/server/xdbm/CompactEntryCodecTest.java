@@ -0,0 +1,284 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.model.schema.AttributeType;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * Tests the {@link CompactEntryCodec} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class CompactEntryCodecTest
+{
+    private static SchemaManager schemaManager = null;
+
+    private AttributeTypeDictionary dictionary;
+
+    private CompactEntryCodec codec;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createCodec()
+    {
+        dictionary = new AttributeTypeDictionary();
+        codec = new CompactEntryCodec( schemaManager, dictionary );
+    }
+
+
+    private Entry createEntry() throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=test,ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test",
+            "cn: Test2",
+            "sn: sn_test",
+            "userPassword: secret",
+            "description: a description" );
+    }
+
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        Entry entry = createEntry();
+
+        byte[] bytes = codec.encode( entry );
+
+        assertTrue( CompactEntryCodec.isCompact( bytes, 0 ) );
+
+        Entry decoded = codec.decode( bytes, 0, bytes.length );
+
+        assertEquals( new Dn( schemaManager, "cn=test" ), decoded.getDn() );
+        assertEquals( entry.size(), decoded.size() );
+        assertTrue( CompactEntryCodec.isCompact( decoded ) );
+
+        for ( Attribute attribute : entry )
+        {
+            assertEquals( attribute, decoded.get( attribute.getAttributeType() ) );
+        }
+
+        assertArrayEquals( entry.get( "userPassword" ).getBytes(), decoded.get( "userPassword" ).getBytes() );
+    }
+
+
+    @Test
+    public void testEmptyEntry() throws Exception
+    {
+        Entry entry = new DefaultEntry( schemaManager );
+
+        byte[] bytes = codec.encode( entry );
+        Entry decoded = codec.decode( bytes, 0, bytes.length );
+
+        assertTrue( decoded.getDn().isEmpty() );
+        assertEquals( 0, decoded.size() );
+    }
+
+
+    @Test
+    public void testDecodeAtOffset() throws Exception
+    {
+        byte[] bytes = codec.encode( createEntry() );
+        byte[] buffer = new byte[bytes.length + 20];
+        System.arraycopy( bytes, 0, buffer, 10, bytes.length );
+
+        Entry decoded = codec.decode( buffer, 10, bytes.length );
+
+        assertTrue( decoded.contains( "cn", "test", "Test2" ) );
+        assertTrue( decoded.contains( "description", "a description" ) );
+    }
+
+
+    @Test
+    public void testLazyDecoding() throws Exception
+    {
+        byte[] bytes = codec.encode( createEntry() );
+        Entry decoded = codec.decode( bytes, 0, bytes.length );
+        AttributeType snAT = schemaManager.getAttributeType( "sn" );
+
+        LazyAttribute sn = ( LazyAttribute ) decoded.get( snAT );
+
+        assertFalse( sn.isDecoded() );
+
+        // Filtering on the AttributeTypes and cloning does not decode
+        assertTrue( sn.isInstanceOf( schemaManager.getAttributeType( "name" ) ) );
+        decoded.removeAttributes( schemaManager.getAttributeType( "description" ) );
+        Entry clone = decoded.clone();
+
+        assertFalse( sn.isDecoded() );
+        assertFalse( ( ( LazyAttribute ) clone.get( snAT ) ).isDecoded() );
+
+        assertEquals( "sn_test", sn.getString() );
+        assertTrue( sn.isDecoded() );
+        assertFalse( ( ( LazyAttribute ) clone.get( snAT ) ).isDecoded() );
+    }
+
+
+    @Test
+    public void testReencode() throws Exception
+    {
+        byte[] bytes = codec.encode( createEntry() );
+        Entry decoded = codec.decode( bytes, 0, bytes.length );
+
+        // Nothing has been decoded, the bytes are copied
+        assertArrayEquals( bytes, codec.encode( decoded ) );
+
+        // Modify a decoded attribute
+        decoded.get( "cn" ).add( "test3" );
+        decoded.add( "givenName", "John" );
+
+        bytes = codec.encode( decoded );
+        Entry reDecoded = codec.decode( bytes, 0, bytes.length );
+
+        assertTrue( reDecoded.contains( "cn", "test", "Test2", "test3" ) );
+        assertTrue( reDecoded.contains( "givenName", "John" ) );
+        assertTrue( reDecoded.contains( "sn", "sn_test" ) );
+    }
+
+
+    @Test
+    public void testLegacyFormat() throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( ObjectOutputStream out = new ObjectOutputStream( baos ) )
+        {
+            out.writeByte( 0 );
+        }
+
+        assertFalse( CompactEntryCodec.isCompact( baos.toByteArray(), 0 ) );
+        assertFalse( CompactEntryCodec.isCompact( createEntry() ) );
+    }
+
+
+    @Test
+    public void testDictionaryPersistence() throws Exception
+    {
+        File file = new File( folder.getRoot(), "master" + AttributeTypeDictionary.DICTIONARY_FILE_EXTN );
+        AttributeTypeDictionary persisted = new AttributeTypeDictionary( file );
+        AttributeType cn = schemaManager.getAttributeType( "cn" );
+        AttributeType sn = schemaManager.getAttributeType( "sn" );
+
+        assertEquals( 0, persisted.getId( cn ) );
+        assertEquals( 1, persisted.getId( sn ) );
+        assertEquals( 0, persisted.getId( cn ) );
+
+        byte[] bytes = new CompactEntryCodec( schemaManager, persisted ).encode( createEntry() );
+        int size = persisted.size();
+
+        // Reload the dictionary
+        AttributeTypeDictionary reloaded = new AttributeTypeDictionary( file );
+
+        assertEquals( size, reloaded.size() );
+        assertEquals( cn.getOid(), reloaded.getOid( 0 ) );
+        assertEquals( sn.getOid(), reloaded.getOid( 1 ) );
+        assertNull( reloaded.getOid( size ) );
+
+        Entry decoded = new CompactEntryCodec( schemaManager, reloaded ).decode( bytes, 0, bytes.length );
+
+        assertTrue( decoded.contains( "sn", "sn_test" ) );
+    }
+
+
+    @Test
+    public void testDictionaryTruncation() throws Exception
+    {
+        File file = new File( folder.getRoot(), "master" + AttributeTypeDictionary.DICTIONARY_FILE_EXTN );
+        AttributeTypeDictionary persisted = new AttributeTypeDictionary( file );
+        persisted.getId( schemaManager.getAttributeType( "cn" ) );
+        long length = file.length();
+
+        // Simulate a crash while writing an OID
+        try ( FileOutputStream out = new FileOutputStream( file, true ) )
+        {
+            out.write( new byte[]
+                { 0, 8, '2', '.', '5' } );
+        }
+
+        AttributeTypeDictionary reloaded = new AttributeTypeDictionary( file );
+
+        assertEquals( 1, reloaded.size() );
+        assertEquals( length, file.length() );
+        assertEquals( 1, reloaded.getId( schemaManager.getAttributeType( "sn" ) ) );
+        assertEquals( 2, new AttributeTypeDictionary( file ).size() );
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link EntryIdBitmap} and {@link EntryIdMap} classes.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryIdBitmapTest
+{
+    private static EntryIdBitmap fill( BitSet expected, int count, int bound, long seed )
+    {
+        Random random = new Random( seed );
+        EntryIdBitmap bitmap = new EntryIdBitmap();
+
+        for ( int i = 0; i < count; i++ )
+        {
+            int id = random.nextInt( bound );
+            assertEquals( !expected.get( id ), bitmap.add( id ) );
+            expected.set( id );
+        }
+
+        return bitmap;
+    }
+
+
+    private static int[] toArray( BitSet bitSet )
+    {
+        return bitSet.stream().toArray();
+    }
+
+
+    @Test
+    public void testAddContains()
+    {
+        EntryIdBitmap bitmap = new EntryIdBitmap();
+        assertTrue( bitmap.isEmpty() );
+
+        assertTrue( bitmap.add( 3 ) );
+        assertTrue( bitmap.add( 70000 ) );
+        assertTrue( bitmap.add( 1 ) );
+        assertFalse( bitmap.add( 3 ) );
+
+        assertTrue( bitmap.contains( 1 ) );
+        assertTrue( bitmap.contains( 3 ) );
+        assertTrue( bitmap.contains( 70000 ) );
+        assertFalse( bitmap.contains( 2 ) );
+        assertFalse( bitmap.contains( 70001 ) );
+        assertEquals( 3L, bitmap.getCardinality() );
+        assertArrayEquals( new int[]
+            { 1, 3, 70000 }, bitmap.toArray() );
+    }
+
+
+    @Test
+    public void testDenseChunk()
+    {
+        // More than 4096 values in a chunk switch to a bitmap
+        BitSet expected = new BitSet();
+        EntryIdBitmap bitmap = fill( expected, 20000, 65536, 1L );
+
+        assertEquals( expected.cardinality(), bitmap.getCardinality() );
+        assertArrayEquals( toArray( expected ), bitmap.toArray() );
+    }
+
+
+    @Test
+    public void testAndOrAndNot()
+    {
+        for ( int bound : new int[] { 10000, 300000 } )
+        {
+            BitSet expected1 = new BitSet();
+            BitSet expected2 = new BitSet();
+
+            EntryIdBitmap and = fill( expected1, 50000, bound, 2L );
+            EntryIdBitmap other = fill( expected2, 3000, bound, 3L );
+            EntryIdBitmap or = fill( new BitSet(), 50000, bound, 2L );
+            EntryIdBitmap andNot = fill( new BitSet(), 50000, bound, 2L );
+
+            and.and( other );
+            or.or( other );
+            andNot.andNot( other );
+
+            BitSet expectedAnd = ( BitSet ) expected1.clone();
+            expectedAnd.and( expected2 );
+            BitSet expectedOr = ( BitSet ) expected1.clone();
+            expectedOr.or( expected2 );
+            BitSet expectedAndNot = ( BitSet ) expected1.clone();
+            expectedAndNot.andNot( expected2 );
+
+            assertArrayEquals( toArray( expectedAnd ), and.toArray() );
+            assertArrayEquals( toArray( expectedOr ), or.toArray() );
+            assertArrayEquals( toArray( expectedAndNot ), andNot.toArray() );
+
+            // The operand must not have been modified
+            assertArrayEquals( toArray( expected2 ), other.toArray() );
+        }
+    }
+
+
+    @Test
+    public void testEntryIdMap()
+    {
+        EntryIdMap map = new EntryIdMap();
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            assertEquals( i, map.getOrAssign( "uuid-" + i ) );
+        }
+
+        assertEquals( 42, map.getOrAssign( "uuid-42" ) );
+        assertEquals( "uuid-4999", map.getUuid( 4999 ) );
+        assertEquals( -1, map.getId( "unknown" ) );
+
+        map.release( "uuid-42" );
+        assertNull( map.getUuid( 42 ) );
+        assertEquals( -1, map.getId( "uuid-42" ) );
+
+        // Released identifiers are reused, oldest first
+        map.release( "uuid-7" );
+        assertEquals( 42, map.getOrAssign( "uuid-42" ) );
+        assertEquals( 7, map.getOrAssign( "new-uuid" ) );
+        assertEquals( "new-uuid", map.getUuid( 7 ) );
+        assertEquals( 5000, map.getOrAssign( "uuid-7" ) );
+        assertEquals( 5001, map.size() );
+    }
+
+
+    @Test
+    public void testEntryIdMapDeleteHeavy()
+    {
+        EntryIdMap map = new EntryIdMap();
+
+        // Adding and deleting entries must not make the identifiers grow
+        for ( int i = 0; i < 100000; i++ )
+        {
+            String uuid = "uuid-" + i;
+            assertTrue( map.getOrAssign( uuid ) < 10 );
+
+            if ( i >= 9 )
+            {
+                map.release( "uuid-" + ( i - 9 ) );
+            }
+        }
+
+        assertEquals( 9, map.size() );
+    }
+
+
+    @Test
+    public void testEntryIdMapReaders()
+    {
+        EntryIdMap map = new EntryIdMap();
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            map.getOrAssign( "uuid-" + i );
+        }
+
+        // An identifier released before a reader is opened can be reused
+        map.release( "uuid-1" );
+        long reader1 = map.openReader();
+        assertEquals( 1, map.getOrAssign( "new-uuid-1" ) );
+
+        // An identifier released while a reader is open is not reused until it's closed
+        map.release( "uuid-2" );
+        long reader2 = map.openReader();
+        assertEquals( 10, map.getOrAssign( "new-uuid-2" ) );
+
+        map.closeReader( reader2 );
+        assertEquals( 11, map.getOrAssign( "new-uuid-3" ) );
+
+        map.closeReader( reader1 );
+        assertEquals( 2, map.getOrAssign( "new-uuid-4" ) );
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link IndexStatistics} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class IndexStatisticsTest
+{
+    @Test
+    public void testExactCounts()
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            statistics.added( "value" + ( i % 10 ) );
+        }
+
+        statistics.dropped( "value0" );
+        statistics.added( null );
+
+        assertEquals( 99L, statistics.getCount() );
+        assertEquals( 10L, statistics.getDistinctCount() );
+        assertEquals( 9L, statistics.estimateEquality( "value0" ) );
+        assertEquals( 10L, statistics.estimateEquality( "value1" ) );
+        assertEquals( 0L, statistics.estimateEquality( "unknown" ) );
+    }
+
+
+    @Test
+    public void testEstimates()
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        // Many distinct values : the exact counts are dropped
+        for ( int i = 0; i < 20000; i++ )
+        {
+            statistics.added( Integer.toString( 100000 + i ).substring( 1 ) );
+        }
+
+        long distinct = statistics.getDistinctCount();
+        assertTrue( distinct > 18000L && distinct < 22000L );
+        assertTrue( statistics.estimateEquality( "00042" ) <= 2L );
+
+        long greater = statistics.estimateGreaterOrEqual( "15000" );
+        assertTrue( greater > 2500L && greater < 7500L );
+
+        long lesser = statistics.estimateLessOrEqual( "15000" );
+        assertTrue( lesser > 12500L && lesser < 17500L );
+
+        long prefix = statistics.estimatePrefix( "1" );
+        assertTrue( prefix > 7500L && prefix < 12500L );
+
+        // Nothing sampled, but the estimate must not be 0
+        assertTrue( statistics.estimatePrefix( "zz" ) > 0L );
+    }
+
+
+    @Test
+    public void testWriteRead() throws Exception
+    {
+        IndexStatistics statistics = new IndexStatistics();
+
+        for ( int i = 0; i < 5000; i++ )
+        {
+            statistics.added( "value" + ( i % 2000 ) );
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try ( DataOutputStream out = new DataOutputStream( baos ) )
+        {
+            statistics.write( out );
+        }
+
+        IndexStatistics read = new IndexStatistics();
+
+        try ( DataInputStream in = new DataInputStream( new ByteArrayInputStream( baos.toByteArray() ) ) )
+        {
+            read.read( in );
+        }
+
+        assertEquals( statistics.getCount(), read.getCount() );
+        assertEquals( statistics.getDistinctCount(), read.getDistinctCount() );
+        assertEquals( statistics.estimateEquality( "value1" ), read.estimateEquality( "value1" ) );
+        assertEquals( statistics.estimatePrefix( "value1" ), read.estimatePrefix( "value1" ) );
+
+        IndexStatistics copy = new IndexStatistics();
+        copy.copy( read );
+        assertEquals( statistics.getDistinctCount(), copy.getDistinctCount() );
+    }
+}
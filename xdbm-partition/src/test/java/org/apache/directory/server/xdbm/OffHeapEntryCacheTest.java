@@ -0,0 +1,204 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.schema.SchemaManager;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.xdbm.impl.avl.AvlPartitionTest;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the {@link OffHeapEntryCache} class.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class OffHeapEntryCacheTest
+{
+    private static SchemaManager schemaManager = null;
+
+    private CompactEntryCodec codec;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = AvlPartitionTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createCodec()
+    {
+        codec = new CompactEntryCodec( schemaManager, new AttributeTypeDictionary() );
+    }
+
+
+    private Entry createEntry( int i ) throws Exception
+    {
+        return new DefaultEntry( schemaManager, "cn=test" + i + ",ou=system",
+            "objectClass: top",
+            "objectClass: person",
+            "cn: test" + i,
+            "sn: sn_test" + i,
+            "description: a description" );
+    }
+
+
+    @Test
+    public void testPutGet() throws Exception
+    {
+        OffHeapEntryCache cache = new OffHeapEntryCache( codec, 1024L * 1024L );
+
+        assertNull( cache.get( "1" ) );
+        assertEquals( 1L, cache.getMissCount() );
+
+        cache.put( "1", createEntry( 1 ) );
+        Entry entry = cache.get( "1" );
+
+        assertNotNull( entry );
+        assertEquals( "cn=test1", entry.getDn().getName() );
+        assertEquals( "sn_test1", entry.get( "sn" ).getString() );
+        assertEquals( 1, cache.size() );
+        assertEquals( 1L, cache.getHitCount() );
+        assertEquals( 1L, cache.getPutCount() );
+        assertTrue( cache.getUsedBytes() > 0L );
+
+        // Replace the entry
+        Entry modified = createEntry( 1 );
+        modified.put( "sn", "modified" );
+        cache.put( "1", modified );
+
+        assertEquals( "modified", cache.get( "1" ).get( "sn" ).getString() );
+        assertEquals( 1, cache.size() );
+        assertEquals( codec.encode( modified ).length, cache.getUsedBytes() );
+
+        cache.invalidate( "1" );
+
+        assertNull( cache.get( "1" ) );
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedBytes() );
+    }
+
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        int entrySize = codec.encode( createEntry( 1000 ) ).length;
+
+        // 4 slabs of about 10 entries
+        OffHeapEntryCache cache = new OffHeapEntryCache( codec, 40L * entrySize, 10 * entrySize );
+
+        for ( int i = 1000; i < 1100; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i ) );
+        }
+
+        assertTrue( cache.getUsedBytes() <= cache.getCapacity() );
+        assertTrue( cache.size() <= 40 );
+        assertTrue( cache.size() > 20 );
+        assertEquals( 100L, cache.getEvictionCount() + cache.size() );
+
+        // The oldest entries have been evicted, not the last ones
+        assertNull( cache.get( "1000" ) );
+        assertNotNull( cache.get( "1099" ) );
+
+        cache.clear();
+
+        assertEquals( 0, cache.size() );
+        assertEquals( 0L, cache.getUsedBytes() );
+        assertNull( cache.get( "1099" ) );
+    }
+
+
+    @Test
+    public void testSecondChance() throws Exception
+    {
+        int entrySize = codec.encode( createEntry( 1000 ) ).length;
+        OffHeapEntryCache cache = new OffHeapEntryCache( codec, 40L * entrySize, 10 * entrySize );
+
+        // Fill the cache, then read the oldest entry before its slab is evicted
+        for ( int i = 1000; i < 1040; i++ )
+        {
+            cache.put( Integer.toString( i ), createEntry( i ) );
+        }
+
+        for ( int i = 1040; i < 1080; i++ )
+        {
+            assertNotNull( cache.get( "1000" ) );
+            cache.put( Integer.toString( i ), createEntry( i ) );
+        }
+
+        assertNotNull( cache.get( "1000" ) );
+        assertNull( cache.get( "1001" ) );
+    }
+
+
+    @Test
+    public void testRejected() throws Exception
+    {
+        int entrySize = codec.encode( createEntry( 1000 ) ).length;
+        OffHeapEntryCache cache = new OffHeapEntryCache( codec, 4L * entrySize, entrySize - 1 );
+
+        cache.put( "1000", createEntry( 1000 ) );
+
+        assertNull( cache.get( "1000" ) );
+        assertEquals( 1L, cache.getRejectedCount() );
+        assertEquals( 0L, cache.getPutCount() );
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.apache.directory.server.xdbm.search.impl;
+
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.directory.api.ldap.model.constants.SchemaConstants;
+import org.apache.directory.api.ldap.model.cursor.Cursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.filter.FilterParser;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.ldap.schema.extractor.SchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.extractor.impl.DefaultSchemaLdifExtractor;
+import org.apache.directory.api.ldap.schema.loader.LdifSchemaLoader;
+import org.apache.directory.api.ldap.schema.manager.impl.DefaultSchemaManager;
+import org.apache.directory.api.util.FileUtils;
+import org.apache.directory.api.util.exception.Exceptions;
+import org.apache.directory.server.core.api.LdapPrincipal;
+import org.apache.directory.server.core.api.MockCoreSession;
+import org.apache.directory.server.core.api.MockDirectoryService;
+import org.apache.directory.server.core.api.partition.Partition;
+import org.apache.directory.server.core.api.partition.PartitionTxn;
+import org.apache.directory.server.core.partition.impl.avl.AvlPartition;
+import org.apache.directory.server.core.partition.impl.btree.AbstractBTreePartition;
+import org.apache.directory.server.xdbm.MockPartitionReadTxn;
+import org.apache.directory.server.xdbm.StoreUtils;
+import org.apache.directory.server.xdbm.impl.avl.AvlIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests that the entries fetched ahead by the search cursor are the ones which are
+ * fetched one by one.
+ *
+ * @author <a href="mailto:dev@directory.apache.org">Apache Directory Project</a>
+ */
+public class EntryPrefetchTest extends AbstractCursorTest
+{
+    File wkdir;
+
+
+    @BeforeClass
+    public static void setup() throws Exception
+    {
+        String workingDirectory = System.getProperty( "workingDirectory" );
+
+        if ( workingDirectory == null )
+        {
+            String path = EntryPrefetchTest.class.getResource( "" ).getPath();
+            int targetPos = path.indexOf( "target" );
+            workingDirectory = path.substring( 0, targetPos + 6 );
+        }
+
+        File schemaRepository = new File( workingDirectory, "schema" );
+        SchemaLdifExtractor extractor = new DefaultSchemaLdifExtractor( new File( workingDirectory ) );
+        extractor.extractOrCopy( true );
+        LdifSchemaLoader loader = new LdifSchemaLoader( schemaRepository );
+        schemaManager = new DefaultSchemaManager( loader );
+
+        boolean loaded = schemaManager.loadAllEnabled();
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+
+        loaded = schemaManager.loadWithDeps( loader.getSchema( "collective" ) );
+
+        if ( !loaded )
+        {
+            fail( "Schema load failed : " + Exceptions.printErrors( schemaManager.getErrors() ) );
+        }
+    }
+
+
+    @Before
+    public void createStore() throws Exception
+    {
+        directoryService = new MockDirectoryService();
+
+        // setup the working directory for the store
+        wkdir = File.createTempFile( getClass().getSimpleName(), "db" );
+        wkdir.delete();
+        wkdir = new File( wkdir.getParentFile(), getClass().getSimpleName() );
+        wkdir.mkdirs();
+
+        StoreUtils.createdExtraAttributes( schemaManager );
+
+        // initialize the store
+        store = new AvlPartition( schemaManager, directoryService.getDnFactory() );
+        ( ( Partition ) store ).setId( "example" );
+        store.setCacheSize( 10 );
+        store.setPartitionPath( wkdir.toURI() );
+        store.setSyncOnWrite( false );
+
+        store.addIndex( new AvlIndex<String>( SchemaConstants.OU_AT_OID ) );
+        store.addIndex( new AvlIndex<String>( SchemaConstants.CN_AT_OID ) );
+        ( ( Partition ) store ).setSuffixDn( new Dn( schemaManager, "o=Good Times Co." ) );
+        ( ( Partition ) store ).initialize();
+
+        StoreUtils.loadExampleData( store, schemaManager );
+
+        evaluatorBuilder = new EvaluatorBuilder( store, schemaManager );
+        cursorBuilder = new CursorBuilder( store, evaluatorBuilder );
+        directoryService.setSchemaManager( schemaManager );
+        session = new MockCoreSession( new LdapPrincipal(), directoryService );
+    }
+
+
+    @After
+    public void destroyStore() throws Exception
+    {
+        if ( store != null )
+        {
+            ( ( Partition ) store ).destroy( null );
+        }
+
+        store = null;
+
+        if ( wkdir != null )
+        {
+            FileUtils.deleteDirectory( wkdir );
+        }
+
+        wkdir = null;
+    }
+
+
+    /**
+     * Reads all the entries returned by a filter, using a given prefetch configuration
+     */
+    private List<String> search( String filter, int prefetchSize, boolean ordered ) throws Exception
+    {
+        ( ( AbstractBTreePartition ) store ).setPrefetchSize( prefetchSize );
+        ( ( AbstractBTreePartition ) store ).setPrefetchOrdered( ordered );
+
+        PartitionTxn txn = new MockPartitionReadTxn();
+        List<String> dns = new ArrayList<>();
+
+        try ( Cursor<Entry> cursor = buildCursor( txn, FilterParser.parse( schemaManager, filter ) ) )
+        {
+            cursor.beforeFirst();
+
+            while ( cursor.next() )
+            {
+                assertTrue( cursor.available() );
+                dns.add( cursor.get().getDn().getNormName() );
+            }
+
+            assertFalse( cursor.available() );
+        }
+
+        return dns;
+    }
+
+
+    @Test
+    public void testPrefetch() throws Exception
+    {
+        String[] filters =
+            {
+                "(objectClass=person)",
+                "(ou=*)",
+                "(|(cn=J*)(sn=W*))",
+                "(&(objectClass=person)(ou=Sales))",
+                "(cn=nobody)"
+            };
+
+        for ( String filter : filters )
+        {
+            List<String> expected = search( filter, 0, true );
+
+            // The entries are fetched ahead from the third one
+            assertEquals( filter, expected, search( filter, 2, true ) );
+            assertEquals( filter, expected, search( filter, 1, true ) );
+
+            // The entries are returned as soon as they are fetched
+            assertEquals( filter, new HashSet<>( expected ), new HashSet<>( search( filter, 2, false ) ) );
+            assertEquals( filter, expected.size(), search( filter, 2, false ).size() );
+        }
+    }
+
+
+    @Test
+    public void testRewindWhilePrefetching() throws Exception
+    {
+        List<String> expected = search( "(|(cn=J*)(sn=W*))", 0, true );
+
+        assertTrue( expected.size() > 4 );
+        ( ( AbstractBTreePartition ) store ).setPrefetchSize( 2 );
+        PartitionTxn txn = new MockPartitionReadTxn();
+
+        try ( Cursor<Entry> cursor = buildCursor( txn, FilterParser.parse( schemaManager, "(|(cn=J*)(sn=W*))" ) ) )
+        {
+            cursor.beforeFirst();
+
+            for ( int i = 0; i < 4; i++ )
+            {
+                assertTrue( cursor.next() );
+            }
+
+            // Positioning the cursor again stops the prefetch
+            cursor.beforeFirst();
+            List<String> dns = new ArrayList<>();
+
+            while ( cursor.next() )
+            {
+                dns.add( cursor.get().getDn().getNormName() );
+            }
+
+            assertEquals( expected, dns );
+        }
+    }
+
+
+    @Test
+    public void testPreviousWhilePrefetching() throws Exception
+    {
+        List<String> expected = search( "(|(cn=J*)(sn=W*))", 0, true );
+
+        assertTrue( expected.size() > 4 );
+        ( ( AbstractBTreePartition ) store ).setPrefetchSize( 2 );
+        ( ( AbstractBTreePartition ) store ).setPrefetchOrdered( true );
+        PartitionTxn txn = new MockPartitionReadTxn();
+
+        try ( Cursor<Entry> cursor = buildCursor( txn, FilterParser.parse( schemaManager, "(|(cn=J*)(sn=W*))" ) ) )
+        {
+            cursor.beforeFirst();
+
+            for ( int i = 0; i < 4; i++ )
+            {
+                assertTrue( cursor.next() );
+            }
+
+            assertEquals( expected.get( 3 ), cursor.get().getDn().getNormName() );
+
+            // Moving backward stops the prefetch
+            assertTrue( cursor.previous() );
+            assertEquals( expected.get( 2 ), cursor.get().getDn().getNormName() );
+            assertTrue( cursor.previous() );
+            assertEquals( expected.get( 1 ), cursor.get().getDn().getNormName() );
+
+            // And the entries are fetched ahead again when moving forward
+            List<String> dns = new ArrayList<>();
+
+            while ( cursor.next() )
+            {
+                dns.add( cursor.get().getDn().getNormName() );
+            }
+
+            assertEquals( expected.subList( 2, expected.size() ), dns );
+
+            // After the last entry
+            assertTrue( cursor.previous() );
+            assertEquals( expected.get( expected.size() - 1 ), cursor.get().getDn().getNormName() );
+        }
+    }
+}